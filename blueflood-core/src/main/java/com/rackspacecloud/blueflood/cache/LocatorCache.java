@@ -5,6 +5,7 @@ import com.codahale.metrics.MetricRegistry;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.types.Locator;
@@ -37,6 +38,10 @@ public class LocatorCache {
     // written per slot. Simply, if a locator has been seen for a slot, don't bother.
     private final Cache<String, Boolean> insertedDelayedLocators;
 
+    // this collection is used to reduce the number of active locators that get
+    // written per slot. Simply, if a locator has been seen for a slot, don't bother.
+    private final Cache<String, Boolean> insertedActiveLocators;
+
     private final static LocatorCache instance = new LocatorCache(
             Configuration.getInstance().getIntegerProperty(CoreConfig.LOCATOR_CACHE_TTL_MINUTES),
             TimeUnit.MINUTES,
@@ -51,6 +56,9 @@ public class LocatorCache {
 
         Metrics.getRegistry().register(MetricRegistry.name(LocatorCache.class, "Current Delayed Locators Count"),
                 (Gauge<Long>) instance::getCurrentDelayedLocatorCount);
+
+        Metrics.getRegistry().register(MetricRegistry.name(LocatorCache.class, "Current Active Locators Count"),
+                (Gauge<Long>) instance::getCurrentActiveLocatorCount);
     }
 
     public static LocatorCache getInstance() {
@@ -84,6 +92,16 @@ public class LocatorCache {
                         .expireAfterAccess(delayedEntryTtl, delayedEntryTtlTimeUnit)
                         .concurrencyLevel(concurrency)
                         .build();
+
+        // An active locator entry is only useful while its slot is current, so it expires once a slot's worth of
+        // time has passed since it was written.
+        Granularity activeLocatorsGranularity = Granularity.getRollupGranularity(
+                Configuration.getInstance().getStringProperty(CoreConfig.ACTIVE_LOCATORS_STORAGE_GRANULARITY));
+        insertedActiveLocators =
+                CacheBuilder.newBuilder()
+                        .expireAfterWrite(activeLocatorsGranularity.milliseconds(), TimeUnit.MILLISECONDS)
+                        .concurrencyLevel(concurrency)
+                        .build();
     }
 
     @VisibleForTesting
@@ -100,6 +118,10 @@ public class LocatorCache {
         return insertedDelayedLocators.size();
     }
 
+    public long getCurrentActiveLocatorCount() {
+        return insertedActiveLocators.size();
+    }
+
     /**
      * Checks if Locator is recently inserted in the batch layer
      */
@@ -130,6 +152,13 @@ public class LocatorCache {
         return insertedDelayedLocators.getIfPresent(getLocatorSlotKey(slot, locator)) != null;
     }
 
+    /**
+     * Check if the active locator is recently inserted for a given slot
+     */
+    public boolean isActiveLocatorForASlotCurrent(int slot, Locator locator) {
+        return insertedActiveLocators.getIfPresent(getLocatorSlotKey(slot, locator)) != null;
+    }
+
     private String getLocatorSlotKey(int slot, Locator locator) {
         return slot + "," + locator.toString();
     }
@@ -164,10 +193,18 @@ public class LocatorCache {
         insertedDelayedLocators.put(getLocatorSlotKey(slot, locator), Boolean.TRUE);
     }
 
+    /**
+     * Marks the active locator as recently inserted for a given slot
+     */
+    public void setActiveLocatorForASlotCurrent(int slot, Locator locator) {
+        insertedActiveLocators.put(getLocatorSlotKey(slot, locator), Boolean.TRUE);
+    }
+
     @VisibleForTesting
     public void resetCache() {
         insertedLocators.invalidateAll();
         insertedDelayedLocators.invalidateAll();
+        insertedActiveLocators.invalidateAll();
     }
 
     @VisibleForTesting
@@ -21,6 +21,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheStats;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Table;
 import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
 import com.rackspacecloud.blueflood.exceptions.CacheException;
@@ -110,6 +111,7 @@ public class MetadataCache extends AbstractJmxCache implements MetadataCacheMBea
     private static final Histogram totalMetadataSize = Metrics.histogram(MetadataCache.class, "Metadata row size");
     private static final Timer cacheGetTimer = Metrics.timer(MetadataCache.class, "Metadata get timer");
     private static final Timer cachePutTimer = Metrics.timer(MetadataCache.class, "Metadata put timer");
+    private static final Timer cacheGetAllTimer = Metrics.timer(MetadataCache.class, "Metadata get all timer");
     private final Gauge cacheSizeGauge = new Gauge<Long>() {
         @Override
         public Long getValue() {
@@ -301,6 +303,55 @@ public class MetadataCache extends AbstractJmxCache implements MetadataCacheMBea
         }
     }
 
+    /**
+     * Gets the value of a key for many locators at once. The locators that are not cached are read
+     * from the database META_CACHE_BATCHED_READS_THRESHOLD rows at a time, and all of their metadata
+     * is cached.
+     *
+     * @param locators
+     * @param key
+     * @return the value of the key for each locator, null if the locator does not have that key
+     * @throws CacheException
+     */
+    public Map<Locator, String> getAll(Collection<Locator> locators, String key) throws CacheException {
+        Timer.Context cacheGetAllTimerContext = cacheGetAllTimer.time();
+        try {
+            Map<Locator, String> values = new HashMap<Locator, String>();
+            List<Locator> missing = new ArrayList<Locator>();
+            for (Locator locator : locators) {
+                String value = cache.getIfPresent(new CacheKey(locator, key));
+                if (value == null) {
+                    missing.add(locator);
+                } else {
+                    values.put(locator, value.equals(NULL) ? null : value);
+                }
+            }
+
+            for (List<Locator> batch : Iterables.partition(missing, batchedReadsThreshold)) {
+                Table<Locator, String, String> metaTable = io.getAllValues(new HashSet<Locator>(batch));
+                for (Locator locator : batch) {
+                    Map<String, String> metadata = metaTable.row(locator);
+                    for (Map.Entry<String, String> meta : metadata.entrySet()) {
+                        if (meta.getValue() != null) {
+                            cache.put(new CacheKey(locator, meta.getKey()), meta.getValue());
+                        }
+                    }
+
+                    String value = metadata.get(key);
+                    if (value == null) {
+                        cache.put(new CacheKey(locator, key), NULL);
+                    }
+                    values.put(locator, value);
+                }
+            }
+            return values;
+        } catch (IOException ex) {
+            throw new CacheException(ex);
+        } finally {
+            cacheGetAllTimerContext.stop();
+        }
+    }
+
     public <T> T get(Locator locator, String key, Class<T> type) throws CacheException {
         try {
             String val = get(locator, key);
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.cache;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.types.BaseRollup;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.utils.Clock;
+import com.rackspacecloud.blueflood.utils.DefaultClockImpl;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import com.rackspacecloud.blueflood.utils.Util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class caches the points read for queries, so that dashboards refreshing the same series only read the
+ * recent tail of their range from Cassandra.
+ *
+ * The points of a locator and granularity are cached in chunks of {@link #SLOTS_PER_CHUNK} slots, aligned on the
+ * granularity. A chunk is only cached once it ended more than the minimum age ago, when its slots are expected to
+ * have been rolled up. It is dropped when one of its slots is rolled up again or receives delayed points on this
+ * node, see {@link #invalidate(int, Granularity, long)}, and in any case when its TTL expires.
+ */
+public class QueryResultCache {
+
+    public static final int SLOTS_PER_CHUNK = 12;
+
+    private static final Meter hits = Metrics.meter(QueryResultCache.class, "Chunk Hits");
+    private static final Meter misses = Metrics.meter(QueryResultCache.class, "Chunk Misses");
+    private static final Meter invalidations = Metrics.meter(QueryResultCache.class, "Invalidations");
+
+    private final static QueryResultCache instance = new QueryResultCache(
+            Configuration.getInstance().getLongProperty(CoreConfig.QUERY_RESULT_CACHE_MAX_POINTS),
+            Configuration.getInstance().getLongProperty(CoreConfig.QUERY_RESULT_CACHE_MAX_INVALIDATIONS),
+            Configuration.getInstance().getLongProperty(CoreConfig.QUERY_RESULT_CACHE_MIN_AGE_MS),
+            Configuration.getInstance().getIntegerProperty(CoreConfig.QUERY_RESULT_CACHE_TTL_MINUTES),
+            TimeUnit.MINUTES,
+            new DefaultClockImpl());
+
+    static {
+        Metrics.getRegistry().register(MetricRegistry.name(QueryResultCache.class, "Cached Chunks Count"),
+                (Gauge<Long>) instance::getCachedChunkCount);
+    }
+
+    /**
+     * Reads the points of locators for a range, for the chunks that are not cached.
+     */
+    public interface RangeReader {
+        Map<Locator, MetricData> read(List<Locator> locators, Range range);
+    }
+
+    private final Cache<ChunkKey, Chunk> chunks;
+    // the last time chunks of a shard, granularity and chunk start were invalidated, kept as long as chunks, or
+    // until they are evicted, which drops the chunks they were meant for
+    private final Cache<ChunkKey, Long> invalidatedAt;
+    private final long minAgeMillis;
+    private final Clock clock;
+
+    public static QueryResultCache getInstance() {
+        return instance;
+    }
+
+    protected QueryResultCache(long maxPoints, long maxInvalidations, long minAgeMillis, long entryTtl,
+                               TimeUnit entryTtlTimeUnit, Clock clock) {
+        this.chunks = CacheBuilder.newBuilder()
+                .maximumWeight(maxPoints)
+                .weigher(new Weigher<ChunkKey, Chunk>() {
+                    @Override
+                    public int weigh(ChunkKey key, Chunk chunk) {
+                        return chunk.points.size() + 1;
+                    }
+                })
+                .expireAfterWrite(entryTtl, entryTtlTimeUnit)
+                .build();
+        this.invalidatedAt = CacheBuilder.newBuilder()
+                .maximumSize(maxInvalidations)
+                .expireAfterWrite(entryTtl, entryTtlTimeUnit)
+                .removalListener(new RemovalListener<ChunkKey, Long>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<ChunkKey, Long> notification) {
+                        // chunks may still be cached that this invalidation was meant for
+                        if (notification.getCause() == RemovalCause.SIZE) {
+                            invalidateChunks(notification.getKey());
+                        }
+                    }
+                })
+                .build();
+        this.minAgeMillis = minAgeMillis;
+        this.clock = clock;
+    }
+
+    @VisibleForTesting
+    public static QueryResultCache getInstance(long maxPoints, long maxInvalidations, long minAgeMillis,
+                                               long entryTtl, TimeUnit entryTtlTimeUnit, Clock clock) {
+        return new QueryResultCache(maxPoints, maxInvalidations, minAgeMillis, entryTtl, entryTtlTimeUnit, clock);
+    }
+
+    public long getCachedChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * @return the span of a chunk of the specified granularity
+     */
+    public static long getChunkMillis(Granularity granularity) {
+        return (long) granularity.milliseconds() * SLOTS_PER_CHUNK;
+    }
+
+    /**
+     * Returns the points of locators for a range, reading the chunks that are not cached, and the part of the range
+     * that is too recent to be cached, with the specified reader.
+     *
+     * @param locators
+     * @param range
+     * @param granularity
+     * @param stats the stats of the rollups read, cached chunks are only used for the same stats
+     * @param reader
+     * @return the points of the locators, like the reader returns them for the whole range
+     */
+    public Map<Locator, MetricData> getDatapointsForRange(List<Locator> locators, Range range,
+                                                          Granularity granularity, Set<BaseRollup.Stat> stats,
+                                                          RangeReader reader) {
+        long chunkMillis = getChunkMillis(granularity);
+        long firstChunk = snap(range.getStart(), chunkMillis);
+        long cachedEnd = Math.min(snap(clock.now().getMillis() - minAgeMillis, chunkMillis),
+                snap(range.getStop(), chunkMillis) + chunkMillis);
+        if (cachedEnd == range.getStop()) {
+            // leave a tail to read the last point from, ranges cannot be empty
+            cachedEnd -= chunkMillis;
+        }
+        if (firstChunk >= cachedEnd) {
+            return reader.read(locators, range);
+        }
+        // full resolution points do not depend on the stats read
+        Set<BaseRollup.Stat> keyStats = granularity == Granularity.FULL ? BaseRollup.Stat.ALL : stats;
+
+        // the chunks of each locator, and the span of chunks each locator is missing
+        Map<Locator, List<Chunk>> found = new HashMap<Locator, List<Chunk>>();
+        Map<Range, List<Locator>> missing = new HashMap<Range, List<Locator>>();
+        for (Locator locator : locators) {
+            List<Chunk> locatorChunks = new ArrayList<Chunk>();
+            long missingStart = -1;
+            long missingEnd = -1;
+            for (long chunkStart = firstChunk; chunkStart < cachedEnd; chunkStart += chunkMillis) {
+                Chunk chunk = getChunk(new ChunkKey(locator, granularity, keyStats, chunkStart));
+                if (chunk != null) {
+                    hits.mark();
+                    locatorChunks.add(chunk);
+                } else {
+                    misses.mark();
+                    if (missingStart < 0) {
+                        missingStart = chunkStart;
+                    }
+                    missingEnd = chunkStart + chunkMillis;
+                }
+            }
+            found.put(locator, locatorChunks);
+            if (missingStart >= 0) {
+                Range span = new Range(missingStart, missingEnd - 1);
+                List<Locator> spanLocators = missing.get(span);
+                if (spanLocators == null) {
+                    spanLocators = new ArrayList<Locator>();
+                    missing.put(span, spanLocators);
+                }
+                spanLocators.add(locator);
+            }
+        }
+
+        // read the missing chunks, locators missing the same span at once
+        Map<Locator, String> units = new HashMap<Locator, String>();
+        for (Map.Entry<Range, List<Locator>> entry : missing.entrySet()) {
+            Range span = entry.getKey();
+            long readAt = clock.now().getMillis();
+            Map<Locator, MetricData> read = reader.read(entry.getValue(), span);
+            for (Locator locator : entry.getValue()) {
+                MetricData data = read.get(locator);
+                if (data == null) {
+                    // the reader could not read this locator, nor will the result have it
+                    found.remove(locator);
+                    continue;
+                }
+                units.put(locator, data.getUnit());
+                for (long chunkStart = span.getStart(); chunkStart < span.getStop(); chunkStart += chunkMillis) {
+                    Chunk chunk = new Chunk(pointsBetween(data.getData(), chunkStart, chunkStart + chunkMillis - 1),
+                            data.getUnit(), readAt);
+                    ChunkKey key = new ChunkKey(locator, granularity, keyStats, chunkStart);
+                    if (!isInvalidated(key, readAt)) {
+                        chunks.put(key, chunk);
+                    }
+                    found.get(locator).add(chunk);
+                }
+            }
+        }
+
+        // read the part of the range that is too recent to be cached
+        Map<Locator, MetricData> tail = Collections.emptyMap();
+        if (range.getStop() > cachedEnd) {
+            tail = reader.read(locators, new Range(cachedEnd, range.getStop()));
+        }
+
+        Map<Locator, MetricData> result = new HashMap<Locator, MetricData>();
+        for (Locator locator : locators) {
+            List<Chunk> locatorChunks = found.get(locator);
+            MetricData tailData = tail.get(locator);
+            if (locatorChunks == null || (locatorChunks.isEmpty() && tailData == null)) {
+                continue;
+            }
+            Points points = new Points();
+            String unit = units.get(locator);
+            for (Chunk chunk : locatorChunks) {
+                for (Points.Point point : chunk.points) {
+                    if (range.getStart() <= point.getTimestamp() && point.getTimestamp() <= range.getStop()) {
+                        points.add(point);
+                    }
+                }
+                if (unit == null) {
+                    unit = chunk.unit;
+                }
+            }
+            if (tailData != null) {
+                for (Object point : tailData.getData().getPoints().values()) {
+                    points.add((Points.Point) point);
+                }
+                unit = tailData.getUnit();
+            }
+            result.put(locator, new MetricData(points, unit));
+        }
+        return result;
+    }
+
+    /**
+     * Drops the cached chunks of all the locators of a shard covering a point in time, for a granularity. Called
+     * when a slot is rolled up, and for full resolution, when delayed points are ingested.
+     *
+     * @param shard
+     * @param granularity
+     * @param millis a time in the slot that changed
+     */
+    public void invalidate(int shard, Granularity granularity, long millis) {
+        long now = clock.now().getMillis();
+        // chunks this recent were never cached
+        if (millis >= now - minAgeMillis) {
+            return;
+        }
+        invalidations.mark();
+        invalidatedAt.put(new ChunkKey(shard, granularity, snap(millis, getChunkMillis(granularity))), now);
+    }
+
+    @VisibleForTesting
+    public void resetCache() {
+        chunks.invalidateAll();
+        invalidatedAt.invalidateAll();
+    }
+
+    private Chunk getChunk(ChunkKey key) {
+        Chunk chunk = chunks.getIfPresent(key);
+        if (chunk != null && isInvalidated(key, chunk.readAt)) {
+            chunks.invalidate(key);
+            return null;
+        }
+        return chunk;
+    }
+
+    /**
+     * @return true if the chunks of the shard of a key were invalidated since the specified time
+     */
+    private boolean isInvalidated(ChunkKey key, long sinceMillis) {
+        Long invalidated = invalidatedAt.getIfPresent(
+                new ChunkKey(Util.getShard(key.locator.toString()), key.granularity, key.timestamp));
+        return invalidated != null && invalidated >= sinceMillis;
+    }
+
+    /**
+     * Drops the cached chunks of the locators of the shard, granularity and chunk start of an invalidation.
+     */
+    private void invalidateChunks(ChunkKey invalidation) {
+        Iterator<ChunkKey> it = chunks.asMap().keySet().iterator();
+        while (it.hasNext()) {
+            ChunkKey key = it.next();
+            if (key.timestamp == invalidation.timestamp && key.granularity == invalidation.granularity
+                    && Util.getShard(key.locator.toString()) == invalidation.shard) {
+                it.remove();
+            }
+        }
+    }
+
+    private static List<Points.Point> pointsBetween(Points points, long start, long stop) {
+        List<Points.Point> between = new ArrayList<Points.Point>();
+        for (Object point : points.getPoints().values()) {
+            long timestamp = ((Points.Point) point).getTimestamp();
+            if (start <= timestamp && timestamp <= stop) {
+                between.add((Points.Point) point);
+            }
+        }
+        return between;
+    }
+
+    private static long snap(long millis, long chunkMillis) {
+        return millis - (millis % chunkMillis);
+    }
+
+    private static final class Chunk {
+        private final List<Points.Point> points;
+        private final String unit;
+        private final long readAt;
+
+        Chunk(List<Points.Point> points, String unit, long readAt) {
+            this.points = points;
+            this.unit = unit;
+            this.readAt = readAt;
+        }
+    }
+
+    /**
+     * Identifies a chunk of a locator by its start time, read for some stats. The invalidations of a shard use the
+     * same key, with the shard instead of a locator.
+     */
+    private static final class ChunkKey {
+        private final Locator locator;
+        private final int shard;
+        private final Granularity granularity;
+        private final Set<BaseRollup.Stat> stats;
+        private final long timestamp;
+
+        ChunkKey(Locator locator, Granularity granularity, Set<BaseRollup.Stat> stats, long timestamp) {
+            this.locator = locator;
+            this.shard = -1;
+            this.granularity = granularity;
+            this.stats = stats;
+            this.timestamp = timestamp;
+        }
+
+        ChunkKey(int shard, Granularity granularity, long timestamp) {
+            this.locator = null;
+            this.shard = shard;
+            this.granularity = granularity;
+            this.stats = null;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            ChunkKey other = (ChunkKey) o;
+            return timestamp == other.timestamp
+                    && shard == other.shard
+                    && (locator == null ? other.locator == null : locator.equals(other.locator))
+                    && granularity.equals(other.granularity)
+                    && (stats == null ? other.stats == null : stats.equals(other.stats));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = locator == null ? shard : locator.hashCode();
+            result = 31 * result + granularity.hashCode();
+            result = 31 * result + (stats == null ? 0 : stats.hashCode());
+            result = 31 * result + (int) (timestamp ^ (timestamp >>> 32));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.cache;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.rackspacecloud.blueflood.exceptions.GranularityException;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.types.Rollup;
+import com.rackspacecloud.blueflood.utils.Metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps recently computed rollups in memory, grouped by the slot of the next coarser
+ * granularity they belong to. When all the children of a coarser slot have been rolled up on this
+ * node, the rollup of that coarser slot can be computed from memory instead of reading the finer
+ * rollups back from Cassandra.
+ *
+ * Children that were rolled up but had no points are recorded too, so that sparse series still
+ * complete their coarser slot. Whenever a coarser slot is incomplete, because some children were
+ * rolled up elsewhere or were evicted, callers must fall back to reading from Cassandra.
+ */
+public class RollupCascadeBuffer {
+
+    // marks a child slot that was rolled up but had no points
+    private static final Object NO_POINTS = new Object();
+
+    private final Cache<ParentKey, ConcurrentMap<Long, Object>> children;
+
+    private static final Meter hits = Metrics.meter(RollupCascadeBuffer.class, "Hits");
+    private static final Meter misses = Metrics.meter(RollupCascadeBuffer.class, "Misses");
+
+    private final static RollupCascadeBuffer instance = new RollupCascadeBuffer(
+            Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_CASCADE_BUFFER_MAX_SIZE),
+            Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_CASCADE_BUFFER_TTL_MINUTES),
+            TimeUnit.MINUTES);
+
+    static {
+        Metrics.getRegistry().register(MetricRegistry.name(RollupCascadeBuffer.class, "Buffered Slots Count"),
+                (Gauge<Long>) instance::getBufferedSlotCount);
+    }
+
+    public static RollupCascadeBuffer getInstance() {
+        return instance;
+    }
+
+    protected RollupCascadeBuffer(long maxSize, long entryTtl, TimeUnit entryTtlTimeUnit) {
+        // the ttl is measured from when the first child of a coarser slot is buffered, so it must
+        // cover the span of the coarsest slot plus the rollup delays.
+        children = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(entryTtl, entryTtlTimeUnit)
+                .build();
+    }
+
+    @VisibleForTesting
+    public static RollupCascadeBuffer getInstance(long maxSize, long entryTtl, TimeUnit entryTtlTimeUnit) {
+        return new RollupCascadeBuffer(maxSize, entryTtl, entryTtlTimeUnit);
+    }
+
+    public long getBufferedSlotCount() {
+        return children.size();
+    }
+
+    /**
+     * Buffers the rollup computed for a locator at the specified granularity and timestamp.
+     *
+     * @param locator
+     * @param granularity the granularity of the rollup
+     * @param timestamp the start of the slot that was rolled up
+     * @param rollup
+     */
+    public void put(Locator locator, Granularity granularity, long timestamp, Rollup rollup) {
+        putChild(locator, granularity, timestamp, rollup);
+    }
+
+    /**
+     * Records that the slot of the specified granularity and timestamp was rolled up for a locator,
+     * but did not have any points.
+     *
+     * @param locator
+     * @param granularity the granularity of the rollup
+     * @param timestamp the start of the slot that was rolled up
+     */
+    public void putNoPoints(Locator locator, Granularity granularity, long timestamp) {
+        putChild(locator, granularity, timestamp, NO_POINTS);
+    }
+
+    /**
+     * Returns the buffered child rollups of a locator for the specified range of the coarser
+     * granularity, if all of its children have been buffered.
+     *
+     * @param locator
+     * @param srcGranularity the granularity of the children
+     * @param range the range of the coarser slot
+     * @return the child rollups as {@link com.rackspacecloud.blueflood.types.Points}, which may be
+     * empty if none of the children had points, or null if any child is missing
+     */
+    public Points<Rollup> getChildren(Locator locator, Granularity srcGranularity, Range range) {
+        Granularity parentGranularity;
+        try {
+            parentGranularity = srcGranularity.coarser();
+        } catch (GranularityException e) {
+            return null;
+        }
+
+        Map<Long, Object> buffered = children.getIfPresent(new ParentKey(locator, parentGranularity, range.getStart()));
+        int expected = parentGranularity.milliseconds() / srcGranularity.milliseconds();
+        if (buffered == null || buffered.size() < expected) {
+            misses.mark();
+            return null;
+        }
+
+        Points<Rollup> points = new Points<Rollup>();
+        for (Map.Entry<Long, Object> entry : buffered.entrySet()) {
+            if (entry.getValue() != NO_POINTS && range.getStart() <= entry.getKey() && entry.getKey() <= range.getStop()) {
+                points.add(new Points.Point<Rollup>(entry.getKey(), (Rollup) entry.getValue()));
+            }
+        }
+        hits.mark();
+        return points;
+    }
+
+    @VisibleForTesting
+    public void resetCache() {
+        children.invalidateAll();
+    }
+
+    private void putChild(Locator locator, Granularity granularity, long timestamp, Object value) {
+        Granularity parentGranularity;
+        try {
+            parentGranularity = granularity.coarser();
+        } catch (GranularityException e) {
+            return; // nothing is ever rolled up from the coarsest granularity.
+        }
+
+        ParentKey key = new ParentKey(locator, parentGranularity, parentGranularity.snapMillis(timestamp));
+        try {
+            children.get(key, ConcurrentHashMap::new).put(timestamp, value);
+        } catch (ExecutionException e) {
+            // cannot happen, creating the map does not throw.
+        }
+    }
+
+    /**
+     * Identifies a slot of a coarser granularity for a locator by its start time, rather than by
+     * slot number, because slot numbers wrap around.
+     */
+    private static final class ParentKey {
+        private final Locator locator;
+        private final Granularity granularity;
+        private final long timestamp;
+
+        ParentKey(Locator locator, Granularity granularity, long timestamp) {
+            this.locator = locator;
+            this.granularity = granularity;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            ParentKey other = (ParentKey) o;
+            return timestamp == other.timestamp
+                    && locator.equals(other.locator)
+                    && granularity.equals(other.granularity);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = locator.hashCode();
+            result = 31 * result + granularity.hashCode();
+            result = 31 * result + (int) (timestamp ^ (timestamp >>> 32));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.concurrent;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A single work-stealing pool that runs the tasks of several subsystems, instead of each of them having a thread
+ * pool of its own, so that a busy node does not run many more threads than it has cores.
+ *
+ * Each subsystem gets an ExecutorService view of the shared pool, with a priority class and a concurrency limit,
+ * which is the size of the thread pool it replaces. Tasks wait in the queue of their view until a thread of the
+ * shared pool is free; the free thread then runs the oldest task of the highest priority view that is below its
+ * concurrency limit. Views of the same priority class take turns.
+ *
+ * Tasks submitted to a view from a thread of the shared pool are queued like any other task. A task that waits on
+ * the tasks it submitted must wait through {@link #await(Future, long, TimeUnit)}, which gives its thread and its
+ * place in the concurrency limit of its view to other tasks while it waits, so that waiting tasks can never starve
+ * the pool.
+ */
+public class SharedExecutor {
+    private static final Logger log = LoggerFactory.getLogger(SharedExecutor.class);
+
+    /**
+     * The priority classes of the views, from highest to lowest priority.
+     */
+    public enum PriorityClass {
+        INGEST, QUERY, ROLLUP, REPAIR
+    }
+
+    private static SharedExecutor instance;
+
+    // the view of the task the current thread runs, if it is a thread of a shared pool
+    private static final ThreadLocal<View> currentView = new ThreadLocal<View>();
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    // the views, in priority order; guarded by this
+    private final List<View> views = new ArrayList<View>();
+    // the number of tasks handed to the pool and not completed yet; guarded by this
+    private int running = 0;
+
+    private static final Meter blockedWaits = Metrics.meter(SharedExecutor.class, "Blocked Waits");
+
+    /**
+     * @return whether subsystems should use views of the shared executor instead of thread pools of their own
+     */
+    public static boolean isEnabled() {
+        return Configuration.getInstance().getBooleanProperty(CoreConfig.ENABLE_SHARED_EXECUTOR);
+    }
+
+    public static synchronized SharedExecutor getInstance() {
+        if (instance == null) {
+            int threads = Configuration.getInstance().getIntegerProperty(CoreConfig.SHARED_EXECUTOR_THREADS);
+            if (threads <= 0) {
+                threads = 4 * Runtime.getRuntime().availableProcessors();
+            }
+            instance = new SharedExecutor(threads);
+            MetricRegistry registry = Metrics.getRegistry();
+            registry.register(MetricRegistry.name(SharedExecutor.class, "Running Tasks"),
+                    (Gauge<Integer>) instance::getRunningTasks);
+            registry.register(MetricRegistry.name(SharedExecutor.class, "Active Threads"),
+                    (Gauge<Integer>) instance.pool::getActiveThreadCount);
+            registry.register(MetricRegistry.name(SharedExecutor.class, "Steal Count"),
+                    (Gauge<Long>) instance.pool::getStealCount);
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    public SharedExecutor(int parallelism) {
+        this.parallelism = parallelism;
+        this.pool = new ForkJoinPool(parallelism,
+                new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    @Override
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("SharedExecutor-" + thread.getPoolIndex());
+                        return thread;
+                    }
+                },
+                new Thread.UncaughtExceptionHandler() {
+                    public void uncaughtException(Thread t, Throwable e) {
+                        log.error(e.getMessage(), e);
+                    }
+                },
+                true);
+    }
+
+    /**
+     * Creates a view of the shared pool. The view is instrumented with the same metrics as a thread pool built by
+     * the ThreadPoolBuilder.
+     *
+     * @param name a unique name for the view, used for its metric names
+     * @param priorityClass
+     * @param maxConcurrency the maximum number of tasks of the view to run at once
+     */
+    public AbstractExecutorService newView(String name, PriorityClass priorityClass, int maxConcurrency) {
+        final View view = new View(priorityClass, Math.max(1, maxConcurrency));
+        synchronized (this) {
+            int index = 0;
+            while (index < views.size() && views.get(index).priorityClass.compareTo(priorityClass) <= 0) {
+                index++;
+            }
+            views.add(index, view);
+        }
+
+        MetricRegistry registry = Metrics.getRegistry();
+        registry.register(InstrumentedThreadPoolExecutor.name(name, "queue-size"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                synchronized (SharedExecutor.this) {
+                    return view.queue.size();
+                }
+            }
+        });
+        registry.register(InstrumentedThreadPoolExecutor.name(name, "threadpool-active"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                synchronized (SharedExecutor.this) {
+                    return view.active;
+                }
+            }
+        });
+        registry.register(InstrumentedThreadPoolExecutor.name(name, "threadpool-max"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return view.maxConcurrency;
+            }
+        });
+        return view;
+    }
+
+    public synchronized int getRunningTasks() {
+        return running;
+    }
+
+    /**
+     * Waits for a future, like {@link Future#get(long, TimeUnit)}. When called from a task of a view, the task gives
+     * up its thread and its place in the concurrency limit of its view while it waits, so that the tasks it waits
+     * on can run, and the pool adds a spare thread if needed. It takes them back once the wait is over, even if
+     * that briefly runs more tasks than the limits allow.
+     */
+    public static <T> T await(Future<T> future, long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        View view = currentView.get();
+        if (view == null || future.isDone()) {
+            return future.get(timeout, unit);
+        }
+
+        blockedWaits.mark();
+        SharedExecutor executor = view.getExecutor();
+        executor.pause(view);
+        try {
+            ForkJoinPool.managedBlock(new FutureBlocker(future, System.nanoTime() + unit.toNanos(timeout)));
+        } finally {
+            executor.resume(view);
+        }
+        if (!future.isDone()) {
+            throw new TimeoutException();
+        }
+        return future.get();
+    }
+
+    /**
+     * Hands queued tasks to the pool, highest priority first, while the pool has free threads.
+     */
+    private void dispatch() {
+        // guarded by this
+        while (running < parallelism) {
+            int index = 0;
+            while (index < views.size() && !views.get(index).canRun()) {
+                index++;
+            }
+            if (index == views.size()) {
+                return;
+            }
+
+            final View view = views.get(index);
+            final Runnable task = view.queue.poll();
+            view.active++;
+            running++;
+
+            // move the view behind the other views of its priority class, so they take turns
+            int last = index;
+            while (last + 1 < views.size() && views.get(last + 1).priorityClass == view.priorityClass) {
+                last++;
+            }
+            views.remove(index);
+            views.add(last, view);
+
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    currentView.set(view);
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        log.error(t.getMessage(), t);
+                    } finally {
+                        currentView.remove();
+                        release(view);
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized void release(View view) {
+        view.active--;
+        running--;
+        notifyAll();
+        dispatch();
+    }
+
+    private synchronized void pause(View view) {
+        view.waiting++;
+        release(view);
+    }
+
+    private synchronized void resume(View view) {
+        view.waiting--;
+        view.active++;
+        running++;
+    }
+
+    /**
+     * Blocks until a future is done or a deadline has passed.
+     */
+    private static class FutureBlocker implements ForkJoinPool.ManagedBlocker {
+        private final Future<?> future;
+        private final long deadlineNanos;
+
+        private FutureBlocker(Future<?> future, long deadlineNanos) {
+            this.future = future;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining > 0) {
+                try {
+                    future.get(remaining, TimeUnit.NANOSECONDS);
+                } catch (ExecutionException e) {
+                    // reported by await
+                } catch (TimeoutException e) {
+                    // reported by await
+                } catch (CancellationException e) {
+                    // reported by await
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return future.isDone() || deadlineNanos - System.nanoTime() <= 0;
+        }
+    }
+
+    private class View extends AbstractExecutorService {
+        private final PriorityClass priorityClass;
+        private final int maxConcurrency;
+        // guarded by SharedExecutor.this
+        private final Queue<Runnable> queue = new ArrayDeque<Runnable>();
+        private int active = 0;
+        // the tasks that gave up their place to wait in await
+        private int waiting = 0;
+        private boolean shutdown = false;
+
+        private View(PriorityClass priorityClass, int maxConcurrency) {
+            this.priorityClass = priorityClass;
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        private boolean canRun() {
+            return !queue.isEmpty() && active < maxConcurrency;
+        }
+
+        private SharedExecutor getExecutor() {
+            return SharedExecutor.this;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            synchronized (SharedExecutor.this) {
+                if (shutdown) {
+                    throw new RejectedExecutionException("Executor has been shut down");
+                }
+                queue.add(command);
+                dispatch();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            synchronized (SharedExecutor.this) {
+                shutdown = true;
+                SharedExecutor.this.notifyAll();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            synchronized (SharedExecutor.this) {
+                shutdown = true;
+                List<Runnable> pending = new ArrayList<Runnable>(queue);
+                queue.clear();
+                SharedExecutor.this.notifyAll();
+                return pending;
+            }
+        }
+
+        @Override
+        public boolean isShutdown() {
+            synchronized (SharedExecutor.this) {
+                return shutdown;
+            }
+        }
+
+        @Override
+        public boolean isTerminated() {
+            synchronized (SharedExecutor.this) {
+                return shutdown && active == 0 && waiting == 0 && queue.isEmpty();
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (SharedExecutor.this) {
+                while (!isTerminated()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(SharedExecutor.this, remaining);
+                }
+                return true;
+            }
+        }
+    }
+}
@@ -43,6 +43,7 @@ public class ThreadPoolBuilder {
 
     private String threadNameFormat = null;
     private String poolName = null;
+    private SharedExecutor.PriorityClass priorityClass = null;
 
     public ThreadPoolBuilder() {
         withName(DEFAULT_NAME);
@@ -107,6 +108,25 @@ public class ThreadPoolBuilder {
         return this;
     }
 
+    /**
+     * Set the priority class of the pool, when it is built as a view of the shared executor.
+     */
+    public ThreadPoolBuilder withPriorityClass(SharedExecutor.PriorityClass priorityClass) {
+        this.priorityClass = priorityClass;
+        return this;
+    }
+
+    /**
+     * Builds a view of the shared executor, running up to the maximum pool size tasks at once, if the shared
+     * executor is enabled and a priority class was set. Builds a thread pool otherwise.
+     */
+    public ExecutorService buildExecutorService() {
+        if (priorityClass != null && SharedExecutor.isEnabled()) {
+            return SharedExecutor.getInstance().newView(poolName, priorityClass, maxPoolSize);
+        }
+        return build();
+    }
+
     public ThreadPoolExecutor build() {
         BlockingQueue<Runnable> workQueue;
         switch (this.queueSize) {
@@ -16,19 +16,25 @@
 
 package com.rackspacecloud.blueflood.eventemitter;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Function;
-import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rackspacecloud.blueflood.cache.MetadataCache;
 import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
 import com.rackspacecloud.blueflood.io.DiscoveryIO;
+import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.utils.Metrics;
 import com.rackspacecloud.blueflood.utils.ModuleLoader;
 import com.rackspacecloud.blueflood.utils.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 
 /**
@@ -63,7 +69,30 @@ public class RollupEventEmitter extends Emitter<RollupEvent> {
     private static final int numberOfWorkers = 5;
     public static final String ROLLUP_EVENT_NAME = "rollup".intern();
     private final ExecutorService eventExecutors;
-    private static final RollupEventEmitter instance = new RollupEventEmitter();
+    /** Events waiting for the consumer threads, null unless the emitter uses a ring buffer. */
+    private final BlockingQueue<PendingEvent> ringBuffer;
+    private final int batchSize;
+    private static final Meter overflowedEvents = Metrics.meter(RollupEventEmitter.class, "Overflowed Events");
+    private static final Meter droppedEvents = Metrics.meter(RollupEventEmitter.class, "Dropped Events");
+    private static final RollupEventEmitter instance = createInstance();
+
+
+    static {
+        if (instance.ringBuffer != null) {
+            Metrics.getRegistry().register(MetricRegistry.name(RollupEventEmitter.class, "Buffered Events"),
+                    (Gauge<Integer>) instance.ringBuffer::size);
+        }
+    }
+
+    private static RollupEventEmitter createInstance() {
+        Configuration config = Configuration.getInstance();
+        if (config.getBooleanProperty(CoreConfig.ENABLE_ROLLUP_EVENT_RING_BUFFER)) {
+            return new RollupEventEmitter(config.getIntegerProperty(CoreConfig.ROLLUP_EVENT_BUFFER_SIZE),
+                    config.getIntegerProperty(CoreConfig.ROLLUP_EVENT_CONSUMER_THREADS),
+                    config.getIntegerProperty(CoreConfig.ROLLUP_EVENT_BATCH_SIZE));
+        }
+        return new RollupEventEmitter();
+    }
 
     public RollupEventEmitter() {
         this(new ThreadPoolBuilder()
@@ -76,40 +105,121 @@ public class RollupEventEmitter extends Emitter<RollupEvent> {
     @VisibleForTesting
     public RollupEventEmitter(ExecutorService executor) {
         eventExecutors = executor;
+        ringBuffer = null;
+        batchSize = 1;
+    }
+
+    /**
+     * Creates an emitter that never blocks the emitting thread: events are put in a bounded ring buffer, and
+     * delivered to the listeners by consumer threads, a batch at a time. Events emitted while the ring buffer is
+     * full are dropped.
+     *
+     * @param capacity the number of events the ring buffer holds
+     * @param consumers the number of consumer threads
+     * @param batchSize the maximum number of events a consumer takes from the ring buffer at once
+     */
+    public RollupEventEmitter(int capacity, int consumers, int batchSize) {
+        this.eventExecutors = null;
+        this.ringBuffer = new ArrayBlockingQueue<PendingEvent>(capacity);
+        this.batchSize = Math.max(1, batchSize);
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("RollupEventEmitter Consumer %d")
+                .setDaemon(true)
+                .build();
+        for (int i = 0; i < consumers; i++) {
+            threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    consume();
+                }
+            }).start();
+        }
     }
 
     public static RollupEventEmitter getInstance() { return instance; }
 
+    /**
+     * Emits the event to the listeners, from another thread. The unit of an event is looked up, on that thread,
+     * if the event has none.
+     *
+     * @return a future of the delivery of the event, or null if the event was not delivered or if the emitter
+     * uses a ring buffer
+     */
     @Override
     public Future emit(final String event, final RollupEvent... eventPayload) {
         //TODO: This hack will go away after Kafka Serializer is made generic
         Future emitFuture = null;
         if(eventPayload[0].getRollup() instanceof BasicRollup && super.hasListeners(ROLLUP_EVENT_NAME)) {
+            if (ringBuffer != null) {
+                if (!ringBuffer.offer(new PendingEvent(event, eventPayload))) {
+                    overflowedEvents.mark();
+                }
+                return null;
+            }
             emitFuture = eventExecutors.submit(new Callable() {
                 @Override
                 public Future call() {
-                    if (Util.shouldUseESForUnits()) {
-                        final DiscoveryIO discoveryIO = (DiscoveryIO) ModuleLoader.getInstance(DiscoveryIO.class, CoreConfig.DISCOVERY_MODULES);
-                        // TODO: Sync for now, but we will have to make it async eventually
-                        Lists.transform(Arrays.asList(eventPayload), new Function<RollupEvent, RollupEvent>() {
-                            @Override
-                            public RollupEvent apply(RollupEvent event) {
-                                String unit;
-                                try {
-                                    unit = discoveryIO.search(event.getLocator().getTenantId(), event.getLocator().getMetricName()).get(0).getUnit();
-                                } catch (Exception e) {
-                                    log.warn("Exception encountered while getting units out of ES : %s", e.getMessage());
-                                    unit = Util.UNKNOWN;
-                                }
-                                event.setUnit(unit);
-                                return event;
-                            }
-                        });
-                    }
-                    return RollupEventEmitter.super.emit(event, eventPayload);
+                    return deliver(event, eventPayload);
                 }
             });
         }
         return emitFuture;
     }
+
+    private Future deliver(String event, RollupEvent... eventPayload) {
+        if (Util.shouldUseESForUnits()) {
+            final DiscoveryIO discoveryIO = (DiscoveryIO) ModuleLoader.getInstance(DiscoveryIO.class, CoreConfig.DISCOVERY_MODULES);
+            // TODO: Sync for now, but we will have to make it async eventually
+            for (RollupEvent rollupEvent : eventPayload) {
+                String unit;
+                try {
+                    unit = discoveryIO.search(rollupEvent.getLocator().getTenantId(), rollupEvent.getLocator().getMetricName()).get(0).getUnit();
+                } catch (Exception e) {
+                    log.warn("Exception encountered while getting units out of ES : %s", e.getMessage());
+                    unit = Util.UNKNOWN;
+                }
+                rollupEvent.setUnit(unit);
+            }
+        } else {
+            for (RollupEvent rollupEvent : eventPayload) {
+                if (rollupEvent.getUnit() == null) {
+                    rollupEvent.setUnit(MetadataCache.getInstance().getUnitString(rollupEvent.getLocator()));
+                }
+            }
+        }
+        return super.emit(event, eventPayload);
+    }
+
+    private void consume() {
+        List<PendingEvent> batch = new ArrayList<PendingEvent>(batchSize);
+        while (true) {
+            try {
+                batch.add(ringBuffer.take());
+                ringBuffer.drainTo(batch, batchSize - 1);
+            } catch (InterruptedException e) {
+                log.warn("RollupEventEmitter consumer interrupted");
+                return;
+            }
+            for (PendingEvent pending : batch) {
+                try {
+                    deliver(pending.event, pending.payload);
+                } catch (Throwable t) {
+                    droppedEvents.mark();
+                    log.error("Error delivering rollup event: " + t.getMessage(), t);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private static class PendingEvent {
+        private final String event;
+        private final RollupEvent[] payload;
+
+        private PendingEvent(String event, RollupEvent[] payload) {
+            this.event = event;
+            this.payload = payload;
+        }
+    }
 }
@@ -27,6 +27,7 @@ import com.rackspacecloud.blueflood.concurrent.FunctionWithThreadPool;
 import com.rackspacecloud.blueflood.io.IOContainer;
 import com.rackspacecloud.blueflood.io.MetricsRWDelegator;
 import com.rackspacecloud.blueflood.service.IngestionContext;
+import com.rackspacecloud.blueflood.service.StreamingRollupAggregator;
 import com.rackspacecloud.blueflood.types.IMetric;
 import com.rackspacecloud.blueflood.types.Locator;
 import com.rackspacecloud.blueflood.utils.Metrics;
@@ -95,6 +96,10 @@ public class BatchWriter extends FunctionWithThreadPool<List<List<IMetric>>, Lis
 
                         metricsRWDelegator.insertMetrics(batch);
 
+                        if (StreamingRollupAggregator.isEnabled()) {
+                            StreamingRollupAggregator.getInstance().add(batch);
+                        }
+
                         final Timer.Context dirtyTimerCtx = slotUpdateTimer.time();
                         try {
                             // marks this shard dirty, so rollup nodes know to pick up the work.
@@ -107,6 +112,10 @@ public class BatchWriter extends FunctionWithThreadPool<List<List<IMetric>>, Lis
 
                         return true;
                     } catch (Exception ex) {
+                        if (StreamingRollupAggregator.isEnabled()) {
+                            // some of these points might have been persisted, the slots must be rolled up from them.
+                            StreamingRollupAggregator.getInstance().invalidate(batch);
+                        }
                         getLogger().error(ex.getMessage(), ex);
                         getLogger().warn("Did not persist all metrics successfully for batch " + batchId);
                         if ( getLogger().isDebugEnabled() ) {
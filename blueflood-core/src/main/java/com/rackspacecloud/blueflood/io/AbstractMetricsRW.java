@@ -19,8 +19,11 @@ package com.rackspacecloud.blueflood.io;
 import com.codahale.metrics.Meter;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.rackspacecloud.blueflood.cache.CombinedTtlProvider;
 import com.rackspacecloud.blueflood.cache.TenantTtlProvider;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.types.*;
 import com.rackspacecloud.blueflood.utils.Clock;
@@ -28,8 +31,12 @@ import com.rackspacecloud.blueflood.utils.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * This is base class of all MetricsRW classes that deals with persisting/reading
@@ -46,6 +53,58 @@ public abstract class AbstractMetricsRW implements MetricsRW {
     protected boolean isRecordingDelayedMetrics;
     protected Clock clock;
 
+    /**
+     * Asynchronously fetches a {@link com.rackspacecloud.blueflood.types.Points} object
+     * for a particular locator and rollupType from the specified column family and
+     * range.
+     *
+     * The default implementation performs the read synchronously on the calling
+     * thread and returns an already completed future. Drivers that support
+     * asynchronous reads override this to return as soon as the read is issued.
+     *
+     * @param locator
+     * @param rollupType
+     * @param range
+     * @param columnFamilyName
+     * @param executor the executor on which the read results are decoded
+     * @return a future that completes with the points read
+     */
+    public ListenableFuture<Points> getDataToRollupAsync(Locator locator,
+                                                         RollupType rollupType,
+                                                         Range range,
+                                                         String columnFamilyName,
+                                                         Executor executor) {
+        try {
+            Points points = getDataToRollup(locator, rollupType, range, columnFamilyName);
+            return Futures.immediateFuture(points);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * Fetches {@link com.rackspacecloud.blueflood.outputs.formats.MetricData} objects for the
+     * specified list of {@link com.rackspacecloud.blueflood.types.Locator} and
+     * {@link com.rackspacecloud.blueflood.types.Range}, for a query that only outputs some
+     * of the stats of the rollups.
+     *
+     * The default implementation reads the rollups whole. Drivers that can skip the
+     * stats that are not requested override this; the stats left out are then zero in
+     * the returned rollups.
+     *
+     * @param locators
+     * @param range
+     * @param gran
+     * @param stats the stats to read
+     * @return
+     */
+    public Map<Locator, MetricData> getDatapointsForRange(List<Locator> locators,
+                                                          Range range,
+                                                          Granularity gran,
+                                                          Set<BaseRollup.Stat> stats) {
+        return getDatapointsForRange(locators, range, gran);
+    }
+
     /**
      * Convert a collection of {@link com.rackspacecloud.blueflood.types.IMetric}
      * to a {@link com.google.common.collect.Multimap}
@@ -29,8 +29,10 @@ public class CassandraModel {
     public static final String CF_METRICS_METADATA_NAME = "metrics_metadata";
     public static final String CF_METRICS_LOCATOR_NAME = "metrics_locator";
     public static final String CF_METRICS_DELAYED_LOCATOR_NAME = "metrics_delayed_locator";
+    public static final String CF_METRICS_ACTIVE_LOCATOR_NAME = "metrics_active_locator";
 
     public static final String CF_METRICS_FULL_NAME = "metrics_full";
+    public static final String CF_METRICS_FULL_BLOCKS_NAME = "metrics_full_blocks";
     public static final String CF_METRICS_5M_NAME = "metrics_5m";
     public static final String CF_METRICS_20M_NAME = "metrics_20m";
     public static final String CF_METRICS_60M_NAME = "metrics_60m";
@@ -71,6 +73,11 @@ public class CassandraModel {
             SlotKeySerializer.get(),
             LocatorSerializer.get());
 
+    public static final ColumnFamily<SlotKey, Locator> CF_METRICS_ACTIVE_LOCATOR = new ColumnFamily<SlotKey,
+            Locator>(CF_METRICS_ACTIVE_LOCATOR_NAME,
+            SlotKeySerializer.get(),
+            LocatorSerializer.get());
+
     public static final ColumnFamily<Long, SlotState> CF_METRICS_STATE = new ColumnFamily<Long, SlotState>(CF_METRICS_STATE_NAME,
             LongSerializer.get(),
             SlotStateSerializer.get());
@@ -82,7 +89,8 @@ public class CassandraModel {
     };
 
     private static final ColumnFamily[] BF_SYSTEM_COLUMN_FAMILIES = new ColumnFamily[] {
-            CF_METRICS_METADATA, CF_METRICS_LOCATOR, CF_METRICS_DELAYED_LOCATOR, CF_METRICS_STATE
+            CF_METRICS_METADATA, CF_METRICS_LOCATOR, CF_METRICS_DELAYED_LOCATOR, CF_METRICS_ACTIVE_LOCATOR,
+            CF_METRICS_STATE
     };
 
     private static final Collection<ColumnFamily> ALL_COLUMN_FAMILIES;
@@ -130,6 +130,14 @@ public class IOConfig {
 
     public int getUnavailableMaxRetries() { return config.getIntegerProperty(CoreConfig.DATASTAX_UNAVAILABLE_MAX_RETRIES); }
 
+    public boolean isHedgedReadsEnabled() { return config.getBooleanProperty(CoreConfig.ENABLE_HEDGED_READS); }
+
+    public double getHedgedReadsPercentile() { return Double.parseDouble(config.getStringProperty(CoreConfig.HEDGED_READS_PERCENTILE)); }
+
+    public long getHedgedReadsMinDelayMillis() { return config.getLongProperty(CoreConfig.HEDGED_READS_MIN_DELAY_MS); }
+
+    public int getHedgedReadsMaxPerSecond() { return config.getIntegerProperty(CoreConfig.HEDGED_READS_MAX_PER_SECOND); }
+
 
     // prevent people from instantiating directly
     private IOConfig() {
@@ -19,6 +19,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.rackspacecloud.blueflood.io.astyanax.*;
 import com.rackspacecloud.blueflood.io.datastax.*;
+import com.rackspacecloud.blueflood.io.memory.*;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.utils.DefaultClockImpl;
@@ -101,6 +102,22 @@ public class IOContainer {
             preAggregatedMetricsRW = new DPreaggregatedMetricsRW((DLocatorIO)locatorIO, (DDelayedLocatorIO) delayedLocatorIO,
                     isRecordingDelayedMetrics, isDtxIngestBatchEnabled, new DefaultClockImpl());
 
+        } else if ( driver == DriverType.MEMORY ) {
+
+            DefaultClockImpl clock = new DefaultClockImpl();
+            InMemoryMetricsStore store = new InMemoryMetricsStore(clock);
+            InMemoryLocatorIO memoryLocatorIO = new InMemoryLocatorIO(clock);
+            InMemoryDelayedLocatorIO memoryDelayedLocatorIO = new InMemoryDelayedLocatorIO(clock);
+
+            metadataIO = new InMemoryMetadataIO();
+            shardStateIO = new InMemoryShardStateIO(clock);
+            locatorIO = memoryLocatorIO;
+            delayedLocatorIO = memoryDelayedLocatorIO;
+            basicMetricsRW = new InMemoryBasicMetricsRW(store, memoryLocatorIO, memoryDelayedLocatorIO,
+                    isRecordingDelayedMetrics, clock);
+            preAggregatedMetricsRW = new InMemoryPreaggregatedMetricsRW(store, memoryLocatorIO, memoryDelayedLocatorIO,
+                    isRecordingDelayedMetrics, clock);
+
         } else {
 
             metadataIO = new AMetadataIO();
@@ -176,7 +193,8 @@ public class IOContainer {
      */
     public static enum DriverType {
         ASTYANAX("astyanax"),
-        DATASTAX("datastax");
+        DATASTAX("datastax"),
+        MEMORY("memory");
 
         private DriverType(String driver) {
             name = driver;
@@ -198,10 +216,13 @@ public class IOContainer {
          * @return
          */
         public static DriverType getDriverType(String driver) {
-            // if driver is explicitly datastax, then return DATASTAX
+            // if driver is explicitly datastax or memory, then return DATASTAX or MEMORY
             // anything else, return ASTYANAX
-            if ( ! Strings.isNullOrEmpty(driver) && DriverType.valueOf(driver.toUpperCase()) == DATASTAX ) {
-                return DATASTAX;
+            if ( ! Strings.isNullOrEmpty(driver) ) {
+                DriverType driverType = DriverType.valueOf(driver.toUpperCase());
+                if ( driverType == DATASTAX || driverType == MEMORY ) {
+                    return driverType;
+                }
             }
             return ASTYANAX;
         }
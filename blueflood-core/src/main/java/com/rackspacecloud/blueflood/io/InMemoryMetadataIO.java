@@ -14,11 +14,11 @@ import java.util.Set;
 
 public class InMemoryMetadataIO implements MetadataIO, CassandraUtilsIO {
     public final Table<Locator, String, String> backingTable = Tables.newCustomTable(
-            Maps.<Locator, Map<String, String>>newHashMap(),
+            Maps.<Locator, Map<String, String>>newConcurrentMap(),
             new Supplier<Map<String, String>>() {
                 @Override
                 public Map<String, String> get() {
-                    return Maps.newHashMap();
+                    return Maps.newConcurrentMap();
                 }
             }
     );
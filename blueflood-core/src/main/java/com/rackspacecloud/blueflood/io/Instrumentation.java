@@ -19,7 +19,10 @@ package com.rackspacecloud.blueflood.io;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import com.google.common.annotations.VisibleForTesting;
 import com.datastax.shaded.netty.util.internal.StringUtil;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import com.netflix.astyanax.connectionpool.exceptions.PoolTimeoutException;
@@ -30,11 +33,17 @@ import org.slf4j.LoggerFactory;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 public class Instrumentation implements InstrumentationMBean {
     private static final Logger log = LoggerFactory.getLogger(Instrumentation.class);
     private static ReadTimers readTimers = new ReadTimers();
     private static WriteTimers writeTimers = new WriteTimers();
+    private static final ConcurrentMap<String, PeriodTimer> readWriteTimers = new ConcurrentHashMap<String, PeriodTimer>();
     private static final Meter writeErrMeter;
     private static final Meter readErrMeter;
     private static final Meter batchReadErrMeter;
@@ -139,7 +148,7 @@ public class Instrumentation implements InstrumentationMBean {
         public Timer.Context getTimerContext(String queryCF, boolean batch) {
             final String metricName = (batch ? MetricRegistry.name("batched-", queryCF) : queryCF);
 
-            final Timer timer = Metrics.timer(Instrumentation.class, "reads", metricName);
+            final Timer timer = getReadWriteTimer(MetricRegistry.name(Instrumentation.class, "reads", metricName));
             return timer.time();
         }
     }
@@ -148,11 +157,50 @@ public class Instrumentation implements InstrumentationMBean {
         public Timer.Context getTimerContext(String queryCF, boolean batch) {
             final String metricName = (batch ? MetricRegistry.name("batched", queryCF) : queryCF);
 
-            final Timer timer = Metrics.timer(Instrumentation.class, "writes", metricName);
+            final Timer timer = getReadWriteTimer(MetricRegistry.name(Instrumentation.class, "writes", metricName));
             return timer.time();
         }
     }
 
+    private static Timer getReadWriteTimer(String name) {
+        PeriodTimer timer = readWriteTimers.get(name);
+        if (timer == null) {
+            PeriodTimer created = new PeriodTimer();
+            timer = readWriteTimers.putIfAbsent(name, created);
+            if (timer == null) {
+                Metrics.getRegistry().register(name, created);
+                timer = created;
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * A timer which also keeps the durations recorded since the last call to {@link #takePeriodSnapshot()},
+     * since the snapshot of a timer is biased towards the last few minutes rather than a given period.
+     */
+    @VisibleForTesting
+    static class PeriodTimer extends Timer {
+        private volatile Histogram period = new Histogram(new UniformReservoir());
+
+        @Override
+        public void update(long duration, TimeUnit unit) {
+            super.update(duration, unit);
+            if (duration >= 0) {
+                period.update(unit.toNanos(duration));
+            }
+        }
+
+        /**
+         * @return the durations, in nanoseconds, recorded since the previous call, which starts a new period
+         */
+        Snapshot takePeriodSnapshot() {
+            Histogram last = period;
+            period = new Histogram(new UniformReservoir());
+            return last.getSnapshot();
+        }
+    }
+
     public static void markNotFound(String columnFamilyName) {
         final Meter meter = Metrics.meter(Instrumentation.class, "reads", "Not Found", columnFamilyName);
         meter.mark();
@@ -192,4 +240,29 @@ public class Instrumentation implements InstrumentationMBean {
     public static Histogram getRawPointsIn5MinHistogram() {
         return rawPointsIn5Min;
     }
+
+    /**
+     * @return the number of Cassandra read and write errors marked so far
+     */
+    public static long getErrorCount() {
+        return readErrMeter.getCount() + batchReadErrMeter.getCount() + writeErrMeter.getCount();
+    }
+
+    /**
+     * Returns the 95th percentile latency of each Cassandra read and write timer, in nanoseconds, over the
+     * period since the previous call, and starts a new period. The timers not used during the period are
+     * left out. Each call ends the period of every caller, so there should be only one.
+     *
+     * @return the 95th percentile latencies of the period, by timer name
+     */
+    public static Map<String, Double> takeReadWrite95thPercentiles() {
+        Map<String, Double> percentiles = new HashMap<String, Double>();
+        for (Map.Entry<String, PeriodTimer> entry : readWriteTimers.entrySet()) {
+            Snapshot snapshot = entry.getValue().takePeriodSnapshot();
+            if (snapshot.size() > 0) {
+                percentiles.put(entry.getKey(), snapshot.get95thPercentile());
+            }
+        }
+        return percentiles;
+    }
 }
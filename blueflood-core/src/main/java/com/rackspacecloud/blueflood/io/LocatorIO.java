@@ -15,6 +15,8 @@
  */
 package com.rackspacecloud.blueflood.io;
 
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.SlotKey;
 import com.rackspacecloud.blueflood.types.Locator;
 
 import java.io.IOException;
@@ -36,4 +38,20 @@ public interface LocatorIO {
      */
     public Collection<Locator> getLocators(long shard) throws IOException;
 
+    /**
+     * Insert a locator that received data during the given slot of its shard
+     * @param g the granularity of the slot
+     * @param slot
+     * @param locator
+     * @throws IOException
+     */
+    public void insertActiveLocator(Granularity g, int slot, Locator locator) throws IOException;
+
+    /**
+     * @param slotKey
+     * @return a collection of the locators objects that received data during the given SlotKey
+     * @throws IOException
+     */
+    public Collection<Locator> getActiveLocators(SlotKey slotKey) throws IOException;
+
 }
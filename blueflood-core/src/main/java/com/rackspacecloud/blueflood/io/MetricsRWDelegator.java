@@ -18,9 +18,12 @@ package com.rackspacecloud.blueflood.io;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.rackspacecloud.blueflood.cache.MetadataCache;
+import com.rackspacecloud.blueflood.cache.QueryResultCache;
 import com.rackspacecloud.blueflood.exceptions.CacheException;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
 import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.types.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,13 +41,16 @@ public class MetricsRWDelegator {
     private static final Logger LOG = LoggerFactory.getLogger(MetricsRWDelegator.class);
     private AbstractMetricsRW basicMetricsRW;
     private AbstractMetricsRW preAggrMetricsRW;
+    private QueryResultCache queryResultCache;
 
     /**
      * Constructor
      */
     public MetricsRWDelegator() {
         this(IOContainer.fromConfig().getBasicMetricsRW(),
-                IOContainer.fromConfig().getPreAggregatedMetricsRW());
+                IOContainer.fromConfig().getPreAggregatedMetricsRW(),
+                Configuration.getInstance().getBooleanProperty(CoreConfig.ENABLE_QUERY_RESULT_CACHE) ?
+                        QueryResultCache.getInstance() : null);
     }
 
     /**
@@ -54,8 +60,21 @@ public class MetricsRWDelegator {
      */
     @VisibleForTesting
     public MetricsRWDelegator(AbstractMetricsRW basicMetricsRW, AbstractMetricsRW preAggrMetricsRW) {
+        this(basicMetricsRW, preAggrMetricsRW, null);
+    }
+
+    /**
+     * Constructor
+     * @param basicMetricsRW
+     * @param preAggrMetricsRW
+     * @param queryResultCache the cache of the points read, or null to always read them
+     */
+    @VisibleForTesting
+    public MetricsRWDelegator(AbstractMetricsRW basicMetricsRW, AbstractMetricsRW preAggrMetricsRW,
+                              QueryResultCache queryResultCache) {
         this.basicMetricsRW = basicMetricsRW;
         this.preAggrMetricsRW = preAggrMetricsRW;
+        this.queryResultCache = queryResultCache;
     }
 
     /**
@@ -77,6 +96,21 @@ public class MetricsRWDelegator {
      * @return
      */
     public Map<Locator, MetricData> getDatapointsForRange(List<Locator> locators, Range range, Granularity gran) {
+        return getDatapointsForRange(locators, range, gran, BaseRollup.Stat.ALL);
+    }
+
+    /**
+     * Fetches the data of the specified locators, reading only the specified stats of
+     * basic rollups. Preaggregated metrics are read whole.
+     *
+     * @param locators
+     * @param range
+     * @param gran
+     * @param stats the stats of basic rollups to read
+     * @return
+     */
+    public Map<Locator, MetricData> getDatapointsForRange(List<Locator> locators, Range range, final Granularity gran,
+                                                          final Set<BaseRollup.Stat> stats) {
 
         MetadataCache metadataCache = MetadataCache.getInstance();
 
@@ -106,15 +140,36 @@ public class MetricsRWDelegator {
         // combine all the result
         Map<Locator, MetricData> result = new HashMap<Locator, MetricData>();
         if ( ! basicLocators.isEmpty() ) {
-            result.putAll(basicMetricsRW.getDatapointsForRange(basicLocators, range, gran));
+            result.putAll(read(basicLocators, range, gran, stats, new QueryResultCache.RangeReader() {
+                @Override
+                public Map<Locator, MetricData> read(List<Locator> locators, Range range) {
+                    return basicMetricsRW.getDatapointsForRange(locators, range, gran, stats);
+                }
+            }));
         }
 
         if ( ! preAggrLocators.isEmpty() ) {
-            result.putAll(preAggrMetricsRW.getDatapointsForRange(preAggrLocators, range, gran));
+            result.putAll(read(preAggrLocators, range, gran, BaseRollup.Stat.ALL, new QueryResultCache.RangeReader() {
+                @Override
+                public Map<Locator, MetricData> read(List<Locator> locators, Range range) {
+                    return preAggrMetricsRW.getDatapointsForRange(locators, range, gran);
+                }
+            }));
         }
         return result;
     }
 
+    /**
+     * Reads through the query result cache, when there is one.
+     */
+    private Map<Locator, MetricData> read(List<Locator> locators, Range range, Granularity gran,
+                                          Set<BaseRollup.Stat> stats, QueryResultCache.RangeReader reader) {
+        if (queryResultCache == null) {
+            return reader.read(locators, range);
+        }
+        return queryResultCache.getDatapointsForRange(locators, range, gran, stats, reader);
+    }
+
     /**
      *
      * @param metrics
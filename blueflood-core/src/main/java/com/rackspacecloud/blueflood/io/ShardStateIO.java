@@ -19,8 +19,11 @@ import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.service.SlotState;
 import com.rackspacecloud.blueflood.service.UpdateStamp;
 
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -43,4 +46,44 @@ public interface ShardStateIO {
      * @throws IOException
      */
     public void putShardState(int shard, Map<Granularity, Map<Integer, UpdateStamp>> slotTimes) throws IOException;
+
+    /**
+     * Reads the SlotState objects of several shards. A shard whose state could
+     * not be read is logged and left out of the result, so it does not prevent
+     * the other shards from being synchronized.
+     *
+     * The default implementation reads the shards one at a time.
+     *
+     * @param shards
+     * @return a map of key=shard -> value=the SlotState objects of the shard
+     */
+    default Map<Integer, Collection<SlotState>> getShardStates(Collection<Integer> shards) {
+        Map<Integer, Collection<SlotState>> shardStates = new HashMap<Integer, Collection<SlotState>>();
+        for (int shard : shards) {
+            try {
+                shardStates.put(shard, getShardState(shard));
+            } catch (Exception ex) {
+                LoggerFactory.getLogger(getClass()).error("Could not read shard state from the database (shard " + shard + "). " + ex.getMessage(), ex);
+            }
+        }
+        return shardStates;
+    }
+
+    /**
+     * Writes the slot states of several shards. A shard whose state could not
+     * be written is logged, and the other shards are still written.
+     *
+     * The default implementation writes the shards one at a time.
+     *
+     * @param slotTimesByShard a map of key=shard -> value=(map of key=granularity -> value=(map of key=slot -> value=timestamp))
+     */
+    default void putShardStates(Map<Integer, Map<Granularity, Map<Integer, UpdateStamp>>> slotTimesByShard) {
+        for (Map.Entry<Integer, Map<Granularity, Map<Integer, UpdateStamp>>> entry : slotTimesByShard.entrySet()) {
+            try {
+                putShardState(entry.getKey(), entry.getValue());
+            } catch (Exception ex) {
+                LoggerFactory.getLogger(getClass()).error("Could not put shard state to the database (shard " + entry.getKey() + "). " + ex.getMessage(), ex);
+            }
+        }
+    }
 }
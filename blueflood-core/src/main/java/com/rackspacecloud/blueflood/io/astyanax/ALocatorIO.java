@@ -23,6 +23,8 @@ import com.netflix.astyanax.query.RowQuery;
 import com.rackspacecloud.blueflood.io.CassandraModel;
 import com.rackspacecloud.blueflood.io.Instrumentation;
 import com.rackspacecloud.blueflood.io.LocatorIO;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.SlotKey;
 import com.rackspacecloud.blueflood.types.Locator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -90,4 +92,52 @@ public class ALocatorIO implements LocatorIO {
         }
     }
 
+    /**
+     * Insert a locator into metrics_active_locator with key = the SlotKey of the locator's shard
+     * @param g
+     * @param slot
+     * @param locator
+     * @throws IOException
+     */
+    @Override
+    public void insertActiveLocator(Granularity g, int slot, Locator locator) throws IOException {
+        Timer.Context timer = Instrumentation.getWriteTimerContext(CassandraModel.CF_METRICS_ACTIVE_LOCATOR_NAME);
+        try {
+            MutationBatch mutationBatch = AstyanaxIO.getKeyspace().prepareMutationBatch();
+            AstyanaxWriter.getInstance().insertActiveLocator(g, slot, locator, mutationBatch);
+            mutationBatch.execute();
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Returns the locators that received data during the given slot of a shard.
+     *
+     * @param slotKey
+     * @return Collection of locators
+     * @throws IOException
+     */
+    @Override
+    public Collection<Locator> getActiveLocators(SlotKey slotKey) throws IOException {
+        Timer.Context ctx = Instrumentation.getReadTimerContext(CassandraModel.CF_METRICS_ACTIVE_LOCATOR_NAME);
+        try {
+            RowQuery<SlotKey, Locator> query = AstyanaxIO.getKeyspace()
+                    .prepareQuery(CassandraModel.CF_METRICS_ACTIVE_LOCATOR)
+                    .getKey(slotKey);
+            return query.execute().getResult().getColumnNames();
+        } catch (NotFoundException e) {
+            Instrumentation.markNotFound(CassandraModel.CF_METRICS_ACTIVE_LOCATOR_NAME);
+            return Collections.emptySet();
+        } catch (ConnectionException ex) {
+            Instrumentation.markReadError(ex);
+            LOG.error("Connection exception during getActiveLocators(" + slotKey.toString() + ")", ex);
+            throw new IOException("Error reading active locators", ex);
+        } finally {
+            ctx.stop();
+        }
+    }
+
 }
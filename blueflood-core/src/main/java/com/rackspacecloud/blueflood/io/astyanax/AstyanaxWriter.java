@@ -62,6 +62,12 @@ public class AstyanaxWriter extends AstyanaxIO {
 
     private static final long MAX_AGE_ALLOWED = Configuration.getInstance().getLongProperty(CoreConfig.ROLLUP_DELAY_MILLIS);
 
+    private static final boolean RECORD_ACTIVE_LOCATORS =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.RECORD_ACTIVE_LOCATORS);
+
+    private static Granularity ACTIVE_LOCATORS_STORAGE_GRANULARITY =
+            Granularity.getRollupGranularity(Configuration.getInstance().getStringProperty(CoreConfig.ACTIVE_LOCATORS_STORAGE_GRANULARITY));
+
     // insert a full resolution chunk of data. I've assumed that there will not be a lot of overlap (these will all be
     // single column updates).
     public void insertFull(Collection<? extends IMetric> metrics, boolean isRecordingDelayedMetrics, Clock clock) throws ConnectionException {
@@ -88,6 +94,10 @@ public class AstyanaxWriter extends AstyanaxIO {
                     }
                 }
 
+                if (RECORD_ACTIVE_LOCATORS && mutationBatch != null) {
+                    insertLocatorIfActive(metric, mutationBatch);
+                }
+
                 insertMetric(metric, mutationBatch);
 
                 Instrumentation.markFullResMetricWritten();
@@ -127,6 +137,21 @@ public class AstyanaxWriter extends AstyanaxIO {
         }
     }
 
+    /**
+     * This method inserts the locator into the metrics_active_locator column family, if it is not
+     * already recorded for the slot of the metric.
+     *
+     * @param metric
+     * @param mutationBatch
+     */
+    private void insertLocatorIfActive(IMetric metric, MutationBatch mutationBatch) {
+        Locator locator = metric.getLocator();
+        int slot = ACTIVE_LOCATORS_STORAGE_GRANULARITY.slot(metric.getCollectionTime());
+        if (!LocatorCache.getInstance().isActiveLocatorForASlotCurrent(slot, locator)) {
+            insertActiveLocator(ACTIVE_LOCATORS_STORAGE_GRANULARITY, slot, locator, mutationBatch);
+            LocatorCache.getInstance().setActiveLocatorForASlotCurrent(slot, locator);
+        }
+    }
 
     // numeric only!
     public final void insertLocator(Locator locator, MutationBatch mutationBatch) {
@@ -141,6 +166,12 @@ public class AstyanaxWriter extends AstyanaxIO {
                 .putEmptyColumn(locator, TenantTtlProvider.DELAYED_LOCATOR_TTL);
     }
 
+    public final void insertActiveLocator(Granularity g, int slot, Locator locator, MutationBatch mutationBatch) {
+        int shard = Util.getShard(locator.toString());
+        mutationBatch.withRow(CassandraModel.CF_METRICS_ACTIVE_LOCATOR, SlotKey.of(g, slot, shard))
+                .putEmptyColumn(locator, TenantTtlProvider.ACTIVE_LOCATOR_TTL);
+    }
+
     private void insertMetric(IMetric metric, MutationBatch mutationBatch) {
         try {
             mutationBatch.withRow(CassandraModel.CF_METRICS_FULL, metric.getLocator())
@@ -225,6 +256,10 @@ public class AstyanaxWriter extends AstyanaxIO {
                         //retaining the same conditional logic that was used to perform insertLocator(locator, batch).
                         insertLocatorIfDelayed(metric, batch, clock);
                     }
+
+                    if (RECORD_ACTIVE_LOCATORS) {
+                        insertLocatorIfActive(metric, batch);
+                    }
                 }
                 
                 if (!LocatorCache.getInstance().isLocatorCurrentInBatchLayer(locator)) {
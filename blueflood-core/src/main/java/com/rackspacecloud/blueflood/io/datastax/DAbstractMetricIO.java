@@ -167,6 +167,19 @@ public abstract class DAbstractMetricIO {
      */
     protected abstract <T extends Object> T fromByteBuffer(ByteBuffer byteBuffer);
 
+    /**
+     * Constructs the right Rollup object from a {@link java.nio.ByteBuffer}, reading
+     * only the specified stats. Sub classes whose rollups have stats that can be left
+     * out override this; by default, the whole object is read.
+     *
+     * @param byteBuffer
+     * @param stats the stats to read
+     * @return
+     */
+    protected <T extends Object> T fromByteBuffer(ByteBuffer byteBuffer, Set<BaseRollup.Stat> stats) {
+        return fromByteBuffer(byteBuffer);
+    }
+
     /**
      * Add a {@link com.datastax.driver.core.PreparedStatement} statement to the
      * {@link com.datastax.driver.core.BatchStatement} to insert this Rollup
@@ -240,10 +253,24 @@ public abstract class DAbstractMetricIO {
                                                                                Locator locator,
                                                                                String columnFamily,
                                                                                Range range) {
+        return toLocatorTimestampValue( futures, locator, columnFamily, range, BaseRollup.Stat.ALL );
+    }
+
+    /**
+     *  Same as {@link #toLocatorTimestampValue(List, Locator, String, Range)},
+     *  reading only the specified stats of the rollups.
+     */
+    public <T extends Object> Table<Locator, Long, T> toLocatorTimestampValue( List<ResultSetFuture> futures,
+                                                                               Locator locator,
+                                                                               String columnFamily,
+                                                                               Range range,
+                                                                               Set<BaseRollup.Stat> stats) {
         Table<Locator, Long, T> locatorTimestampRollup = HashBasedTable.create();
         for ( ResultSetFuture future : futures ) {
             try {
-                List<Row> rows = future.getUninterruptibly().all();
+                ResultSet resultSet = future.getUninterruptibly();
+                HedgedReadPolicy.recordResult(resultSet);
+                List<Row> rows = resultSet.all();
 
                 // we only want to count the number of points we
                 // get when we're querying the metrics_full
@@ -255,7 +282,7 @@ public abstract class DAbstractMetricIO {
                     String key = row.getString(DMetricsCFPreparedStatements.KEY);
                     Locator loc = Locator.createLocatorFromDbKey(key);
                     Long hash = row.getLong(DMetricsCFPreparedStatements.COLUMN1);
-                    locatorTimestampRollup.put(loc, hash, (T)fromByteBuffer(row.getBytes(DMetricsCFPreparedStatements.VALUE)));
+                    locatorTimestampRollup.put(loc, hash, (T)fromByteBuffer(row.getBytes(DMetricsCFPreparedStatements.VALUE), stats));
                 }
             } catch (Exception ex) {
                 Instrumentation.markReadError();
@@ -4,17 +4,24 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
 import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.collect.Table;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.rackspacecloud.blueflood.cache.LocatorCache;
 import com.rackspacecloud.blueflood.cache.MetadataCache;
 import com.rackspacecloud.blueflood.exceptions.CacheException;
 import com.rackspacecloud.blueflood.io.*;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
 import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.SlotKey;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.service.SingleRollupWriteContext;
@@ -25,6 +32,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 
 /**
  * This class deals with aspects of reading/writing metrics which are common across all column families
@@ -39,6 +48,21 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
     private static final Granularity DELAYED_METRICS_STORAGE_GRANULARITY =
             Granularity.getRollupGranularity(Configuration.getInstance().getStringProperty(CoreConfig.DELAYED_METRICS_STORAGE_GRANULARITY));
 
+    protected static final boolean RECORD_ACTIVE_LOCATORS =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.RECORD_ACTIVE_LOCATORS);
+
+    private static final Granularity ACTIVE_LOCATORS_STORAGE_GRANULARITY =
+            Granularity.getRollupGranularity(Configuration.getInstance().getStringProperty(CoreConfig.ACTIVE_LOCATORS_STORAGE_GRANULARITY));
+
+    private static final boolean PARTITIONED_ROLLUP_WRITES =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.ENABLE_PARTITIONED_ROLLUP_WRITES);
+
+    private static final int PARTITION_BATCH_MAX_SIZE =
+            Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_PARTITION_BATCH_MAX_SIZE);
+
+    private static final Semaphore inFlightRollupWrites = new Semaphore(
+            Configuration.getInstance().getIntegerProperty(CoreConfig.MAX_ROLLUP_WRITES_IN_FLIGHT));
+
     protected final DLocatorIO locatorIO;
     protected final DDelayedLocatorIO delayedLocatorIO;
     protected final boolean isBatchIngestEnabled;
@@ -91,7 +115,8 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
      * This method inserts a collection of {@link com.rackspacecloud.blueflood.service.SingleRollupWriteContext} objects
      * to the appropriate Cassandra column family.
      *
-     * It performs the inserts by executing an UNLOGGED BATCH statement.
+     * It performs the inserts by executing an UNLOGGED BATCH statement, or, if ENABLE_PARTITIONED_ROLLUP_WRITES
+     * is set, one asynchronous statement per partition.
      *
      * @param writeContexts
      *
@@ -107,7 +132,7 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
         Timer.Context ctx = Instrumentation.getWriteTimerContext( writeContexts.get( 0 ).getDestinationCF().getName() );
         try {
 
-            BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+            List<Statement> statements = new ArrayList<Statement>(writeContexts.size());
 
             for (SingleRollupWriteContext writeContext : writeContexts) {
                 Rollup rollup = writeContext.getRollup();
@@ -119,12 +144,17 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
                 RollupType rollupType = writeContext.getRollup().getRollupType();
                 DAbstractMetricIO io = getIO(rollupType.name().toLowerCase(), granularity);
 
-                Statement statement = io.createStatement(locator, writeContext.getTimestamp(), rollup, writeContext.getGranularity(), ttl);
-                batch.add(statement);
+                statements.add(io.createStatement(locator, writeContext.getTimestamp(), rollup, writeContext.getGranularity(), ttl));
             }
 
             Session session = DatastaxIO.getSession();
-            session.execute(batch);
+            if (PARTITIONED_ROLLUP_WRITES) {
+                executeByPartition(session, groupByPartition(writeContexts, statements, PARTITION_BATCH_MAX_SIZE));
+            } else {
+                BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+                batch.addAll(statements);
+                session.execute(batch);
+            }
 
         } catch (Exception ex) {
             Instrumentation.markWriteError();
@@ -134,6 +164,96 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
         }
     }
 
+    /**
+     * Groups the statements of a rollup batch by partition, the destination column family and the locator,
+     * into single statements or single-partition UNLOGGED BATCHes of at most maxBatchSize statements.
+     *
+     * @param writeContexts
+     * @param statements the statement of each write context, in the same order
+     * @param maxBatchSize
+     * @return the statements to execute, in the order of the first write context of their partition
+     */
+    @VisibleForTesting
+    static List<Statement> groupByPartition(List<SingleRollupWriteContext> writeContexts,
+                                            List<Statement> statements,
+                                            int maxBatchSize) {
+        Map<Map.Entry<String, Locator>, List<Statement>> partitions =
+                new LinkedHashMap<Map.Entry<String, Locator>, List<Statement>>();
+        for (int i = 0; i < writeContexts.size(); i++) {
+            // the partition key of the rollup column families is the locator
+            Map.Entry<String, Locator> partition = new AbstractMap.SimpleImmutableEntry<String, Locator>(
+                    writeContexts.get(i).getDestinationCF().getName(), writeContexts.get(i).getLocator());
+            List<Statement> partitionStatements = partitions.get(partition);
+            if (partitionStatements == null) {
+                partitionStatements = new ArrayList<Statement>();
+                partitions.put(partition, partitionStatements);
+            }
+            partitionStatements.add(statements.get(i));
+        }
+
+        List<Statement> grouped = new ArrayList<Statement>(partitions.size());
+        for (List<Statement> partitionStatements : partitions.values()) {
+            for (int start = 0; start < partitionStatements.size(); start += maxBatchSize) {
+                List<Statement> chunk = partitionStatements.subList(start,
+                        Math.min(start + maxBatchSize, partitionStatements.size()));
+                if (chunk.size() == 1) {
+                    grouped.add(chunk.get(0));
+                } else {
+                    BatchStatement partitionBatch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+                    partitionBatch.addAll(chunk);
+                    grouped.add(partitionBatch);
+                }
+            }
+        }
+        return grouped;
+    }
+
+    /**
+     * Executes the statements asynchronously and waits for all of them to complete, even if some of them
+     * failed. The number of statements in flight is bounded by MAX_ROLLUP_WRITES_IN_FLIGHT across all callers.
+     *
+     * @param session
+     * @param statements the statements of each partition, as returned by
+     *                   {@link #groupByPartition(List, List, int)}
+     *
+     * @throws IOException if any of the statements failed
+     */
+    @VisibleForTesting
+    static void executeByPartition(Session session, List<Statement> statements) throws IOException {
+        List<ResultSetFuture> futures = new ArrayList<ResultSetFuture>(statements.size());
+        for (Statement statement : statements) {
+            inFlightRollupWrites.acquireUninterruptibly();
+            ResultSetFuture future;
+            try {
+                future = session.executeAsync(statement);
+            } catch (RuntimeException e) {
+                inFlightRollupWrites.release();
+                throw e;
+            }
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    inFlightRollupWrites.release();
+                }
+            }, MoreExecutors.directExecutor());
+            futures.add(future);
+        }
+
+        Exception lastException = null;
+        int failures = 0;
+        for (ResultSetFuture future : futures) {
+            try {
+                future.getUninterruptibly();
+            } catch (Exception e) {
+                lastException = e;
+                failures++;
+            }
+        }
+        if (lastException != null) {
+            throw new IOException(String.format("%d of %d partition writes failed", failures, futures.size()), lastException);
+        }
+    }
+
     /**
      * Fetches {@link com.rackspacecloud.blueflood.outputs.formats.MetricData} objects for the
      * specified {@link com.rackspacecloud.blueflood.types.Locator} and
@@ -172,6 +292,25 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
                                                               Range range,
                                                               String columnFamily,
                                                               Granularity granularity ) {
+        return getDatapointsForRange( locators, range, columnFamily, granularity, BaseRollup.Stat.ALL );
+    }
+
+    /**
+     * Same as {@link #getDatapointsForRange(List, Range, String, Granularity)}, reading only the
+     * specified stats of the rollups. The other stats are left at zero in the returned rollups.
+     *
+     * @param locators
+     * @param range
+     * @param columnFamily
+     * @param granularity
+     * @param stats the stats to read
+     * @return
+     */
+    public Map<Locator, MetricData> getDatapointsForRange( List<Locator> locators,
+                                                              Range range,
+                                                              String columnFamily,
+                                                              Granularity granularity,
+                                                              Set<BaseRollup.Stat> stats ) {
 
         Timer.Context ctx = Instrumentation.getReadTimerContext(columnFamily);
 
@@ -212,7 +351,7 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
                     LOG.error(String.format("Error looking up locator %s in cache", locator), ex);
                 }
             }
-            return resultSetsToMetricData(locatorToFuturesMap, locatorIOMap, columnFamily, range);
+            return resultSetsToMetricData(locatorToFuturesMap, locatorIOMap, columnFamily, range, stats);
         }
         finally {
 
@@ -261,6 +400,77 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
         }
     }
 
+    /**
+     * Asynchronously fetches a {@link com.rackspacecloud.blueflood.types.Points} object
+     * for a particular locator and rollupType from the specified column family and
+     * range.
+     *
+     * The select statements are issued with executeAsync() and this method returns
+     * immediately. Once all of them complete, the rows are decoded into
+     * {@link com.rackspacecloud.blueflood.types.Points} on the specified executor.
+     *
+     * @param locator
+     * @param rollupType
+     * @param range
+     * @param columnFamilyName
+     * @param executor the executor on which the read results are decoded
+     * @return a future that completes with the points read
+     */
+    @Override
+    public ListenableFuture<Points> getDataToRollupAsync(final Locator locator,
+                                                         final RollupType rollupType,
+                                                         final Range range,
+                                                         final String columnFamilyName,
+                                                         Executor executor) {
+        final Timer.Context ctx = Instrumentation.getReadTimerContext(columnFamilyName);
+
+        final List<ResultSetFuture> futures;
+        final DAbstractMetricIO io;
+        try {
+            io = getIO( rollupType.name().toLowerCase(), CassandraModel.getGranularity( columnFamilyName ) );
+            futures = io.selectForLocatorAndRange( columnFamilyName, locator, range );
+        } catch ( Exception e ) {
+            ctx.stop();
+            Instrumentation.markReadError();
+            LOG.error( String.format( "Unable to read locator=%s rolluptype=%s columnFamilyName=%s for rollup",
+                    locator, rollupType.name(), columnFamilyName ), e );
+            return Futures.immediateFailedFuture( new IOException( e ) );
+        }
+
+        ListenableFuture<List<ResultSet>> resultSets = Futures.allAsList( futures );
+        ListenableFuture<Points> points = Futures.transform( resultSets, new Function<List<ResultSet>, Points>() {
+            @Override
+            public Points apply(List<ResultSet> input) {
+                // all futures are done at this point, so this does not block
+                Table<Locator, Long, Object> locatorTimestampRollup =
+                        io.toLocatorTimestampValue( futures, locator, columnFamilyName, range );
+
+                Points result = new Points();
+                for (Table.Cell<Locator, Long, Object> cell : locatorTimestampRollup.cellSet()) {
+                    result.add( createPoint( cell.getColumnKey(), cell.getValue() ) );
+                }
+                return result;
+            }
+        }, executor );
+
+        Futures.addCallback( points, new FutureCallback<Points>() {
+            @Override
+            public void onSuccess(Points result) {
+                ctx.stop();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                ctx.stop();
+                Instrumentation.markReadError();
+                LOG.error( String.format( "Unable to read locator=%s rolluptype=%s columnFamilyName=%s for rollup",
+                        locator, rollupType.name(), columnFamilyName ), t );
+            }
+        }, MoreExecutors.directExecutor() );
+
+        return points;
+    }
+
     /**
      * Converts a list of {@link com.datastax.driver.core.ResultSetFuture} for each
      * {@link com.rackspacecloud.blueflood.types.Locator} to
@@ -275,6 +485,14 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
                                                               Map<Locator, DAbstractMetricIO> locatorIO,
                                                               String columnFamily,
                                                               Range range) {
+        return resultSetsToMetricData(resultSets, locatorIO, columnFamily, range, BaseRollup.Stat.ALL);
+    }
+
+    protected Map<Locator, MetricData> resultSetsToMetricData(Map<Locator, List<ResultSetFuture>> resultSets,
+                                                              Map<Locator, DAbstractMetricIO> locatorIO,
+                                                              String columnFamily,
+                                                              Range range,
+                                                              Set<BaseRollup.Stat> stats) {
 
         MetadataCache metadataCache = MetadataCache.getInstance();
 
@@ -287,7 +505,7 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
             DAbstractMetricIO io = locatorIO.get(locator);
 
             // get ResultSets to a Table of locator, timestamp, rollup
-            Table<Locator, Long, Object> locatorTimestampRollup = io.toLocatorTimestampValue(futures, locator, columnFamily, range);
+            Table<Locator, Long, Object> locatorTimestampRollup = io.toLocatorTimestampValue(futures, locator, columnFamily, range, stats);
 
             Map<Long, Object> tsRollupMap = locatorTimestampRollup.row( locator );
 
@@ -341,22 +559,65 @@ public abstract class DAbstractMetricsRW extends AbstractMetricsRW {
     }
 
     /**
-     * This method inserts the locator into the metric_delayed_locator column family, if the metric is delayed.
+     * Adds the inserts into metrics_locator, metrics_delayed_locator and metrics_active_locator that a metric
+     * needs, and that are not already recorded in the locator cache, to the locator writes of an ingest request.
      *
      * @param metric
-     * @throws IOException
+     * @param writes
      */
-    protected void insertLocatorIfDelayed(IMetric metric) throws IOException {
-        Locator locator = metric.getLocator();
-        if ( isDelayed(metric) ) {
-            int slot = getDelayedSlot(metric);
-            if (!LocatorCache.getInstance().isDelayedLocatorForASlotCurrent(slot, locator)) {
-                delayedLocatorIO.insertLocator(DELAYED_METRICS_STORAGE_GRANULARITY, slot, locator);
-                LocatorCache.getInstance().setDelayedLocatorForASlotCurrent(slot, locator);
+    protected void collectLocatorWrites(IMetric metric, LocatorWrites writes) {
+        final Locator locator = metric.getLocator();
+        final LocatorCache cache = LocatorCache.getInstance();
+        final int shard = Util.getShard(locator.toString());
+
+        String partition = CassandraModel.CF_METRICS_LOCATOR_NAME + "," + shard;
+        if (!cache.isLocatorCurrentInBatchLayer(locator) && !writes.contains(partition, locator)) {
+            writes.add(partition, locator, locatorIO.getBoundStatementForLocator(locator),
+                    () -> cache.setLocatorCurrentInBatchLayer(locator));
+        } else {
+            LOG.trace("not inserting locator " + locator);
+        }
+
+        if (isRecordingDelayedMetrics && isDelayed(metric)) {
+            final int slot = getDelayedSlot(metric);
+            partition = CassandraModel.CF_METRICS_DELAYED_LOCATOR_NAME + "," +
+                    SlotKey.of(DELAYED_METRICS_STORAGE_GRANULARITY, slot, shard);
+            if (!cache.isDelayedLocatorForASlotCurrent(slot, locator) && !writes.contains(partition, locator)) {
+                writes.add(partition, locator,
+                        delayedLocatorIO.getBoundStatementForLocator(DELAYED_METRICS_STORAGE_GRANULARITY, slot, locator),
+                        () -> cache.setDelayedLocatorForASlotCurrent(slot, locator));
+            }
+        }
+
+        if (RECORD_ACTIVE_LOCATORS) {
+            final int slot = ACTIVE_LOCATORS_STORAGE_GRANULARITY.slot(metric.getCollectionTime());
+            partition = CassandraModel.CF_METRICS_ACTIVE_LOCATOR_NAME + "," +
+                    SlotKey.of(ACTIVE_LOCATORS_STORAGE_GRANULARITY, slot, shard);
+            if (!cache.isActiveLocatorForASlotCurrent(slot, locator) && !writes.contains(partition, locator)) {
+                writes.add(partition, locator,
+                        locatorIO.getBoundStatementForActiveLocator(ACTIVE_LOCATORS_STORAGE_GRANULARITY, slot, locator),
+                        () -> cache.setActiveLocatorForASlotCurrent(slot, locator));
             }
         }
     }
 
+    /**
+     * Returns a BoundStatement if a metric's locator needs to be inserted to the metrics_active_locator
+     * Column Family. Returns null otherwise.
+     *
+     * @param metric
+     * @return
+     */
+    public BoundStatement getBoundStatementForActiveLocator(IMetric metric) {
+        Locator locator = metric.getLocator();
+        int slot = ACTIVE_LOCATORS_STORAGE_GRANULARITY.slot(metric.getCollectionTime());
+        if (!LocatorCache.getInstance().isActiveLocatorForASlotCurrent(slot, locator)) {
+            LocatorCache.getInstance().setActiveLocatorForASlotCurrent(slot, locator);
+            return locatorIO.getBoundStatementForActiveLocator(ACTIVE_LOCATORS_STORAGE_GRANULARITY, slot, locator);
+        }
+        return null;
+    }
+
     /**
      * Returns a BoundStatement if a metric needs to be inserted to the metrics_delayed_locator
      * Column Family. Returns null otherwise.
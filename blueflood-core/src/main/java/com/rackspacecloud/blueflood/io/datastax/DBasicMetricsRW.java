@@ -10,6 +10,8 @@ import com.rackspacecloud.blueflood.cache.LocatorCache;
 import com.rackspacecloud.blueflood.io.*;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
 import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
 import com.rackspacecloud.blueflood.types.*;
 import com.rackspacecloud.blueflood.utils.Clock;
 import org.slf4j.Logger;
@@ -26,9 +28,15 @@ public class DBasicMetricsRW extends DAbstractMetricsRW {
 
     private static final Logger LOG = LoggerFactory.getLogger(DBasicMetricsRW.class);
 
+    private static final boolean FULL_RES_BLOCKS =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.ENABLE_FULL_RES_BLOCKS);
+
     private DSimpleNumberIO simpleNumberIO = new DSimpleNumberIO();
     private final DBasicNumericIO basicIO = new DBasicNumericIO();
 
+    // null unless full resolution points are written as blocks
+    private final DSimpleNumberBlockIO blockIO;
+
     /**
      * Constructor
      * @param isRecordingDelayedMetrics if true, delayed metrics are recorded in metrics_delayed_locator
@@ -39,6 +47,7 @@ public class DBasicMetricsRW extends DAbstractMetricsRW {
                            boolean isRecordingDelayedMetrics,
                            boolean isBatchIngestEnabled, Clock clock) {
         super(locatorIO, delayedLocatorIO, isRecordingDelayedMetrics, isBatchIngestEnabled, clock);
+        blockIO = FULL_RES_BLOCKS ? createBlockIO(clock) : null;
     }
 
     /**
@@ -50,6 +59,21 @@ public class DBasicMetricsRW extends DAbstractMetricsRW {
                            boolean isRecordingDelayedMetrics,
                            Clock clock) {
         super(locatorIO, delayedLocatorIO, isRecordingDelayedMetrics, false, clock);
+        blockIO = FULL_RES_BLOCKS ? createBlockIO(clock) : null;
+    }
+
+    private static DSimpleNumberBlockIO createBlockIO(Clock clock) {
+        Configuration config = Configuration.getInstance();
+        long writerId = config.getLongProperty(CoreConfig.FULL_RES_BLOCK_WRITER_ID);
+        if (writerId < 0) {
+            writerId = new Random().nextInt(Granularity.MIN_5.milliseconds());
+        }
+        LOG.info(String.format("Writing full resolution points as blocks, writer id %d", writerId));
+
+        DSimpleNumberBlockIO blockIO = new DSimpleNumberBlockIO(writerId,
+                config.getLongProperty(CoreConfig.FULL_RES_BLOCK_RETENTION_MS), clock);
+        blockIO.start(config.getLongProperty(CoreConfig.FULL_RES_BLOCK_FLUSH_INTERVAL_MS));
+        return blockIO;
     }
 
     /**
@@ -90,12 +114,30 @@ public class DBasicMetricsRW extends DAbstractMetricsRW {
      */
     @Override
     public Map<Locator, MetricData> getDatapointsForRange( List<Locator> locators, Range range, Granularity gran ) {
+        return getDatapointsForRange( locators, range, gran, BaseRollup.Stat.ALL );
+    }
+
+    /**
+     * Fetches {@link com.rackspacecloud.blueflood.outputs.formats.MetricData} objects for the
+     * specified list of {@link com.rackspacecloud.blueflood.types.Locator} and
+     * {@link com.rackspacecloud.blueflood.types.Range}, reading only the specified stats
+     * of the rollups.
+     *
+     * @param locators
+     * @param range
+     * @param gran
+     * @param stats the stats to read
+     * @return
+     */
+    @Override
+    public Map<Locator, MetricData> getDatapointsForRange( List<Locator> locators, Range range, Granularity gran,
+                                                            Set<BaseRollup.Stat> stats ) {
 
         Map<Locator, MetricData> metrics = new HashMap<Locator, MetricData>();
 
         String columnFamily = CassandraModel.getBasicColumnFamilyName( gran );
 
-        metrics.putAll( super.getDatapointsForRange( locators, range, columnFamily, gran));
+        metrics.putAll( super.getDatapointsForRange( locators, range, columnFamily, gran, stats ));
 
         return metrics;
     }
@@ -115,7 +157,7 @@ public class DBasicMetricsRW extends DAbstractMetricsRW {
     public DAbstractMetricIO getIO( String rollupType, Granularity granularity ) {
 
       if( granularity == Granularity.FULL )
-        return simpleNumberIO;
+        return blockIO != null ? blockIO : simpleNumberIO;
       else
         return basicIO;
     }
@@ -123,25 +165,26 @@ public class DBasicMetricsRW extends DAbstractMetricsRW {
     private void insertMetricsIndividually(Collection<IMetric> metrics) throws IOException {
 
         Map<Locator, ResultSetFuture> futures = new HashMap<Locator, ResultSetFuture>();
+        LocatorWrites locatorWrites = new LocatorWrites();
         for( IMetric metric : metrics ) {
 
             Locator locator = metric.getLocator();
 
-            if( !LocatorCache.getInstance().isLocatorCurrentInBatchLayer(locator) ) {
-
-                LocatorCache.getInstance().setLocatorCurrentInBatchLayer(locator);
-                locatorIO.insertLocator( locator );
-            }
+            collectLocatorWrites(metric, locatorWrites);
 
-            if (isRecordingDelayedMetrics) {
-                insertLocatorIfDelayed(metric);
+            if (blockIO != null) {
+                blockIO.buffer(metric);
+            } else {
+                futures.put(locator, simpleNumberIO.insertRawAsync(metric));
             }
 
-            futures.put(locator, simpleNumberIO.insertRawAsync(metric));
-
             Instrumentation.markFullResMetricWritten();
         }
 
+        // the raw points are either being written or buffered in the block writer, the locators are written
+        // alongside them
+        locatorWrites.execute(DatastaxIO.getSession());
+
         for( Map.Entry<Locator, ResultSetFuture> f : futures.entrySet() ) {
 
             try {
@@ -155,6 +198,8 @@ public class DBasicMetricsRW extends DAbstractMetricsRW {
                         f.getKey()), e );
             }
         }
+
+        locatorWrites.await();
     }
 
     /**
@@ -169,8 +214,12 @@ public class DBasicMetricsRW extends DAbstractMetricsRW {
         BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
 
         for (IMetric metric : metrics) {
-            BoundStatement bound = simpleNumberIO.getBoundStatementForMetric(metric);
-            batch.add(bound);
+            if (blockIO != null) {
+                blockIO.buffer(metric);
+            } else {
+                BoundStatement bound = simpleNumberIO.getBoundStatementForMetric(metric);
+                batch.add(bound);
+            }
             Instrumentation.markFullResMetricWritten();
 
             Locator locator = metric.getLocator();
@@ -187,8 +236,18 @@ public class DBasicMetricsRW extends DAbstractMetricsRW {
                     batch.add(bs);
                 }
             }
+
+            if ( RECORD_ACTIVE_LOCATORS ) {
+                BoundStatement bs = getBoundStatementForActiveLocator(metric);
+                if ( bs != null ) {
+                    batch.add(bs);
+                }
+            }
         }
         LOG.trace(String.format("insert batch statement size=%d", batch.size()));
+        if (batch.size() == 0) {
+            return;
+        }
 
         try {
             DatastaxIO.getSession().execute(batch);
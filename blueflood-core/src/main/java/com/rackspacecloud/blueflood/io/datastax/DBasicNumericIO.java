@@ -10,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
+import java.util.Set;
 
 
 /**
@@ -37,6 +38,12 @@ public class DBasicNumericIO extends DAbstractMetricIO {
         return serDes.deserialize( byteBuffer );
     }
 
+    @Override
+    protected Object fromByteBuffer( ByteBuffer byteBuffer, Set<BaseRollup.Stat> stats ) {
+
+        return serDes.deserialize( byteBuffer, stats );
+    }
+
     /**
      *
      * @param metric
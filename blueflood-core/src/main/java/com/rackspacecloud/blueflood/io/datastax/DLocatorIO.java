@@ -55,6 +55,8 @@ public class DLocatorIO implements LocatorIO {
 
     private static PreparedStatement getValue;
     private static PreparedStatement putValue;
+    private static PreparedStatement getActiveValue;
+    private static PreparedStatement putActiveValue;
 
     /**
      * Constructor
@@ -76,7 +78,7 @@ public class DLocatorIO implements LocatorIO {
                 .all()
                 .from( CassandraModel.CF_METRICS_LOCATOR_NAME )
                 .where( eq ( KEY, bindMarker() ));
-        getValue = DatastaxIO.getSession().prepare( select );
+        getValue = DatastaxIO.getSession().prepare( select ).setIdempotent( true );
 
         // create a generic insert statement for inserting into metrics_locator
         Insert insert = QueryBuilder.insertInto( CassandraModel.CF_METRICS_LOCATOR_NAME)
@@ -87,6 +89,24 @@ public class DLocatorIO implements LocatorIO {
         putValue = DatastaxIO.getSession()
                 .prepare(insert)
                 .setConsistencyLevel( ConsistencyLevel.LOCAL_ONE );
+
+        // create a generic select statement for retrieving from metrics_active_locator
+        Select.Where selectActive = QueryBuilder
+                .select()
+                .all()
+                .from( CassandraModel.CF_METRICS_ACTIVE_LOCATOR_NAME )
+                .where( eq ( KEY, bindMarker() ));
+        getActiveValue = DatastaxIO.getSession().prepare( selectActive ).setIdempotent( true );
+
+        // create a generic insert statement for inserting into metrics_active_locator
+        Insert insertActive = QueryBuilder.insertInto( CassandraModel.CF_METRICS_ACTIVE_LOCATOR_NAME)
+                .using(ttl(TenantTtlProvider.ACTIVE_LOCATOR_TTL))
+                .value(KEY, bindMarker())
+                .value(COLUMN1, bindMarker())
+                .value(VALUE, bindMarker());
+        putActiveValue = DatastaxIO.getSession()
+                .prepare(insertActive)
+                .setConsistencyLevel( ConsistencyLevel.LOCAL_ONE );
     }
 
     /**
@@ -115,6 +135,71 @@ public class DLocatorIO implements LocatorIO {
         return putValue.bind(shard, locator.toString(), "");
     }
 
+    /**
+     * Insert a locator into metrics_active_locator with key = the SlotKey of the locator's shard
+     * @param g
+     * @param slot
+     * @param locator
+     * @throws IOException
+     */
+    @Override
+    public void insertActiveLocator(Granularity g, int slot, Locator locator) throws IOException {
+        Session session = DatastaxIO.getSession();
+
+        Timer.Context timer = Instrumentation.getWriteTimerContext(CassandraModel.CF_METRICS_ACTIVE_LOCATOR_NAME);
+        try {
+            // bound values and execute
+            BoundStatement bs = getBoundStatementForActiveLocator(g, slot, locator);
+            session.execute(bs);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    // package protect so other classes in this package can call it
+    BoundStatement getBoundStatementForActiveLocator(Granularity granularity, int slot, Locator locator) {
+        int shard = Util.getShard(locator.toString());
+        return putActiveValue.bind(SlotKey.of(granularity, slot, shard).toString(), locator.toString(), "");
+    }
+
+    /**
+     * Returns the locators that received data during the given slot of a shard.
+     *
+     * @param slotKey
+     * @return Collection of locators
+     * @throws IOException
+     */
+    @Override
+    public Collection<Locator> getActiveLocators(SlotKey slotKey) throws IOException {
+
+        Timer.Context ctx = Instrumentation.getReadTimerContext(CassandraModel.CF_METRICS_ACTIVE_LOCATOR_NAME);
+        Session session = DatastaxIO.getSession();
+
+        Collection<Locator> locators = new ArrayList<Locator>();
+
+        try {
+            // bind value
+            BoundStatement bs = getActiveValue.bind(slotKey.toString());
+            ResultSet resultSet = session.execute(bs);
+            HedgedReadPolicy.recordResult(resultSet);
+            List<Row> results = resultSet.all();
+            for ( Row row : results ) {
+                locators.add(Locator.createLocatorFromDbKey(row.getString(COLUMN1)));
+            }
+
+            // return results
+            if (locators.size() == 0) {
+                Instrumentation.markNotFound(CassandraModel.CF_METRICS_ACTIVE_LOCATOR_NAME);
+                return Collections.emptySet();
+            }
+            else {
+                return locators;
+            }
+        } finally {
+            ctx.stop();
+        }
+    }
+
     /**
      * Returns the locators for a shard, i.e. those that should be rolled up, for a given shard.
      * 'Should' means:
@@ -136,7 +221,9 @@ public class DLocatorIO implements LocatorIO {
         try {
             // bind value
             BoundStatement bs = getValue.bind(shard);
-            List<Row> results = session.execute(bs).all();
+            ResultSet resultSet = session.execute(bs);
+            HedgedReadPolicy.recordResult(resultSet);
+            List<Row> results = resultSet.all();
             for ( Row row : results ) {
                 if ( LOG.isTraceEnabled() ) {
                     LOG.trace( "Read metrics_locators with shard " + shard + ": " +
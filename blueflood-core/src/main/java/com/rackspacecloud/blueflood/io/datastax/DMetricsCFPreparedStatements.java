@@ -222,6 +222,11 @@ public class DMetricsCFPreparedStatements {
         cfNameToSelectStatement.put( CassandraModel.CF_METRICS_240M_NAME, selectFromMetricsBasic240MForRangeStatement );
         cfNameToSelectStatement.put(CassandraModel.CF_METRICS_1440M_NAME, selectFromMetricsBasic1440MForRangeStatement);
 
+        // selects can be hedged, see HedgedReadPolicy
+        for (PreparedStatement select : cfNameToSelectStatement.values()) {
+            select.setIdempotent(true);
+        }
+
         basicGranToInsertStatement = new HashMap<Granularity, PreparedStatement>() {{
             // NOTE:  this shoudn't be called.  explain why later
             put(Granularity.FULL, insertToMetricsBasicFullStatement );
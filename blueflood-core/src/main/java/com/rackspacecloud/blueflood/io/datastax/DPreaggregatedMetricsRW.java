@@ -175,6 +175,7 @@ public class DPreaggregatedMetricsRW extends DAbstractMetricsRW implements Preag
         throws IOException
     {
         Map<ResultSetFuture, Locator> futureLocatorMap = new HashMap<ResultSetFuture, Locator>();
+        LocatorWrites locatorWrites = new LocatorWrites();
         for (Locator locator : map.keySet()) {
             for (IMetric metric : map.get(locator)) {
                 RollupType rollupType = metric.getRollupType();
@@ -202,20 +203,13 @@ public class DPreaggregatedMetricsRW extends DAbstractMetricsRW implements Preag
                     Instrumentation.markFullResPreaggregatedMetricWritten();
                 }
 
-                if ( !LocatorCache.getInstance().isLocatorCurrentInBatchLayer(locator) ) {
-                    locatorIO.insertLocator(locator);
-                    LocatorCache.getInstance().setLocatorCurrentInBatchLayer(locator);
-                }  else {
-                    LOG.trace("insertMetrics(): not inserting locator " + locator);
-                }
-
-                if (isRecordingDelayedMetrics) {
-                    insertLocatorIfDelayed(metric);
-                }
-
+                collectLocatorWrites(metric, locatorWrites);
             }
         }
 
+        // the rollups are already being written, the locators are written alongside them
+        locatorWrites.execute(DatastaxIO.getSession());
+
         for (ResultSetFuture future : futureLocatorMap.keySet()) {
             try {
                 future.getUninterruptibly().all();
@@ -225,6 +219,8 @@ public class DPreaggregatedMetricsRW extends DAbstractMetricsRW implements Preag
                         futureLocatorMap.get(future), granularity), ex);
             }
         }
+
+        locatorWrites.await();
     }
 
     private void insertMetricsInBatch(Multimap<Locator, IMetric> map, Granularity granularity) {
@@ -255,6 +251,13 @@ public class DPreaggregatedMetricsRW extends DAbstractMetricsRW implements Preag
                         batch.add(bs);
                     }
                 }
+
+                if ( RECORD_ACTIVE_LOCATORS ) {
+                    BoundStatement bs = getBoundStatementForActiveLocator(metric);
+                    if ( bs != null ) {
+                        batch.add(bs);
+                    }
+                }
             }
         }
         LOG.trace(String.format("insert preaggregated batch statement size=%d", batch.size()));
@@ -48,6 +48,13 @@ public class DShardStateIO implements ShardStateIO {
 
     private final SlotStateSerDes serDes = new SlotStateSerDes();
 
+    /**
+     * The slots of a shard written in one batch. All the slots of a shard are
+     * in the same partition, this only keeps the batches under the Cassandra
+     * batch size warning threshold.
+     */
+    private static final int MAX_SLOTS_PER_BATCH = 50;
+
     private static PreparedStatement getShardState;
     private static PreparedStatement putShardState;
 
@@ -67,7 +74,7 @@ public class DShardStateIO implements ShardStateIO {
                 .from( CassandraModel.CF_METRICS_STATE_NAME)
                 .where(eq(KEY, bindMarker() ));
 
-        getShardState = DatastaxIO.getSession().prepare( statement );
+        getShardState = DatastaxIO.getSession().prepare( statement ).setIdempotent( true );
 
         Insert insert = insertInto(CassandraModel.CF_METRICS_STATE_NAME)
                 .value( KEY, bindMarker() )
@@ -82,36 +89,82 @@ public class DShardStateIO implements ShardStateIO {
     public Collection<SlotState> getShardState(int shard) throws IOException {
 
         Timer.Context ctx = Instrumentation.getReadTimerContext(CassandraModel.CF_METRICS_STATE_NAME);
-        final Collection<SlotState> slotStates = new LinkedList<SlotState>();
         Session session = DatastaxIO.getSession();
 
         try {
 
             BoundStatement bound = getShardState.bind((long) shard);
 
-            List<Row> results = session.execute(bound).all();
+            return toSlotStates(session.execute(bound));
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    /**
+     * Reads the state of all the shards concurrently, and deserializes each
+     * shard as its rows arrive.
+     */
+    @Override
+    public Map<Integer, Collection<SlotState>> getShardStates(Collection<Integer> shards) {
+
+        Timer.Context ctx = Instrumentation.getReadTimerContext(CassandraModel.CF_METRICS_STATE_NAME);
+        Session session = DatastaxIO.getSession();
+
+        Map<Integer, ResultSetFuture> futures = new LinkedHashMap<Integer, ResultSetFuture>();
+        Map<Integer, Collection<SlotState>> shardStates = new HashMap<Integer, Collection<SlotState>>();
 
-            for (Row row : results) {
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace(String.format("Read shard: %d: - %s %s\n",
-                            row.getLong( KEY ),
-                            row.getString( COLUMN1 ),
-                            row.getLong( VALUE ),
-                            row.getLong( WRITE_TIME )));
+        try {
+            for (int shard : shards) {
+                futures.put(shard, session.executeAsync(getShardState.bind((long) shard)));
+            }
+
+            for (Map.Entry<Integer, ResultSetFuture> future : futures.entrySet()) {
+                try {
+                    shardStates.put(future.getKey(), toSlotStates(future.getValue().getUninterruptibly()));
+                } catch (Exception e) {
+                    Instrumentation.markReadError();
+                    LOG.error(String.format("error reading metrics_state of shard %d", future.getKey()), e);
                 }
-                SlotState state = serDes.deserialize(row.getString( COLUMN1 ));
-                state.withTimestamp(row.getLong( VALUE ))
-                     .withLastUpdatedTimestamp(row.getLong( WRITE_TIME ) / 1000); //write time is in micro seconds
-                slotStates.add(state);
             }
-            return slotStates;
+            return shardStates;
         } finally {
             ctx.stop();
         }
     }
 
+    private Collection<SlotState> toSlotStates(ResultSet results) {
+        HedgedReadPolicy.recordResult(results);
+        final Collection<SlotState> slotStates = new LinkedList<SlotState>();
+
+        for (Row row : results) {
+            if (LOG.isTraceEnabled()) {
+                LOG.trace(String.format("Read shard: %d: - %s %s\n",
+                        row.getLong( KEY ),
+                        row.getString( COLUMN1 ),
+                        row.getLong( VALUE ),
+                        row.getLong( WRITE_TIME )));
+            }
+            SlotState state = serDes.deserialize(row.getString( COLUMN1 ));
+            state.withTimestamp(row.getLong( VALUE ))
+                 .withLastUpdatedTimestamp(row.getLong( WRITE_TIME ) / 1000); //write time is in micro seconds
+            slotStates.add(state);
+        }
+        return slotStates;
+    }
+
     @Override
     public void putShardState(int shard, Map<Granularity, Map<Integer, UpdateStamp>> slotTimes) throws IOException {
+        putShardStates(Collections.singletonMap(shard, slotTimes));
+    }
+
+    /**
+     * Writes the dirty slots of each shard in single partition UNLOGGED
+     * batches of up to {@link #MAX_SLOTS_PER_BATCH} slots, and writes all the
+     * shards concurrently.
+     */
+    @Override
+    public void putShardStates(Map<Integer, Map<Granularity, Map<Integer, UpdateStamp>>> slotTimesByShard) {
 
         Timer.Context ctx = Instrumentation.getWriteTimerContext(CassandraModel.CF_METRICS_STATE_NAME);
         Session session = DatastaxIO.getSession();
@@ -119,30 +172,43 @@ public class DShardStateIO implements ShardStateIO {
         Map<String, ResultSetFuture> futures = new HashMap<String, ResultSetFuture>();
 
         try {
-            Set<Granularity> granularities = slotTimes.keySet();
-            for (Granularity gran : granularities) {
+            for (Map.Entry<Integer, Map<Granularity, Map<Integer, UpdateStamp>>> shardEntry : slotTimesByShard.entrySet()) {
+
+                int shard = shardEntry.getKey();
+                BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+                int batchNumber = 0;
+
+                for (Map.Entry<Granularity, Map<Integer, UpdateStamp>> granEntry : shardEntry.getValue().entrySet()) {
+
+                    Granularity gran = granEntry.getKey();
+                    for (Map.Entry<Integer, UpdateStamp> entry : granEntry.getValue().entrySet()) {
 
-                Set<Map.Entry<Integer, UpdateStamp>> entries = slotTimes.get(gran).entrySet();
-                for (Map.Entry<Integer, UpdateStamp> entry : entries) {
+                        String value = serDes.serialize(gran, entry.getKey(), entry.getValue().getState());
 
-                    String value = serDes.serialize(gran, entry.getKey(), entry.getValue().getState());
+                        batch.add(putShardState.bind( (long) shard,
+                                value,
+                                entry.getValue().getTimestamp()));
 
-                    BoundStatement bound = putShardState.bind( (long) shard,
-                            value,
-                            entry.getValue().getTimestamp());
+                        if (batch.size() >= MAX_SLOTS_PER_BATCH) {
+                            futures.put("shard: " + shard + ", batch " + batchNumber++, executeBatch(session, batch));
+                            batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+                        }
+                    }
+                }
 
-                    futures.put( "shard: " + shard +", " + value, session.executeAsync( bound ) );
+                if (batch.size() > 0) {
+                    futures.put("shard: " + shard + ", batch " + batchNumber, executeBatch(session, batch));
                 }
             }
 
             for( Map.Entry<String, ResultSetFuture> future : futures.entrySet() ) {
 
                 try {
-                    ResultSet result = future.getValue().getUninterruptibly();
-                    LOG.trace( "results.size=" + result.all().size() );
+                    future.getValue().getUninterruptibly();
                 }
                 catch ( Exception e ) {
 
+                    Instrumentation.markWriteError();
                     LOG.error( String.format( "error writing to metrics_state: %s", future.getKey() ), e );
                 }
             }
@@ -152,4 +218,13 @@ public class DShardStateIO implements ShardStateIO {
         }
     }
 
+    private ResultSetFuture executeBatch(Session session, BatchStatement batch) {
+        // a batch of one statement is not worth the batch overhead
+        if (batch.size() == 1) {
+            return session.executeAsync(batch.getStatements().iterator().next());
+        }
+        batch.setConsistencyLevel( ConsistencyLevel.LOCAL_ONE );
+        return session.executeAsync(batch);
+    }
+
 }
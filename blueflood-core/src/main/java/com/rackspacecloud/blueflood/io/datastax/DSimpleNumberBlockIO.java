@@ -0,0 +1,403 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.codahale.metrics.Meter;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.io.serializers.metrics.BlockSerDes;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.BaseRollup;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.utils.Clock;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class reads/writes the full resolution points of basic metrics as compressed blocks, in the
+ * metrics_full_blocks column family, instead of one column per point in metrics_full.
+ *
+ * Ingested points are buffered in memory per locator and 5 minute slot, and each block that received points is
+ * rewritten as a whole every flush interval. The column of a block is the start of its slot plus the id of the
+ * ingestion node that wrote it, so nodes ingesting points of the same locator never overwrite each other's
+ * blocks. A block stays buffered until its slot ended more than the retention period ago. A block that fails to
+ * be written MAX_FLUSH_ATTEMPTS times in a row is dropped.
+ *
+ * A block this process may already have written, because it is created for a slot past its retention period or
+ * it was dropped after being written, is merged with the block read back from Cassandra before it is written
+ * again, so that a late point does not overwrite the points written before. The reads are asynchronous, like
+ * the writes. Other blocks are not read back: the writer id is picked at random when the process starts, so
+ * unless it is configured, nothing can have been written for them yet.
+ *
+ * Points buffered since the last flush are lost if the node dies, and points only become readable once
+ * flushed, so the flush interval has to be well below ROLLUP_DELAY_MILLIS.
+ *
+ * Reads return the points of both the blocks and the metrics_full columns, so points written before blocks
+ * were enabled remain readable.
+ */
+public class DSimpleNumberBlockIO extends DSimpleNumberIO {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DSimpleNumberBlockIO.class);
+
+    private static final Granularity BLOCK_GRANULARITY = Granularity.MIN_5;
+    private static final long BLOCK_MILLIS = BLOCK_GRANULARITY.milliseconds();
+
+    private static final Meter flushedBlocks = Metrics.meter(DSimpleNumberBlockIO.class, "Flushed Blocks");
+    private static final Meter mergedBlocks = Metrics.meter(DSimpleNumberBlockIO.class, "Merged Blocks");
+    private static final Meter droppedBlocks = Metrics.meter(DSimpleNumberBlockIO.class, "Dropped Blocks");
+
+    @VisibleForTesting
+    static final int MAX_FLUSH_ATTEMPTS = 5;
+
+    private final BlockSerDes blockSerDes = new BlockSerDes();
+    private final PreparedStatement insertBlock;
+    private final PreparedStatement selectBlocks;
+    private final PreparedStatement selectBlock;
+
+    private final long writerId;
+    private final long retentionMillis;
+    private final Clock clock;
+    private final ConcurrentMap<BlockKey, Block> blocks = new ConcurrentHashMap<BlockKey, Block>();
+    // the blocks dropped after they were, or may have been, written, until their slot is past its retention period
+    private final Set<BlockKey> droppedWrittenBlocks = Collections.newSetFromMap(new ConcurrentHashMap<BlockKey, Boolean>());
+    private ScheduledExecutorService flushExecutor;
+
+    /**
+     * @param writerId the id of this ingestion node, between 0 and the number of milliseconds in a slot
+     * @param retentionMillis how long after the end of its slot a block stays buffered
+     * @param clock
+     */
+    public DSimpleNumberBlockIO(long writerId, long retentionMillis, Clock clock) {
+        if (writerId < 0 || writerId >= BLOCK_MILLIS) {
+            throw new IllegalArgumentException(String.format("writer id %d is not between 0 and %d", writerId, BLOCK_MILLIS));
+        }
+        this.writerId = writerId;
+        this.retentionMillis = retentionMillis;
+        this.clock = clock;
+
+        insertBlock = session.prepare(String.format(DMetricsCFPreparedStatements.INSERT_KEY_COLUMN_VALUE_TTL_FORMAT,
+                CassandraModel.CF_METRICS_FULL_BLOCKS_NAME));
+        selectBlocks = session.prepare(String.format(DMetricsCFPreparedStatements.SELECT_FOR_KEY_RANGE_FORMAT,
+                CassandraModel.CF_METRICS_FULL_BLOCKS_NAME));
+        selectBlock = session.prepare(String.format("SELECT * FROM %s WHERE key = ? AND column1 = ?",
+                CassandraModel.CF_METRICS_FULL_BLOCKS_NAME));
+    }
+
+    /**
+     * Starts flushing the buffered blocks periodically.
+     *
+     * @param flushIntervalMillis
+     */
+    public synchronized void start(long flushIntervalMillis) {
+        if (flushExecutor != null) {
+            return;
+        }
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("Full Res Block Flusher").setDaemon(true).build());
+        flushExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Throwable t) {
+                    LOG.error("Error while flushing full resolution blocks", t);
+                }
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a raw metric to the block of its locator and slot, to be written at the next flush.
+     *
+     * @param metric
+     */
+    public void buffer(IMetric metric) {
+        long timestamp = metric.getCollectionTime();
+        BlockKey key = new BlockKey(metric.getLocator(), BLOCK_GRANULARITY.snapMillis(timestamp));
+        while (true) {
+            Block block = blocks.get(key);
+            if (block == null) {
+                Block created = new Block();
+                synchronized (created) {
+                    if (blocks.putIfAbsent(key, created) == null) {
+                        created.merge = isPastRetention(key, clock.now().getMillis()) || droppedWrittenBlocks.remove(key);
+                    }
+                }
+                block = blocks.get(key);
+            }
+            synchronized (block) {
+                if (!block.evicted) {
+                    block.points.put(timestamp, metric.getMetricValue());
+                    block.ttl = Math.max(block.ttl, metric.getTtlInSeconds());
+                    block.dirty = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes every block that received points since the last flush, and evicts the blocks whose slot ended
+     * more than the retention period ago. The blocks to merge are written once their stored points are read.
+     */
+    @VisibleForTesting
+    public void flush() {
+        long now = clock.now().getMillis();
+        Map<BlockKey, ResultSetFuture> writes = new HashMap<BlockKey, ResultSetFuture>();
+        Map<BlockKey, ResultSetFuture> reads = new HashMap<BlockKey, ResultSetFuture>();
+
+        for (Map.Entry<BlockKey, Block> entry : blocks.entrySet()) {
+            BlockKey key = entry.getKey();
+            Block block = entry.getValue();
+            SortedMap<Long, Object> points;
+            int ttl;
+            boolean merge;
+            synchronized (block) {
+                if (!block.dirty) {
+                    if (isPastRetention(key, now)) {
+                        block.evicted = true;
+                        blocks.remove(key, block);
+                    }
+                    continue;
+                }
+                points = new TreeMap<Long, Object>(block.points);
+                ttl = block.ttl;
+                merge = block.merge;
+                block.dirty = false;
+            }
+
+            try {
+                if (merge) {
+                    reads.put(key, session.executeAsync(selectBlock.bind(key.locator.toString(), key.slotStart + writerId)));
+                } else {
+                    writes.put(key, write(key, points, ttl));
+                }
+            } catch (Exception e) {
+                markFailed(key, block, e);
+            }
+        }
+
+        for (Map.Entry<BlockKey, ResultSetFuture> read : reads.entrySet()) {
+            BlockKey key = read.getKey();
+            Block block = blocks.get(key);
+            if (block == null) {
+                continue;
+            }
+            try {
+                SortedMap<Long, Object> stored = new TreeMap<Long, Object>();
+                for (Row row : read.getValue().getUninterruptibly()) {
+                    stored.putAll(blockSerDes.deserialize(row.getBytes(DMetricsCFPreparedStatements.VALUE)));
+                }
+                SortedMap<Long, Object> points;
+                int ttl;
+                synchronized (block) {
+                    for (Map.Entry<Long, Object> point : stored.entrySet()) {
+                        if (!block.points.containsKey(point.getKey())) {
+                            block.points.put(point.getKey(), point.getValue());
+                        }
+                    }
+                    block.merge = false;
+                    points = new TreeMap<Long, Object>(block.points);
+                    ttl = block.ttl;
+                }
+                mergedBlocks.mark();
+                writes.put(key, write(key, points, ttl));
+            } catch (Exception e) {
+                markFailed(key, block, e);
+            }
+        }
+
+        for (Map.Entry<BlockKey, ResultSetFuture> future : writes.entrySet()) {
+            try {
+                future.getValue().getUninterruptibly();
+                flushedBlocks.mark();
+                Block block = blocks.get(future.getKey());
+                if (block != null) {
+                    synchronized (block) {
+                        block.failedAttempts = 0;
+                        block.written = true;
+                    }
+                }
+            } catch (Exception e) {
+                markFailed(future.getKey(), blocks.get(future.getKey()), e);
+            }
+        }
+
+        for (BlockKey key : droppedWrittenBlocks) {
+            if (isPastRetention(key, now)) {
+                // created again, the block is merged anyway
+                droppedWrittenBlocks.remove(key);
+            }
+        }
+    }
+
+    private ResultSetFuture write(BlockKey key, SortedMap<Long, Object> points, int ttl) {
+        return session.executeAsync(insertBlock.bind(key.locator.toString(),
+                key.slotStart + writerId, blockSerDes.serialize(points), ttl));
+    }
+
+    private boolean isPastRetention(BlockKey key, long now) {
+        return now > key.slotStart + BLOCK_MILLIS + retentionMillis;
+    }
+
+    private void markFailed(BlockKey key, Block block, Exception e) {
+        Instrumentation.markWriteError();
+        LOG.error(String.format("error writing full resolution block of locator %s, slot starting at %d",
+                key.locator, key.slotStart), e);
+        if (block != null) {
+            synchronized (block) {
+                block.failedAttempts++;
+                if (block.failedAttempts < MAX_FLUSH_ATTEMPTS) {
+                    // written again at the next flush
+                    block.dirty = true;
+                } else {
+                    block.evicted = true;
+                    blocks.remove(key, block);
+                    if (block.written || block.merge) {
+                        droppedWrittenBlocks.add(key);
+                    }
+                    droppedBlocks.mark();
+                    LOG.error(String.format("dropped full resolution block of locator %s, slot starting at %d, " +
+                            "with %d points after %d failed writes", key.locator, key.slotStart,
+                            block.points.size(), block.failedAttempts));
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getBufferedBlockCount() {
+        return blocks.size();
+    }
+
+    /**
+     * Selects the blocks of the slots overlapping the range, followed by the metrics_full columns of the range.
+     */
+    @Override
+    protected List<ResultSetFuture> selectForLocatorAndRange(String columnFamily, Locator locator, Range range) {
+        if (!CassandraModel.CF_METRICS_FULL_NAME.equals(columnFamily)) {
+            return super.selectForLocatorAndRange(columnFamily, locator, range);
+        }
+        List<ResultSetFuture> futures = new ArrayList<ResultSetFuture>();
+        futures.add(session.executeAsync(selectBlocks.bind(locator.toString(),
+                BLOCK_GRANULARITY.snapMillis(range.getStart()),
+                BLOCK_GRANULARITY.snapMillis(range.getStop()) + BLOCK_MILLIS - 1)));
+        futures.addAll(super.selectForLocatorAndRange(columnFamily, locator, range));
+        return futures;
+    }
+
+    /**
+     * Decodes the blocks and columns selected by {@link #selectForLocatorAndRange(String, Locator, Range)},
+     * keeping the points of the blocks that fall in the range. Full resolution points have no stats, so the stats
+     * only matter for the other column families.
+     */
+    @Override
+    public <T extends Object> Table<Locator, Long, T> toLocatorTimestampValue(List<ResultSetFuture> futures,
+                                                                              Locator locator,
+                                                                              String columnFamily,
+                                                                              Range range,
+                                                                              Set<BaseRollup.Stat> stats) {
+        if (!CassandraModel.CF_METRICS_FULL_NAME.equals(columnFamily)) {
+            return super.toLocatorTimestampValue(futures, locator, columnFamily, range, stats);
+        }
+
+        Table<Locator, Long, T> locatorTimestampValue = HashBasedTable.create();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                for (Row row : futures.get(i).getUninterruptibly()) {
+                    if (i == 0) {
+                        SortedMap<Long, Object> block = blockSerDes.deserialize(row.getBytes(DMetricsCFPreparedStatements.VALUE));
+                        for (Map.Entry<Long, Object> point : block.subMap(range.getStart(), range.getStop() + 1).entrySet()) {
+                            locatorTimestampValue.put(locator, point.getKey(), (T) point.getValue());
+                        }
+                    } else {
+                        locatorTimestampValue.put(locator, row.getLong(DMetricsCFPreparedStatements.COLUMN1),
+                                (T) fromByteBuffer(row.getBytes(DMetricsCFPreparedStatements.VALUE)));
+                    }
+                }
+            } catch (Exception ex) {
+                Instrumentation.markReadError();
+                LOG.error(String.format("error reading metric for locator %s, column family '%s', range %s",
+                        locator, columnFamily, range.toString()), ex);
+            }
+        }
+        Instrumentation.getRawPointsIn5MinHistogram().update(locatorTimestampValue.size());
+        return locatorTimestampValue;
+    }
+
+    private static class BlockKey {
+        private final Locator locator;
+        private final long slotStart;
+
+        private BlockKey(Locator locator, long slotStart) {
+            this.locator = locator;
+            this.slotStart = slotStart;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return slotStart == other.slotStart && locator.equals(other.locator);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * locator.hashCode() + (int) (slotStart ^ (slotStart >>> 32));
+        }
+    }
+
+    private static class Block {
+        // all guarded by the block
+        private final SortedMap<Long, Object> points = new TreeMap<Long, Object>();
+        private int ttl = 0;
+        private boolean dirty = false;
+        private boolean evicted = false;
+        private int failedAttempts = 0;
+        // written at least once by this process
+        private boolean written = false;
+        // points may have been written for the slot before the block was created
+        private boolean merge = false;
+    }
+}
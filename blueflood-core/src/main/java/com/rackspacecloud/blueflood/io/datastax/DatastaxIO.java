@@ -97,14 +97,27 @@ public class DatastaxIO implements AutoCloseable {
 
         CodecRegistry codecRegistry = new CodecRegistry();
 
-        Cluster cluster = Cluster.builder()
+        Cluster.Builder builder = Cluster.builder()
                 .withLoadBalancingPolicy(new TokenAwarePolicy(DCAwareRoundRobinPolicy.builder().withLocalDc(ioconfig.getDatacenterName()).build(), false))
                 .withPoolingOptions(getPoolingOptions())
                 .withRetryPolicy(new RetryNTimes(readTimeoutMaxRetries, writeTimeoutMaxRetries, unavailableMaxRetries))
                 .withCodecRegistry(codecRegistry)
                 .withSocketOptions(getSocketOptions())
-                .addContactPointsWithPorts(dbHosts)
-                .build();
+                .addContactPointsWithPorts(dbHosts);
+
+        HedgedReadPolicy hedgedReadPolicy = null;
+        if (ioconfig.isHedgedReadsEnabled()) {
+            hedgedReadPolicy = new HedgedReadPolicy(ioconfig.getHedgedReadsPercentile(),
+                    ioconfig.getHedgedReadsMinDelayMillis(), ioconfig.getHedgedReadsMaxPerSecond());
+            builder.withSpeculativeExecutionPolicy(hedgedReadPolicy);
+        }
+
+        Cluster cluster = builder.build();
+
+        if (hedgedReadPolicy != null) {
+            // the policy computes its delay from the latencies of the reads
+            cluster.register(hedgedReadPolicy);
+        }
 
         QueryLogger queryLogger = QueryLogger.builder()
                 .withConstantThreshold(5000)
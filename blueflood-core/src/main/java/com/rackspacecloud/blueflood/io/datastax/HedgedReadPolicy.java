@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2016 Rackspace.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.LatencyTracker;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.policies.SpeculativeExecutionPolicy;
+import com.google.common.annotations.VisibleForTesting;
+import com.rackspacecloud.blueflood.utils.Clock;
+import com.rackspacecloud.blueflood.utils.DefaultClockImpl;
+import com.rackspacecloud.blueflood.utils.Metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A speculative execution policy that hedges slow reads: when a read has not completed after a
+ * percentile of the recent read latencies, the same read is sent to the next replica of the query
+ * plan, and the first response wins.
+ *
+ * The driver only applies it to statements marked idempotent, which are the selects of the metrics,
+ * locator and shard state column families. The latencies of these reads are tracked by this class,
+ * registered as a {@link LatencyTracker} of the cluster, and the delay is recomputed at most once a
+ * second. At most one hedge is sent per read, and no more than a maximum number of hedges are sent
+ * per second, so a slow cluster is not flooded with twice the reads.
+ */
+public class HedgedReadPolicy implements SpeculativeExecutionPolicy, LatencyTracker {
+
+    /**
+     * Reads are not hedged until that many latencies have been recorded.
+     */
+    @VisibleForTesting
+    static final int MIN_SAMPLES = 100;
+
+    private static final long DELAY_REFRESH_MILLIS = 1000;
+
+    private static final Meter hedgesFired = Metrics.meter(HedgedReadPolicy.class, "Hedged Reads Fired");
+    private static final Meter hedgesWon = Metrics.meter(HedgedReadPolicy.class, "Hedged Reads Won");
+    private static final Meter hedgesCapped = Metrics.meter(HedgedReadPolicy.class, "Hedged Reads Capped");
+
+    private final double percentile;
+    private final long minDelayMillis;
+    private final int maxHedgesPerSecond;
+    private final Clock clock;
+
+    private final Histogram latencies = new Histogram(new ExponentiallyDecayingReservoir());
+    private final AtomicLong delayComputedAt = new AtomicLong();
+    private volatile long delayMillis = -1;
+
+    private final AtomicLong currentSecond = new AtomicLong();
+    private final AtomicInteger hedgesThisSecond = new AtomicInteger();
+
+    /**
+     * @param percentile the percentile of the read latencies after which a read is hedged, between 0 and 100
+     * @param minDelayMillis the minimum delay before a read is hedged
+     * @param maxHedgesPerSecond the maximum number of hedges sent per second
+     */
+    public HedgedReadPolicy(double percentile, long minDelayMillis, int maxHedgesPerSecond) {
+        this(percentile, minDelayMillis, maxHedgesPerSecond, new DefaultClockImpl());
+    }
+
+    @VisibleForTesting
+    HedgedReadPolicy(double percentile, long minDelayMillis, int maxHedgesPerSecond, Clock clock) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100, exclusive: " + percentile);
+        }
+        this.percentile = percentile / 100;
+        this.minDelayMillis = Math.max(0, minDelayMillis);
+        this.maxHedgesPerSecond = maxHedgesPerSecond;
+        this.clock = clock;
+
+        String delayGauge = MetricRegistry.name(HedgedReadPolicy.class, "Hedged Reads Delay Millis");
+        Metrics.getRegistry().remove(delayGauge);
+        Metrics.getRegistry().register(delayGauge, (Gauge<Long>) () -> delayMillis);
+    }
+
+    /**
+     * Marks the "Hedged Reads Won" meter if the result of a read came from a hedge rather than from
+     * the initial request. Call it on the results of the reads that may be hedged.
+     */
+    public static void recordResult(ResultSet results) {
+        ExecutionInfo info = results == null ? null : results.getExecutionInfo();
+        if (info != null && info.getSuccessfulExecutionIndex() > 0) {
+            hedgesWon.mark();
+        }
+    }
+
+    @Override
+    public void init(Cluster cluster) {
+    }
+
+    @Override
+    public SpeculativeExecutionPlan newPlan(String loggedKeyspace, Statement statement) {
+        return new SpeculativeExecutionPlan() {
+            private final AtomicInteger executions = new AtomicInteger();
+
+            @Override
+            public long nextExecution(Host lastQueried) {
+                // the driver asks for the next execution once per execution it starts, so any call after
+                // the first one is made by the hedge, which never schedules another one.
+                if (executions.incrementAndGet() > 1) {
+                    hedgeFired();
+                    return -1;
+                }
+                return scheduleHedge();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void update(Host host, Statement statement, Exception exception, long newLatencyNanos) {
+        if (exception == null && Boolean.TRUE.equals(statement.isIdempotent())) {
+            latencies.update(newLatencyNanos);
+        }
+    }
+
+    @Override
+    public void onRegister(Cluster cluster) {
+    }
+
+    @Override
+    public void onUnregister(Cluster cluster) {
+    }
+
+    /**
+     * @return the delay, in milliseconds, after which a read is hedged, or -1 if it should not be hedged
+     */
+    @VisibleForTesting
+    long scheduleHedge() {
+        long now = clock.now().getMillis();
+        long delay = getDelayMillis(now);
+        if (delay < 0) {
+            return -1;
+        }
+        if (hedgesInSecond(now) >= maxHedgesPerSecond) {
+            hedgesCapped.mark();
+            return -1;
+        }
+        return delay;
+    }
+
+    /**
+     * Records that a hedge was sent. Hedges scheduled before the cap was reached may still be sent
+     * after it, so the cap can be exceeded by the number of reads in flight at that time.
+     */
+    @VisibleForTesting
+    void hedgeFired() {
+        hedgesInSecond(clock.now().getMillis());
+        hedgesThisSecond.incrementAndGet();
+        hedgesFired.mark();
+    }
+
+    private long getDelayMillis(long now) {
+        long computedAt = delayComputedAt.get();
+        if (now - computedAt >= DELAY_REFRESH_MILLIS && delayComputedAt.compareAndSet(computedAt, now)) {
+            if (latencies.getCount() < MIN_SAMPLES) {
+                delayMillis = -1;
+            } else {
+                long latencyMillis = TimeUnit.NANOSECONDS.toMillis((long) latencies.getSnapshot().getValue(percentile));
+                delayMillis = Math.max(minDelayMillis, latencyMillis);
+            }
+        }
+        return delayMillis;
+    }
+
+    private int hedgesInSecond(long now) {
+        long second = now / 1000;
+        long current = currentSecond.get();
+        if (second != current && currentSecond.compareAndSet(current, second)) {
+            hedgesThisSecond.set(0);
+        }
+        return hedgesThisSecond.get();
+    }
+}
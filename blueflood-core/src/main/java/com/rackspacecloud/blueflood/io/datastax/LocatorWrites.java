@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.types.Locator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the inserts into metrics_locator, metrics_delayed_locator and metrics_active_locator needed by the
+ * metrics of an ingest request, so they can be issued together once all the metrics have been seen.
+ *
+ * The inserts are grouped by partition, and each group is executed asynchronously as a single statement or an
+ * UNLOGGED BATCH of at most {@link #MAX_BATCH_SIZE} statements. The locator cache updates of a group are only
+ * run once its inserts succeeded, so that failed inserts are attempted again by the next request.
+ */
+class LocatorWrites {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocatorWrites.class);
+
+    // keeps single-partition batches well under the batch size warning threshold of Cassandra
+    static final int MAX_BATCH_SIZE = 100;
+
+    private final Map<String, Partition> partitions = new LinkedHashMap<String, Partition>();
+    private final List<ResultSetFuture> futures = new ArrayList<ResultSetFuture>();
+
+    /**
+     * @param partition the column family and partition key the statement writes to
+     * @param locator the locator inserted
+     * @return true if the insert of the locator into the partition is already part of this request
+     */
+    boolean contains(String partition, Locator locator) {
+        Partition writes = partitions.get(partition);
+        return writes != null && writes.locators.contains(locator);
+    }
+
+    /**
+     * Adds the insert of a locator into a partition.
+     *
+     * @param partition the column family and partition key the statement writes to
+     * @param locator the locator inserted
+     * @param statement
+     * @param onSuccess the locator cache update to run once the insert succeeded
+     */
+    void add(String partition, Locator locator, Statement statement, Runnable onSuccess) {
+        Partition writes = partitions.get(partition);
+        if (writes == null) {
+            writes = new Partition();
+            partitions.put(partition, writes);
+        }
+        if (writes.locators.add(locator)) {
+            writes.statements.add(statement);
+            writes.onSuccess.add(onSuccess);
+        }
+    }
+
+    /**
+     * Issues all the inserts, without waiting for them to complete.
+     *
+     * @param session
+     */
+    void execute(Session session) {
+        for (Map.Entry<String, Partition> entry : partitions.entrySet()) {
+            Partition writes = entry.getValue();
+            for (int from = 0; from < writes.statements.size(); from += MAX_BATCH_SIZE) {
+                int to = Math.min(from + MAX_BATCH_SIZE, writes.statements.size());
+                execute(session, entry.getKey(), writes.statements.subList(from, to), writes.onSuccess.subList(from, to));
+            }
+        }
+        partitions.clear();
+    }
+
+    private void execute(Session session, final String partition, final List<Statement> statements,
+                         final List<Runnable> onSuccess) {
+        Statement statement;
+        if (statements.size() == 1) {
+            statement = statements.get(0);
+        } else {
+            BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+            batch.addAll(statements);
+            statement = batch;
+        }
+
+        ResultSetFuture future;
+        try {
+            future = session.executeAsync(statement);
+        } catch (RuntimeException e) {
+            Instrumentation.markWriteError();
+            LOG.error(String.format("error writing %d locators to %s", statements.size(), partition), e);
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet result) {
+                for (Runnable update : onSuccess) {
+                    update.run();
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Instrumentation.markWriteError();
+                LOG.error(String.format("error writing %d locators to %s", statements.size(), partition), t);
+            }
+        }, MoreExecutors.directExecutor());
+        futures.add(future);
+    }
+
+    /**
+     * Waits for all the inserts issued to complete. Failures have already been logged.
+     */
+    void await() {
+        for (ResultSetFuture future : futures) {
+            try {
+                future.getUninterruptibly();
+            } catch (Exception e) {
+                // reported by the callback
+            }
+        }
+        futures.clear();
+    }
+
+    private static class Partition {
+        private final Set<Locator> locators = new HashSet<Locator>();
+        private final List<Statement> statements = new ArrayList<Statement>();
+        private final List<Runnable> onSuccess = new ArrayList<Runnable>();
+    }
+}
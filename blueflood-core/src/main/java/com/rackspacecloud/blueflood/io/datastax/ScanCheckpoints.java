@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016 Rackspace.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.google.common.base.Charsets;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The keys of the work units completed by a bulk tool, such as the token ranges scanned by a
+ * {@link TokenRangeScanner}, kept in a file with one key per line so an interrupted run can be
+ * resumed where it stopped.
+ *
+ * A key is appended, and the file flushed, as soon as its unit is completed. Keys are loaded
+ * back when the file exists; a line truncated by a crash is ignored.
+ */
+public class ScanCheckpoints implements AutoCloseable {
+
+    private final Set<String> completed = Collections.synchronizedSet(new HashSet<String>());
+    private final Writer writer;
+
+    /**
+     * Opens, or creates, the checkpoint file.
+     */
+    public ScanCheckpoints(File file) throws IOException {
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), Charsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // a line truncated by a crash is missing its terminating semicolon
+                    if (line.endsWith(";")) {
+                        completed.add(line.substring(0, line.length() - 1));
+                    }
+                }
+            }
+        }
+        writer = new OutputStreamWriter(new FileOutputStream(file, true), Charsets.UTF_8);
+        if (endsWithTruncatedLine(file)) {
+            writer.write("\n");
+            writer.flush();
+        }
+    }
+
+    private static boolean endsWithTruncatedLine(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() == 0) {
+                return false;
+            }
+            in.seek(in.length() - 1);
+            return in.read() != '\n';
+        }
+    }
+
+    /**
+     * @return whether the unit of this key was completed by this run or a previous one
+     */
+    public boolean isCompleted(String key) {
+        return completed.contains(key);
+    }
+
+    /**
+     * Records that the unit of this key is completed.
+     */
+    public void markCompleted(String key) throws IOException {
+        if (key.contains("\n")) {
+            throw new IllegalArgumentException("checkpoint keys cannot contain new lines: " + key);
+        }
+        synchronized (writer) {
+            if (completed.add(key)) {
+                writer.write(key + ";\n");
+                writer.flush();
+            }
+        }
+    }
+
+    /**
+     * @return the number of units completed by this run and the previous ones
+     */
+    public int getCompletedCount() {
+        return completed.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writer) {
+            writer.close();
+        }
+    }
+}
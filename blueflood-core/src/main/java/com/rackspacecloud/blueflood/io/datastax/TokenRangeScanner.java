@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2016 Rackspace.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.codahale.metrics.Meter;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Metadata;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TokenRange;
+import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.RateLimiter;
+import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads all the rows of a table by splitting the token ring into ranges and scanning the ranges
+ * in parallel, so bulk tools scale with the size of the cluster instead of walking the partitions
+ * one at a time.
+ *
+ * Each token range of the ring is split into a number of sub-ranges, which are scanned by a pool
+ * of threads with the driver's automatic paging, the next page being fetched while the current one
+ * is handled. The rows can be throttled to a maximum number per second. When checkpoints are
+ * given, each sub-range is recorded as completed once all of its rows have been handled, and the
+ * sub-ranges completed by a previous run are skipped. The checkpoints are only valid as long as
+ * the ring and the number of splits do not change.
+ *
+ * A sub-range whose scan or handler fails is not checkpointed, and the other ones are still
+ * scanned. {@link #scan(RowHandler)} then throws, and the tool can be run again to scan the
+ * failed sub-ranges only.
+ */
+public class TokenRangeScanner {
+    private static final Logger log = LoggerFactory.getLogger(TokenRangeScanner.class);
+
+    private static final Meter rowsScanned = Metrics.meter(TokenRangeScanner.class, "Rows Scanned");
+    private static final Meter rangesScanned = Metrics.meter(TokenRangeScanner.class, "Ranges Scanned");
+    private static final Meter rangesFailed = Metrics.meter(TokenRangeScanner.class, "Ranges Failed");
+
+    /**
+     * Handles the rows of a scan. It is called concurrently by the scan threads.
+     */
+    public interface RowHandler {
+        void handle(Row row) throws Exception;
+    }
+
+    private final Session session;
+    private final String table;
+    private final String name;
+    private final String partitionKey;
+    private final String[] columns;
+    private final int splitsPerRange;
+    private final int pageSize;
+    private final int threads;
+    private final RateLimiter rateLimiter;
+    private final ScanCheckpoints checkpoints;
+
+    private TokenRangeScanner(Builder builder) {
+        this.session = builder.session;
+        this.table = builder.table;
+        this.name = builder.name;
+        this.partitionKey = builder.partitionKey;
+        this.columns = builder.columns;
+        this.splitsPerRange = builder.splitsPerRange;
+        this.pageSize = builder.pageSize;
+        this.threads = builder.threads;
+        this.rateLimiter = builder.maxRowsPerSecond > 0 ? RateLimiter.create(builder.maxRowsPerSecond) : null;
+        this.checkpoints = builder.checkpoints;
+    }
+
+    public static Builder builder(Session session, String table) {
+        return new Builder(session, table);
+    }
+
+    /**
+     * Scans all the rows of the table.
+     *
+     * @return the number of rows handled
+     * @throws IOException if the scan of any sub-range failed
+     */
+    public long scan(final RowHandler handler) throws IOException {
+        String columnList = columns.length == 0 ? "*" : Joiner.on(", ").join(columns);
+        String select = String.format("SELECT %s FROM %s WHERE token(%s) > ?", columnList, table, partitionKey);
+        final PreparedStatement selectFrom = session.prepare(select);
+        final PreparedStatement selectBetween = session.prepare(select + String.format(" AND token(%s) <= ?", partitionKey));
+
+        List<TokenRange> ranges = getRanges(session.getCluster().getMetadata(), splitsPerRange);
+        log.info(String.format("Scanning %s in %d token ranges with %d threads", table, ranges.size(), threads));
+
+        ThreadPoolExecutor executor = new ThreadPoolBuilder()
+                .withCorePoolSize(threads)
+                .withMaxPoolSize(threads)
+                .withUnboundedQueue()
+                .withName("TokenRangeScanner " + table)
+                .build();
+        final AtomicLong rows = new AtomicLong();
+        int skipped = 0;
+        int failed = 0;
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final TokenRange range : ranges) {
+                if (checkpoints != null && checkpoints.isCompleted(checkpointKey(range))) {
+                    skipped++;
+                    continue;
+                }
+                futures.add(executor.submit(() -> {
+                    rows.addAndGet(scanRange(range, selectFrom, selectBetween, handler));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    rangesFailed.mark();
+                    log.error("Error scanning a token range of " + table, e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning " + table, e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        log.info(String.format("Scanned %d rows of %s, %d token ranges skipped, %d failed",
+                rows.get(), table, skipped, failed));
+        if (failed > 0) {
+            throw new IOException(String.format("The scan of %d token ranges of %s failed", failed, table));
+        }
+        return rows.get();
+    }
+
+    private long scanRange(TokenRange range, PreparedStatement selectFrom, PreparedStatement selectBetween,
+                           RowHandler handler) throws Exception {
+        BoundStatement bound = bindRange(range, selectFrom, selectBetween);
+        bound.setFetchSize(pageSize);
+
+        long count = 0;
+        ResultSet results = session.execute(bound);
+        for (Row row : results) {
+            if (results.getAvailableWithoutFetching() == pageSize / 2 && !results.isFullyFetched()) {
+                results.fetchMoreResults();
+            }
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
+            }
+            handler.handle(row);
+            rowsScanned.mark();
+            count++;
+        }
+
+        if (checkpoints != null) {
+            checkpoints.markCompleted(checkpointKey(range));
+        }
+        rangesScanned.mark();
+        return count;
+    }
+
+    private String checkpointKey(TokenRange range) {
+        return name + " " + range;
+    }
+
+    /**
+     * @return the token ranges of the ring, unwrapped and each split in {@code splits} sub-ranges
+     */
+    public static List<TokenRange> getRanges(Metadata metadata, int splits) {
+        List<TokenRange> ranges = new ArrayList<TokenRange>();
+        for (TokenRange range : metadata.getTokenRanges()) {
+            for (TokenRange unwrapped : range.unwrap()) {
+                if (unwrapped.isEmpty()) {
+                    continue;
+                }
+                ranges.addAll(splits > 1 ? unwrapped.splitEvenly(splits) : Collections.singletonList(unwrapped));
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Binds the select of the rows of a token range returned by {@link #getRanges(Metadata, int)}.
+     *
+     * @param selectFrom a select restricted with {@code token(key) > ?}
+     * @param selectBetween the same select restricted with {@code token(key) > ? AND token(key) <= ?}
+     */
+    public static BoundStatement bindRange(TokenRange range, PreparedStatement selectFrom, PreparedStatement selectBetween) {
+        if (isRingEnd(range)) {
+            return selectFrom.bind().setToken(0, range.getStart());
+        }
+        return selectBetween.bind().setToken(0, range.getStart()).setToken(1, range.getEnd());
+    }
+
+    /**
+     * Once unwrapped, the range ending at the end of the ring is the one that ends at the minimum
+     * token, which has to be queried without an upper bound.
+     */
+    private static boolean isRingEnd(TokenRange range) {
+        return range.getEnd().compareTo(range.getStart()) <= 0;
+    }
+
+    public static class Builder {
+        private final Session session;
+        private final String table;
+        private String name;
+        private String partitionKey = "key";
+        private String[] columns = new String[0];
+        private int splitsPerRange = 4;
+        private int pageSize = 1000;
+        private int threads = 4;
+        private double maxRowsPerSecond = 0;
+        private ScanCheckpoints checkpoints = null;
+
+        private Builder(Session session, String table) {
+            this.session = session;
+            this.table = table;
+            this.name = table;
+        }
+
+        /**
+         * The name of the scan, which prefixes its checkpoints, the table name by default. Scans of
+         * the same table sharing checkpoints need different names.
+         */
+        public Builder withName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * The partition key column of the table, "key" by default.
+         */
+        public Builder withPartitionKey(String partitionKey) {
+            this.partitionKey = partitionKey;
+            return this;
+        }
+
+        /**
+         * The columns to read, all of them by default.
+         */
+        public Builder withColumns(String... columns) {
+            this.columns = columns;
+            return this;
+        }
+
+        /**
+         * The number of sub-ranges each token range of the ring is split into, 4 by default.
+         */
+        public Builder withSplitsPerRange(int splits) {
+            this.splitsPerRange = Math.max(1, splits);
+            return this;
+        }
+
+        public Builder withPageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * The number of sub-ranges scanned at the same time, 4 by default.
+         */
+        public Builder withThreads(int threads) {
+            this.threads = Math.max(1, threads);
+            return this;
+        }
+
+        /**
+         * The maximum number of rows handled per second across all the threads, unlimited if not positive.
+         */
+        public Builder withMaxRowsPerSecond(double maxRowsPerSecond) {
+            this.maxRowsPerSecond = maxRowsPerSecond;
+            return this;
+        }
+
+        public Builder withCheckpoints(ScanCheckpoints checkpoints) {
+            this.checkpoints = checkpoints;
+            return this;
+        }
+
+        public TokenRangeScanner build() {
+            return new TokenRangeScanner(this);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.rackspacecloud.blueflood.utils.Clock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A concurrent multimap whose values expire, the in-memory equivalent of the locator column families, where
+ * each row key maps to a set of locators written with a TTL. Writing a value again renews its TTL. Expired
+ * values are removed as they are read.
+ */
+class ExpiringIndex<K, V> {
+
+    private final ConcurrentMap<K, ConcurrentMap<V, Long>> rows = new ConcurrentHashMap<K, ConcurrentMap<V, Long>>();
+    private final Clock clock;
+
+    ExpiringIndex(Clock clock) {
+        this.clock = clock;
+    }
+
+    void put(K key, V value, int ttlSeconds) {
+        ConcurrentMap<V, Long> row = rows.get(key);
+        if (row == null) {
+            rows.putIfAbsent(key, new ConcurrentHashMap<V, Long>());
+            row = rows.get(key);
+        }
+        row.put(value, clock.now().getMillis() + ttlSeconds * 1000L);
+    }
+
+    Collection<V> get(K key) {
+        Collection<V> values = new ArrayList<V>();
+        ConcurrentMap<V, Long> row = rows.get(key);
+        if (row == null) {
+            return values;
+        }
+
+        long now = clock.now().getMillis();
+        Iterator<Map.Entry<V, Long>> iterator = row.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<V, Long> entry = iterator.next();
+            if (entry.getValue() <= now) {
+                iterator.remove();
+            } else {
+                values.add(entry.getKey());
+            }
+        }
+        return values;
+    }
+
+    void clear() {
+        rows.clear();
+    }
+}
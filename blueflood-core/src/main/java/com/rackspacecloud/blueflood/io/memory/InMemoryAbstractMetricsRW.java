@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.codahale.metrics.Timer;
+import com.rackspacecloud.blueflood.cache.MetadataCache;
+import com.rackspacecloud.blueflood.io.AbstractMetricsRW;
+import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.service.CoreConfig;
+import com.rackspacecloud.blueflood.service.SingleRollupWriteContext;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.types.Rollup;
+import com.rackspacecloud.blueflood.types.RollupType;
+import com.rackspacecloud.blueflood.utils.Clock;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class deals with aspects of reading/writing metrics which are common across all column families
+ * of the in-memory driver. Like the Cassandra drivers, writing a metric also records its locator, and its
+ * delayed and active locators when configured to.
+ */
+public abstract class InMemoryAbstractMetricsRW extends AbstractMetricsRW {
+
+    private static final long MAX_AGE_ALLOWED = Configuration.getInstance().getLongProperty(CoreConfig.ROLLUP_DELAY_MILLIS);
+
+    private static final Granularity DELAYED_METRICS_STORAGE_GRANULARITY =
+            Granularity.getRollupGranularity(Configuration.getInstance().getStringProperty(CoreConfig.DELAYED_METRICS_STORAGE_GRANULARITY));
+
+    private static final boolean RECORD_ACTIVE_LOCATORS =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.RECORD_ACTIVE_LOCATORS);
+
+    private static final Granularity ACTIVE_LOCATORS_STORAGE_GRANULARITY =
+            Granularity.getRollupGranularity(Configuration.getInstance().getStringProperty(CoreConfig.ACTIVE_LOCATORS_STORAGE_GRANULARITY));
+
+    protected final InMemoryMetricsStore store;
+    protected final InMemoryLocatorIO locatorIO;
+    protected final InMemoryDelayedLocatorIO delayedLocatorIO;
+
+    protected InMemoryAbstractMetricsRW(InMemoryMetricsStore store,
+                                        InMemoryLocatorIO locatorIO, InMemoryDelayedLocatorIO delayedLocatorIO,
+                                        boolean isRecordingDelayedMetrics, Clock clock) {
+        this.store = store;
+        this.locatorIO = locatorIO;
+        this.delayedLocatorIO = delayedLocatorIO;
+        this.isRecordingDelayedMetrics = isRecordingDelayedMetrics;
+        this.clock = clock;
+    }
+
+    /**
+     * @param granularity
+     * @return the name of the column family holding the metrics of this class at the specified granularity
+     */
+    protected abstract String getColumnFamilyName(Granularity granularity);
+
+    /**
+     * Writes the points of a collection of metrics to the column family of the specified granularity.
+     *
+     * @param metrics
+     * @param granularity
+     * @throws IOException
+     */
+    protected void insertMetrics(Collection<IMetric> metrics, Granularity granularity) throws IOException {
+        String columnFamily = getColumnFamilyName(granularity);
+        Timer.Context ctx = Instrumentation.getWriteTimerContext(columnFamily);
+        try {
+            for (IMetric metric : metrics) {
+                Locator locator = metric.getLocator();
+                store.put(columnFamily, locator, metric.getCollectionTime(), metric.getMetricValue(), metric.getTtlInSeconds());
+                locatorIO.insertLocator(locator);
+
+                if (isRecordingDelayedMetrics && isDelayed(metric)) {
+                    delayedLocatorIO.insertLocator(DELAYED_METRICS_STORAGE_GRANULARITY,
+                            DELAYED_METRICS_STORAGE_GRANULARITY.slot(metric.getCollectionTime()), locator);
+                }
+
+                if (RECORD_ACTIVE_LOCATORS) {
+                    locatorIO.insertActiveLocator(ACTIVE_LOCATORS_STORAGE_GRANULARITY,
+                            ACTIVE_LOCATORS_STORAGE_GRANULARITY.slot(metric.getCollectionTime()), locator);
+                }
+            }
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    @Override
+    public void insertRollups(List<SingleRollupWriteContext> writeContexts) throws IOException {
+        if (writeContexts.isEmpty()) {
+            return;
+        }
+
+        Timer.Context ctx = Instrumentation.getWriteTimerContext(writeContexts.get(0).getDestinationCF().getName());
+        try {
+            for (SingleRollupWriteContext writeContext : writeContexts) {
+                Rollup rollup = writeContext.getRollup();
+                Locator locator = writeContext.getLocator();
+                store.put(writeContext.getDestinationCF().getName(), locator, writeContext.getTimestamp(), rollup,
+                        getTtl(locator, rollup.getRollupType(), writeContext.getGranularity()));
+            }
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    @Override
+    public MetricData getDatapointsForRange(Locator locator, Range range, Granularity gran) {
+        return getDatapointsForRange(Collections.singletonList(locator), range, gran).get(locator);
+    }
+
+    @Override
+    public Map<Locator, MetricData> getDatapointsForRange(List<Locator> locators, Range range, Granularity gran) {
+        String columnFamily = getColumnFamilyName(gran);
+        MetadataCache metadataCache = MetadataCache.getInstance();
+
+        Timer.Context ctx = Instrumentation.getReadTimerContext(columnFamily);
+        try {
+            Map<Locator, MetricData> metrics = new HashMap<Locator, MetricData>();
+            for (Locator locator : locators) {
+                Points points = convertToPoints(store.get(columnFamily, locator, range));
+                metrics.put(locator, new MetricData(points, metadataCache.getUnitString(locator)));
+            }
+            return metrics;
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    @Override
+    public Points getDataToRollup(Locator locator, RollupType rollupType, Range range,
+                                  String columnFamilyName) throws IOException {
+        Timer.Context ctx = Instrumentation.getReadTimerContext(columnFamilyName);
+        try {
+            return convertToPoints(store.get(columnFamilyName, locator, range));
+        } finally {
+            ctx.stop();
+        }
+    }
+
+    private boolean isDelayed(IMetric metric) {
+        return clock.now().getMillis() - metric.getCollectionTime() > MAX_AGE_ALLOWED;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.utils.Clock;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * This class deals with reading/writing metrics to the basic metrics_* column families kept in memory.
+ */
+public class InMemoryBasicMetricsRW extends InMemoryAbstractMetricsRW {
+
+    public InMemoryBasicMetricsRW(InMemoryMetricsStore store,
+                                  InMemoryLocatorIO locatorIO, InMemoryDelayedLocatorIO delayedLocatorIO,
+                                  boolean isRecordingDelayedMetrics, Clock clock) {
+        super(store, locatorIO, delayedLocatorIO, isRecordingDelayedMetrics, clock);
+    }
+
+    @Override
+    public void insertMetrics(Collection<IMetric> metrics) throws IOException {
+        insertMetrics(metrics, Granularity.FULL);
+        for (int i = 0; i < metrics.size(); i++) {
+            Instrumentation.markFullResMetricWritten();
+        }
+    }
+
+    @Override
+    protected String getColumnFamilyName(Granularity granularity) {
+        return CassandraModel.getBasicColumnFamilyName(granularity);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.rackspacecloud.blueflood.cache.TenantTtlProvider;
+import com.rackspacecloud.blueflood.io.LocatorIO;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.SlotKey;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Clock;
+import com.rackspacecloud.blueflood.utils.Util;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * This class keeps the metrics_locator and metrics_active_locator column families in memory.
+ */
+public class InMemoryLocatorIO implements LocatorIO {
+
+    private final ExpiringIndex<Long, Locator> locators;
+    private final ExpiringIndex<SlotKey, Locator> activeLocators;
+
+    public InMemoryLocatorIO(Clock clock) {
+        this.locators = new ExpiringIndex<Long, Locator>(clock);
+        this.activeLocators = new ExpiringIndex<SlotKey, Locator>(clock);
+    }
+
+    @Override
+    public void insertLocator(Locator locator) throws IOException {
+        locators.put((long) Util.getShard(locator.toString()), locator, TenantTtlProvider.LOCATOR_TTL);
+    }
+
+    @Override
+    public Collection<Locator> getLocators(long shard) throws IOException {
+        return locators.get(shard);
+    }
+
+    @Override
+    public void insertActiveLocator(Granularity g, int slot, Locator locator) throws IOException {
+        SlotKey slotKey = SlotKey.of(g, slot, Util.getShard(locator.toString()));
+        activeLocators.put(slotKey, locator, TenantTtlProvider.ACTIVE_LOCATOR_TTL);
+    }
+
+    @Override
+    public Collection<Locator> getActiveLocators(SlotKey slotKey) throws IOException {
+        return activeLocators.get(slotKey);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.utils.Clock;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Holds the metrics_* and metrics_preaggregated_* column families in memory. Each column family maps a locator
+ * to a concurrent skip list of its points, sorted by timestamp, so range reads only visit the points of the
+ * range. Each point expires after the TTL it was written with; expired points are removed as ranges are read.
+ */
+public class InMemoryMetricsStore {
+
+    private final ConcurrentMap<String, ConcurrentMap<Locator, ConcurrentNavigableMap<Long, Cell>>> columnFamilies =
+            new ConcurrentHashMap<String, ConcurrentMap<Locator, ConcurrentNavigableMap<Long, Cell>>>();
+    private final Clock clock;
+
+    public InMemoryMetricsStore(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Writes a point, replacing any point of the locator with the same timestamp.
+     *
+     * @param columnFamily
+     * @param locator
+     * @param timestamp
+     * @param value a raw number, or a Rollup
+     * @param ttlSeconds
+     */
+    public void put(String columnFamily, Locator locator, long timestamp, Object value, int ttlSeconds) {
+        ConcurrentMap<Locator, ConcurrentNavigableMap<Long, Cell>> rows = columnFamilies.get(columnFamily);
+        if (rows == null) {
+            columnFamilies.putIfAbsent(columnFamily, new ConcurrentHashMap<Locator, ConcurrentNavigableMap<Long, Cell>>());
+            rows = columnFamilies.get(columnFamily);
+        }
+        ConcurrentNavigableMap<Long, Cell> row = rows.get(locator);
+        if (row == null) {
+            rows.putIfAbsent(locator, new ConcurrentSkipListMap<Long, Cell>());
+            row = rows.get(locator);
+        }
+        row.put(timestamp, new Cell(value, clock.now().getMillis() + ttlSeconds * 1000L));
+    }
+
+    /**
+     * @param columnFamily
+     * @param locator
+     * @param range the timestamps to read, both ends included
+     * @return the unexpired points of the locator in the range, by timestamp
+     */
+    public SortedMap<Long, Object> get(String columnFamily, Locator locator, Range range) {
+        SortedMap<Long, Object> points = new TreeMap<Long, Object>();
+        ConcurrentMap<Locator, ConcurrentNavigableMap<Long, Cell>> rows = columnFamilies.get(columnFamily);
+        if (rows == null) {
+            return points;
+        }
+        ConcurrentNavigableMap<Long, Cell> row = rows.get(locator);
+        if (row == null) {
+            return points;
+        }
+
+        long now = clock.now().getMillis();
+        Iterator<Map.Entry<Long, Cell>> iterator =
+                row.subMap(range.getStart(), true, range.getStop(), true).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Cell> entry = iterator.next();
+            if (entry.getValue().expiresAt <= now) {
+                iterator.remove();
+            } else {
+                points.put(entry.getKey(), entry.getValue().value);
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Removes all the points of a column family.
+     */
+    public void truncate(String columnFamily) {
+        columnFamilies.remove(columnFamily);
+    }
+
+    private static class Cell {
+        private final Object value;
+        private final long expiresAt;
+
+        private Cell(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.rackspacecloud.blueflood.exceptions.InvalidDataException;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.io.PreaggregatedRW;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Rollup;
+import com.rackspacecloud.blueflood.utils.Clock;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * This class deals with reading/writing metrics to the metrics_preaggregated_* column families kept in memory.
+ */
+public class InMemoryPreaggregatedMetricsRW extends InMemoryAbstractMetricsRW implements PreaggregatedRW {
+
+    public InMemoryPreaggregatedMetricsRW(InMemoryMetricsStore store,
+                                          InMemoryLocatorIO locatorIO, InMemoryDelayedLocatorIO delayedLocatorIO,
+                                          boolean isRecordingDelayedMetrics, Clock clock) {
+        super(store, locatorIO, delayedLocatorIO, isRecordingDelayedMetrics, clock);
+    }
+
+    @Override
+    public void insertMetrics(Collection<IMetric> metrics) throws IOException {
+        insertMetrics(metrics, Granularity.FULL);
+    }
+
+    /**
+     * Inserts a collection of rolled up metrics to the metrics_preaggregated_{granularity} column family.
+     *
+     * @param metrics
+     * @param granularity
+     * @throws IOException
+     */
+    @Override
+    public void insertMetrics(Collection<IMetric> metrics, Granularity granularity) throws IOException {
+        for (IMetric metric : metrics) {
+            if (!(metric.getMetricValue() instanceof Rollup)) {
+                throw new InvalidDataException(
+                        String.format("insertMetrics(locator=%s, granularity=%s): metric value %s is not type Rollup",
+                                metric.getLocator(), granularity, metric.getMetricValue().getClass().getSimpleName()));
+            }
+        }
+        super.insertMetrics(metrics, granularity);
+        if (granularity == Granularity.FULL) {
+            for (int i = 0; i < metrics.size(); i++) {
+                Instrumentation.markFullResPreaggregatedMetricWritten();
+            }
+        }
+    }
+
+    @Override
+    protected String getColumnFamilyName(Granularity granularity) {
+        return CassandraModel.getPreaggregatedColumnFamilyName(granularity);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.rackspacecloud.blueflood.io.ShardStateIO;
+import com.rackspacecloud.blueflood.io.serializers.metrics.SlotStateSerDes;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.SlotState;
+import com.rackspacecloud.blueflood.service.UpdateStamp;
+import com.rackspacecloud.blueflood.utils.Clock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class keeps the metrics_state column family in memory. Like in Cassandra, a slot has one entry per state,
+ * each with its own timestamp and write time.
+ */
+public class InMemoryShardStateIO implements ShardStateIO {
+
+    private final SlotStateSerDes serDes = new SlotStateSerDes();
+    private final ConcurrentMap<Integer, ConcurrentMap<String, Entry>> shards =
+            new ConcurrentHashMap<Integer, ConcurrentMap<String, Entry>>();
+    private final Clock clock;
+
+    public InMemoryShardStateIO(Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public Collection<SlotState> getShardState(int shard) throws IOException {
+        Collection<SlotState> slotStates = new ArrayList<SlotState>();
+        ConcurrentMap<String, Entry> entries = shards.get(shard);
+        if (entries == null) {
+            return slotStates;
+        }
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            slotStates.add(SlotStateSerDes.deserialize(entry.getKey())
+                    .withTimestamp(entry.getValue().timestamp)
+                    .withLastUpdatedTimestamp(entry.getValue().writeTime));
+        }
+        return slotStates;
+    }
+
+    @Override
+    public void putShardState(int shard, Map<Granularity, Map<Integer, UpdateStamp>> slotTimes) throws IOException {
+        ConcurrentMap<String, Entry> entries = shards.get(shard);
+        if (entries == null) {
+            shards.putIfAbsent(shard, new ConcurrentHashMap<String, Entry>());
+            entries = shards.get(shard);
+        }
+
+        long writeTime = clock.now().getMillis();
+        for (Map.Entry<Granularity, Map<Integer, UpdateStamp>> granEntry : slotTimes.entrySet()) {
+            for (Map.Entry<Integer, UpdateStamp> entry : granEntry.getValue().entrySet()) {
+                String column = serDes.serialize(granEntry.getKey(), entry.getKey(), entry.getValue().getState());
+                entries.put(column, new Entry(entry.getValue().getTimestamp(), writeTime));
+            }
+        }
+    }
+
+    private static class Entry {
+        private final long timestamp;
+        private final long writeTime;
+
+        private Entry(long timestamp, long writeTime) {
+            this.timestamp = timestamp;
+            this.writeTime = writeTime;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import com.rackspacecloud.blueflood.io.Constants;
 import com.rackspacecloud.blueflood.types.*;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * This is an abstract class that most Serialization/Deserialization class
@@ -33,6 +34,25 @@ public abstract class AbstractSerDes {
     protected static StatsSerDes<MaxValue> maxStatDeSer = new StatsSerDes<MaxValue>();
     protected static StatsSerDes<Variance> varianceStatDeSer = new StatsSerDes<Variance>();
 
+    /**
+     * Returns a protobuf input stream over the remaining bytes of a buffer. The bytes are read in place when the
+     * buffer is backed by an array: the buffers returned by the Cassandra drivers are usually views of a larger
+     * frame, whose content starts at an offset of the array.
+     *
+     * @param byteBuffer
+     * @return
+     */
+    public static CodedInputStream inputStreamOf(ByteBuffer byteBuffer) {
+        if (byteBuffer.hasArray()) {
+            return CodedInputStream.newInstance(byteBuffer.array(),
+                    byteBuffer.arrayOffset() + byteBuffer.position(),
+                    byteBuffer.remaining());
+        }
+        byte[] bytes = new byte[byteBuffer.remaining()];
+        byteBuffer.duplicate().get(bytes);
+        return CodedInputStream.newInstance(bytes);
+    }
+
     protected void putRollupStat(AbstractRollupStat stat, CodedOutputStream protobufOut) throws IOException {
         protobufOut.writeRawByte(stat.getStatType());   // stat type
         protobufOut.writeRawByte(stat.isFloatingPoint() ? Constants.B_DOUBLE : Constants.B_I64);
@@ -26,6 +26,7 @@ import com.rackspacecloud.blueflood.types.BaseRollup;
 import com.rackspacecloud.blueflood.utils.Metrics;
 
 import java.io.IOException;
+import java.util.Set;
 
 /**
  * The serialization and deserialization methods for sub-metrics used by
@@ -82,6 +83,21 @@ public class BaseRollupSerDes extends AbstractSerDes {
     }
 
     protected void deserializeBaseRollup( BaseRollup baseRollup, CodedInputStream in, byte version ) throws IOException {
+        deserializeBaseRollup( baseRollup, in, version, BaseRollup.Stat.ALL );
+    }
+
+    /**
+     * Deserializes the count and the specified stats of a rollup. The other stats are skipped, and are left at
+     * zero in the rollup, so the rollup must only be used to output the stats that were read.
+     *
+     * @param baseRollup
+     * @param in
+     * @param version
+     * @param stats the stats to read
+     * @throws IOException
+     */
+    protected void deserializeBaseRollup( BaseRollup baseRollup, CodedInputStream in, byte version,
+                                          Set<BaseRollup.Stat> stats ) throws IOException {
 
         final long count = in.readRawVarint64();
         baseRollup.setCount(count);
@@ -94,16 +110,28 @@ public class BaseRollupSerDes extends AbstractSerDes {
             byte statType = in.readRawByte();
             switch ( statType ) {
                 case Constants.AVERAGE:
-                    averageStatDeSer.deserialize( baseRollup.getAverage(), in );
+                    if ( stats.contains( BaseRollup.Stat.AVERAGE ) )
+                        averageStatDeSer.deserialize( baseRollup.getAverage(), in );
+                    else
+                        averageStatDeSer.skip( in );
                     break;
                 case Constants.VARIANCE:
-                    varianceStatDeSer.deserialize( baseRollup.getVariance(), in );
+                    if ( stats.contains( BaseRollup.Stat.VARIANCE ) )
+                        varianceStatDeSer.deserialize( baseRollup.getVariance(), in );
+                    else
+                        varianceStatDeSer.skip( in );
                     break;
                 case Constants.MIN:
-                    minStatDeSer.deserialize( baseRollup.getMinValue(), in );
+                    if ( stats.contains( BaseRollup.Stat.MIN ) )
+                        minStatDeSer.deserialize( baseRollup.getMinValue(), in );
+                    else
+                        minStatDeSer.skip( in );
                     break;
                 case Constants.MAX:
-                    maxStatDeSer.deserialize( baseRollup.getMaxValue(), in );
+                    if ( stats.contains( BaseRollup.Stat.MAX ) )
+                        maxStatDeSer.deserialize( baseRollup.getMaxValue(), in );
+                    else
+                        maxStatDeSer.skip( in );
                     break;
                 default:
                     throw new SerializationException( "invalid stat " + (int) version + " type: " + (int) statType );
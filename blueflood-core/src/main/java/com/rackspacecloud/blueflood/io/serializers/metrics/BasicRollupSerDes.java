@@ -20,10 +20,12 @@ import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 import com.rackspacecloud.blueflood.exceptions.SerializationException;
 import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.types.BaseRollup;
 import com.rackspacecloud.blueflood.types.BasicRollup;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Set;
 
 import static com.rackspacecloud.blueflood.io.Constants.VERSION_1_FULL_RES;
 import static com.rackspacecloud.blueflood.io.Constants.VERSION_1_ROLLUP;
@@ -60,7 +62,19 @@ public class BasicRollupSerDes extends BaseRollupSerDes {
     }
 
     public BasicRollup deserialize(ByteBuffer byteBuffer) {
-        CodedInputStream in = CodedInputStream.newInstance(byteBuffer.array());
+        return deserialize(byteBuffer, BaseRollup.Stat.ALL);
+    }
+
+    /**
+     * Deserializes a rollup for a query that only outputs some of its stats. The stats that are not
+     * requested are skipped instead of decoded, and are left at zero in the returned rollup.
+     *
+     * @param byteBuffer
+     * @param stats the stats to read
+     * @return
+     */
+    public BasicRollup deserialize(ByteBuffer byteBuffer, Set<BaseRollup.Stat> stats) {
+        CodedInputStream in = inputStreamOf(byteBuffer);
         try {
             byte version = in.readRawByte();
             if (version != VERSION_1_FULL_RES && version != VERSION_1_ROLLUP && version != VERSION_2_ROLLUP) {
@@ -68,7 +82,7 @@ public class BasicRollupSerDes extends BaseRollupSerDes {
                         (int)version));
             }
 
-            return deserializeRollup( in, version );
+            return deserializeRollup( in, version, stats );
 
         } catch (Exception e) {
             throw new RuntimeException("Deserialization Failure", e);
@@ -76,9 +90,13 @@ public class BasicRollupSerDes extends BaseRollupSerDes {
     }
 
     protected BasicRollup deserializeRollup(CodedInputStream in, byte version) throws IOException {
+        return deserializeRollup( in, version, BaseRollup.Stat.ALL );
+    }
+
+    protected BasicRollup deserializeRollup(CodedInputStream in, byte version, Set<BaseRollup.Stat> stats) throws IOException {
         final BasicRollup basicRollup = new BasicRollup();
 
-        deserializeBaseRollup( basicRollup, in, version );
+        deserializeBaseRollup( basicRollup, in, version, stats );
 
         if( version == VERSION_2_ROLLUP ) {
             basicRollup.setSum( in.readDouble() );
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.serializers.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.rackspacecloud.blueflood.exceptions.SerializationException;
+import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.utils.Metrics;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * This class knows how to serialize/deserialize a block of raw points, the full resolution points of a locator
+ * during one slot, compressed as described in "Gorilla: A Fast, Scalable, In-Memory Time Series Database".
+ *
+ * Timestamps are encoded as the difference between consecutive deltas, which is 0 for regularly sampled metrics,
+ * and values as the XOR of consecutive values, which only has a few meaningful bits for slowly changing metrics.
+ * Points sampled every 30 seconds take about 2 bytes each, instead of about 20 as individual columns.
+ *
+ * A block holds values of a single type: integers when all values are Integers, longs when they are Integers or
+ * Longs, doubles otherwise.
+ */
+public class BlockSerDes {
+
+    private static final Histogram blockSize = Metrics.histogram(BlockSerDes.class, "Full Resolution Block Size");
+    private static final Histogram pointsPerBlock = Metrics.histogram(BlockSerDes.class, "Full Resolution Block Points");
+
+    /**
+     * @param points the points of the block, by timestamp
+     * @return the serialized block
+     */
+    public ByteBuffer serialize(SortedMap<Long, Object> points) {
+        byte type;
+        try {
+            type = typeOf(points.values());
+        } catch (SerializationException e) {
+            throw new RuntimeException(e);
+        }
+        BitWriter out = new BitWriter(16 + points.size() * 4);
+        out.write(Constants.VERSION_1_FULL_RES_BLOCK, 8);
+        out.write(type, 8);
+        out.write(points.size(), 32);
+
+        long previousTimestamp = 0;
+        long previousDelta = 0;
+        long previousBits = 0;
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        boolean first = true;
+
+        for (Map.Entry<Long, Object> point : points.entrySet()) {
+            long timestamp = point.getKey();
+            long bits = toBits(point.getValue(), type);
+
+            if (first) {
+                out.write(timestamp, 64);
+                out.write(bits, 64);
+                first = false;
+            } else {
+                long delta = timestamp - previousTimestamp;
+                writeDeltaOfDelta(out, delta - previousDelta);
+                previousDelta = delta;
+
+                long xor = bits ^ previousBits;
+                if (xor == 0) {
+                    out.write(0, 1);
+                } else {
+                    int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                    int trailing = Long.numberOfTrailingZeros(xor);
+                    if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                        // the meaningful bits fit in the window of the previous value
+                        out.write(0x2, 2);
+                        out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+                    } else {
+                        int significant = 64 - leading - trailing;
+                        out.write(0x3, 2);
+                        out.write(leading, 5);
+                        out.write(significant - 1, 6);
+                        out.write(xor >>> trailing, significant);
+                        previousLeading = leading;
+                        previousTrailing = trailing;
+                    }
+                }
+            }
+            previousTimestamp = timestamp;
+            previousBits = bits;
+        }
+
+        ByteBuffer block = out.toByteBuffer();
+        blockSize.update(block.remaining());
+        pointsPerBlock.update(points.size());
+        return block;
+    }
+
+    /**
+     * @param byteBuffer a serialized block
+     * @return the points of the block, by timestamp
+     */
+    public SortedMap<Long, Object> deserialize(ByteBuffer byteBuffer) {
+        try {
+            return deserializeBlock(byteBuffer);
+        } catch (SerializationException e) {
+            throw new RuntimeException("Deserialization Failure", e);
+        }
+    }
+
+    private SortedMap<Long, Object> deserializeBlock(ByteBuffer byteBuffer) throws SerializationException {
+        BitReader in = new BitReader(byteBuffer);
+        byte version = (byte) in.read(8);
+        if (version != Constants.VERSION_1_FULL_RES_BLOCK) {
+            throw new SerializationException(String.format("Unexpected serialization version: %d", (int) version));
+        }
+        byte type = (byte) in.read(8);
+        int count = (int) in.read(32);
+
+        SortedMap<Long, Object> points = new TreeMap<Long, Object>();
+        if (count == 0) {
+            return points;
+        }
+
+        long timestamp = in.read(64);
+        long bits = in.read(64);
+        points.put(timestamp, fromBits(bits, type));
+
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            delta += readDeltaOfDelta(in);
+            timestamp += delta;
+
+            if (in.read(1) == 1) {
+                if (in.read(1) == 1) {
+                    leading = (int) in.read(5);
+                    int significant = (int) in.read(6) + 1;
+                    trailing = 64 - leading - significant;
+                }
+                bits ^= in.read(64 - leading - trailing) << trailing;
+            }
+            points.put(timestamp, fromBits(bits, type));
+        }
+        return points;
+    }
+
+    private static void writeDeltaOfDelta(BitWriter out, long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            out.write(0, 1);
+        } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+            out.write(0x2, 2);
+            out.write(deltaOfDelta, 7);
+        } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+            out.write(0x6, 3);
+            out.write(deltaOfDelta, 9);
+        } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+            out.write(0xE, 4);
+            out.write(deltaOfDelta, 12);
+        } else {
+            out.write(0xF, 4);
+            out.write(deltaOfDelta, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader in) throws SerializationException {
+        if (in.read(1) == 0) {
+            return 0;
+        } else if (in.read(1) == 0) {
+            return signed(in.read(7), 7);
+        } else if (in.read(1) == 0) {
+            return signed(in.read(9), 9);
+        } else if (in.read(1) == 0) {
+            return signed(in.read(12), 12);
+        } else {
+            return in.read(64);
+        }
+    }
+
+    /**
+     * Decodes a value written in the lowest bits, whose range goes one further in the positives than in the
+     * negatives, as in the paper.
+     */
+    private static long signed(long value, int bits) {
+        return value > (1L << (bits - 1)) ? value - (1L << bits) : value;
+    }
+
+    private static byte typeOf(Iterable<Object> values) throws SerializationException {
+        byte type = Constants.B_I32;
+        for (Object value : values) {
+            if (value instanceof Integer) {
+                continue;
+            } else if (value instanceof Long) {
+                type = Constants.B_I64;
+            } else if (value instanceof Double || value instanceof Float) {
+                return Constants.B_DOUBLE;
+            } else {
+                throw new SerializationException(String.format("Cannot serialize %s", value.getClass().getName()));
+            }
+        }
+        return type;
+    }
+
+    private static long toBits(Object value, byte type) {
+        if (type == Constants.B_DOUBLE) {
+            return Double.doubleToRawLongBits(((Number) value).doubleValue());
+        }
+        return ((Number) value).longValue();
+    }
+
+    private static Object fromBits(long bits, byte type) throws SerializationException {
+        switch (type) {
+            case Constants.B_I32:
+                return (int) bits;
+            case Constants.B_I64:
+                return bits;
+            case Constants.B_DOUBLE:
+                return Double.longBitsToDouble(bits);
+            default:
+                throw new SerializationException(String.format("Unexpected raw metric type=%s for full res " +
+                        "block", (char) type));
+        }
+    }
+
+    private static class BitWriter {
+        private byte[] bytes;
+        private int bitCount = 0;
+
+        private BitWriter(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        /**
+         * Writes the lowest bits of a value, most significant bit first.
+         */
+        private void write(long value, int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                if ((bitCount >>> 3) == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                if (((value >>> i) & 1) == 1) {
+                    bytes[bitCount >>> 3] |= 1 << (7 - (bitCount & 7));
+                }
+                bitCount++;
+            }
+        }
+
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(Arrays.copyOf(bytes, (bitCount + 7) >>> 3));
+        }
+    }
+
+    private static class BitReader {
+        private final ByteBuffer bytes;
+        private final int start;
+        private int bitCount = 0;
+
+        private BitReader(ByteBuffer bytes) {
+            this.bytes = bytes;
+            this.start = bytes.position();
+        }
+
+        private long read(int bits) throws SerializationException {
+            long value = 0;
+            for (int i = 0; i < bits; i++) {
+                int index = start + (bitCount >>> 3);
+                if (index >= bytes.limit()) {
+                    throw new SerializationException("Unexpected end of full res block");
+                }
+                value = (value << 1) | ((bytes.get(index) >>> (7 - (bitCount & 7))) & 1);
+                bitCount++;
+            }
+            return value;
+        }
+    }
+}
@@ -46,7 +46,7 @@ public class CounterSerDes extends AbstractSerDes {
     }
 
     public BluefloodCounterRollup deserialize(ByteBuffer byteBuffer) {
-        CodedInputStream in = CodedInputStream.newInstance(byteBuffer.array());
+        CodedInputStream in = inputStreamOf(byteBuffer);
         try {
             byte version = in.readRawByte();
             if (version != VERSION_1_COUNTER_ROLLUP)
@@ -43,7 +43,7 @@ public class GaugeSerDes extends BaseRollupSerDes {
     }
 
     public BluefloodGaugeRollup deserialize(ByteBuffer byteBuffer) {
-        CodedInputStream in = CodedInputStream.newInstance(byteBuffer.array());
+        CodedInputStream in = inputStreamOf(byteBuffer);
         try {
             byte version = in.readRawByte();
             if (version != VERSION_1_ROLLUP)
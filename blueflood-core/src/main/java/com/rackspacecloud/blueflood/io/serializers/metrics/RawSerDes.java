@@ -50,7 +50,7 @@ public class RawSerDes extends AbstractSerDes {
     }
 
     public Object deserialize(ByteBuffer byteBuffer) {
-        CodedInputStream in = CodedInputStream.newInstance(byteBuffer.array());
+        CodedInputStream in = inputStreamOf(byteBuffer);
         try {
             byte version = in.readRawByte();
             if (version != VERSION_1_FULL_RES && version != VERSION_1_ROLLUP) {
@@ -42,6 +42,28 @@ public class StatsSerDes<T extends AbstractRollupStat> {
         }
     }
 
+    /**
+     * Reads past a serialized stat, without decoding it.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void skip(CodedInputStream in) throws IOException {
+
+        byte metricValueType = in.readRawByte();
+        switch(metricValueType) {
+            case Constants.I64:
+                // varints have no length prefix, they have to be read to be skipped
+                in.readRawVarint64();
+                break;
+            case Constants.B_DOUBLE:
+                in.skipRawBytes(8);
+                break;
+            default:
+                throw new IOException("Unsupported stat value type " + (int) metricValueType);
+        }
+    }
+
     public int sizeOf(T stat) {
         int sz = 1 + 1; // type + isFP.
         sz += stat.isFloatingPoint() ?
@@ -40,7 +40,7 @@ public class StringMetadataSerDes {
     }
 
     public String deserialize(ByteBuffer byteBuffer) {
-        CodedInputStream is = CodedInputStream.newInstance(byteBuffer.array());
+        CodedInputStream is = AbstractSerDes.inputStreamOf(byteBuffer);
         try {
             byte type = is.readRawByte();
             if (type == STRING) {
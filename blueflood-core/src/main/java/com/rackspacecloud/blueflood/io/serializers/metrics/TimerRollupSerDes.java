@@ -59,7 +59,7 @@ public class TimerRollupSerDes extends AbstractSerDes {
     }
 
     public BluefloodTimerRollup deserialize(ByteBuffer byteBuffer) {
-        CodedInputStream in = CodedInputStream.newInstance(byteBuffer.array());
+        CodedInputStream in = inputStreamOf(byteBuffer);
         try {
             byte version = in.readRawByte();
             return deserializeTimer(in, version);
@@ -23,6 +23,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.rackspacecloud.blueflood.concurrent.SharedExecutor;
 import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
 import com.rackspacecloud.blueflood.io.*;
 import com.rackspacecloud.blueflood.outputs.formats.MetricData;
@@ -39,6 +40,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 
 public class RollupHandler {
@@ -86,20 +88,23 @@ public class RollupHandler {
             int ESthreadCount = Configuration.getInstance().getIntegerProperty(CoreConfig.ES_UNIT_THREADS);
             ESUnitExecutor = new ThreadPoolBuilder().withUnboundedQueue()
                     .withCorePoolSize(ESthreadCount)
-                    .withMaxPoolSize(ESthreadCount).withName("Rolluphandler ES executors").build();
+                    .withMaxPoolSize(ESthreadCount).withName("Rolluphandler ES executors")
+                    .withPriorityClass(SharedExecutor.PriorityClass.QUERY).buildExecutorService();
         }
         if (!Configuration.getInstance().getBooleanProperty(CoreConfig.TURN_OFF_RR_MPLOT)) {
-            ThreadPoolExecutor rollupsOnReadExecutors = new ThreadPoolBuilder().withUnboundedQueue()
+            ExecutorService rollupsOnReadExecutors = new ThreadPoolBuilder().withUnboundedQueue()
                     .withCorePoolSize(Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_ON_READ_THREADS))
                     .withMaxPoolSize(Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_ON_READ_THREADS))
-                    .withName("Rollups on Read Executors").build();
+                    .withName("Rollups on Read Executors")
+                    .withPriorityClass(SharedExecutor.PriorityClass.QUERY).buildExecutorService();
             rollupsOnReadExecutor = MoreExecutors.listeningDecorator(rollupsOnReadExecutors);
         }
 
-        ThreadPoolExecutor createRepairrollupsOnReadExecutors = new ThreadPoolBuilder().withUnboundedQueue()
+        ExecutorService createRepairrollupsOnReadExecutors = new ThreadPoolBuilder().withUnboundedQueue()
                 .withCorePoolSize( Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_ON_READ_REPAIR_THREADS ))
                 .withMaxPoolSize( Configuration.getInstance().getIntegerProperty( CoreConfig.ROLLUP_ON_READ_REPAIR_THREADS ) )
-                .withName( "Create Repair Points Rollups on Read Executors" ).build();
+                .withName( "Create Repair Points Rollups on Read Executors" )
+                .withPriorityClass(SharedExecutor.PriorityClass.REPAIR).buildExecutorService();
         createRepairPointsExecutor = MoreExecutors.listeningDecorator(createRepairrollupsOnReadExecutors);
     }
 
@@ -129,6 +134,29 @@ public class RollupHandler {
             final long from,
             final long to,
             final Granularity g) {
+        return getRollupByGranularity(tenantId, metrics, from, to, g, BaseRollup.Stat.ALL);
+    }
+
+    /**
+     * Same as {@link #getRollupByGranularity(String, List, long, long, Granularity)}, for a query
+     * that only outputs some of the stats of basic rollups. The other stats are not decoded, and
+     * are left at zero in the rollups read from Cassandra.
+     *
+     * @param tenantId
+     * @param metrics
+     * @param from
+     * @param to
+     * @param g
+     * @param stats the stats of basic rollups to read
+     * @return
+     */
+    public Map<Locator, MetricData> getRollupByGranularity(
+            final String tenantId,
+            final List<String> metrics,
+            final long from,
+            final long to,
+            final Granularity g,
+            final Set<BaseRollup.Stat> stats) {
 
         final Timer.Context ctx = metrics.size() == 1 ? plotTimers.SPLOT_TIMER.timer.time() : plotTimers.MPLOT_TIMER.timer.time();
         Future<List<SearchResult>> unitsFuture = null;
@@ -164,7 +192,8 @@ public class RollupHandler {
         final Map<Locator,MetricData> metricDataMap = delegator.getDatapointsForRange(
                 locators,
                 new Range(g.snapMillis(from), to),
-                g);
+                g,
+                stats);
 
         if (unitsFuture != null) {
             try {
@@ -201,7 +230,7 @@ public class RollupHandler {
             }
             ListenableFuture<List<Boolean>> aggregateFuture = Futures.allAsList(futures);
             try {
-                aggregateFuture.get(rollupOnReadTimeout.getValue(), rollupOnReadTimeout.getUnit());
+                SharedExecutor.await(aggregateFuture, rollupOnReadTimeout.getValue(), rollupOnReadTimeout.getUnit());
             } catch (Exception e) {
                 aggregateFuture.cancel(true);
                 exceededQueryTimeout.mark();
@@ -330,7 +359,8 @@ public class RollupHandler {
         ListenableFuture<List<List<Points.Point>>> aggregateFuture = Futures.allAsList(futures);
 
         try {
-            for( List<Points.Point> subList : aggregateFuture.get(rollupOnReadTimeout.getValue(), rollupOnReadTimeout.getUnit()) ) {
+            // runs on a thread of the shared executor when it is enabled, which has to wait without holding it
+            for( List<Points.Point> subList : SharedExecutor.await(aggregateFuture, rollupOnReadTimeout.getValue(), rollupOnReadTimeout.getUnit()) ) {
 
                 repairedPoints.addAll( subList );
             }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.rackspacecloud.blueflood.exceptions.GranularityException;
+import com.rackspacecloud.blueflood.io.AbstractMetricsRW;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.CassandraModel.MetricColumnFamily;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.*;
+import com.rackspacecloud.blueflood.utils.RollupUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Rolls up data into one data point, like {@link RollupRunnable}, but issues its read asynchronously.
+ *
+ * run() is meant to be called directly on the locator fetch thread. It only blocks while the number of
+ * reads in flight across all slots is at MAX_ROLLUP_READS_IN_FLIGHT. Once the read completes, the rollup
+ * is computed and enqueued for writing on the compute executor.
+ */
+public class AsyncRollupRunnable extends RollupRunnable {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncRollupRunnable.class);
+
+    private static final int MAX_READS_IN_FLIGHT =
+            Configuration.getInstance().getIntegerProperty(CoreConfig.MAX_ROLLUP_READS_IN_FLIGHT);
+    private static final Semaphore inFlightReads = new Semaphore(MAX_READS_IN_FLIGHT);
+
+    private final Executor computeExecutor;
+
+    public AsyncRollupRunnable(RollupExecutionContext executionContext,
+                               SingleRollupReadContext singleRollupReadContext,
+                               RollupBatchWriter rollupBatchWriter,
+                               Executor computeExecutor) {
+        this(executionContext, singleRollupReadContext, rollupBatchWriter, null, computeExecutor);
+    }
+
+    public AsyncRollupRunnable(RollupExecutionContext executionContext,
+                               SingleRollupReadContext singleRollupReadContext,
+                               RollupBatchWriter rollupBatchWriter,
+                               RollupType rollupType,
+                               Executor computeExecutor) {
+        super(executionContext, singleRollupReadContext, rollupBatchWriter, rollupType);
+        this.computeExecutor = computeExecutor;
+    }
+
+    /**
+     * @return the number of asynchronous rollup reads currently outstanding
+     */
+    public static int getInFlightReadCount() {
+        return MAX_READS_IN_FLIGHT - inFlightReads.availablePermits();
+    }
+
+    @Override
+    public void run() {
+        // done waiting.
+        singleRollupReadContext.getWaitHist().update(System.currentTimeMillis() - startWait);
+
+        final Granularity srcGran;
+        try {
+            srcGran = singleRollupReadContext.getRollupGranularity().finer();
+        } catch (GranularityException ex) {
+            executionContext.decrementReadCounter();
+            return; // no work to be done.
+        }
+
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Issuing rollup read from {} for {} {}", new Object[]{
+                    srcGran.shortName(),
+                    singleRollupReadContext.getRange().toString(),
+                    singleRollupReadContext.getLocator()});
+        }
+
+        // start timing this action.
+        final Timer.Context timerContext = singleRollupReadContext.getExecuteTimer().time();
+        final Timer.Context calcrollupContext = calcTimer.time();
+
+        final RollupType rollupType;
+        final ListenableFuture<Points> input;
+        final boolean acquired;
+        try {
+            granToMeters.get(srcGran.coarser()).mark();
+
+            Locator rollupLocator = singleRollupReadContext.getLocator();
+            rollupType = getRollupType();
+
+            Points buffered = getBufferedInput(srcGran);
+            if (buffered != null) {
+                acquired = false;
+                input = Futures.immediateFuture(buffered);
+            } else {
+                Class<? extends Rollup> rollupClass = RollupType.classOf(rollupType, srcGran.coarser());
+                MetricColumnFamily srcCF = CassandraModel.getColumnFamily(rollupClass, srcGran);
+                AbstractMetricsRW metricsRW = RollupUtils.getMetricsRWForRollupType(rollupType);
+
+                inFlightReads.acquireUninterruptibly();
+                try {
+                    input = metricsRW.getDataToRollupAsync(
+                            rollupLocator,
+                            rollupType,
+                            singleRollupReadContext.getRange(),
+                            srcCF.getName(),
+                            computeExecutor);
+                } catch (RuntimeException e) {
+                    inFlightReads.release();
+                    throw e;
+                }
+                acquired = true;
+            }
+        } catch (Exception e) {
+            logFailure(srcGran, e);
+            calcrollupContext.stop();
+            executionContext.decrementReadCounter();
+            timerContext.stop();
+            return;
+        }
+
+        Futures.addCallback(input, new FutureCallback<Points>() {
+            @Override
+            public void onSuccess(Points points) {
+                if (acquired) {
+                    inFlightReads.release();
+                }
+                try {
+                    Rollup rollup;
+                    try {
+                        if (points.isEmpty()) {
+                            LOG.debug(String.format("No points rollup for locator %s", singleRollupReadContext.getLocator()));
+                            noPointsToCalculateRollup.mark();
+                            bufferNoPoints(srcGran.coarser());
+                            return;
+                        }
+
+                        // next, compute the rollup.
+                        rollup = RollupRunnable.getRollupComputer(rollupType, srcGran).compute(points);
+                    } finally {
+                        calcrollupContext.stop();
+                    }
+                    // now enqueue the new rollup for writing.
+                    enqueueRollup(rollup, rollupType, srcGran.coarser());
+                } catch (Exception e) {
+                    logFailure(srcGran, e);
+                } finally {
+                    executionContext.decrementReadCounter();
+                    timerContext.stop();
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (acquired) {
+                    inFlightReads.release();
+                }
+                calcrollupContext.stop();
+                logFailure(srcGran, t);
+                executionContext.decrementReadCounter();
+                timerContext.stop();
+            }
+        }, computeExecutor);
+    }
+
+    private void logFailure(Granularity srcGran, Throwable t) {
+        LOG.error("Rollup failed; Locator: {}, Source Granularity: {}, For period: {}", new Object[]{
+                singleRollupReadContext.getLocator(),
+                srcGran.name(),
+                singleRollupReadContext.getRange().toString(),
+                t});
+    }
+}
@@ -198,6 +198,10 @@ public class BluefloodServiceStarter {
 
             rollupThread.start();
 
+            if (StreamingRollupAggregator.isEnabled()) {
+                StreamingRollupAggregator.getInstance().start();
+            }
+
         } else {
             serverTimeUpdate.schedule(new TimerTask() {
                 @Override
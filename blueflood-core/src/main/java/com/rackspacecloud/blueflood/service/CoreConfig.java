@@ -34,6 +34,9 @@ public enum CoreConfig implements ConfigDefaults {
     // driver.
     MAX_CASSANDRA_CONNECTIONS("75"),
 
+    // One of 'astyanax', 'datastax' or 'memory'. The 'memory' driver keeps all metrics, locators, shard state and
+    // metadata in the memory of the process, honoring TTLs, for single node development and benchmarks. Nothing
+    // is persisted, and it cannot be shared between nodes.
     CASSANDRA_DRIVER("astyanax"),
 
     // Datastax related connection pool settings
@@ -45,6 +48,15 @@ public enum CoreConfig implements ConfigDefaults {
     DATASTAX_WRITE_TIMEOUT_MAX_RETRIES("3"),
     DATASTAX_UNAVAILABLE_MAX_RETRIES("1"),
 
+    // When enabled with the datastax driver, reads of metrics, locators and shard state that have not completed
+    // after HEDGED_READS_PERCENTILE of the recent read latencies, and at least HEDGED_READS_MIN_DELAY_MS, are sent
+    // again to another replica, and the first response is used. At most HEDGED_READS_MAX_PER_SECOND reads are
+    // hedged per second.
+    ENABLE_HEDGED_READS("false"),
+    HEDGED_READS_PERCENTILE("99"),
+    HEDGED_READS_MIN_DELAY_MS("10"),
+    HEDGED_READS_MAX_PER_SECOND("100"),
+
     ROLLUP_KEYSPACE("DATA"),
     CLUSTER_NAME("Test Cluster"),
 
@@ -55,10 +67,88 @@ public enum CoreConfig implements ConfigDefaults {
     EVENT_LISTENER_MODULES(""),
     EVENTS_MODULES(""),
 
+    // When enabled, rollup events are put in a bounded ring buffer of ROLLUP_EVENT_BUFFER_SIZE events, which
+    // ROLLUP_EVENT_CONSUMER_THREADS threads deliver to the listeners up to ROLLUP_EVENT_BATCH_SIZE at a time.
+    // Rollups never wait for the listeners: events emitted while the buffer is full are dropped and counted.
+    ENABLE_ROLLUP_EVENT_RING_BUFFER("false"),
+    ROLLUP_EVENT_BUFFER_SIZE("65536"),
+    ROLLUP_EVENT_CONSUMER_THREADS("2"),
+    ROLLUP_EVENT_BATCH_SIZE("256"),
+
     MAX_LOCATOR_FETCH_THREADS("2"),
     MAX_ROLLUP_READ_THREADS("20"),
     MAX_ROLLUP_WRITE_THREADS("5"),
 
+    // The locators of a slot are split by hash into ROLLUP_SUB_SHARDS sub-ranges, which are dispatched concurrently
+    // when the slot has at least ROLLUP_SUB_SHARD_MIN_LOCATORS locators. The slot is still scheduled, and marked
+    // rolled, as a whole. Each locator fetch thread may use up to ROLLUP_SUB_SHARDS - 1 extra threads.
+    ROLLUP_SUB_SHARDS("1"),
+    ROLLUP_SUB_SHARD_MIN_LOCATORS("10000"),
+
+    // When enabled, the rollup read threads are resized every ADAPTIVE_ROLLUP_CONCURRENCY_PERIOD_MILLIS, between
+    // ADAPTIVE_ROLLUP_CONCURRENCY_MIN_THREADS and ADAPTIVE_ROLLUP_CONCURRENCY_MAX_THREADS, starting from
+    // MAX_ROLLUP_READ_THREADS. They are cut by a quarter on Cassandra errors or when the 95th percentile Cassandra
+    // latency exceeds ADAPTIVE_ROLLUP_CONCURRENCY_TARGET_LATENCY_MILLIS, and raised by one while rollups are queued.
+    // The rollup write threads keep their configured ratio to the read threads.
+    ENABLE_ADAPTIVE_ROLLUP_CONCURRENCY("false"),
+    ADAPTIVE_ROLLUP_CONCURRENCY_MIN_THREADS("4"),
+    ADAPTIVE_ROLLUP_CONCURRENCY_MAX_THREADS("100"),
+    ADAPTIVE_ROLLUP_CONCURRENCY_TARGET_LATENCY_MILLIS("200"),
+    ADAPTIVE_ROLLUP_CONCURRENCY_PERIOD_MILLIS("10000"),
+
+    // When enabled, the locators whose rollup completed are recorded in memory for each running slot. If the slot
+    // fails, its retry on this node only rolls up the locators that failed or were never attempted. The checkpoint
+    // of a slot is discarded when the slot receives new data, or ROLLUP_CHECKPOINT_TTL_MINUTES after it was used.
+    ENABLE_ROLLUP_CHECKPOINTS("false"),
+    ROLLUP_CHECKPOINT_TTL_MINUTES("60"),
+
+    // The number of rolled up or failed slots remembered per shard and granularity, listed by the SlotTimeline
+    // operation of the ScheduleContext MBean.
+    SLOT_TIMELINE_EVENTS_PER_SHARD("20"),
+
+    // When enabled, the rollup types of all the locators of a slot are fetched before their rollups are dispatched,
+    // reading the ones that are not cached META_CACHE_BATCHED_READS_THRESHOLD rows at a time, instead of one
+    // metadata read per locator from the rollup read threads.
+    ENABLE_ROLLUP_TYPE_PREFETCH("false"),
+
+    // When enabled, rollup reads are issued asynchronously from the locator fetch threads instead of blocking
+    // a rollup read thread per locator. The rollup read threads are then only used to decode the results and
+    // compute the rollups. MAX_ROLLUP_READS_IN_FLIGHT bounds the number of outstanding reads across all slots.
+    // Only enable this if CASSANDRA_DRIVER is set to 'datastax', the astyanax driver has no asynchronous reads.
+    ENABLE_ASYNC_ROLLUP_READS("false"),
+    MAX_ROLLUP_READS_IN_FLIGHT("1000"),
+
+    // When enabled, rollups computed on this node are kept in memory, grouped by the slot of the next coarser
+    // granularity. Once all the children of a coarser slot are buffered, its rollup is computed from memory instead
+    // of reading the finer rollups back from Cassandra. The buffer is bounded by the number of (locator, coarser slot)
+    // entries; its TTL should cover a 1440m slot plus the rollup delays.
+    ENABLE_ROLLUP_CASCADE("false"),
+    ROLLUP_CASCADE_BUFFER_MAX_SIZE("1000000"),
+    ROLLUP_CASCADE_BUFFER_TTL_MINUTES("1500"),
+
+    // When enabled, the points read for queries are cached in chunks of 12 slots per locator and granularity, once
+    // the chunk ended more than QUERY_RESULT_CACHE_MIN_AGE_MS ago, so that repeated queries only read the recent
+    // tail from Cassandra. Chunks are dropped when slots they cover are rolled up, or receive delayed points, on this
+    // node, and in any case QUERY_RESULT_CACHE_TTL_MINUTES after they were read; on query-only nodes, that is how long
+    // delayed data can take to show. The cache is bounded by the number of points it holds. The invalidations are
+    // kept, per shard, granularity and chunk, up to QUERY_RESULT_CACHE_MAX_INVALIDATIONS; the chunks an evicted
+    // invalidation was meant for are dropped with it.
+    ENABLE_QUERY_RESULT_CACHE("false"),
+    QUERY_RESULT_CACHE_MAX_POINTS("10000000"),
+    QUERY_RESULT_CACHE_MAX_INVALIDATIONS("100000"),
+    QUERY_RESULT_CACHE_MIN_AGE_MS("900000"),
+    QUERY_RESULT_CACHE_TTL_MINUTES("10"),
+
+    // When enabled on a node that both ingests and rolls up, the 5m rollups of the managed shards are computed in
+    // memory while the raw points are ingested, and written STREAMING_ROLLUP_CLOSE_DELAY_MILLIS after their slot
+    // ends. The 5m rollup of those slots then doesn't read back the raw points of the numeric metrics; preaggregated
+    // metrics are still rolled up from their raw points. Only enable this if all the points
+    // of the managed shards are ingested by this node. A slot with more than STREAMING_ROLLUP_MAX_LOCATORS_PER_SLOT
+    // locators in a shard falls back to the normal rollup path.
+    ENABLE_STREAMING_ROLLUPS("false"),
+    STREAMING_ROLLUP_CLOSE_DELAY_MILLIS("60000"),
+    STREAMING_ROLLUP_MAX_LOCATORS_PER_SLOT("100000"),
+
     // Discovery refers to indexing the details of locators so that they're easily searchable. Discovery modules
     // implement specific discovery mechanisms. Elasticsearch is an example of a discovery backend. Locators are indexed
     // in Elasticsearch and retrieved later to fulfill query requests.
@@ -146,6 +236,20 @@ public enum CoreConfig implements ConfigDefaults {
     SHARD_LOCK_SCAVENGE_INTERVAL_MS("120000"),
     MAX_ZK_LOCKS_TO_ACQUIRE_PER_CYCLE("1"),
 
+    // When enabled, each rollup node publishes in zookeeper the number of shards it holds and the time it spends
+    // rolling them up. Nodes then only acquire shard locks up to their fair share of the load, and hand off their
+    // heaviest shards, after flushing their state, when they hold more than their fair share by more than
+    // SHARD_LOAD_BALANCING_TOLERANCE. Held shards are no longer released at random after SHARD_LOCK_HOLD_PERIOD_MS.
+    ENABLE_SHARD_LOAD_BALANCING("false"),
+    SHARD_LOAD_BALANCING_TOLERANCE("0.1"),
+
+    // When enabled, rollup nodes register in zookeeper with a session of SHARD_LEASE_TIMEOUT_MS, and watch each
+    // other. When a node leaves, the others immediately claim its shards, each up to its share of them, instead
+    // of waiting for SHARD_LOCK_DISINTERESTED_PERIOD_MS and acquiring MAX_ZK_LOCKS_TO_ACQUIRE_PER_CYCLE locks
+    // per scavenge. The state of a claimed shard is read right away.
+    ENABLE_FAST_SHARD_FAILOVER("false"),
+    SHARD_LEASE_TIMEOUT_MS("30000"),
+
     INTERNAL_API_CLUSTER("127.0.0.1:50020,127.0.0.1:50020"),
 
     RIEMANN_HOST(""), //string: address of riemann server where events should be sent.
@@ -204,6 +308,15 @@ public enum CoreConfig implements ConfigDefaults {
     ROLLUP_BATCH_MIN_SIZE("5"),
     ROLLUP_BATCH_MAX_SIZE("100"),
 
+    // When enabled, the rollups of a batch are no longer written with one multi-partition UNLOGGED batch. They are
+    // grouped by partition and each partition is written asynchronously, with a single-partition batch if needed,
+    // so the token aware policy sends it straight to a replica. MAX_ROLLUP_WRITES_IN_FLIGHT bounds the number of
+    // outstanding writes across all rollup write threads. A partition with more than ROLLUP_PARTITION_BATCH_MAX_SIZE
+    // rollups is written with several batches. Only in effect if CASSANDRA_DRIVER is set to 'datastax'.
+    ENABLE_PARTITIONED_ROLLUP_WRITES("false"),
+    MAX_ROLLUP_WRITES_IN_FLIGHT("500"),
+    ROLLUP_PARTITION_BATCH_MAX_SIZE("50"),
+
     // Assume, for calculating granularity for GetByPoints queries, that data is sent at this interval.
     GET_BY_POINTS_ASSUME_INTERVAL("30000"),
 
@@ -230,6 +343,13 @@ public enum CoreConfig implements ConfigDefaults {
     DELAYED_METRICS_REROLL_GRANULARITY("60m"),
     RECORD_DELAYED_METRICS("true"),
 
+    // When enabled, ingest records the locators that received data in each ACTIVE_LOCATORS_STORAGE_GRANULARITY slot
+    // of their shard, and rollups only read the locators that were active during the slot being rolled up, instead
+    // of every locator of the shard. Enable this on the ingest nodes before the rollup nodes.
+    RECORD_ACTIVE_LOCATORS("false"),
+    //the granularity for which we store active locators. Allowed values are 5m, 20m, 60m, 240m, 1440m
+    ACTIVE_LOCATORS_STORAGE_GRANULARITY("60m"),
+
     SHOULD_STORE_UNITS("true"),
     USE_ES_FOR_UNITS("false"),
     // Should at least be equal to the number of the netty worker threads, if http module is getting loaded
@@ -240,6 +360,12 @@ public enum CoreConfig implements ConfigDefaults {
     ROLLUP_ON_READ_REPAIR_SIZE_PER_THREAD( "5" ),
     ROLLUP_ON_READ_TIMEOUT_IN_SECONDS("10"),
 
+    // When enabled, the rollups on read thread pools above are replaced by views of a single work-stealing pool of
+    // SHARED_EXECUTOR_THREADS threads (4 per core when 0), each limited to its configured number of threads.
+    // Queries are run before repairs when the shared pool is busy.
+    ENABLE_SHARED_EXECUTOR("false"),
+    SHARED_EXECUTOR_THREADS("0"),
+
     // 3 days - this matches the TTL for our metrics_full table, we don't accept anything older than the TTL.
     BEFORE_CURRENT_COLLECTIONTIME_MS("259200000"),
     // 10 minutes
@@ -253,6 +379,18 @@ public enum CoreConfig implements ConfigDefaults {
 
     ENABLE_DTX_INGEST_BATCH("false"),
 
+    // When enabled with the datastax driver, full resolution points of basic metrics are buffered per locator and
+    // 5 minute slot, and written every FULL_RES_BLOCK_FLUSH_INTERVAL_MS as compressed blocks to metrics_full_blocks,
+    // instead of one column per point to metrics_full. Keep the flush interval well below ROLLUP_DELAY_MILLIS, as
+    // points are only readable once flushed. Blocks stay buffered for FULL_RES_BLOCK_RETENTION_MS after the end of
+    // their slot. FULL_RES_BLOCK_WRITER_ID must be unique per ingestion node, between 0 and 299999; it is picked
+    // at random when negative. Leave it random: with a fixed id, the blocks a node wrote before a restart are
+    // overwritten if it receives points for their slots within the retention period.
+    ENABLE_FULL_RES_BLOCKS("false"),
+    FULL_RES_BLOCK_FLUSH_INTERVAL_MS("10000"),
+    FULL_RES_BLOCK_RETENTION_MS("600000"),
+    FULL_RES_BLOCK_WRITER_ID("-1"),
+
     // Cross-Origin Resource Sharing
     CORS_ENABLED("false"),
     CORS_ALLOWED_ORIGINS("*"),
@@ -19,18 +19,22 @@ package com.rackspacecloud.blueflood.service;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.rackspacecloud.blueflood.io.IOContainer;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.rollup.SlotKey;
 import com.rackspacecloud.blueflood.types.Locator;
 import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.types.RollupType;
 import com.rackspacecloud.blueflood.utils.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 
 /**
@@ -43,22 +47,46 @@ public class LocatorFetchRunnable implements Runnable {
     
     private ExecutorService rollupReadExecutor;
     private ThreadPoolExecutor rollupWriteExecutor;
+    private ExecutorService subShardExecutor;
     private SlotKey parentSlotKey;
     private ScheduleContext scheduleCtx;
     private long serverTime;
+    private Map<Locator, RollupType> rollupTypes = Collections.emptyMap();
     private static final Timer rollupLocatorExecuteTimer = Metrics.timer(RollupService.class, "Locate and Schedule Rollups for Slot");
     private static final Histogram locatorsPerShard = Metrics.histogram(RollupService.class, "Locators Per Shard");
     private static final Histogram locatorsPerShardForReroll = Metrics.histogram(RollupService.class, "Locators Per Shard for re-rolls");
+    private static final Timer rollupTypePrefetchTimer = Metrics.timer(RollupService.class, "Prefetch Rollup Types for Slot");
 
     private static boolean RECORD_DELAYED_METRICS =
             Configuration.getInstance().getBooleanProperty(CoreConfig.RECORD_DELAYED_METRICS);
 
+    private static boolean ASYNC_ROLLUP_READS =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.ENABLE_ASYNC_ROLLUP_READS);
+
     private static Granularity DELAYED_METRICS_STORAGE_GRANULARITY =
             Granularity.getRollupGranularity(Configuration.getInstance().getStringProperty(CoreConfig.DELAYED_METRICS_STORAGE_GRANULARITY));
 
     private static Granularity DELAYED_METRICS_REROLL_GRANULARITY =
             Granularity.getRollupGranularity(Configuration.getInstance().getStringProperty(CoreConfig.DELAYED_METRICS_REROLL_GRANULARITY));
 
+    private static int SUB_SHARDS =
+            Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_SUB_SHARDS);
+
+    private static int SUB_SHARD_MIN_LOCATORS =
+            Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_SUB_SHARD_MIN_LOCATORS);
+
+    private static boolean PREFETCH_ROLLUP_TYPES =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.ENABLE_ROLLUP_TYPE_PREFETCH);
+
+    private static boolean ROLLUP_CHECKPOINTS =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.ENABLE_ROLLUP_CHECKPOINTS);
+
+    private static boolean RECORD_ACTIVE_LOCATORS =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.RECORD_ACTIVE_LOCATORS);
+
+    private static Granularity ACTIVE_LOCATORS_STORAGE_GRANULARITY =
+            Granularity.getRollupGranularity(Configuration.getInstance().getStringProperty(CoreConfig.ACTIVE_LOCATORS_STORAGE_GRANULARITY));
+
 
     private Range parentRange;
 
@@ -71,6 +99,20 @@ public class LocatorFetchRunnable implements Runnable {
                 rollupWriteExecutor);
     }
 
+    /**
+     * @param subShardExecutor runs the extra sub-ranges of the slot's locators, may be null to dispatch all the
+     *                         locators from the calling thread.
+     */
+    public LocatorFetchRunnable(ScheduleContext scheduleCtx,
+                         SlotKey destSlotKey,
+                         ExecutorService rollupReadExecutor,
+                         ThreadPoolExecutor rollupWriteExecutor,
+                         ExecutorService subShardExecutor) {
+
+        this(scheduleCtx, destSlotKey, rollupReadExecutor, rollupWriteExecutor);
+        this.subShardExecutor = subShardExecutor;
+    }
+
     @VisibleForTesting
     public void initialize(ScheduleContext scheduleCtx,
                            SlotKey destSlotKey,
@@ -103,7 +145,6 @@ public class LocatorFetchRunnable implements Runnable {
             log.trace("Getting locators for {} {} @ {}", new Object[]{parentSlotKey, parentRange.toString(), scheduleCtx.getCurrentTimeMillis()});
         // todo: I can see this set becoming a memory hog.  There might be a better way of doing this.
         long waitStart = System.currentTimeMillis();
-        int rollCount = 0;
 
         final RollupExecutionContext executionContext = createRollupExecutionContext();
         final RollupBatchWriter rollupBatchWriter = createRollupBatchWriter(executionContext);
@@ -113,13 +154,37 @@ public class LocatorFetchRunnable implements Runnable {
         Set<Locator> locators = getLocators(executionContext, isReroll,
                 DELAYED_METRICS_REROLL_GRANULARITY, DELAYED_METRICS_STORAGE_GRANULARITY);
 
+        Set<Locator> streamedLocators = isReroll ? null : getStreamedLocators();
+        if (streamedLocators != null) {
+            int locatorCount = locators.size();
+            locators = new HashSet<Locator>(locators);
+            locators.removeAll(streamedLocators);
+            log.info(String.format("Rollups of %s locators for slotkey: [%s] were already written while ingesting",
+                    locatorCount - locators.size(), parentSlotKey));
+        }
+
+        if (ROLLUP_CHECKPOINTS) {
+            // on a retry, skip the locators that were already rolled up by the failed attempt.
+            locators = RollupCheckpoints.getInstance().begin(parentSlotKey,
+                    scheduleCtx.getShardStateManager().getUpdateStamp(parentSlotKey), locators);
+        }
+
         log.info(String.format("Number of locators getting rolled up for slotkey: [%s] are %s; isReroll: %s", parentSlotKey, locators.size(), isReroll));
 
         if (log.isTraceEnabled())
             log.trace("locators retrieved: {}", locators.size());
 
-        for (Locator locator : locators) {
-            rollCount = processLocator(rollCount, executionContext, rollupBatchWriter, locator);
+        if (PREFETCH_ROLLUP_TYPES) {
+            rollupTypes = prefetchRollupTypes(locators);
+        }
+
+        int rollCount = 0;
+        if (subShardExecutor != null && SUB_SHARDS > 1 && locators.size() >= SUB_SHARD_MIN_LOCATORS) {
+            rollCount = processSubShards(executionContext, rollupBatchWriter, locators, SUB_SHARDS);
+        } else {
+            for (Locator locator : locators) {
+                rollCount = processLocator(rollCount, executionContext, rollupBatchWriter, locator);
+            }
         }
         
         // now wait until ctx is drained. someone needs to be notified.
@@ -129,6 +194,17 @@ public class LocatorFetchRunnable implements Runnable {
     }
 
 
+    /**
+     * @return the locators of this slot whose 5m rollups were computed by the {@link StreamingRollupAggregator} while
+     * ingesting, so their raw points don't need to be read back, or null if there are none.
+     */
+    protected Set<Locator> getStreamedLocators() {
+        if (!StreamingRollupAggregator.isEnabled() || parentSlotKey.getGranularity() != Granularity.MIN_5) {
+            return null;
+        }
+        return StreamingRollupAggregator.getInstance().takeStreamedLocators(parentSlotKey.getShard(), parentRange.getStart());
+    }
+
     /**
      * This methods gets locators to rollup a slot.
      *
@@ -168,11 +244,30 @@ public class LocatorFetchRunnable implements Runnable {
             }
 
         } else {
-            locators = getLocators(executionContext);
+            locators = getLocators(executionContext, RECORD_ACTIVE_LOCATORS, ACTIVE_LOCATORS_STORAGE_GRANULARITY);
         }
         return locators;
     }
 
+    /**
+     * Fetches the rollup types of the locators of the slot, so that each rollup doesn't look up its own.
+     * If that fails, the rollups fall back to looking up their rollup type.
+     *
+     * @param locators
+     * @return the rollup type of each locator
+     */
+    protected Map<Locator, RollupType> prefetchRollupTypes(Set<Locator> locators) {
+        final Timer.Context ctx = rollupTypePrefetchTimer.time();
+        try {
+            return RollupRunnable.getRollupTypes(locators);
+        } catch (Throwable e) {
+            log.warn("Failed prefetching rollup types for slot: " + parentSlotKey, e);
+            return Collections.emptyMap();
+        } finally {
+            ctx.stop();
+        }
+    }
+
     public RollupExecutionContext createRollupExecutionContext() {
         return new RollupExecutionContext(Thread.currentThread());
     }
@@ -209,6 +304,9 @@ public class LocatorFetchRunnable implements Runnable {
 
     public void finishExecution(long waitStart, RollupExecutionContext executionContext) {
         if (executionContext.wasSuccessful()) {
+            if (ROLLUP_CHECKPOINTS) {
+                RollupCheckpoints.getInstance().remove(parentSlotKey);
+            }
             this.scheduleCtx.clearFromRunning(parentSlotKey);
             log.info("Successful completion of rollups for (gran,slot,shard) {} in {} ms",
                     new Object[]{parentSlotKey, System.currentTimeMillis() - waitStart});
@@ -218,6 +316,58 @@ public class LocatorFetchRunnable implements Runnable {
         }
     }
 
+    /**
+     * Dispatches the rollups of all the locators of the slot, split by hash into subShards sub-ranges. All but
+     * the first sub-range are dispatched on the sub-shard executor, the first one on the calling thread. They all
+     * report into the same execution context, and this method returns once every sub-range has been dispatched.
+     *
+     * @return the number of locators dispatched
+     */
+    protected int processSubShards(final RollupExecutionContext executionContext,
+                                   final RollupBatchWriter rollupBatchWriter,
+                                   Collection<Locator> locators,
+                                   int subShards) {
+        final List<List<Locator>> subRanges = new ArrayList<List<Locator>>(subShards);
+        for (int i = 0; i < subShards; i++) {
+            subRanges.add(new ArrayList<Locator>());
+        }
+        for (Locator locator : locators) {
+            subRanges.get((locator.hashCode() & Integer.MAX_VALUE) % subShards).add(locator);
+        }
+
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>(subShards - 1);
+        for (final List<Locator> subRange : subRanges.subList(1, subShards)) {
+            futures.add(subShardExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return processSubRange(executionContext, rollupBatchWriter, subRange);
+                }
+            }));
+        }
+
+        int rollCount = processSubRange(executionContext, rollupBatchWriter, subRanges.get(0));
+        for (Future<Integer> future : futures) {
+            // the execution context interrupts this thread as rollups complete, so don't let that stop the wait.
+            try {
+                rollCount += Uninterruptibles.getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                executionContext.markUnsuccessful(e.getCause());
+                log.error(String.format("Rollup of a sub-range of %s failed", parentSlotKey), e.getCause());
+            }
+        }
+        return rollCount;
+    }
+
+    private int processSubRange(RollupExecutionContext executionContext,
+                                RollupBatchWriter rollupBatchWriter,
+                                List<Locator> subRange) {
+        int rollCount = 0;
+        for (Locator locator : subRange) {
+            rollCount = processLocator(rollCount, executionContext, rollupBatchWriter, locator);
+        }
+        return rollCount;
+    }
+
     public int processLocator(int rollCount, RollupExecutionContext executionContext, RollupBatchWriter rollupBatchWriter, Locator locator) {
         if (log.isTraceEnabled())
             log.trace("Rolling up (check,metric,dimension) {} for (gran,slot,shard) {}", locator, parentSlotKey);
@@ -240,8 +390,17 @@ public class LocatorFetchRunnable implements Runnable {
     public void executeRollupForLocator(RollupExecutionContext executionContext, RollupBatchWriter rollupBatchWriter, Locator locator) {
         executionContext.incrementReadCounter();
         final SingleRollupReadContext singleRollupReadContext = new SingleRollupReadContext(locator, parentRange, getGranularity());
-        RollupRunnable rollupRunnable = new RollupRunnable(executionContext, singleRollupReadContext, rollupBatchWriter);
-        rollupReadExecutor.execute(rollupRunnable);
+        // null if the rollup types were not prefetched, the rollup then looks it up.
+        final RollupType rollupType = rollupTypes.get(locator);
+        if (ASYNC_ROLLUP_READS) {
+            // the read is issued from this thread, the rollup read threads only compute the rollup.
+            new AsyncRollupRunnable(executionContext, singleRollupReadContext, rollupBatchWriter, rollupType,
+                    rollupReadExecutor).run();
+        } else {
+            RollupRunnable rollupRunnable = new RollupRunnable(executionContext, singleRollupReadContext, rollupBatchWriter,
+                    rollupType);
+            rollupReadExecutor.execute(rollupRunnable);
+        }
     }
 
     public Set<Locator> getDelayedLocators(RollupExecutionContext executionContext, SlotKey slotkey) {
@@ -259,6 +418,55 @@ public class LocatorFetchRunnable implements Runnable {
         return locators;
     }
 
+    /**
+     * Gets the locators of the shard to rollup a slot. If active locators are recorded, only the locators
+     * that received data during the slot are returned.
+     *
+     * @param executionContext
+     * @param isRecordingActiveLocators
+     * @param activeLocatorsStorageGranularity
+     * @return
+     */
+    protected Set<Locator> getLocators(RollupExecutionContext executionContext,
+                                       boolean isRecordingActiveLocators,
+                                       Granularity activeLocatorsStorageGranularity) {
+        if (!isRecordingActiveLocators) {
+            return getLocators(executionContext);
+        }
+
+        Set<Locator> locators = new HashSet<Locator>();
+        if (getGranularity().isCoarser(activeLocatorsStorageGranularity)) {
+            // For example, if we are rolling up a 240m slot, and we store active locators at 60m, we need to
+            // grab active locators for 4 * 60m slots corresponding to the 240m slot.
+            for (SlotKey slotKey : parentSlotKey.getChildrenKeys(activeLocatorsStorageGranularity)) {
+                locators.addAll(getActiveLocators(executionContext, slotKey));
+            }
+        } else {
+            locators.addAll(getActiveLocators(executionContext, parentSlotKey.extrapolate(activeLocatorsStorageGranularity)));
+        }
+
+        if (scheduleCtx.isReroll(parentSlotKey)) {
+            locatorsPerShardForReroll.update(locators.size());
+        } else {
+            locatorsPerShard.update(locators.size());
+        }
+        return locators;
+    }
+
+    public Set<Locator> getActiveLocators(RollupExecutionContext executionContext, SlotKey slotkey) {
+        Set<Locator> locators = new HashSet<Locator>();
+
+        try {
+            // get a list of all locators that received data during a slot key.
+            locators.addAll(IOContainer.fromConfig().getLocatorIO().getActiveLocators(slotkey));
+        } catch (Throwable e) {
+            log.error("Failed reading active locators for slot: " + getParentSlot(), e);
+            executionContext.markUnsuccessful(e);
+        }
+
+        return locators;
+    }
+
     public Set<Locator> getLocators(RollupExecutionContext executionContext) {
         Set<Locator> locators = new HashSet<Locator>();
 
@@ -32,6 +32,8 @@ public class RollupBatchWriteRunnable implements Runnable {
     private static final Histogram rollupsPerBatch = Metrics.histogram(RollupService.class, "Rollups Per Batch");
     private static final Meter rollupsWriteRate = Metrics.meter(RollupService.class, "Rollups Write Rate");
     private static final Timer batchWriteTimer = Metrics.timer(RollupService.class, "Rollup Batch Write");
+    private static final boolean ROLLUP_CHECKPOINTS =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.ENABLE_ROLLUP_CHECKPOINTS);
 
     private final RollupExecutionContext executionContext;
     private final List<SingleRollupWriteContext> writeContexts;
@@ -50,6 +52,12 @@ public class RollupBatchWriteRunnable implements Runnable {
         Timer.Context ctx = batchWriteTimer.time();
         try {
             metricsRW.insertRollups(writeContexts);
+            if (ROLLUP_CHECKPOINTS) {
+                for (SingleRollupWriteContext writeContext : writeContexts) {
+                    RollupCheckpoints.getInstance().markCompleted(writeContext.getLocator(),
+                            writeContext.getGranularity(), writeContext.getTimestamp());
+                }
+            }
         } catch (Exception e) {
             LOG.warn("not able to insert rollups", e);
             executionContext.markUnsuccessful(e);
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.SlotKey;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import com.rackspacecloud.blueflood.utils.Util;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps track, per running slot, of the locators whose rollup has been completed, as 64 bit
+ * fingerprints of the locators. A locator is completed once its rollup has been written, or once it turned
+ * out to have no points to roll up.
+ *
+ * When the rollup of a slot fails, the slot is pushed back to be scheduled again. The retry then only
+ * rolls up the locators that failed or were never attempted. The checkpoint of a slot is discarded as soon
+ * as the update stamp of the slot changes, since new data may have been received for completed locators.
+ *
+ * Checkpoints are only kept in memory: a slot retried on another node, or after a restart, is rolled up
+ * for all of its locators.
+ */
+public class RollupCheckpoints {
+
+    private static final HashFunction fingerprint = Hashing.murmur3_128();
+
+    private final Cache<SlotKey, Checkpoint> checkpoints;
+
+    private static final Meter skippedLocators = Metrics.meter(RollupCheckpoints.class, "Skipped Locators");
+
+    private final static RollupCheckpoints instance = new RollupCheckpoints(
+            Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_CHECKPOINT_TTL_MINUTES),
+            TimeUnit.MINUTES);
+
+    static {
+        Metrics.getRegistry().register(MetricRegistry.name(RollupCheckpoints.class, "Checkpointed Slots Count"),
+                (Gauge<Long>) instance::getCheckpointedSlotCount);
+    }
+
+    public static RollupCheckpoints getInstance() {
+        return instance;
+    }
+
+    protected RollupCheckpoints(long ttl, TimeUnit ttlTimeUnit) {
+        checkpoints = CacheBuilder.newBuilder()
+                .expireAfterAccess(ttl, ttlTimeUnit)
+                .build();
+    }
+
+    @VisibleForTesting
+    public static RollupCheckpoints getInstance(long ttl, TimeUnit ttlTimeUnit) {
+        return new RollupCheckpoints(ttl, ttlTimeUnit);
+    }
+
+    public long getCheckpointedSlotCount() {
+        return checkpoints.size();
+    }
+
+    /**
+     * Starts or resumes tracking the rollup of a slot.
+     *
+     * @param slotKey the slot being rolled up
+     * @param stamp the current update stamp of the slot, may be null
+     * @param locators all the locators of the slot
+     * @return the locators of the slot that still have to be rolled up
+     */
+    public Set<Locator> begin(SlotKey slotKey, UpdateStamp stamp, Set<Locator> locators) {
+        long timestamp = stamp == null ? 0 : stamp.getTimestamp();
+        long lastIngestTimestamp = stamp == null ? 0 : stamp.getLastIngestTimestamp();
+
+        Checkpoint checkpoint = checkpoints.getIfPresent(slotKey);
+        if (checkpoint == null || checkpoint.timestamp != timestamp || checkpoint.lastIngestTimestamp != lastIngestTimestamp) {
+            checkpoints.put(slotKey, new Checkpoint(timestamp, lastIngestTimestamp));
+            return locators;
+        }
+
+        Set<Locator> remaining = new HashSet<Locator>();
+        for (Locator locator : locators) {
+            if (!checkpoint.completed.contains(fingerprintOf(locator))) {
+                remaining.add(locator);
+            }
+        }
+        skippedLocators.mark(locators.size() - remaining.size());
+        return remaining;
+    }
+
+    /**
+     * Records that the rollup of a locator has been completed for the slot of the specified granularity
+     * and timestamp. This is a no-op if the slot is not being tracked.
+     *
+     * @param locator
+     * @param granularity the granularity of the slot that was rolled up
+     * @param timestamp the start of the slot that was rolled up
+     */
+    public void markCompleted(Locator locator, Granularity granularity, long timestamp) {
+        SlotKey slotKey = SlotKey.of(granularity, granularity.slot(timestamp), Util.getShard(locator.toString()));
+        Checkpoint checkpoint = checkpoints.getIfPresent(slotKey);
+        if (checkpoint != null) {
+            checkpoint.completed.add(fingerprintOf(locator));
+        }
+    }
+
+    /**
+     * Stops tracking a slot, once all of its locators have been rolled up.
+     *
+     * @param slotKey
+     */
+    public void remove(SlotKey slotKey) {
+        checkpoints.invalidate(slotKey);
+    }
+
+    private static long fingerprintOf(Locator locator) {
+        return fingerprint.hashUnencodedChars(locator.toString()).asLong();
+    }
+
+    private static class Checkpoint {
+        private final long timestamp;
+        private final long lastIngestTimestamp;
+        private final Set<Long> completed = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+        private Checkpoint(long timestamp, long lastIngestTimestamp) {
+            this.timestamp = timestamp;
+            this.lastIngestTimestamp = lastIngestTimestamp;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.codahale.metrics.Meter;
+import com.google.common.annotations.VisibleForTesting;
+import com.rackspacecloud.blueflood.io.Instrumentation;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resizes the rollup read and write thread pools based on how Cassandra is coping, using additive increase and
+ * multiplicative decrease.
+ *
+ * Each time it runs, it looks at the Cassandra errors and at the highest 95th percentile latency of the Cassandra
+ * timers over the reads and writes made since the previous run. If there were errors, or the latency is above the target, the
+ * rollup concurrency is cut by a quarter. Otherwise, if rollups are queued, it is raised by one. The write pool
+ * keeps the ratio to the read pool that it was configured with.
+ */
+public class RollupConcurrencyController implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(RollupConcurrencyController.class);
+
+    private static final double DECREASE_FACTOR = 0.75;
+
+    private final ThreadPoolExecutor rollupReadExecutors;
+    private final ThreadPoolExecutor rollupWriteExecutors;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final long targetLatencyNanos;
+    private final double writeToReadRatio;
+
+    private long lastErrorCount = Instrumentation.getErrorCount();
+
+    private volatile boolean enabled = true;
+    private volatile String lastDecision = "none";
+
+    private static final Meter increases = Metrics.meter(RollupConcurrencyController.class, "Increases");
+    private static final Meter decreases = Metrics.meter(RollupConcurrencyController.class, "Decreases");
+
+    public RollupConcurrencyController(ThreadPoolExecutor rollupReadExecutors,
+                                       ThreadPoolExecutor rollupWriteExecutors,
+                                       int minConcurrency, int maxConcurrency,
+                                       long targetLatencyMillis) {
+        this.rollupReadExecutors = rollupReadExecutors;
+        this.rollupWriteExecutors = rollupWriteExecutors;
+        this.minConcurrency = Math.max(1, minConcurrency);
+        this.maxConcurrency = Math.max(this.minConcurrency, maxConcurrency);
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.writeToReadRatio = (double) rollupWriteExecutors.getMaximumPoolSize() / rollupReadExecutors.getMaximumPoolSize();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return a description of the last adjustment made
+     */
+    public String getLastDecision() {
+        return lastDecision;
+    }
+
+    @Override
+    public void run() {
+        try {
+            long errorCount = Instrumentation.getErrorCount();
+            long errors = errorCount - lastErrorCount;
+            lastErrorCount = errorCount;
+
+            double latencyNanos = sampleLatency();
+            if (enabled) {
+                adjust(latencyNanos, errors, rollupReadExecutors.getQueue().size() > 0);
+            }
+        } catch (Throwable t) {
+            log.error("Error while adjusting the rollup concurrency", t);
+        }
+    }
+
+    /**
+     * @return the highest 95th percentile latency, in nanoseconds, of the Cassandra timers over the reads and
+     * writes made since the last sample
+     */
+    private double sampleLatency() {
+        double latencyNanos = 0;
+        for (double percentile : Instrumentation.takeReadWrite95thPercentiles().values()) {
+            latencyNanos = Math.max(latencyNanos, percentile);
+        }
+        return latencyNanos;
+    }
+
+    /**
+     * Adjusts the rollup concurrency for one period.
+     *
+     * @param latencyNanos the observed Cassandra latency
+     * @param errors the number of Cassandra errors during the period
+     * @param backlogged whether rollups are waiting for a rollup read thread
+     * @return the new rollup concurrency
+     */
+    @VisibleForTesting
+    int adjust(double latencyNanos, long errors, boolean backlogged) {
+        int current = rollupReadExecutors.getMaximumPoolSize();
+        int next = current;
+        String reason;
+        if (errors > 0 || latencyNanos > targetLatencyNanos) {
+            next = Math.max(minConcurrency, (int) (current * DECREASE_FACTOR));
+            reason = "decrease";
+        } else if (backlogged) {
+            next = Math.min(maxConcurrency, current + 1);
+            reason = "increase";
+        } else {
+            reason = "hold";
+        }
+
+        if (next != current) {
+            resize(rollupReadExecutors, next);
+            resize(rollupWriteExecutors, Math.max(1, (int) Math.round(next * writeToReadRatio)));
+            if (next > current) {
+                increases.mark();
+            } else {
+                decreases.mark();
+            }
+        }
+
+        lastDecision = String.format("%s %d -> %d (p95 latency %d ms, %d errors, backlogged: %s)", reason, current,
+                next, TimeUnit.NANOSECONDS.toMillis((long) latencyNanos), errors, backlogged);
+        if (next != current) {
+            log.info("Rollup concurrency " + lastDecision);
+        }
+        return next;
+    }
+
+    private static void resize(ThreadPoolExecutor executor, int size) {
+        // the core size can never exceed the maximum size
+        if (size > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+    }
+}
@@ -19,6 +19,8 @@ package com.rackspacecloud.blueflood.service;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
 import com.rackspacecloud.blueflood.cache.MetadataCache;
+import com.rackspacecloud.blueflood.cache.RollupCascadeBuffer;
+import com.rackspacecloud.blueflood.exceptions.CacheException;
 import com.rackspacecloud.blueflood.exceptions.GranularityException;
 import com.rackspacecloud.blueflood.io.AbstractMetricsRW;
 import com.rackspacecloud.blueflood.io.CassandraModel;
@@ -41,18 +43,23 @@ public class RollupRunnable implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(RollupRunnable.class);
 
     protected final SingleRollupReadContext singleRollupReadContext;
-    protected static final MetadataCache metadataCache = MetadataCache.getInstance();
     protected static final MetadataCache rollupTypeCache = MetadataCache.createLoadingCacheInstance(
             new TimeValue(48, TimeUnit.HOURS), // todo: need a good default expiration here.
             Configuration.getInstance().getIntegerProperty(CoreConfig.MAX_ROLLUP_READ_THREADS));
 
+    protected static final boolean ROLLUP_CHECKPOINTS =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.ENABLE_ROLLUP_CHECKPOINTS);
+    protected static final boolean ROLLUP_CASCADE =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.ENABLE_ROLLUP_CASCADE);
+
     protected final RollupExecutionContext executionContext;
     protected final RollupBatchWriter rollupBatchWriter;
+    protected final RollupType prefetchedRollupType;
     protected final long startWait;
 
-    private static final Timer calcTimer = Metrics.timer(RollupRunnable.class, "Read And Calculate Rollup");
-    private static final Meter noPointsToCalculateRollup = Metrics.meter(RollupRunnable.class, "No points to calculate rollup");
-    private static HashMap<Granularity, Meter> granToMeters = new HashMap<Granularity, Meter>();
+    protected static final Timer calcTimer = Metrics.timer(RollupRunnable.class, "Read And Calculate Rollup");
+    protected static final Meter noPointsToCalculateRollup = Metrics.meter(RollupRunnable.class, "No points to calculate rollup");
+    protected static HashMap<Granularity, Meter> granToMeters = new HashMap<Granularity, Meter>();
 
     static {
         for (Granularity rollupGranularity : Granularity.rollupGranularities()) {
@@ -61,12 +68,39 @@ public class RollupRunnable implements Runnable {
     }
 
     public RollupRunnable(RollupExecutionContext executionContext, SingleRollupReadContext singleRollupReadContext, RollupBatchWriter rollupBatchWriter) {
+        this(executionContext, singleRollupReadContext, rollupBatchWriter, null);
+    }
+
+    /**
+     * @param rollupType the rollup type of the locator, if it was already fetched. If null, it is
+     *                   looked up when the rollup runs.
+     */
+    public RollupRunnable(RollupExecutionContext executionContext, SingleRollupReadContext singleRollupReadContext,
+                          RollupBatchWriter rollupBatchWriter, RollupType rollupType) {
         this.executionContext = executionContext;
         this.singleRollupReadContext = singleRollupReadContext;
         this.rollupBatchWriter = rollupBatchWriter;
+        this.prefetchedRollupType = rollupType;
         startWait = System.currentTimeMillis();
     }
 
+    /**
+     * Gets the rollup types of many locators at once, reading the ones that are not cached in a few
+     * multi-row metadata reads.
+     *
+     * @param locators
+     * @return the rollup type of each locator
+     * @throws CacheException
+     */
+    public static Map<Locator, RollupType> getRollupTypes(Collection<Locator> locators) throws CacheException {
+        Map<Locator, RollupType> rollupTypes = new HashMap<Locator, RollupType>();
+        for (Map.Entry<Locator, String> entry : rollupTypeCache.getAll(locators,
+                MetricMetadata.ROLLUP_TYPE.name().toLowerCase()).entrySet()) {
+            rollupTypes.put(entry.getKey(), RollupType.fromString(entry.getValue()));
+        }
+        return rollupTypes;
+    }
+
     public void run() {
         // done waiting.
         singleRollupReadContext.getWaitHist().update(System.currentTimeMillis() - startWait);
@@ -96,9 +130,7 @@ public class RollupRunnable implements Runnable {
             // Read data and compute rollup
             Points input;
             Rollup rollup = null;
-            Locator rollupLocator = singleRollupReadContext.getLocator();
-            RollupType rollupType = RollupType.fromString((String) rollupTypeCache.get(
-                    rollupLocator, MetricMetadata.ROLLUP_TYPE.name().toLowerCase()));
+            RollupType rollupType = getRollupType();
 
             // RollupType   | Class                          | Column Family
             // -------------| ------------------------------ |--------------
@@ -111,23 +143,26 @@ public class RollupRunnable implements Runnable {
 
             Class<? extends Rollup> rollupClass = RollupType.classOf(rollupType, srcGran.coarser());
             MetricColumnFamily srcCF = CassandraModel.getColumnFamily(rollupClass, srcGran);
-            Granularity dstGran = srcGran.coarser();
-            MetricColumnFamily dstCF = CassandraModel.getColumnFamily(rollupClass, dstGran);
 
             // first, get the points.
             AbstractMetricsRW metricsRW;
             try {
-                metricsRW = RollupUtils.getMetricsRWForRollupType(rollupType);
+                input = getBufferedInput(srcGran);
 
-                input = metricsRW.getDataToRollup(
-                        singleRollupReadContext.getLocator(),
-                        rollupType,
-                        singleRollupReadContext.getRange(),
-                        srcCF.getName());
+                if (input == null) {
+                    metricsRW = RollupUtils.getMetricsRWForRollupType(rollupType);
+
+                    input = metricsRW.getDataToRollup(
+                            singleRollupReadContext.getLocator(),
+                            rollupType,
+                            singleRollupReadContext.getRange(),
+                            srcCF.getName());
+                }
 
                 if (input.isEmpty()) {
                     LOG.debug(String.format("No points rollup for locator %s", singleRollupReadContext.getLocator()));
                     noPointsToCalculateRollup.mark();
+                    bufferNoPoints(srcGran.coarser());
                     return;
                 }
 
@@ -137,15 +172,7 @@ public class RollupRunnable implements Runnable {
                 calcrollupContext.stop();
             }
             // now enqueue the new rollup for writing.
-            rollupBatchWriter.enqueueRollupForWrite(new SingleRollupWriteContext(rollup, singleRollupReadContext, dstCF));
-
-            RollupService.lastRollupTime.set(System.currentTimeMillis());
-            //Emit a rollup event to event emitter
-            RollupEventEmitter.getInstance().emit(RollupEventEmitter.ROLLUP_EVENT_NAME,
-                    new RollupEvent(singleRollupReadContext.getLocator(), rollup,
-                            metadataCache.getUnitString(singleRollupReadContext.getLocator()),
-                            singleRollupReadContext.getRollupGranularity().name(),
-                            singleRollupReadContext.getRange().getStart()));
+            enqueueRollup(rollup, rollupType, srcGran.coarser());
         } catch (Exception e) {
             LOG.error("Rollup failed; Locator: {}, Source Granularity: {}, For period: {}", new Object[]{
                     singleRollupReadContext.getLocator(),
@@ -158,6 +185,80 @@ public class RollupRunnable implements Runnable {
         }
     }
 
+    /**
+     * @return the rollup type of the locator being rolled up, from the cache unless it was prefetched
+     * @throws CacheException
+     */
+    protected RollupType getRollupType() throws CacheException {
+        if (prefetchedRollupType != null) {
+            return prefetchedRollupType;
+        }
+        return RollupType.fromString((String) rollupTypeCache.get(
+                singleRollupReadContext.getLocator(), MetricMetadata.ROLLUP_TYPE.name().toLowerCase()));
+    }
+
+    /**
+     * When the rollup cascade is enabled, returns the child rollups buffered for the slot
+     * being rolled up, so they don't have to be read back from Cassandra.
+     *
+     * @param srcGran the granularity being rolled up from
+     * @return the buffered child rollups, or null if they have to be read from Cassandra
+     */
+    protected Points getBufferedInput(Granularity srcGran) {
+        if (!ROLLUP_CASCADE || srcGran == Granularity.FULL) {
+            return null;
+        }
+        return RollupCascadeBuffer.getInstance().getChildren(
+                singleRollupReadContext.getLocator(), srcGran, singleRollupReadContext.getRange());
+    }
+
+    /**
+     * Records that the slot being rolled up had no points, in the rollup cascade buffer and
+     * in the rollup checkpoints when they are enabled.
+     *
+     * @param dstGran the granularity being rolled up to
+     */
+    protected void bufferNoPoints(Granularity dstGran) {
+        if (ROLLUP_CASCADE) {
+            RollupCascadeBuffer.getInstance().putNoPoints(singleRollupReadContext.getLocator(),
+                    dstGran, singleRollupReadContext.getRange().getStart());
+        }
+        if (ROLLUP_CHECKPOINTS) {
+            // nothing to write, so the rollup of this locator is complete.
+            RollupCheckpoints.getInstance().markCompleted(singleRollupReadContext.getLocator(),
+                    dstGran, singleRollupReadContext.getRange().getStart());
+        }
+    }
+
+    /**
+     * Enqueues a computed rollup for writing to the column family of the
+     * destination granularity and emits the corresponding rollup event.
+     *
+     * @param rollup the computed rollup
+     * @param rollupType the rollup type of the locator being rolled up
+     * @param dstGran the granularity the rollup is written to
+     */
+    protected void enqueueRollup(Rollup rollup, RollupType rollupType, Granularity dstGran) {
+        Class<? extends Rollup> rollupClass = RollupType.classOf(rollupType, dstGran);
+        MetricColumnFamily dstCF = CassandraModel.getColumnFamily(rollupClass, dstGran);
+        rollupBatchWriter.enqueueRollupForWrite(new SingleRollupWriteContext(rollup, singleRollupReadContext, dstCF));
+
+        if (ROLLUP_CASCADE) {
+            RollupCascadeBuffer.getInstance().put(singleRollupReadContext.getLocator(),
+                    dstGran, singleRollupReadContext.getRange().getStart(), rollup);
+        }
+
+        RollupService.lastRollupTime.set(System.currentTimeMillis());
+        //Emit a rollup event to event emitter. The unit is looked up by the emitter, off the rollup thread.
+        RollupEventEmitter emitter = RollupEventEmitter.getInstance();
+        if (emitter.hasListeners(RollupEventEmitter.ROLLUP_EVENT_NAME)) {
+            emitter.emit(RollupEventEmitter.ROLLUP_EVENT_NAME,
+                    new RollupEvent(singleRollupReadContext.getLocator(), rollup, null,
+                            singleRollupReadContext.getRollupGranularity().name(),
+                            singleRollupReadContext.getRange().getStart()));
+        }
+    }
+
     // determine which DataType to use for serialization.
     public static Rollup.Type getRollupComputer(RollupType srcType, Granularity srcGran) {
         switch (srcType) {
@@ -53,6 +53,10 @@ public class RollupService implements Runnable, RollupServiceMBean {
     private final ThreadPoolExecutor locatorFetchExecutors;
     private final ThreadPoolExecutor rollupReadExecutors;
     private final ThreadPoolExecutor rollupWriteExecutors;
+    private final ThreadPoolExecutor subShardExecutors;
+    private final RollupConcurrencyController concurrencyController;
+    private final long concurrencyControlPeriod;
+    private ScheduledExecutorService concurrencyControlExecutor;
 
     private long pollerPeriod;
     private final long configRefreshInterval;
@@ -153,6 +157,21 @@ public class RollupService implements Runnable, RollupServiceMBean {
                 new ThreadPoolExecutor.AbortPolicy()
         );
 
+        // unbounded work queue. the sub-ranges of a slot are only queued by the locator fetch thread of that slot.
+        final int subShards = config.getIntegerProperty(CoreConfig.ROLLUP_SUB_SHARDS);
+        ThreadPoolExecutor _subShardExecutors = null;
+        if (subShards > 1) {
+            ThreadFactory subShardThreadFactory = new ThreadFactoryBuilder().setNameFormat("locator-sub-shard-%d").build();
+            _subShardExecutors = new ThreadPoolExecutor(
+                    locatorFetchConcurrency * (subShards - 1),
+                    locatorFetchConcurrency * (subShards - 1),
+                    30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    subShardThreadFactory,
+                    new ThreadPoolExecutor.AbortPolicy()
+            );
+        }
+
         initializeGauges();
 
         locatorFetchExecutors = _locatorFetchExecutors;
@@ -163,6 +182,21 @@ public class RollupService implements Runnable, RollupServiceMBean {
 
         rollupWriteExecutors = _rollupWriteExecutors;
         InstrumentedThreadPoolExecutor.instrument(rollupWriteExecutors, "RollupWritesThreadpool");
+
+        subShardExecutors = _subShardExecutors;
+        if (subShardExecutors != null) {
+            InstrumentedThreadPoolExecutor.instrument(subShardExecutors, "LocatorSubShardThreadPool");
+        }
+
+        concurrencyControlPeriod = config.getLongProperty(CoreConfig.ADAPTIVE_ROLLUP_CONCURRENCY_PERIOD_MILLIS);
+        if (config.getBooleanProperty(CoreConfig.ENABLE_ADAPTIVE_ROLLUP_CONCURRENCY)) {
+            concurrencyController = new RollupConcurrencyController(rollupReadExecutors, rollupWriteExecutors,
+                    config.getIntegerProperty(CoreConfig.ADAPTIVE_ROLLUP_CONCURRENCY_MIN_THREADS),
+                    config.getIntegerProperty(CoreConfig.ADAPTIVE_ROLLUP_CONCURRENCY_MAX_THREADS),
+                    config.getLongProperty(CoreConfig.ADAPTIVE_ROLLUP_CONCURRENCY_TARGET_LATENCY_MILLIS));
+        } else {
+            concurrencyController = null;
+        }
     }
     @VisibleForTesting
     public RollupService(ScheduleContext context,
@@ -181,6 +215,9 @@ public class RollupService implements Runnable, RollupServiceMBean {
         this.locatorFetchExecutors = locatorFetchExecutors;
         this.rollupReadExecutors = rollupReadExecutors;
         this.rollupWriteExecutors = rollupWriteExecutors;
+        this.subShardExecutors = null;
+        this.concurrencyController = null;
+        this.concurrencyControlPeriod = 0;
         this.rollupDelayMillis = rollupDelayMillis;
         this.rollupDelayForMetricsWithShortDelay = rollupDelayForMetricsWithShortDelay;
         this.rollupWaitForMetricsWithLongDelay = rollupWaitForMetricsWithLongDelay;
@@ -234,6 +271,17 @@ public class RollupService implements Runnable, RollupServiceMBean {
                         }
                     });
 
+            for (final Granularity rollupGranularity : Granularity.rollupGranularities()) {
+                reg.register(MetricRegistry.name(RollupService.class,
+                        String.format("%s Rollup Lag Millis", rollupGranularity.shortName())),
+                        new Gauge<Long>() {
+                            @Override
+                            public Long getValue() {
+                                return getRollupLagMillis(rollupGranularity);
+                            }
+                        });
+            }
+
         } catch (Exception exc) {
             log.error("Unable to register mbean for " + getClass().getSimpleName(), exc);
         }
@@ -252,6 +300,7 @@ public class RollupService implements Runnable, RollupServiceMBean {
 
     public void run() {
         thread = Thread.currentThread();
+        startConcurrencyController();
 
         while (shouldKeepRunning()) {
             long startRun = System.currentTimeMillis();
@@ -272,7 +321,7 @@ public class RollupService implements Runnable, RollupServiceMBean {
                                     stamp.getLastRollupTimestamp(), isReroll});
 
                     locatorFetchExecutors.execute(new LocatorFetchRunnable(context, slotKey, rollupReadExecutors,
-                            rollupWriteExecutors));
+                            rollupWriteExecutors, subShardExecutors));
 
                 } catch (RejectedExecutionException ex) {
                     // puts it back at the top of the list of scheduled slots.  When this happens it means that
@@ -295,6 +344,16 @@ public class RollupService implements Runnable, RollupServiceMBean {
         }
     }
 
+    private synchronized void startConcurrencyController() {
+        if (concurrencyController == null || concurrencyControlExecutor != null) {
+            return;
+        }
+        concurrencyControlExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("rollup-concurrency-controller").build());
+        concurrencyControlExecutor.scheduleWithFixedDelay(concurrencyController,
+                concurrencyControlPeriod, concurrencyControlPeriod, TimeUnit.MILLISECONDS);
+    }
+
     private boolean keepRunning = true;
     @VisibleForTesting
     boolean shouldKeepRunning() {
@@ -357,8 +416,28 @@ public class RollupService implements Runnable, RollupServiceMBean {
         rollupReadExecutors.setMaximumPoolSize(i);
     }
 
+    public synchronized int getRollupWriteConcurrency() {
+        return rollupWriteExecutors.getMaximumPoolSize();
+    }
+
+    public boolean getAdaptiveRollupConcurrency() {
+        return concurrencyController != null && concurrencyController.isEnabled();
+    }
+
+    public void setAdaptiveRollupConcurrency(boolean b) {
+        if (concurrencyController == null) {
+            throw new IllegalStateException("ENABLE_ADAPTIVE_ROLLUP_CONCURRENCY is not set");
+        }
+        concurrencyController.setEnabled(b);
+    }
+
+    public String getLastRollupConcurrencyDecision() {
+        return concurrencyController == null ? null : concurrencyController.getLastDecision();
+    }
+
     public synchronized int getQueuedRollupCount() { return rollupReadExecutors.getQueue().size(); }
     public synchronized int getInFlightRollupCount() { return rollupReadExecutors.getActiveCount(); }
+    public int getInFlightAsyncRollupReadCount() { return AsyncRollupRunnable.getInFlightReadCount(); }
 
     public synchronized boolean getActive() { return active; }
 
@@ -402,6 +481,17 @@ public class RollupService implements Runnable, RollupServiceMBean {
         return context.getRecentlyScheduledShards();
     }
 
+    /**
+     * @return the highest rollup lag of a granularity across the managed shards
+     */
+    private synchronized long getRollupLagMillis(Granularity granularity) {
+        long lag = 0;
+        for (int shard : shardStateManager.getManagedShards()) {
+            lag = Math.max(lag, context.getRollupLagMillis(shard, granularity));
+        }
+        return lag;
+    }
+
     public synchronized Collection<String> getOldestUnrolledSlotPerGranularity(int shard) {
         final Set<String> results = new HashSet<String>();
 
@@ -34,8 +34,15 @@ public interface RollupServiceMBean {
     public void setSlotCheckConcurrency(int i);
     
     public int getInFlightRollupCount();
+    public int getInFlightAsyncRollupReadCount();
     public int getRollupConcurrency();
     public void setRollupConcurrency(int i);
+    public int getRollupWriteConcurrency();
+
+    /* adaptive rollup concurrency, only available if ENABLE_ADAPTIVE_ROLLUP_CONCURRENCY is set */
+    public boolean getAdaptiveRollupConcurrency();
+    public void setAdaptiveRollupConcurrency(boolean b);
+    public String getLastRollupConcurrencyDecision();
     
     public boolean getActive();
     public void setActive(boolean b);
@@ -22,6 +22,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.rackspacecloud.blueflood.cache.QueryResultCache;
 import com.rackspacecloud.blueflood.io.Constants;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.rollup.SlotKey;
@@ -45,6 +46,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 
 /**
  *
@@ -113,6 +115,11 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
     private final ShardStateManager shardStateManager;
     private transient long scheduleTime = 0L;
 
+    // the delays of the last scheduling pass, which tell the slots that are late from the ones that are not due yet
+    private volatile long rollupDelayMillis = 0L;
+    private volatile long rollupDelayForMetricsWithShortDelay = 0L;
+    private volatile long rollupWaitForMetricsWithLongDelay = 0L;
+
     /** these shards have been scheduled in the last 10 minutes. */
     private final Cache<Integer, Long> recentlyScheduledShards = CacheBuilder.newBuilder()
             .maximumSize(Constants.NUMBER_OF_SHARDS)
@@ -145,6 +152,15 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
 
     private final Clock clock;
 
+    /** when slots were scheduled, started and rolled, for measuring rollup lag. */
+    private final SlotTimeline slotTimeline = new SlotTimeline(
+            Configuration.getInstance().getIntegerProperty(CoreConfig.SLOT_TIMELINE_EVENTS_PER_SHARD));
+
+    /** the cached query results covering slots that change are dropped, when the cache is enabled. */
+    private final QueryResultCache queryResultCache =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.ENABLE_QUERY_RESULT_CACHE) ?
+                    QueryResultCache.getInstance() : null;
+
     public ScheduleContext(long currentTimeMillis, Collection<Integer> managedShards, Clock clock) {
         this.scheduleTime = currentTimeMillis;
         this.shardStateManager = new ShardStateManager(managedShards, asMillisecondsSinceEpochTicker(), clock);
@@ -157,6 +173,7 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
         this.scheduleTime = currentTimeMillis;
         this.shardStateManager = new ShardStateManager(managedShards, asMillisecondsSinceEpochTicker());
         ZKShardLockManager lockManager = new ZKShardLockManager(zookeeperCluster, new HashSet<Integer>(shardStateManager.getManagedShards()));
+        lockManager.setShardBusyMillis(slotTimeline::getBusyMillis);
         lockManager.init(new TimeValue(5, TimeUnit.SECONDS));
         this.lockManager = lockManager;
         this.clock = new DefaultClockImpl();
@@ -187,6 +204,29 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
         return this.shardStateManager;
     }
 
+    /**
+     * Sets how the state of a shard is flushed before this node hands the
+     * shard off to another node. Only used when shard locks are balanced by
+     * load.
+     */
+    public void setShardHandoff(IntConsumer shardHandoff) {
+        if (lockManager instanceof ZKShardLockManager) {
+            ((ZKShardLockManager) lockManager).setShardHandoff(shardHandoff);
+        }
+    }
+
+    /**
+     * Sets how the state of a shard is loaded when this node takes the shard
+     * over from a node that left, so that its eligible slots are scheduled on
+     * the next poll rather than after the next shard state pull. Only used
+     * with fast shard failover.
+     */
+    public void setShardTakeover(IntConsumer shardTakeover) {
+        if (lockManager instanceof ZKShardLockManager) {
+            ((ZKShardLockManager) lockManager).setShardTakeover(shardTakeover);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -215,6 +255,10 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
                 }
                 slotStateManager.createOrUpdateForSlotAndMillisecond(slot, millis);
             }
+            if (queryResultCache != null) {
+                // delayed points change the full resolution data right away, rollups once they are re-rolled
+                queryResultCache.invalidate(shard, Granularity.FULL, millis);
+            }
         } finally {
             dirtyTimerCtx.stop();
         }
@@ -233,6 +277,9 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
     // only one thread should be calling in this puppy.
     public void scheduleEligibleSlots(long maxAgeMillis, long rollupDelayForMetricsWithShortDelay, long rollupWaitForMetricsWithLongDelay) {
         long now = scheduleTime;
+        this.rollupDelayMillis = maxAgeMillis;
+        this.rollupDelayForMetricsWithShortDelay = rollupDelayForMetricsWithShortDelay;
+        this.rollupWaitForMetricsWithLongDelay = rollupWaitForMetricsWithLongDelay;
         ArrayList<Integer> shardKeys = new ArrayList<Integer>(shardStateManager.getManagedShards());
         Collections.shuffle(shardKeys);
 
@@ -261,6 +308,7 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
                             scheduledSlots.add(key);
                             orderedScheduledSlots.add(key);
                             recentlyScheduledShards.put(shard, scheduleTime);
+                            slotTimeline.scheduled(key, clock.now().getMillis());
                         }
                     }
                 }
@@ -334,8 +382,10 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
                 if (canWorkOnShard(shard)) {
                     UpdateStamp stamp = shardStateManager.getSlotStateManager(shard, gran).getAndSetState(slot, UpdateStamp.State.Running);
                     runningSlots.put(key, stamp.getTimestamp());
+                    slotTimeline.started(key, clock.now().getMillis());
                     return key;
                 } else {
+                    slotTimeline.unscheduled(key);
                     shardOwnershipChanged.mark();
                     return null;
                 }
@@ -365,9 +415,12 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
                 scheduledSlots.add(key);
                 log.debug("pushBackToScheduled -> added to scheduledSlots: " + key + " size:" + scheduledSlots.size());
                 if (rescheduleImmediately) {
+                    // the slot could not be submitted, it did not fail.
                     orderedScheduledSlots.add(0, key);
+                    slotTimeline.scheduled(key, clock.now().getMillis());
                 } else {
                     orderedScheduledSlots.add(key);
+                    slotTimeline.failed(key, clock.now().getMillis());
                 }
             }
         }
@@ -391,6 +444,11 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
             long currentTimeInMillis = clock.now().getMillis();
             stamp.setLastRollupTimestamp(currentTimeInMillis);
             log.debug("SlotKey {} is marked in memory with last rollup time as {}", slotKey, currentTimeInMillis);
+            slotTimeline.rolled(slotKey, currentTimeInMillis, stamp.getLastIngestTimestamp());
+            if (queryResultCache != null) {
+                queryResultCache.invalidate(slotKey.getShard(), slotKey.getGranularity(),
+                        slotKey.getGranularity().deriveRange(slotKey.getSlot(), currentTimeInMillis).getStart());
+            }
 
             // Update the stamp to Rolled state if and only if the current state
             // is running. If the current state is active, it means we received
@@ -490,6 +548,43 @@ public class ScheduleContext implements IngestionContext, ScheduleContextMBean {
         return results;
     }
 
+    @Override
+    public Collection<String> getSlotTimeline(int shard, String gran) {
+        Granularity granularity = Granularity.fromString(gran);
+
+        if (granularity == null)
+            return new ArrayList<String>();
+
+        return slotTimeline.getEvents(shard, granularity);
+    }
+
+    @Override
+    public long getRollupLagMillis(int shard, String gran) {
+        Granularity granularity = Granularity.fromString(gran);
+
+        if (granularity == null || !shardStateManager.getManagedShards().contains(shard))
+            return 0;
+
+        return getRollupLagMillis(shard, granularity);
+    }
+
+    /**
+     * Returns how far behind the rollups of a shard are for a granularity:
+     * the time since the start of the oldest slot which is eligible for rollup,
+     * with the delays of the last scheduling pass, but not rolled up yet.
+     * 0 if there is no such slot, so a shard that keeps up reports no lag even
+     * though the slots it is ingesting into are not rolled up yet.
+     */
+    public long getRollupLagMillis(int shard, Granularity granularity) {
+        long oldestEligible = shardStateManager.getSlotStateManager(shard, granularity)
+                .getOldestEligibleTimestamp(scheduleTime, rollupDelayMillis,
+                        rollupDelayForMetricsWithShortDelay, rollupWaitForMetricsWithLongDelay);
+        if (oldestEligible == Long.MAX_VALUE) {
+            return 0;
+        }
+        return Math.max(0, scheduleTime - granularity.snapMillis(oldestEligible));
+    }
+
     private synchronized void registerMBean() {
         try {
             final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
@@ -7,4 +7,16 @@ public interface ScheduleContextMBean {
      * Get the metrics state currently stored by {@link ScheduleContext}.
      */
     public Collection<String> getMetricsState(int shard, String gran, int slot);
+
+    /**
+     * Get the last slots of a shard and granularity that were rolled up or
+     * failed, most recent first, with how long they ran.
+     */
+    public Collection<String> getSlotTimeline(int shard, String gran);
+
+    /**
+     * Get the time since the start of the oldest slot of a shard and
+     * granularity that is past its rollup delay but not rolled up yet.
+     */
+    public long getRollupLagMillis(int shard, String gran);
 }
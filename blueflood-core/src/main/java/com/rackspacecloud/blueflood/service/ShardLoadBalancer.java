@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides how many shards a rollup node should hold so that the rollup load is spread evenly across the nodes.
+ *
+ * The load of a shard is a base load of 1, so idle shards are spread by count, plus the seconds spent rolling
+ * it up during a balancing period, decayed over the previous periods. Every node publishes the number of shards
+ * it holds and their total load. The fair share of a node is the total load of the cluster, counting the shards
+ * that no node holds at the base load, divided by the number of nodes.
+ *
+ * A node below its fair share acquires shards, each counted at the average load of the shards held in the cluster,
+ * until it reaches it. A node above its fair share by more than the
+ * tolerance hands off its heaviest shards, as long as it remains at or above its fair share, so that the shards
+ * it gives away do not push it below the nodes it gives them to.
+ *
+ * This class is not thread safe; it is only used from the lock scavenger thread.
+ */
+class ShardLoadBalancer {
+
+    static final double BASE_SHARD_LOAD = 1.0;
+    private static final double DECAY = 0.5;
+
+    private final double tolerance;
+    private final Map<Integer, Long> lastBusyMillis = new HashMap<Integer, Long>();
+    private final Map<Integer, Double> busySeconds = new HashMap<Integer, Double>();
+
+    ShardLoadBalancer(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Records the time spent rolling up a shard and returns its current load.
+     *
+     * @param shard
+     * @param totalBusyMillis the total time spent rolling up the shard since this node started
+     */
+    double updateLoad(int shard, long totalBusyMillis) {
+        Long last = lastBusyMillis.put(shard, totalBusyMillis);
+        double sample = last == null ? 0 : Math.max(0, totalBusyMillis - last) / 1000d;
+        Double previous = busySeconds.get(shard);
+        double decayed = previous == null ? sample : previous * DECAY + sample * (1 - DECAY);
+        busySeconds.put(shard, decayed);
+        return BASE_SHARD_LOAD + decayed;
+    }
+
+    /**
+     * Forgets the load of a shard that is no longer held.
+     */
+    void forget(int shard) {
+        lastBusyMillis.remove(shard);
+        busySeconds.remove(shard);
+    }
+
+    /**
+     * @param nodes the loads published by all the live nodes, including this one
+     * @param managedShards the number of shards managed by the cluster
+     * @return the load each node should hold
+     */
+    double fairShare(Collection<NodeLoad> nodes, int managedShards) {
+        if (nodes.isEmpty()) {
+            return managedShards * BASE_SHARD_LOAD;
+        }
+        double total = 0;
+        int heldShards = 0;
+        for (NodeLoad node : nodes) {
+            total += node.load;
+            heldShards += node.shards;
+        }
+        total += Math.max(0, managedShards - heldShards) * BASE_SHARD_LOAD;
+        return total / nodes.size();
+    }
+
+    /**
+     * @param nodes the loads published by all the live nodes, including this one
+     * @return the average load of the shards held in the cluster, or the base load when no node holds any
+     */
+    double averageShardLoad(Collection<NodeLoad> nodes) {
+        double total = 0;
+        int heldShards = 0;
+        for (NodeLoad node : nodes) {
+            total += node.load;
+            heldShards += node.shards;
+        }
+        return heldShards == 0 ? BASE_SHARD_LOAD : Math.max(BASE_SHARD_LOAD, total / heldShards);
+    }
+
+    /**
+     * A shard acquired is expected to carry the average shard load, not the base load, so that a node does not
+     * acquire enough shards to go well past its fair share only to hand them off again once their load is known.
+     *
+     * @param load the load currently held by this node
+     * @param fairShare
+     * @param shardLoad the average load of a shard, see {@link #averageShardLoad(Collection)}
+     * @return the number of shards to acquire to reach the fair share, rounded to the nearest shard
+     */
+    int shardsToAcquire(double load, double fairShare, double shardLoad) {
+        return Math.max(0, (int) Math.round((fairShare - load) / Math.max(BASE_SHARD_LOAD, shardLoad)));
+    }
+
+    /**
+     * @param heldLoads the load of each shard held by this node
+     * @param fairShare
+     * @return the shards to hand off, heaviest first
+     */
+    List<Integer> shardsToRelease(final Map<Integer, Double> heldLoads, double fairShare) {
+        double load = 0;
+        for (double shardLoad : heldLoads.values()) {
+            load += shardLoad;
+        }
+        if (load <= fairShare * (1 + tolerance)) {
+            return Collections.emptyList();
+        }
+
+        List<Integer> shards = new ArrayList<Integer>(heldLoads.keySet());
+        Collections.sort(shards, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(heldLoads.get(b), heldLoads.get(a));
+            }
+        });
+
+        List<Integer> toRelease = new ArrayList<Integer>();
+        for (int shard : shards) {
+            if (load - heldLoads.get(shard) >= fairShare) {
+                toRelease.add(shard);
+                load -= heldLoads.get(shard);
+            }
+        }
+        return toRelease;
+    }
+
+    /**
+     * The load published by a node: the number of shards it holds, and their total load.
+     */
+    static class NodeLoad {
+        final int shards;
+        final double load;
+
+        NodeLoad(int shards, double load) {
+            this.shards = shards;
+            this.load = load;
+        }
+
+        static NodeLoad parse(String s) {
+            String[] parts = s.split(",");
+            return new NodeLoad(Integer.parseInt(parts[0]), Double.parseDouble(parts[1]));
+        }
+
+        @Override
+        public String toString() {
+            return shards + "," + load;
+        }
+    }
+}
@@ -378,56 +378,106 @@ public class ShardStateManager {
                 final long timeElapsed = now - update.getTimestamp();
                 timeSinceUpdate.update(timeElapsed);
 
-                if (update.getState() == UpdateStamp.State.Rolled) {
-                    continue;
-                }
-                if (timeElapsed <= maxAgeMillis) {
-                    continue;
-                }
-
-                //Handling re-rolls:
-                if (isReroll(slot, now)) {
-                    SlotKey slotKey = SlotKey.of(granularity, entry.getKey(), shard);
-
-                    //short delay
-                    if (timeElapsed <= rollupDelayForMetricsWithShortDelay) {
+                switch (isEligible(slot, update, now, maxAgeMillis, rollupDelayForMetricsWithShortDelay,
+                        rollupWaitForMetricsWithLongDelay)) {
+                    case NOT_DUE:
+                        continue;
 
+                    case SHORT_DELAY:
                         reRollForShortDelayMetricsMeters.get(granularity).mark();
                         log.debug(String.format("Short delay: Delaying re-roll of slotKey [%s] as [%d] millis " +
                                 "haven't elapsed since collection time:[%d] now: [%d] time elapsed: [%d] last " +
-                                "rollup time: [%d]", slotKey, rollupDelayForMetricsWithShortDelay,
-                                update.getTimestamp(), now, timeElapsed, update.getLastRollupTimestamp()));
+                                "rollup time: [%d]", SlotKey.of(granularity, slot, shard),
+                                rollupDelayForMetricsWithShortDelay, update.getTimestamp(), now, timeElapsed,
+                                update.getLastRollupTimestamp()));
+                        continue;
+
+                    case LONG_DELAY:
+                        reRollForLongDelayMetricsMeters.get(granularity).mark();
+                        log.debug(String.format("Long delay: Delaying re-roll of slotKey [%s] as we received " +
+                                        "delayed metrics within the last [%d] millis with rollup_wait of [%d] millis. last " +
+                                        "ingest time: [%d]", SlotKey.of(granularity, slot, shard),
+                                now - update.getLastIngestTimestamp(), rollupWaitForMetricsWithLongDelay,
+                                update.getLastIngestTimestamp()));
                         continue;
-                    }
-
-                    if (update.getLastIngestTimestamp() > 0 ) {
-                        long delayOfLastIngestedMetric = update.getLastIngestTimestamp() - update.getTimestamp();
-                        final long timeElapsedSinceLastIngest = now - update.getLastIngestTimestamp();
-
-                        //long delay
-                        if (delayOfLastIngestedMetric > rollupDelayForMetricsWithShortDelay &&
-                                timeElapsedSinceLastIngest <= rollupWaitForMetricsWithLongDelay) {
-
-                            reRollForLongDelayMetricsMeters.get(granularity).mark();
-                            log.debug(String.format("Long delay: Delaying re-roll of slotKey [%s] as we received " +
-                                            "delayed metrics within the last [%d] millis with rollup_wait of [%d] millis. last " +
-                                            "ingest time: [%d]", slotKey, timeElapsedSinceLastIngest,
-                                    rollupWaitForMetricsWithLongDelay, update.getLastIngestTimestamp()));
-                            continue;
+
+                    case REROLL:
+                        granToReRollMeters.get(granularity).mark();
+                        if (nowMillis - update.getTimestamp() >= millisInADay) {
+                            granToDelayedMetricsMeter.get(granularity).mark();
                         }
-                    }
+                        break;
 
-                    granToReRollMeters.get(granularity).mark();
-                    if (nowMillis - update.getTimestamp() >= millisInADay) {
-                        granToDelayedMetricsMeter.get(granularity).mark();
-                    }
+                    case ROLLUP:
+                        break;
                 }
-                outputKeys.add(entry.getKey());
+                outputKeys.add(slot);
             }
 
             return outputKeys;
         }
-    }
-}
 
+        /**
+         * Same as {@link #getSlotsEligibleForRollup(long, long, long, long)}, without updating any metrics.
+         *
+         * @return the collection time of the oldest slot that is eligible for rollup, or Long.MAX_VALUE if there
+         * is none
+         */
+        protected long getOldestEligibleTimestamp(long now,
+                                                  long maxAgeMillis,
+                                                  long rollupDelayForMetricsWithShortDelay,
+                                                  long rollupWaitForMetricsWithLongDelay) {
+            long oldest = Long.MAX_VALUE;
+            for (Map.Entry<Integer, UpdateStamp> entry : slotToUpdateStampMap.entrySet()) {
+                final UpdateStamp update = entry.getValue();
+                Eligibility eligibility = isEligible(entry.getKey(), update, now, maxAgeMillis,
+                        rollupDelayForMetricsWithShortDelay, rollupWaitForMetricsWithLongDelay);
+                if (eligibility == Eligibility.ROLLUP || eligibility == Eligibility.REROLL) {
+                    oldest = Math.min(oldest, update.getTimestamp());
+                }
+            }
+            return oldest;
+        }
+
+        /**
+         * The checks that decide whether a slot is eligible for rollup, see
+         * {@link #getSlotsEligibleForRollup(long, long, long, long)}. A slot is eligible when this returns
+         * {@link Eligibility#ROLLUP} or {@link Eligibility#REROLL}; the other values tell why it is not.
+         */
+        private Eligibility isEligible(int slot,
+                                       UpdateStamp update,
+                                       long now,
+                                       long maxAgeMillis,
+                                       long rollupDelayForMetricsWithShortDelay,
+                                       long rollupWaitForMetricsWithLongDelay) {
+            final long timeElapsed = now - update.getTimestamp();
+
+            if (update.getState() == UpdateStamp.State.Rolled || timeElapsed <= maxAgeMillis) {
+                return Eligibility.NOT_DUE;
+            }
+            if (!isReroll(slot, now)) {
+                return Eligibility.ROLLUP;
+            }
 
+            //short delay
+            if (timeElapsed <= rollupDelayForMetricsWithShortDelay) {
+                return Eligibility.SHORT_DELAY;
+            }
+
+            //long delay
+            if (update.getLastIngestTimestamp() > 0) {
+                long delayOfLastIngestedMetric = update.getLastIngestTimestamp() - update.getTimestamp();
+                long timeElapsedSinceLastIngest = now - update.getLastIngestTimestamp();
+                if (delayOfLastIngestedMetric > rollupDelayForMetricsWithShortDelay &&
+                        timeElapsedSinceLastIngest <= rollupWaitForMetricsWithLongDelay) {
+                    return Eligibility.LONG_DELAY;
+                }
+            }
+            return Eligibility.REROLL;
+        }
+    }
+
+    private enum Eligibility {
+        NOT_DUE, SHORT_DELAY, LONG_DELAY, ROLLUP, REROLL
+    }
+}
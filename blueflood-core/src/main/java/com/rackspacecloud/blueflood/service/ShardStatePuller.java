@@ -23,6 +23,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 public class ShardStatePuller extends ShardStateWorker {
@@ -33,20 +35,29 @@ public class ShardStatePuller extends ShardStateWorker {
         super(allShards, stateManager, new TimeValue(Configuration.getInstance().getIntegerProperty(CoreConfig.SHARD_PULL_PERIOD), TimeUnit.MILLISECONDS), io);
     }
 
+    /**
+     * Reads the state of a single shard right away.
+     */
+    public void pullShard(int shard) {
+        updateSlotsOnRead(getIO().getShardStates(Collections.singletonList(shard)));
+    }
+
     public void performOperation() {
         Timer.Context ctx = timer.time();
-        for (int shard : shardStateManager.getManagedShards()) {
-
-            try {
-                Collection<SlotState> slotStates = getIO().getShardState(shard);
-                for (SlotState slotState : slotStates) {
-                    shardStateManager.updateSlotOnRead(shard, slotState);
-                }
+        try {
+            updateSlotsOnRead(getIO().getShardStates(shardStateManager.getManagedShards()));
+        } catch (Exception ex) {
+            log.error("Could not read shard state from the database. " + ex.getMessage(), ex);
+        } finally {
+            ctx.stop();
+        }
+    }
 
-            } catch (Exception ex) {
-                log.error("Could not read shard state from the database. " + ex.getMessage(), ex);
+    private void updateSlotsOnRead(Map<Integer, Collection<SlotState>> shardStates) {
+        for (Map.Entry<Integer, Collection<SlotState>> entry : shardStates.entrySet()) {
+            for (SlotState slotState : entry.getValue()) {
+                shardStateManager.updateSlotOnRead(entry.getKey(), slotState);
             }
         }
-        ctx.stop();
     }
 }
@@ -23,8 +23,9 @@ import com.rackspacecloud.blueflood.utils.TimeValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -35,19 +36,29 @@ public class ShardStatePusher extends ShardStateWorker {
         super(allShards, stateManager, new TimeValue(Configuration.getInstance().getIntegerProperty(CoreConfig.SHARD_PUSH_PERIOD), TimeUnit.MILLISECONDS), io);
     }
 
+    /**
+     * Writes the dirty slots of a single shard right away.
+     */
+    public void pushShard(int shard) {
+        Map<Granularity, Map<Integer, UpdateStamp>> slotTimes = shardStateManager.getDirtySlotsToPersist(shard);
+        if (slotTimes != null) {
+            getIO().putShardStates(Collections.singletonMap(shard, slotTimes));
+        }
+    }
+
     public void performOperation() {
         Timer.Context ctx = timer.time();
         try {
+            Map<Integer, Map<Granularity, Map<Integer, UpdateStamp>>> slotTimesByShard = new HashMap<Integer, Map<Granularity, Map<Integer, UpdateStamp>>>();
             for (int shard : allShards) {
                 Map<Granularity, Map<Integer, UpdateStamp>> slotTimes = shardStateManager.getDirtySlotsToPersist(shard);
                 if (slotTimes != null) {
-                    try {
-                        getIO().putShardState(shard, slotTimes);
-                    } catch (IOException ex) {
-                        log.error("Could not put shard state to the database (shard " + shard + "). " + ex.getMessage(), ex);
-                    }
+                    slotTimesByShard.put(shard, slotTimes);
                 }
             }
+            if (!slotTimesByShard.isEmpty()) {
+                getIO().putShardStates(slotTimesByShard);
+            }
         } catch (RuntimeException ex) {
             log.error("Could not put shard states to the database. " + ex.getMessage(), ex);
         } finally {
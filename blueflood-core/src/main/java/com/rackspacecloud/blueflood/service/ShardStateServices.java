@@ -25,6 +25,8 @@ public class ShardStateServices {
         final Collection<Integer> allShards = Collections.unmodifiableCollection(Util.parseShards("ALL"));
         pusher = new ShardStatePusher(allShards, context.getShardStateManager(), io);
         puller = new ShardStatePuller(allShards, context.getShardStateManager(), io);
+        context.setShardHandoff(pusher::pushShard);
+        context.setShardTakeover(puller::pullShard);
 
         pusher.setActive(false);
         puller.setActive(false);
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.codahale.metrics.Histogram;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.SlotKey;
+import com.rackspacecloud.blueflood.utils.Metrics;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the time slots spend between being scheduled, starting to roll up and being rolled, so rollup
+ * lag can be measured against the rollup delays and thread pool sizes.
+ *
+ * For each granularity, the time a slot waited to run, the time it took to roll up, and the time from the last
+ * ingest into the slot until it was rolled, are recorded in histograms. For each shard and granularity, the last
+ * few slots that were rolled or failed are kept, and can be listed through JMX.
+ */
+public class SlotTimeline {
+
+    private static final Map<Granularity, Histogram> queueWaitHistograms = new HashMap<Granularity, Histogram>();
+    private static final Map<Granularity, Histogram> executionHistograms = new HashMap<Granularity, Histogram>();
+    private static final Map<Granularity, Histogram> ingestToRolledHistograms = new HashMap<Granularity, Histogram>();
+
+    static {
+        for (Granularity rollupGranularity : Granularity.rollupGranularities()) {
+            queueWaitHistograms.put(rollupGranularity, Metrics.histogram(SlotTimeline.class,
+                    String.format("%s Slot Queue Wait", rollupGranularity.shortName())));
+            executionHistograms.put(rollupGranularity, Metrics.histogram(SlotTimeline.class,
+                    String.format("%s Slot Execution Time", rollupGranularity.shortName())));
+            ingestToRolledHistograms.put(rollupGranularity, Metrics.histogram(SlotTimeline.class,
+                    String.format("%s Slot Last Ingest To Rolled", rollupGranularity.shortName())));
+        }
+    }
+
+    private final int maxEventsPerShard;
+    private final ConcurrentMap<SlotKey, Long> scheduledAt = new ConcurrentHashMap<SlotKey, Long>();
+    private final ConcurrentMap<SlotKey, Long> startedAt = new ConcurrentHashMap<SlotKey, Long>();
+    private final ConcurrentMap<String, Deque<String>> events = new ConcurrentHashMap<String, Deque<String>>();
+    private final ConcurrentMap<Integer, AtomicLong> busyMillis = new ConcurrentHashMap<Integer, AtomicLong>();
+
+    public SlotTimeline(int maxEventsPerShard) {
+        this.maxEventsPerShard = maxEventsPerShard;
+    }
+
+    /**
+     * Records that a slot was put in the queue of slots to roll up.
+     */
+    public void scheduled(SlotKey slotKey, long nowMillis) {
+        scheduledAt.put(slotKey, nowMillis);
+    }
+
+    /**
+     * Records that a slot was taken from the queue to be rolled up.
+     */
+    public void started(SlotKey slotKey, long nowMillis) {
+        Long scheduled = scheduledAt.remove(slotKey);
+        if (scheduled != null) {
+            queueWaitHistograms.get(slotKey.getGranularity()).update(nowMillis - scheduled);
+        }
+        startedAt.put(slotKey, nowMillis);
+    }
+
+    /**
+     * Records that a slot was taken out of the queue without being rolled up.
+     */
+    public void unscheduled(SlotKey slotKey) {
+        scheduledAt.remove(slotKey);
+    }
+
+    /**
+     * Records that the rollup of a slot completed.
+     *
+     * @param slotKey
+     * @param nowMillis
+     * @param lastIngestMillis the last time data was ingested into the slot, 0 if unknown
+     */
+    public void rolled(SlotKey slotKey, long nowMillis, long lastIngestMillis) {
+        Long started = startedAt.remove(slotKey);
+        StringBuilder event = new StringBuilder();
+        event.append(slotKey.getSlot()).append(": rolled at ").append(nowMillis);
+        if (started != null) {
+            executionHistograms.get(slotKey.getGranularity()).update(nowMillis - started);
+            addBusyMillis(slotKey.getShard(), nowMillis - started);
+            event.append(", ran ").append(nowMillis - started).append(" ms");
+        }
+        if (lastIngestMillis > 0) {
+            ingestToRolledHistograms.get(slotKey.getGranularity()).update(nowMillis - lastIngestMillis);
+            event.append(", ").append(nowMillis - lastIngestMillis).append(" ms after last ingest");
+        }
+        addEvent(slotKey, event.toString());
+    }
+
+    /**
+     * Records that the rollup of a slot failed, and that it was put back in the queue.
+     */
+    public void failed(SlotKey slotKey, long nowMillis) {
+        Long started = startedAt.remove(slotKey);
+        StringBuilder event = new StringBuilder();
+        event.append(slotKey.getSlot()).append(": failed at ").append(nowMillis);
+        if (started != null) {
+            event.append(", ran ").append(nowMillis - started).append(" ms");
+            addBusyMillis(slotKey.getShard(), nowMillis - started);
+        }
+        addEvent(slotKey, event.toString());
+        scheduledAt.put(slotKey, nowMillis);
+    }
+
+    /**
+     * @return the last slots of a shard and granularity that were rolled or failed, most recent first
+     */
+    public List<String> getEvents(int shard, Granularity granularity) {
+        Deque<String> shardEvents = events.get(key(shard, granularity));
+        if (shardEvents == null) {
+            return new ArrayList<String>();
+        }
+        synchronized (shardEvents) {
+            return new ArrayList<String>(shardEvents);
+        }
+    }
+
+    /**
+     * @return the total time spent rolling up the slots of a shard, whether they were rolled or failed
+     */
+    public long getBusyMillis(int shard) {
+        AtomicLong shardBusyMillis = busyMillis.get(shard);
+        return shardBusyMillis == null ? 0 : shardBusyMillis.get();
+    }
+
+    private void addBusyMillis(int shard, long millis) {
+        AtomicLong shardBusyMillis = busyMillis.get(shard);
+        if (shardBusyMillis == null) {
+            busyMillis.putIfAbsent(shard, new AtomicLong());
+            shardBusyMillis = busyMillis.get(shard);
+        }
+        shardBusyMillis.addAndGet(millis);
+    }
+
+    private void addEvent(SlotKey slotKey, String event) {
+        String key = key(slotKey.getShard(), slotKey.getGranularity());
+        Deque<String> shardEvents = events.get(key);
+        if (shardEvents == null) {
+            events.putIfAbsent(key, new LinkedList<String>());
+            shardEvents = events.get(key);
+        }
+        synchronized (shardEvents) {
+            shardEvents.addFirst(event);
+            while (shardEvents.size() > maxEventsPerShard) {
+                shardEvents.removeLast();
+            }
+        }
+    }
+
+    private static String key(int shard, Granularity granularity) {
+        return shard + "," + granularity.shortName();
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rackspacecloud.blueflood.cache.RollupCascadeBuffer;
+import com.rackspacecloud.blueflood.eventemitter.RollupEvent;
+import com.rackspacecloud.blueflood.eventemitter.RollupEventEmitter;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.IOContainer;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.types.IMetric;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Metric;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes the 5m rollups of the shards managed by this node while their raw points are being ingested.
+ *
+ * Each (shard, 5m slot) window keeps the running count/sum/min/max/mean/M2 of every locator in primitive arrays. Once
+ * the slot is over and STREAMING_ROLLUP_CLOSE_DELAY_MILLIS has passed, the window is closed and its
+ * {@link BasicRollup}s are written to metrics_5m. The window is then finalized, and {@link LocatorFetchRunnable}
+ * skips reading the raw points back for the locators of that window. Only numeric {@link Metric}s are accumulated, so
+ * the other locators of the slot (counters, gauges, timers, sets) are still rolled up from their raw points.
+ *
+ * A {@link RollupEvent} is emitted for each rollup of a finalized window, as {@link RollupRunnable} does for the
+ * rollups it computes.
+ *
+ * Any point that arrives for a window after it was closed, or a batch that failed to be persisted, invalidates the
+ * window, so the slot goes through the normal rollup path. Windows for slots that started before this aggregator
+ * did are never opened, since some of their points were missed.
+ *
+ * This is only correct when all the points of the managed shards are ingested by this node, which requires
+ * INGEST_MODE and ROLLUP_MODE both to be enabled, and the ingest traffic to be routed by shard.
+ */
+public class StreamingRollupAggregator {
+    private static final Logger log = LoggerFactory.getLogger(StreamingRollupAggregator.class);
+
+    private static final Granularity GRANULARITY = Granularity.MIN_5;
+    private static final long SWEEP_PERIOD_MILLIS = 10000;
+    // closed windows are only looked up by the rollup of their slot, which normally happens minutes later.
+    private static final long FINALIZED_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final boolean ENABLED =
+            Configuration.getInstance().getBooleanProperty(CoreConfig.ENABLE_STREAMING_ROLLUPS) &&
+            Configuration.getInstance().getBooleanProperty(CoreConfig.INGEST_MODE) &&
+            Configuration.getInstance().getBooleanProperty(CoreConfig.ROLLUP_MODE);
+
+    private static final int ROLLUP_BATCH_MAX_SIZE =
+            Configuration.getInstance().getIntegerProperty(CoreConfig.ROLLUP_BATCH_MAX_SIZE);
+
+    private static final Meter finalizedSlots = Metrics.meter(StreamingRollupAggregator.class, "Finalized Slots");
+    private static final Meter invalidatedSlots = Metrics.meter(StreamingRollupAggregator.class, "Invalidated Slots");
+
+    private static final StreamingRollupAggregator instance = new StreamingRollupAggregator(
+            Util.parseShards(Configuration.getInstance().getStringProperty(CoreConfig.SHARDS)),
+            Configuration.getInstance().getIntegerProperty(CoreConfig.STREAMING_ROLLUP_MAX_LOCATORS_PER_SLOT),
+            Configuration.getInstance().getLongProperty(CoreConfig.STREAMING_ROLLUP_CLOSE_DELAY_MILLIS),
+            System.currentTimeMillis());
+
+    static {
+        Metrics.getRegistry().register(MetricRegistry.name(StreamingRollupAggregator.class, "Open Slots Count"),
+                (Gauge<Integer>) instance::getOpenSlotCount);
+    }
+
+    private final Set<Integer> shards;
+    private final int maxLocatorsPerSlot;
+    private final long closeDelayMillis;
+    private final long startMillis;
+    private final ConcurrentMap<SlotWindowKey, SlotWindow> windows = new ConcurrentHashMap<SlotWindowKey, SlotWindow>();
+
+    private ScheduledExecutorService sweeper;
+
+    public static StreamingRollupAggregator getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return true if ENABLE_STREAMING_ROLLUPS is set and this node both ingests and rolls up
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @VisibleForTesting
+    public StreamingRollupAggregator(Collection<Integer> shards, int maxLocatorsPerSlot,
+                                     long closeDelayMillis, long startMillis) {
+        this.shards = new HashSet<Integer>(shards);
+        this.maxLocatorsPerSlot = maxLocatorsPerSlot;
+        this.closeDelayMillis = closeDelayMillis;
+        this.startMillis = startMillis;
+    }
+
+    /**
+     * Starts closing the windows of the slots that are over.
+     */
+    public synchronized void start() {
+        if (sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Streaming Rollup Sweeper").build());
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    closeWindows(System.currentTimeMillis());
+                } catch (Throwable t) {
+                    log.error("Error closing streaming rollup slots", t);
+                }
+            }
+        }, SWEEP_PERIOD_MILLIS, SWEEP_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Accumulates a batch of metrics that was successfully persisted.
+     */
+    public void add(Collection<IMetric> metrics) {
+        long now = System.currentTimeMillis();
+        for (IMetric metric : metrics) {
+            if (!(metric instanceof Metric) || !(metric.getMetricValue() instanceof Number)) {
+                continue;
+            }
+            SlotWindow window = getWindow(metric, now, true);
+            if (window != null) {
+                window.add(metric.getLocator(), (Number) metric.getMetricValue());
+            }
+        }
+    }
+
+    /**
+     * Invalidates the windows of a batch of metrics that might not have been persisted.
+     */
+    public void invalidate(Collection<IMetric> metrics) {
+        long now = System.currentTimeMillis();
+        for (IMetric metric : metrics) {
+            SlotWindow window = getWindow(metric, now, false);
+            if (window != null) {
+                window.invalidate();
+            }
+        }
+    }
+
+    /**
+     * @param shard the shard of the slot
+     * @param slotStartMillis the start of the 5m slot
+     * @return true if the 5m rollups of this slot were all written by this aggregator
+     */
+    public boolean isFinalized(int shard, long slotStartMillis) {
+        SlotWindow window = windows.get(new SlotWindowKey(shard, slotStartMillis));
+        return window != null && window.isFinalized();
+    }
+
+    /**
+     * Hands over the locators whose 5m rollups were written by this aggregator for a finalized slot. The set is only
+     * handed over once, so a retried rollup of the slot reads back the raw points of all its locators.
+     *
+     * @param shard the shard of the slot
+     * @param slotStartMillis the start of the 5m slot
+     * @return the locators rolled up while ingesting, or null if the slot was not finalized
+     */
+    public Set<Locator> takeStreamedLocators(int shard, long slotStartMillis) {
+        SlotWindow window = windows.get(new SlotWindowKey(shard, slotStartMillis));
+        return window == null ? null : window.takeStreamed();
+    }
+
+    public int getOpenSlotCount() {
+        int count = 0;
+        for (SlotWindow window : windows.values()) {
+            if (window.isOpen()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Closes the windows of the slots that ended at least STREAMING_ROLLUP_CLOSE_DELAY_MILLIS before now, writes their
+     * rollups, and forgets the windows that are too old to matter.
+     */
+    @VisibleForTesting
+    void closeWindows(long now) {
+        Iterator<Map.Entry<SlotWindowKey, SlotWindow>> it = windows.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<SlotWindowKey, SlotWindow> entry = it.next();
+            long slotStart = entry.getKey().slotStartMillis;
+            SlotWindow window = entry.getValue();
+
+            if (slotStart + GRANULARITY.milliseconds() + FINALIZED_RETENTION_MILLIS <= now) {
+                it.remove();
+            } else if (slotStart + GRANULARITY.milliseconds() + closeDelayMillis <= now && window.isOpen()) {
+                List<SingleRollupWriteContext> rollups = window.close(slotStart);
+                if (rollups == null) {
+                    continue;
+                }
+                try {
+                    writeRollups(rollups);
+                    if (window.finish()) {
+                        finalizedSlots.mark();
+                        emitRollupEvents(rollups, RollupEventEmitter.getInstance());
+                    }
+                } catch (IOException ex) {
+                    log.error(String.format("Failed writing streaming rollups for shard %d, slot %d",
+                            entry.getKey().shard, GRANULARITY.slot(slotStart)), ex);
+                    window.invalidate();
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void writeRollups(List<SingleRollupWriteContext> rollups) throws IOException {
+        for (int i = 0; i < rollups.size(); i += ROLLUP_BATCH_MAX_SIZE) {
+            IOContainer.fromConfig().getBasicMetricsRW().insertRollups(
+                    rollups.subList(i, Math.min(i + ROLLUP_BATCH_MAX_SIZE, rollups.size())));
+        }
+        if (RollupRunnable.ROLLUP_CASCADE) {
+            for (SingleRollupWriteContext rollup : rollups) {
+                RollupCascadeBuffer.getInstance().put(rollup.getLocator(), GRANULARITY,
+                        rollup.getTimestamp(), rollup.getRollup());
+            }
+        }
+    }
+
+    /**
+     * Emits the same rollup event as {@link RollupRunnable} for each rollup of a finalized slot, since the slot is
+     * not rolled up by it. The rollups of a slot invalidated while they were written are not emitted: the slot is
+     * rolled up again from its raw points, which emits them.
+     */
+    @VisibleForTesting
+    void emitRollupEvents(List<SingleRollupWriteContext> rollups, RollupEventEmitter emitter) {
+        if (!emitter.hasListeners(RollupEventEmitter.ROLLUP_EVENT_NAME)) {
+            return;
+        }
+        for (SingleRollupWriteContext rollup : rollups) {
+            emitter.emit(RollupEventEmitter.ROLLUP_EVENT_NAME,
+                    new RollupEvent(rollup.getLocator(), rollup.getRollup(), null, GRANULARITY.name(),
+                            rollup.getTimestamp()));
+        }
+    }
+
+    private SlotWindow getWindow(IMetric metric, long now, boolean create) {
+        int shard = Util.getShard(metric.getLocator().toString());
+        if (!shards.contains(shard)) {
+            return null;
+        }
+        long slotStart = GRANULARITY.snapMillis(metric.getCollectionTime());
+        SlotWindowKey key = new SlotWindowKey(shard, slotStart);
+        SlotWindow window = windows.get(key);
+        if (window != null || !create) {
+            return window;
+        }
+        // a window is only authoritative if it saw the whole slot.
+        if (slotStart < startMillis || slotStart + GRANULARITY.milliseconds() + closeDelayMillis <= now) {
+            return null;
+        }
+        window = new SlotWindow(maxLocatorsPerSlot);
+        SlotWindow existing = windows.putIfAbsent(key, window);
+        return existing != null ? existing : window;
+    }
+
+    private enum State { OPEN, CLOSING, FINALIZED, INVALID }
+
+    /**
+     * The running stats of all the locators of a shard for one slot. Locators are mapped to an index into the arrays,
+     * which grow as locators are added. Like {@link com.rackspacecloud.blueflood.types.Variance}, the variance is
+     * computed with the Welford algorithm.
+     */
+    private static class SlotWindow {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private final int maxLocators;
+        private State state = State.OPEN;
+
+        private Map<Locator, Integer> indexes = new HashMap<Locator, Integer>();
+        private Set<Locator> streamed;
+        private long[] counts = new long[INITIAL_CAPACITY];
+        private boolean[] floatingPoint = new boolean[INITIAL_CAPACITY];
+        private long[] longAverages = new long[INITIAL_CAPACITY];
+        private long[] longRemainders = new long[INITIAL_CAPACITY];
+        private long[] longMins = new long[INITIAL_CAPACITY];
+        private long[] longMaxes = new long[INITIAL_CAPACITY];
+        private double[] sums = new double[INITIAL_CAPACITY];
+        private double[] mins = new double[INITIAL_CAPACITY];
+        private double[] maxes = new double[INITIAL_CAPACITY];
+        private double[] means = new double[INITIAL_CAPACITY];
+        private double[] m2s = new double[INITIAL_CAPACITY];
+
+        SlotWindow(int maxLocators) {
+            this.maxLocators = maxLocators;
+        }
+
+        synchronized boolean isOpen() {
+            return state == State.OPEN;
+        }
+
+        synchronized boolean isFinalized() {
+            return state == State.FINALIZED;
+        }
+
+        synchronized void add(Locator locator, Number value) {
+            if (state != State.OPEN) {
+                // late data: the slot has to be rolled up from the raw points instead.
+                invalidate();
+                return;
+            }
+
+            Integer index = indexes.get(locator);
+            if (index == null) {
+                if (indexes.size() >= maxLocators) {
+                    invalidate();
+                    return;
+                }
+                index = indexes.size();
+                ensureCapacity(index + 1);
+                indexes.put(locator, index);
+            }
+
+            int i = index;
+            double doubleValue = value.doubleValue();
+            boolean isFloatingPoint = value instanceof Double || value instanceof Float;
+            long longValue = value.longValue();
+
+            if (counts[i] == 0) {
+                mins[i] = maxes[i] = doubleValue;
+                longMins[i] = longMaxes[i] = longValue;
+            } else {
+                mins[i] = Math.min(mins[i], doubleValue);
+                maxes[i] = Math.max(maxes[i], doubleValue);
+                longMins[i] = Math.min(longMins[i], longValue);
+                longMaxes[i] = Math.max(longMaxes[i], longValue);
+            }
+            floatingPoint[i] |= isFloatingPoint;
+            counts[i]++;
+            sums[i] += doubleValue;
+
+            // same as Average.add(Long), which avoids summing up longs.
+            long longDelta = longValue + longRemainders[i] - longAverages[i];
+            longAverages[i] += longDelta / counts[i];
+            longRemainders[i] = longDelta % counts[i];
+
+            double delta = doubleValue - means[i];
+            means[i] += delta / counts[i];
+            m2s[i] += delta * (doubleValue - means[i]);
+        }
+
+        synchronized void invalidate() {
+            if (state != State.INVALID) {
+                invalidatedSlots.mark();
+            }
+            state = State.INVALID;
+            streamed = null;
+            release();
+        }
+
+        /**
+         * Stops accepting points and builds the rollups of the window.
+         *
+         * @return the rollups to write, or null if the window is no longer open
+         */
+        synchronized List<SingleRollupWriteContext> close(long slotStart) {
+            if (state != State.OPEN) {
+                return null;
+            }
+            state = State.CLOSING;
+
+            List<SingleRollupWriteContext> rollups = new ArrayList<SingleRollupWriteContext>(indexes.size());
+            for (Map.Entry<Locator, Integer> entry : indexes.entrySet()) {
+                rollups.add(new SingleRollupWriteContext(toRollup(entry.getValue()), entry.getKey(), GRANULARITY,
+                        CassandraModel.CF_METRICS_5M, slotStart));
+            }
+            streamed = indexes.keySet();
+            release();
+            return rollups;
+        }
+
+        /**
+         * @return true if the window was finalized, false if it was invalidated while its rollups were written
+         */
+        synchronized boolean finish() {
+            if (state != State.CLOSING) {
+                return false;
+            }
+            state = State.FINALIZED;
+            return true;
+        }
+
+        synchronized Set<Locator> takeStreamed() {
+            if (state != State.FINALIZED) {
+                return null;
+            }
+            Set<Locator> locators = streamed;
+            streamed = null;
+            return locators;
+        }
+
+        private BasicRollup toRollup(int i) {
+            BasicRollup rollup = new BasicRollup();
+            rollup.setCount(counts[i]);
+            rollup.setSum(sums[i]);
+            rollup.setVariance(m2s[i] / counts[i]);
+            if (floatingPoint[i]) {
+                rollup.setAverage(sums[i] / counts[i]);
+                rollup.setMin(mins[i]);
+                rollup.setMax(maxes[i]);
+            } else {
+                rollup.setAverage(longAverages[i]);
+                rollup.setMin(longMins[i]);
+                rollup.setMax(longMaxes[i]);
+            }
+            return rollup;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= counts.length) {
+                return;
+            }
+            int newCapacity = Math.max(capacity, counts.length * 2);
+            counts = Arrays.copyOf(counts, newCapacity);
+            floatingPoint = Arrays.copyOf(floatingPoint, newCapacity);
+            longAverages = Arrays.copyOf(longAverages, newCapacity);
+            longRemainders = Arrays.copyOf(longRemainders, newCapacity);
+            longMins = Arrays.copyOf(longMins, newCapacity);
+            longMaxes = Arrays.copyOf(longMaxes, newCapacity);
+            sums = Arrays.copyOf(sums, newCapacity);
+            mins = Arrays.copyOf(mins, newCapacity);
+            maxes = Arrays.copyOf(maxes, newCapacity);
+            means = Arrays.copyOf(means, newCapacity);
+            m2s = Arrays.copyOf(m2s, newCapacity);
+        }
+
+        private void release() {
+            indexes = null;
+            counts = longAverages = longRemainders = longMins = longMaxes = null;
+            floatingPoint = null;
+            sums = mins = maxes = means = m2s = null;
+        }
+    }
+
+    private static class SlotWindowKey {
+        private final int shard;
+        private final long slotStartMillis;
+
+        SlotWindowKey(int shard, long slotStartMillis) {
+            this.shard = shard;
+            this.slotStartMillis = slotStartMillis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SlotWindowKey)) {
+                return false;
+            }
+            SlotWindowKey other = (SlotWindowKey) o;
+            return shard == other.shard && slotStartMillis == other.slotStartMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * shard + (int) (slotStartMillis ^ (slotStartMillis >>> 32));
+        }
+    }
+}
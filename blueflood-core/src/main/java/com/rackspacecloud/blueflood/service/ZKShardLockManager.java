@@ -21,6 +21,7 @@ import com.codahale.metrics.JmxAttributeGauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
 import com.google.common.base.Ticker;
 import com.google.common.util.concurrent.Futures;
 import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
@@ -31,10 +32,15 @@ import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.framework.imps.CuratorFrameworkState;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
 import org.apache.curator.framework.recipes.locks.InterProcessMutex;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,7 +50,9 @@ import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.SortedSet;
@@ -59,6 +67,8 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.IntToLongFunction;
 
 public class ZKShardLockManager implements ConnectionStateListener, ShardLockManager, ZKShardLockManagerMBean {
     private static final Logger log = LoggerFactory.getLogger(ZKShardLockManager.class);
@@ -71,6 +81,7 @@ public class ZKShardLockManager implements ConnectionStateListener, ShardLockMan
     private final CuratorFramework client;
     private final String ZK_NAMESPACE = "locks/blueflood";
     private final String LOCK_QUALIFIER = "/shards";
+    private final String NODE_LOAD_QUALIFIER = "/nodes";
     private final long ZK_SESSION_TIMEOUT_MS = new TimeValue(120L, TimeUnit.SECONDS).toMillis();
     private final long ZK_CONN_TIMEOUT_MS = new TimeValue(5L, TimeUnit.SECONDS).toMillis();
     private final long ZK_RETRY_INTERVAL = new TimeValue(50L, TimeUnit.MILLISECONDS).toMillis();
@@ -81,6 +92,23 @@ public class ZKShardLockManager implements ConnectionStateListener, ShardLockMan
     private final int defaultMaxLocksToAcquirePerCycle;
     private final Ticker ticker = Ticker.systemTicker();
 
+    /** Balances the shards across the nodes by load, null if load balancing is disabled. */
+    private final ShardLoadBalancer loadBalancer;
+    /** The path of the ephemeral node this instance publishes its load to. */
+    private final String nodeLoadPath = NODE_LOAD_QUALIFIER + "/" + ManagementFactory.getRuntimeMXBean().getName() + "-" + id;
+    /** Total time spent rolling up each shard. */
+    private volatile IntToLongFunction shardBusyMillis = shard -> 0L;
+    /** Flushes the state of a shard before it is handed off to another node. */
+    private volatile IntConsumer shardHandoff = shard -> {};
+    /** Claims the shards of the nodes that leave, as soon as they leave. */
+    private final boolean fastFailover;
+    /** Watches the nodes, when fast failover is enabled. */
+    private PathChildrenCache nodeWatcher;
+    /** Loads the state of a shard taken over from a node that left. */
+    private volatile IntConsumer shardTakeover = shard -> {};
+    private volatile double heldShardLoad = 0;
+    private volatile double fairShardLoad = 0;
+
     // modifiable properties.
     private TimeValue minLockHoldTime;
     private TimeValue lockDisinterestedTime;
@@ -106,6 +134,8 @@ public class ZKShardLockManager implements ConnectionStateListener, ShardLockMan
     private final Meter lockAcquisitionFailure = Metrics.meter(ZKShardLockManager.class, "Lock acquisition failures");
     private final com.codahale.metrics.Timer lockAcquisitionTimer = Metrics.timer(ZKShardLockManager.class, "Lock acquisition timer");
     private final Meter lockErrors = Metrics.meter(ZKShardLockManager.class, "Lock errors");
+    private final Meter shardsHandedOff = Metrics.meter(ZKShardLockManager.class, "Shards handed off");
+    private final Meter shardsTakenOver = Metrics.meter(ZKShardLockManager.class, "Shards taken over");
 
     ZKShardLockManager(String zookeeperCluster, Set<Integer> managedShards) {
         try {
@@ -118,19 +148,24 @@ public class ZKShardLockManager implements ConnectionStateListener, ShardLockMan
             log.error("Unable to register mbean for " + getClass().getSimpleName(), exc);
         }
 
+        Configuration config = Configuration.getInstance();
+        this.fastFailover = config.getBooleanProperty(CoreConfig.ENABLE_FAST_SHARD_FAILOVER);
+        // with fast failover, the zookeeper session is the lease on the shards: the shards of a node that died
+        // are released as soon as its session expires.
+        long sessionTimeoutMs = fastFailover ? config.getLongProperty(CoreConfig.SHARD_LEASE_TIMEOUT_MS) : ZK_SESSION_TIMEOUT_MS;
+
         this.locks = new ConcurrentHashMap<Integer, Lock>();
         RetryPolicy policy = new ExponentialBackoffRetry((int)ZK_RETRY_INTERVAL, ZK_MAX_RETRIES);
 
         this.client = CuratorFrameworkFactory.
                 builder().namespace(ZK_NAMESPACE)
                 .connectString(zookeeperCluster)
-                .sessionTimeoutMs((int) ZK_SESSION_TIMEOUT_MS)
+                .sessionTimeoutMs((int) sessionTimeoutMs)
                 .connectionTimeoutMs((int) ZK_CONN_TIMEOUT_MS)
                 .retryPolicy(policy).build();
         this.client.getConnectionStateListenable().addListener(this);  // register our listener
         this.client.start();
 
-        Configuration config = Configuration.getInstance();
         for (int shard : managedShards) {
             addShard(shard);
         }
@@ -139,6 +174,8 @@ public class ZKShardLockManager implements ConnectionStateListener, ShardLockMan
         this.shardLockScavengeInterval = new TimeValue(config.getLongProperty(CoreConfig.SHARD_LOCK_SCAVENGE_INTERVAL_MS),
                 TimeUnit.MILLISECONDS);
         this.defaultMaxLocksToAcquirePerCycle = config.getIntegerProperty(CoreConfig.MAX_ZK_LOCKS_TO_ACQUIRE_PER_CYCLE);
+        this.loadBalancer = config.getBooleanProperty(CoreConfig.ENABLE_SHARD_LOAD_BALANCING) ?
+                new ShardLoadBalancer(config.getFloatProperty(CoreConfig.SHARD_LOAD_BALANCING_TOLERANCE)) : null;
         this.lockWorker = new ThreadPoolBuilder()
                 .withCorePoolSize(1)
                 .withMaxPoolSize(1)
@@ -202,6 +239,101 @@ public class ZKShardLockManager implements ConnectionStateListener, ShardLockMan
         waitForZKConnections(zkWaitTime.toSeconds());
         prefetchLocks();
         scheduleScavenger();
+        if (fastFailover) {
+            watchNodes();
+        }
+    }
+
+    /**
+     * Registers this node, and watches the other nodes so that the shards of a node are claimed as soon as it
+     * leaves, instead of one scavenge cycle at a time.
+     */
+    private void watchNodes() {
+        registerNode();
+        try {
+            nodeWatcher = new PathChildrenCache(client, NODE_LOAD_QUALIFIER, false);
+            nodeWatcher.getListenable().addListener(new PathChildrenCacheListener() {
+                @Override
+                public void childEvent(CuratorFramework client, PathChildrenCacheEvent event) {
+                    if (event.getType() == PathChildrenCacheEvent.Type.CHILD_REMOVED
+                            && !nodeLoadPath.equals(event.getData().getPath())) {
+                        log.info("Node {} left, claiming its shards", event.getData().getPath());
+                        scavengerWorker.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                claimOrphanedShards();
+                            }
+                        });
+                    }
+                }
+            });
+            nodeWatcher.start();
+        } catch (Exception ex) {
+            log.error("Unable to watch the blueflood nodes, shards will only be claimed by the lock scavenger", ex);
+        }
+    }
+
+    private void registerNode() {
+        try {
+            int held = getHeldShards().size();
+            publishNodeLoad(new ShardLoadBalancer.NodeLoad(held, held * ShardLoadBalancer.BASE_SHARD_LOAD));
+        } catch (Exception ex) {
+            log.warn("Unable to register this node in zookeeper: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Acquires the shards that no node holds, up to this node's share of them. When load balancing is enabled,
+     * the share is this node's fair share of the cluster load. Otherwise, the orphaned shards are split evenly
+     * across the remaining nodes.
+     */
+    @VisibleForTesting void claimOrphanedShards() {
+        try {
+            List<Lock> orphans = new ArrayList<Lock>();
+            for (Lock lock : locks.values()) {
+                if (!lock.isHeld() && lock.isOrphaned()) {
+                    orphans.add(lock);
+                }
+            }
+            if (orphans.isEmpty()) {
+                return;
+            }
+            Collections.shuffle(orphans);
+
+            List<ShardLoadBalancer.NodeLoad> nodeLoads = readNodeLoads();
+            int toClaim;
+            if (loadBalancer != null) {
+                toClaim = loadBalancer.shardsToAcquire(heldShardLoad, loadBalancer.fairShare(nodeLoads, locks.size()),
+                        loadBalancer.averageShardLoad(nodeLoads));
+            } else {
+                toClaim = (orphans.size() + nodeLoads.size() - 1) / Math.max(1, nodeLoads.size());
+            }
+            log.info("Found {} orphaned shards, claiming up to {}", orphans.size(), toClaim);
+
+            int claimed = 0;
+            for (Lock lock : orphans) {
+                if (claimed >= toClaim) {
+                    break;
+                }
+                // another node may have claimed it in the meantime.
+                if (!lock.isOrphaned()) {
+                    continue;
+                }
+                lock.claim();
+                if (lock.acquire().get() && lock.isHeld()) {
+                    claimed++;
+                    shardsTakenOver.mark();
+                    try {
+                        shardTakeover.accept(lock.getShard());
+                    } catch (RuntimeException ex) {
+                        log.error("Unable to load the state of shard " + lock.getShard() + " after taking it over", ex);
+                    }
+                }
+            }
+            registerNode();
+        } catch (Exception ex) {
+            log.error("Error while claiming orphaned shards", ex);
+        }
     }
 
     /**
@@ -316,6 +448,12 @@ public class ZKShardLockManager implements ConnectionStateListener, ShardLockMan
             if (locksHeld <= moreThanHalf()) {
                 maxLocksToAcquirePerCycle = moreThanHalf();
             }
+            if (loadBalancer != null) {
+                maxLocksToAcquirePerCycle = balanceLoad(maxLocksToAcquirePerCycle);
+            } else if (fastFailover) {
+                // the node is ephemeral, it is gone after the zookeeper session expired.
+                registerNode();
+            }
             // shouldAttempt
 
             for (int shard : shards) {
@@ -333,6 +471,106 @@ public class ZKShardLockManager implements ConnectionStateListener, ShardLockMan
         }
     }
 
+    /**
+     * Publishes the load of this node, hands off the shards above its fair share of the cluster load, and
+     * returns how many locks it may acquire towards its fair share.
+     *
+     * If the loads of the other nodes cannot be read, the locks are acquired as if load balancing was disabled.
+     */
+    private int balanceLoad(int maxLocksToAcquirePerCycle) {
+        final Map<Integer, Double> heldLoads = new HashMap<Integer, Double>();
+        double load = 0;
+        for (Lock lock : locks.values()) {
+            int shard = lock.getShard();
+            if (lock.isHeld()) {
+                double shardLoad = loadBalancer.updateLoad(shard, shardBusyMillis.applyAsLong(shard));
+                heldLoads.put(shard, shardLoad);
+                load += shardLoad;
+            } else {
+                loadBalancer.forget(shard);
+            }
+        }
+        heldShardLoad = load;
+
+        final List<ShardLoadBalancer.NodeLoad> nodeLoads;
+        try {
+            publishNodeLoad(new ShardLoadBalancer.NodeLoad(heldLoads.size(), load));
+            nodeLoads = readNodeLoads();
+        } catch (Exception ex) {
+            log.warn("Unable to exchange node loads with zookeeper: " + ex.getMessage());
+            return maxLocksToAcquirePerCycle;
+        }
+
+        double fairShare = loadBalancer.fairShare(nodeLoads, locks.size());
+        fairShardLoad = fairShare;
+
+        for (int shard : loadBalancer.shardsToRelease(heldLoads, fairShare)) {
+            log.info("Handing off shard {} (load {}, fair share {})", new Object[]{shard, heldLoads.get(shard), fairShare});
+            try {
+                shardHandoff.accept(shard);
+            } catch (RuntimeException ex) {
+                log.error("Unable to flush the state of shard " + shard + " before handing it off", ex);
+            }
+            locks.get(shard).release(false);
+            shardsHandedOff.mark();
+            load -= heldLoads.get(shard);
+        }
+
+        return Math.min(maxLocksToAcquirePerCycle,
+                loadBalancer.shardsToAcquire(load, fairShare, loadBalancer.averageShardLoad(nodeLoads)));
+    }
+
+    private void publishNodeLoad(ShardLoadBalancer.NodeLoad nodeLoad) throws Exception {
+        byte[] data = nodeLoad.toString().getBytes(Charsets.UTF_8);
+        try {
+            client.setData().forPath(nodeLoadPath, data);
+        } catch (KeeperException.NoNodeException ex) {
+            // the node is ephemeral, it is gone after the zookeeper session expired.
+            client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(nodeLoadPath, data);
+        }
+    }
+
+    private List<ShardLoadBalancer.NodeLoad> readNodeLoads() throws Exception {
+        List<ShardLoadBalancer.NodeLoad> nodeLoads = new ArrayList<ShardLoadBalancer.NodeLoad>();
+        List<String> nodes;
+        try {
+            nodes = client.getChildren().forPath(NODE_LOAD_QUALIFIER);
+        } catch (KeeperException.NoNodeException ex) {
+            // no node has registered yet.
+            return nodeLoads;
+        }
+        for (String node : nodes) {
+            try {
+                byte[] data = client.getData().forPath(NODE_LOAD_QUALIFIER + "/" + node);
+                nodeLoads.add(ShardLoadBalancer.NodeLoad.parse(new String(data, Charsets.UTF_8)));
+            } catch (KeeperException.NoNodeException ex) {
+                // the node just left.
+            }
+        }
+        return nodeLoads;
+    }
+
+    /**
+     * Sets how the time spent rolling up a shard is measured, for load balancing.
+     */
+    public void setShardBusyMillis(IntToLongFunction shardBusyMillis) {
+        this.shardBusyMillis = shardBusyMillis;
+    }
+
+    /**
+     * Sets how the state of a shard is loaded after the shard is taken over from a node that left.
+     */
+    public void setShardTakeover(IntConsumer shardTakeover) {
+        this.shardTakeover = shardTakeover;
+    }
+
+    /**
+     * Sets how the state of a shard is flushed before the shard is handed off to another node.
+     */
+    public void setShardHandoff(IntConsumer shardHandoff) {
+        this.shardHandoff = shardHandoff;
+    }
+
     public void stateChanged(CuratorFramework curatorFramework, ConnectionState connectionState) {
         log.info("Connection to Zookeeper toggled to state " + connectionState.toString());
         connected = connectionState == ConnectionState.CONNECTED || connectionState == ConnectionState.RECONNECTED;
@@ -391,6 +629,9 @@ public class ZKShardLockManager implements ConnectionStateListener, ShardLockMan
         for (Lock lock : locks.values()) {
             this.release(lock.getShard());
         }
+        if (nodeWatcher != null) {
+            nodeWatcher.close();
+        }
         client.close();
     }
 
@@ -497,6 +738,10 @@ public class ZKShardLockManager implements ConnectionStateListener, ShardLockMan
     public synchronized long getLockDisinterestedTimeMillis() { return lockDisinterestedTime.toMillis(); }
     public synchronized void setLockDisinterestedTimeMillis(long millis) { lockDisinterestedTime = new TimeValue(millis, TimeUnit.MILLISECONDS); }
     public synchronized long getSecondsSinceLastScavenge() { return ((nowMillis() - lastScavengedAt) / 1000); }
+    public boolean isLoadBalancing() { return loadBalancer != null; }
+    public boolean isFastFailover() { return fastFailover; }
+    public double getHeldShardLoad() { return heldShardLoad; }
+    public double getFairShardLoad() { return fairShardLoad; }
 
     //
     // Helper classes
@@ -565,7 +810,7 @@ public class ZKShardLockManager implements ConnectionStateListener, ShardLockMan
             if (state == LockState.UNKNOWN && shouldAttempt) {
                 acquire();
                 return isHeld();
-            } else if (state == LockState.ACQUIRED && (now - stateChanged) >= minLockHoldTime.toMillis()) {
+            } else if (state == LockState.ACQUIRED && loadBalancer == null && (now - stateChanged) >= minLockHoldTime.toMillis()) {
                 // Lock was held for too long - maybe release to trigger re-balancing.
                 final float chance;
                 if (now == stateChanged) {
@@ -615,6 +860,31 @@ public class ZKShardLockManager implements ConnectionStateListener, ShardLockMan
             return state;
         }
 
+        /**
+         * @return true if no node holds or is waiting for this lock
+         */
+        boolean isOrphaned() {
+            InterProcessMutex current = mutex;
+            if (!connected || current == null) {
+                return false;
+            }
+            try {
+                return current.getParticipantNodes().isEmpty();
+            } catch (Exception ex) {
+                log.debug("Unable to read the participants of shard " + shard, ex);
+                return false;
+            }
+        }
+
+        /**
+         * Makes the lock eligible for acquisition right away, whatever the outcome of the previous attempts.
+         */
+        synchronized void claim() {
+            if (state == LockState.ACQUIRE_FAILED || state == LockState.DISINTERESTED) {
+                setState(LockState.UNKNOWN);
+            }
+        }
+
         /**
          * Only work on the acquired shards. Technically, working on the {@link LockState#ERROR} shard is ok,
          * but it is not recommended as it's going to cause a load problem.
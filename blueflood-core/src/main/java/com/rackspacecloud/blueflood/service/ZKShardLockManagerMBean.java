@@ -32,6 +32,11 @@ public interface ZKShardLockManagerMBean {
     public void forceLockScavenge();
     public long getSecondsSinceLastScavenge();
     public String getZkConnectionStatus();
+
+    public boolean isLoadBalancing();
+    public boolean isFastFailover();
+    public double getHeldShardLoad();
+    public double getFairShardLoad();
     
     public boolean release(int shard);
     public boolean acquire(int shard);
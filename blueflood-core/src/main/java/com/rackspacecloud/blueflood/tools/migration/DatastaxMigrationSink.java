@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.migration;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the rows of metrics column families to a cluster, with the datastax driver.
+ */
+public class DatastaxMigrationSink implements MigrationSink {
+
+    private final Session session;
+    private final Map<String, PreparedStatement> inserts = new ConcurrentHashMap<String, PreparedStatement>();
+
+    public DatastaxMigrationSink(Session session) {
+        this.session = session;
+    }
+
+    @Override
+    public ListenableFuture<?> write(String columnFamily, MigrationRow row, int ttlSeconds) {
+        PreparedStatement insert = inserts.get(columnFamily);
+        if (insert == null) {
+            insert = session.prepare(String.format(
+                    "INSERT INTO %s (key, column1, value) VALUES (?, ?, ?) USING TTL ?", columnFamily));
+            inserts.put(columnFamily, insert);
+        }
+        return session.executeAsync(insert.bind(row.getKey(), row.getColumn(), row.getValue(), ttlSeconds));
+    }
+}
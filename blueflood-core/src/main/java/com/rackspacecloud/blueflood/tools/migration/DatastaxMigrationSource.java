@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.migration;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TokenRange;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.rackspacecloud.blueflood.io.datastax.TokenRangeScanner;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads the metrics column families of a cluster by token range, with the datastax driver.
+ */
+public class DatastaxMigrationSource implements MigrationSource {
+
+    private final Session session;
+    private final int pageSize;
+    private final Map<String, TokenRange> ranges = new LinkedHashMap<String, TokenRange>();
+    private final Map<String, PreparedStatement[]> selects = new ConcurrentHashMap<String, PreparedStatement[]>();
+
+    /**
+     * @param splits the number of ranges each token range of the ring is split into
+     * @param pageSize the number of rows read per query
+     */
+    public DatastaxMigrationSource(Session session, int splits, int pageSize) {
+        this.session = session;
+        this.pageSize = pageSize;
+        for (TokenRange range : TokenRangeScanner.getRanges(session.getCluster().getMetadata(), splits)) {
+            ranges.put(range.toString(), range);
+        }
+    }
+
+    @Override
+    public List<String> getRanges() {
+        return new ArrayList<String>(ranges.keySet());
+    }
+
+    @Override
+    public ListenableFuture<MigrationPage> read(String columnFamily, String range, long from, long to) {
+        PreparedStatement[] select = getSelects(columnFamily);
+        BoundStatement bound = TokenRangeScanner.bindRange(ranges.get(range), select[0], select[1]);
+        // the time range is bound after the token range, whose bounds depend on the range
+        int last = bound.preparedStatement().getVariables().size() - 1;
+        bound.setLong(last - 1, from).setLong(last, to).setFetchSize(pageSize);
+        return Futures.transform(session.executeAsync(bound), toPage);
+    }
+
+    private PreparedStatement[] getSelects(String columnFamily) {
+        PreparedStatement[] select = selects.get(columnFamily);
+        if (select == null) {
+            // the columns outside of the time range are filtered by the replicas instead of being transferred
+            String selectFrom = String.format("SELECT key, column1, value FROM %s WHERE token(key) > ?", columnFamily);
+            String withinTimeRange = " AND column1 >= ? AND column1 <= ? ALLOW FILTERING";
+            select = new PreparedStatement[] {
+                    session.prepare(selectFrom + withinTimeRange),
+                    session.prepare(selectFrom + " AND token(key) <= ?" + withinTimeRange)
+            };
+            selects.put(columnFamily, select);
+        }
+        return select;
+    }
+
+    private final Function<ResultSet, MigrationPage> toPage = new Function<ResultSet, MigrationPage>() {
+        @Override
+        public MigrationPage apply(ResultSet results) {
+            return new Page(results);
+        }
+    };
+
+    private class Page implements MigrationPage {
+        private final ResultSet results;
+        private final List<MigrationRow> rows = new ArrayList<MigrationRow>();
+
+        private Page(ResultSet results) {
+            this.results = results;
+            // only the rows already fetched, the following ones are the next page
+            for (int i = results.getAvailableWithoutFetching(); i > 0; i--) {
+                Row row = results.one();
+                rows.add(new MigrationRow(row.getString("key"), row.getLong("column1"), row.getBytes("value")));
+            }
+        }
+
+        @Override
+        public List<MigrationRow> getRows() {
+            return rows;
+        }
+
+        @Override
+        public ListenableFuture<MigrationPage> next() {
+            if (results.isFullyFetched()) {
+                return null;
+            }
+            return Futures.transform(results.fetchMoreResults(), toPage);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.migration;
+
+import com.codahale.metrics.Meter;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
+import com.rackspacecloud.blueflood.io.datastax.ScanCheckpoints;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copies metrics column families from a {@link MigrationSource} to a {@link MigrationSink}.
+ *
+ * The work is the token ranges of the source times the column families to copy. The ranges are
+ * copied in parallel by a pool of threads. Each thread reads its range a page at a time,
+ * fetching the next page while the rows of the current one are written asynchronously, and
+ * the writes in flight are bounded across all threads. The rows, and their bytes, can be
+ * throttled to a maximum number per second.
+ *
+ * A range is recorded in the checkpoints once all of its rows are written, and the ranges
+ * recorded by a previous run are skipped, so a failed or interrupted migration is resumed by
+ * running it again with the same checkpoints. A range that fails is not recorded, and the
+ * others are still copied.
+ */
+public class MigrationEngine {
+    private static final Logger log = LoggerFactory.getLogger(MigrationEngine.class);
+
+    private static final Meter rowsCopied = Metrics.meter(MigrationEngine.class, "Rows Copied");
+    private static final Meter rangesCopied = Metrics.meter(MigrationEngine.class, "Ranges Copied");
+    private static final Meter rangesFailed = Metrics.meter(MigrationEngine.class, "Ranges Failed");
+
+    private final MigrationSource source;
+    private final MigrationSink sink;
+    private final Map<String, Integer> columnFamilyTtls;
+    private final long from;
+    private final long to;
+    private final int threads;
+    private final RateLimiter rowLimiter;
+    private final RateLimiter byteLimiter;
+    private final Semaphore writesInFlight;
+    private final ScanCheckpoints checkpoints;
+
+    private volatile MigrationProgress progress;
+
+    private MigrationEngine(Builder builder) {
+        this.source = builder.source;
+        this.sink = builder.sink;
+        this.columnFamilyTtls = builder.columnFamilyTtls;
+        this.from = builder.from;
+        this.to = builder.to;
+        this.threads = builder.threads;
+        this.rowLimiter = builder.maxRowsPerSecond > 0 ? RateLimiter.create(builder.maxRowsPerSecond) : null;
+        this.byteLimiter = builder.maxBytesPerSecond > 0 ? RateLimiter.create(builder.maxBytesPerSecond) : null;
+        this.writesInFlight = new Semaphore(builder.maxWritesInFlight);
+        this.checkpoints = builder.checkpoints;
+    }
+
+    public static Builder builder(MigrationSource source, MigrationSink sink) {
+        return new Builder(source, sink);
+    }
+
+    /**
+     * @return the progress of the current run, null until it is started
+     */
+    public MigrationProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Copies all the token ranges of all the column families not copied yet.
+     *
+     * @throws IOException if the copy of any range failed
+     */
+    public void run() throws IOException {
+        List<String> ranges = source.getRanges();
+        List<String[]> work = new ArrayList<String[]>();
+        int total = 0;
+        for (String columnFamily : columnFamilyTtls.keySet()) {
+            for (String range : ranges) {
+                total++;
+                if (checkpoints == null || !checkpoints.isCompleted(checkpointKey(columnFamily, range))) {
+                    work.add(new String[] { columnFamily, range });
+                }
+            }
+        }
+        progress = new MigrationProgress(total, total - work.size(), System.currentTimeMillis());
+        log.info(String.format("Copying %d of %d token ranges of %s with %d threads",
+                work.size(), total, columnFamilyTtls.keySet(), threads));
+
+        ThreadPoolExecutor executor = new ThreadPoolBuilder()
+                .withCorePoolSize(threads)
+                .withMaxPoolSize(threads)
+                .withUnboundedQueue()
+                .withName("MigrationEngine")
+                .build();
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final String[] unit : work) {
+                futures.add(executor.submit(() -> {
+                    copyRange(unit[0], unit[1]);
+                    progress.rangeCopied();
+                    rangesCopied.mark();
+                    return null;
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    progress.rangeFailed();
+                    rangesFailed.mark();
+                    log.error(String.format("Error copying %s of %s", work.get(i)[1], work.get(i)[0]), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while copying", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        log.info(progress.describe(System.currentTimeMillis()));
+        if (progress.getFailedRanges() > 0) {
+            throw new IOException(String.format("The copy of %d token ranges failed", progress.getFailedRanges()));
+        }
+    }
+
+    private void copyRange(String columnFamily, String range) throws Exception {
+        int ttl = columnFamilyTtls.get(columnFamily);
+        RangeWrites writes = new RangeWrites();
+        try {
+            MigrationPage page = source.read(columnFamily, range, from, to).get();
+            while (page != null) {
+                ListenableFuture<MigrationPage> next = page.next();
+                for (MigrationRow row : page.getRows()) {
+                    if (row.getColumn() < from || row.getColumn() > to) {
+                        continue;
+                    }
+                    write(columnFamily, row, ttl, writes);
+                }
+                page = next == null ? null : next.get();
+            }
+        } finally {
+            // even if the read failed, the range is not done until the writes issued complete
+            writes.await();
+        }
+        if (writes.failure.get() != null) {
+            throw new IOException("Error writing " + range + " of " + columnFamily, writes.failure.get());
+        }
+
+        if (checkpoints != null) {
+            checkpoints.markCompleted(checkpointKey(columnFamily, range));
+        }
+    }
+
+    private void write(String columnFamily, MigrationRow row, int ttl, final RangeWrites writes) throws InterruptedException {
+        int size = row.getSize();
+        if (rowLimiter != null) {
+            rowLimiter.acquire();
+        }
+        if (byteLimiter != null) {
+            byteLimiter.acquire(Math.max(1, size));
+        }
+        writesInFlight.acquire();
+        ListenableFuture<?> future;
+        try {
+            future = sink.write(columnFamily, row, ttl);
+        } catch (RuntimeException e) {
+            writesInFlight.release();
+            throw e;
+        }
+        writes.started();
+        Futures.addCallback(future, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                writesInFlight.release();
+                writes.done(null);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                writesInFlight.release();
+                writes.done(t);
+            }
+        }, MoreExecutors.directExecutor());
+        progress.rowCopied(size);
+        rowsCopied.mark();
+    }
+
+    /**
+     * The writes in flight of a range, and the first one that failed.
+     */
+    private static class RangeWrites {
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        private int pending = 0;
+
+        private synchronized void started() {
+            pending++;
+        }
+
+        private synchronized void done(Throwable t) {
+            if (t != null) {
+                failure.compareAndSet(null, t);
+            }
+            if (--pending == 0) {
+                notifyAll();
+            }
+        }
+
+        private synchronized void await() throws InterruptedException {
+            while (pending > 0) {
+                wait();
+            }
+        }
+    }
+
+    private static String checkpointKey(String columnFamily, String range) {
+        return columnFamily + " " + range;
+    }
+
+    public static class Builder {
+        private final MigrationSource source;
+        private final MigrationSink sink;
+        private final Map<String, Integer> columnFamilyTtls = new LinkedHashMap<String, Integer>();
+        private long from = Long.MIN_VALUE;
+        private long to = Long.MAX_VALUE;
+        private int threads = 1;
+        private double maxRowsPerSecond = 0;
+        private double maxBytesPerSecond = 0;
+        private int maxWritesInFlight = 100;
+        private ScanCheckpoints checkpoints = null;
+
+        private Builder(MigrationSource source, MigrationSink sink) {
+            this.source = source;
+            this.sink = sink;
+        }
+
+        /**
+         * Adds a column family to copy, in the order they are added.
+         *
+         * @param ttlSeconds the TTL of the rows written
+         */
+        public Builder withColumnFamily(String columnFamily, int ttlSeconds) {
+            columnFamilyTtls.put(columnFamily, ttlSeconds);
+            return this;
+        }
+
+        /**
+         * Only the columns whose timestamps are within this range, inclusive, are copied.
+         */
+        public Builder withTimeRange(long from, long to) {
+            this.from = from;
+            this.to = to;
+            return this;
+        }
+
+        /**
+         * The number of token ranges copied at the same time, 1 by default.
+         */
+        public Builder withThreads(int threads) {
+            this.threads = Math.max(1, threads);
+            return this;
+        }
+
+        /**
+         * The maximum number of rows written per second, unlimited if not positive.
+         */
+        public Builder withMaxRowsPerSecond(double maxRowsPerSecond) {
+            this.maxRowsPerSecond = maxRowsPerSecond;
+            return this;
+        }
+
+        /**
+         * The maximum number of bytes written per second, unlimited if not positive.
+         */
+        public Builder withMaxBytesPerSecond(double maxBytesPerSecond) {
+            this.maxBytesPerSecond = maxBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * The maximum number of writes in flight across all the threads, 100 by default.
+         */
+        public Builder withMaxWritesInFlight(int maxWritesInFlight) {
+            this.maxWritesInFlight = Math.max(1, maxWritesInFlight);
+            return this;
+        }
+
+        public Builder withCheckpoints(ScanCheckpoints checkpoints) {
+            this.checkpoints = checkpoints;
+            return this;
+        }
+
+        public MigrationEngine build() {
+            return new MigrationEngine(this);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.migration;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.List;
+
+/**
+ * A page of the rows of a token range being read by a {@link MigrationSource}.
+ */
+public interface MigrationPage {
+
+    List<MigrationRow> getRows();
+
+    /**
+     * Starts fetching the next page of the token range.
+     *
+     * @return the next page, or null if this is the last page of the token range
+     */
+    ListenableFuture<MigrationPage> next();
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.migration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The progress of a {@link MigrationEngine} run. The estimated time remaining assumes the ranges
+ * left take as long, on average, as the ranges copied so far by this run.
+ */
+public class MigrationProgress {
+
+    private final int totalRanges;
+    private final int previouslyCopiedRanges;
+    private final long startMillis;
+
+    private final AtomicInteger copiedRanges = new AtomicInteger();
+    private final AtomicInteger failedRanges = new AtomicInteger();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * @param totalRanges the number of token ranges of all the column families to copy
+     * @param previouslyCopiedRanges the number of these ranges copied by previous runs
+     * @param startMillis when this run started
+     */
+    public MigrationProgress(int totalRanges, int previouslyCopiedRanges, long startMillis) {
+        this.totalRanges = totalRanges;
+        this.previouslyCopiedRanges = previouslyCopiedRanges;
+        this.startMillis = startMillis;
+    }
+
+    void rowCopied(int size) {
+        rows.incrementAndGet();
+        bytes.addAndGet(size);
+    }
+
+    void rangeCopied() {
+        copiedRanges.incrementAndGet();
+    }
+
+    void rangeFailed() {
+        failedRanges.incrementAndGet();
+    }
+
+    public int getTotalRanges() {
+        return totalRanges;
+    }
+
+    /**
+     * @return the number of ranges copied, by this run and the previous ones
+     */
+    public int getCopiedRanges() {
+        return previouslyCopiedRanges + copiedRanges.get();
+    }
+
+    public int getFailedRanges() {
+        return failedRanges.get();
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return the estimated time, in milliseconds, to copy the ranges left, or -1 if no range was copied yet
+     */
+    public long getEtaMillis(long nowMillis) {
+        int copied = copiedRanges.get();
+        if (copied == 0) {
+            return -1;
+        }
+        int left = totalRanges - getCopiedRanges() - failedRanges.get();
+        return (nowMillis - startMillis) * left / copied;
+    }
+
+    /**
+     * @return a one line summary of the progress, with the throughput and the estimated time remaining
+     */
+    public String describe(long nowMillis) {
+        long seconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(nowMillis - startMillis));
+        long eta = getEtaMillis(nowMillis);
+        return String.format("%d/%d ranges copied, %d failed, %d rows (%d rows/s), %d bytes (%d bytes/s), ETA %s",
+                getCopiedRanges(), totalRanges, getFailedRanges(), getRows(), getRows() / seconds,
+                getBytes(), getBytes() / seconds, eta < 0 ? "unknown" : formatDuration(eta));
+    }
+
+    private static String formatDuration(long millis) {
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(millis);
+        return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.migration;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A column of a metrics column family: a locator, a timestamp and a serialized value.
+ */
+public class MigrationRow {
+    private final String key;
+    private final long column;
+    private final ByteBuffer value;
+
+    public MigrationRow(String key, long column, ByteBuffer value) {
+        this.key = key;
+        this.column = column;
+        this.value = value;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getColumn() {
+        return column;
+    }
+
+    public ByteBuffer getValue() {
+        return value;
+    }
+
+    /**
+     * @return the approximate number of bytes of the row, used to throttle a migration
+     */
+    public int getSize() {
+        return key.length() + 8 + (value == null ? 0 : value.remaining());
+    }
+}
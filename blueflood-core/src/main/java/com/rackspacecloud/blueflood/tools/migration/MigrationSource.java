@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.migration;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.List;
+
+/**
+ * The cluster a {@link MigrationEngine} copies data from.
+ */
+public interface MigrationSource {
+
+    /**
+     * @return the token ranges covering the ring, the same for every column family. They are used as
+     * checkpoints, so they must not change between runs as long as the ring does not change.
+     */
+    List<String> getRanges();
+
+    /**
+     * Starts reading the rows of a column family in a token range whose columns, the timestamps, are
+     * within from and to, inclusive. Rows outside of the time range may still be returned, they are
+     * not copied.
+     *
+     * @return the first page of rows
+     */
+    ListenableFuture<MigrationPage> read(String columnFamily, String range, long from, long to);
+}
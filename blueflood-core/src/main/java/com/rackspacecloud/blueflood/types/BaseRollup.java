@@ -16,11 +16,15 @@
 
 package com.rackspacecloud.blueflood.types;
 
+import com.rackspacecloud.blueflood.io.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * The sub-metrics used by {@link com.rackspacecloud.blueflood.types.BasicRollup} and
@@ -37,6 +41,29 @@ public abstract class BaseRollup implements Rollup {
     private static final Logger log = LoggerFactory.getLogger( BaseRollup.class );
     public static final int NUM_STATS = 4;
 
+    /**
+     * The stats of a rollup that can be left out when it is read for a query. The count, and the sum of a
+     * {@link com.rackspacecloud.blueflood.types.BasicRollup}, are always read.
+     */
+    public enum Stat {
+        AVERAGE(Constants.AVERAGE),
+        VARIANCE(Constants.VARIANCE),
+        MIN(Constants.MIN),
+        MAX(Constants.MAX);
+
+        public static final Set<Stat> ALL = Collections.unmodifiableSet(EnumSet.allOf(Stat.class));
+
+        private final byte statType;
+
+        private Stat(byte statType) {
+            this.statType = statType;
+        }
+
+        public byte getStatType() {
+            return statType;
+        }
+    }
+
     private Average average;
     private Variance variance;
     private MinValue minValue;
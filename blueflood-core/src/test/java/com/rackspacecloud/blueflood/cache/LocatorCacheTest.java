@@ -198,6 +198,20 @@ public class LocatorCacheTest {
         assertThat(cache.getCurrentDelayedLocatorCount(), equalTo(0L));
     }
 
+    @Test
+    public void tracksActiveLocatorsSeparatelyFromDelayedLocators() {
+        Locator locator = Locator.createLocatorFromDbKey("i.m.active");
+        assertThat(cache.isActiveLocatorForASlotCurrent(1, locator), is(false));
+        cache.setActiveLocatorForASlotCurrent(1, locator);
+        assertThat(cache.isActiveLocatorForASlotCurrent(1, locator), is(true));
+        assertThat(cache.isActiveLocatorForASlotCurrent(2, locator), is(false));
+        assertThat(cache.isDelayedLocatorForASlotCurrent(1, locator), is(false));
+        assertThat(cache.getCurrentActiveLocatorCount(), equalTo(1L));
+        cache.resetCache();
+        assertThat(cache.isActiveLocatorForASlotCurrent(1, locator), is(false));
+        assertThat(cache.getCurrentActiveLocatorCount(), equalTo(0L));
+    }
+
     @Test
     public void expiresStuff() throws Exception {
         // Given several random locators
@@ -0,0 +1,168 @@
+package com.rackspacecloud.blueflood.cache;
+
+import com.rackspacecloud.blueflood.io.Constants;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.BaseRollup;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import com.rackspacecloud.blueflood.utils.Clock;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class QueryResultCacheTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long NOW = 10 * HOUR;
+    private static final long MIN_AGE = TimeUnit.MINUTES.toMillis(15);
+
+    private final Locator locator = Locator.createLocatorFromPathComponents("tenant", "a", "b", "c");
+    private final List<Locator> locators = Arrays.asList(locator);
+
+    private QueryResultCache cache;
+    private RecordingReader reader;
+
+    @Before
+    public void setUp() {
+        Clock clock = mock(Clock.class);
+        when(clock.now()).thenReturn(new Instant(NOW));
+        cache = QueryResultCache.getInstance(1000000, 1000, MIN_AGE, 10, TimeUnit.MINUTES, clock);
+        reader = new RecordingReader();
+    }
+
+    @Test
+    public void chunksAreOneHourForFullResolution() {
+        assertEquals(HOUR, QueryResultCache.getChunkMillis(Granularity.FULL));
+    }
+
+    @Test
+    public void repeatedQueryOnlyReadsTheTail() {
+        Map<Locator, MetricData> first = query(new Range(0, NOW), Granularity.FULL, BaseRollup.Stat.ALL);
+
+        assertEquals(Arrays.asList(new Range(0, 9 * HOUR - 1), new Range(9 * HOUR, NOW)), reader.ranges);
+        assertEquals(121, first.get(locator).getData().getPoints().size());
+        assertEquals(9, cache.getCachedChunkCount());
+
+        reader.ranges.clear();
+        Map<Locator, MetricData> second = query(new Range(0, NOW), Granularity.FULL, BaseRollup.Stat.ALL);
+
+        assertEquals(Arrays.asList(new Range(9 * HOUR, NOW)), reader.ranges);
+        assertEquals(first.get(locator).getData().getPoints().keySet(),
+                second.get(locator).getData().getPoints().keySet());
+        assertEquals("unit", second.get(locator).getUnit());
+    }
+
+    @Test
+    public void recentRangeIsNotCached() {
+        Range recent = new Range(9 * HOUR + 1, NOW);
+        query(recent, Granularity.FULL, BaseRollup.Stat.ALL);
+
+        assertEquals(Arrays.asList(recent), reader.ranges);
+        assertEquals(0, cache.getCachedChunkCount());
+    }
+
+    @Test
+    public void resultIsLimitedToTheRange() {
+        long start = HOUR / 2;
+        Map<Locator, MetricData> result = query(new Range(start, 2 * HOUR), Granularity.FULL, BaseRollup.Stat.ALL);
+
+        Map<Long, Points.Point> points = result.get(locator).getData().getPoints();
+        assertEquals(19, points.size());
+        assertFalse(points.containsKey(0L));
+        assertFalse(points.containsKey(2 * HOUR + MIN_AGE));
+    }
+
+    @Test
+    public void invalidatedChunkIsReadAgain() {
+        query(new Range(0, NOW), Granularity.FULL, BaseRollup.Stat.ALL);
+        reader.ranges.clear();
+
+        cache.invalidate(Util.getShard(locator.toString()), Granularity.FULL, 2 * HOUR + 1);
+        query(new Range(0, NOW), Granularity.FULL, BaseRollup.Stat.ALL);
+
+        assertEquals(Arrays.asList(new Range(2 * HOUR, 3 * HOUR - 1), new Range(9 * HOUR, NOW)), reader.ranges);
+    }
+
+    @Test
+    public void evictedInvalidationOnlyDropsItsChunks() {
+        Clock clock = mock(Clock.class);
+        when(clock.now()).thenReturn(new Instant(NOW));
+        cache = QueryResultCache.getInstance(1000000, 1, MIN_AGE, 10, TimeUnit.MINUTES, clock);
+        int shard = Util.getShard(locator.toString());
+        query(new Range(0, NOW), Granularity.FULL, BaseRollup.Stat.ALL);
+        reader.ranges.clear();
+
+        cache.invalidate(shard, Granularity.FULL, 2 * HOUR + 1);
+        // evicts the invalidation of the shard of the locator
+        cache.invalidate((shard + 1) % Constants.NUMBER_OF_SHARDS, Granularity.FULL, 5 * HOUR + 1);
+
+        assertEquals(8, cache.getCachedChunkCount());
+        query(new Range(0, NOW), Granularity.FULL, BaseRollup.Stat.ALL);
+        assertEquals(Arrays.asList(new Range(2 * HOUR, 3 * HOUR - 1), new Range(9 * HOUR, NOW)), reader.ranges);
+    }
+
+    @Test
+    public void invalidationOfOtherGranularityIsIgnored() {
+        query(new Range(0, NOW), Granularity.FULL, BaseRollup.Stat.ALL);
+        reader.ranges.clear();
+
+        cache.invalidate(Util.getShard(locator.toString()), Granularity.MIN_5, 2 * HOUR + 1);
+        query(new Range(0, NOW), Granularity.FULL, BaseRollup.Stat.ALL);
+
+        assertEquals(Arrays.asList(new Range(9 * HOUR, NOW)), reader.ranges);
+    }
+
+    @Test
+    public void otherStatsAreReadSeparately() {
+        query(new Range(0, 2 * HOUR - 1), Granularity.MIN_5, BaseRollup.Stat.ALL);
+        reader.ranges.clear();
+
+        query(new Range(0, 2 * HOUR - 1), Granularity.MIN_5, EnumSet.of(BaseRollup.Stat.AVERAGE));
+
+        assertEquals(Arrays.asList(new Range(0, 2 * HOUR - 1)), reader.ranges);
+    }
+
+    private Map<Locator, MetricData> query(Range range, Granularity granularity, Set<BaseRollup.Stat> stats) {
+        return cache.getDatapointsForRange(locators, range, granularity, stats, reader);
+    }
+
+    /**
+     * Returns a point every 5 minutes, and records the ranges read.
+     */
+    private static class RecordingReader implements QueryResultCache.RangeReader {
+        private final List<Range> ranges = new ArrayList<Range>();
+
+        @Override
+        public Map<Locator, MetricData> read(List<Locator> locators, Range range) {
+            ranges.add(range);
+            Map<Locator, MetricData> result = new HashMap<Locator, MetricData>();
+            for (Locator locator : locators) {
+                Points<SimpleNumber> points = new Points<SimpleNumber>();
+                long first = Granularity.MIN_5.snapMillis(range.getStart() + Granularity.MIN_5.milliseconds() - 1);
+                for (long timestamp = first; timestamp <= range.getStop(); timestamp += Granularity.MIN_5.milliseconds()) {
+                    points.add(new Points.Point<SimpleNumber>(timestamp, new SimpleNumber(1L)));
+                }
+                result.put(locator, new MetricData(points, "unit"));
+            }
+            return result;
+        }
+    }
+}
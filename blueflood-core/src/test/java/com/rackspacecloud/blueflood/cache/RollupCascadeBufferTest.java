@@ -0,0 +1,102 @@
+package com.rackspacecloud.blueflood.cache;
+
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.types.Rollup;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RollupCascadeBufferTest {
+
+    private final RollupCascadeBuffer buffer = RollupCascadeBuffer.getInstance(1000, 60, TimeUnit.MINUTES);
+
+    private final Locator locator = Locator.createLocatorFromPathComponents("tenant", "a", "b", "c");
+
+    // the first 20m slot of the epoch, and its four 5m children
+    private final Range range20m = new Range(0, Granularity.MIN_20.milliseconds() - 1);
+
+    @Before
+    public void setUp() {
+        buffer.resetCache();
+    }
+
+    private long child(int i) {
+        return i * Granularity.MIN_5.milliseconds();
+    }
+
+    @Test
+    public void incompleteChildrenReturnNull() {
+        for (int i = 0; i < 3; i++) {
+            buffer.put(locator, Granularity.MIN_5, child(i), new BasicRollup());
+        }
+
+        assertNull(buffer.getChildren(locator, Granularity.MIN_5, range20m));
+    }
+
+    @Test
+    public void completeChildrenAreReturned() {
+        for (int i = 0; i < 4; i++) {
+            buffer.put(locator, Granularity.MIN_5, child(i), new BasicRollup());
+        }
+
+        Points<Rollup> points = buffer.getChildren(locator, Granularity.MIN_5, range20m);
+
+        assertNotNull(points);
+        assertEquals(4, points.getPoints().size());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(points.getPoints().containsKey(child(i)));
+        }
+    }
+
+    @Test
+    public void childrenWithNoPointsCompleteTheSlot() {
+        buffer.put(locator, Granularity.MIN_5, child(0), new BasicRollup());
+        for (int i = 1; i < 4; i++) {
+            buffer.putNoPoints(locator, Granularity.MIN_5, child(i));
+        }
+
+        Points<Rollup> points = buffer.getChildren(locator, Granularity.MIN_5, range20m);
+
+        assertNotNull(points);
+        assertEquals(1, points.getPoints().size());
+        assertTrue(points.getPoints().containsKey(child(0)));
+    }
+
+    @Test
+    public void childrenAreKeptPerLocator() {
+        Locator other = Locator.createLocatorFromPathComponents("tenant", "x", "y", "z");
+        for (int i = 0; i < 4; i++) {
+            buffer.put(locator, Granularity.MIN_5, child(i), new BasicRollup());
+        }
+
+        assertNull(buffer.getChildren(other, Granularity.MIN_5, range20m));
+    }
+
+    @Test
+    public void rerolledChildReplacesPreviousRollup() {
+        for (int i = 0; i < 4; i++) {
+            buffer.put(locator, Granularity.MIN_5, child(i), new BasicRollup());
+        }
+        BasicRollup rerolled = new BasicRollup();
+        buffer.put(locator, Granularity.MIN_5, child(2), rerolled);
+
+        Points<Rollup> points = buffer.getChildren(locator, Granularity.MIN_5, range20m);
+
+        assertEquals(4, points.getPoints().size());
+        assertSame(rerolled, points.getPoints().get(child(2)).getData());
+    }
+
+    @Test
+    public void coarsestGranularityIsNotBuffered() {
+        buffer.put(locator, Granularity.MIN_1440, 0, new BasicRollup());
+
+        assertEquals(0, buffer.getBufferedSlotCount());
+    }
+}
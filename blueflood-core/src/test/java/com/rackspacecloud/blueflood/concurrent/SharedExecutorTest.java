@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SharedExecutorTest {
+
+    private static final AtomicInteger viewIds = new AtomicInteger();
+
+    @Test
+    public void viewRunsUpToItsConcurrencyLimit() throws Exception {
+        SharedExecutor shared = new SharedExecutor(4);
+        ExecutorService view = shared.newView(viewName(), SharedExecutor.PriorityClass.QUERY, 2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        for (int i = 0; i < 10; i++) {
+            view.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int now = running.incrementAndGet();
+                    maxRunning.accumulateAndGet(now, Math::max);
+                    sleep(10);
+                    running.decrementAndGet();
+                }
+            });
+        }
+        view.shutdown();
+
+        assertTrue(view.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void higherPriorityTasksRunFirst() throws Exception {
+        SharedExecutor shared = new SharedExecutor(1);
+        ExecutorService repair = shared.newView(viewName(), SharedExecutor.PriorityClass.REPAIR, 1);
+        ExecutorService query = shared.newView(viewName(), SharedExecutor.PriorityClass.QUERY, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> order = new CopyOnWriteArrayList<String>();
+
+        repair.execute(new Runnable() {
+            @Override
+            public void run() {
+                await(release);
+            }
+        });
+        repair.execute(record(order, "repair"));
+        query.execute(record(order, "query"));
+        release.countDown();
+        repair.shutdown();
+        query.shutdown();
+
+        assertTrue(repair.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(query.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals("query", order.get(0));
+        assertEquals("repair", order.get(1));
+    }
+
+    @Test
+    public void waitingOnNestedTasksDoesNotStarveThePool() throws Exception {
+        SharedExecutor shared = new SharedExecutor(1);
+        ExecutorService query = shared.newView(viewName(), SharedExecutor.PriorityClass.QUERY, 1);
+        final ExecutorService repair = shared.newView(viewName(), SharedExecutor.PriorityClass.REPAIR, 1);
+
+        Future<String> result = query.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                // would never run if the single thread of the pool was held while waiting
+                return SharedExecutor.await(repair.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return "repaired";
+                    }
+                }), 10, TimeUnit.SECONDS);
+            }
+        });
+
+        assertEquals("repaired", result.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void nestedTasksRunInParallel() throws Exception {
+        SharedExecutor shared = new SharedExecutor(4);
+        ExecutorService query = shared.newView(viewName(), SharedExecutor.PriorityClass.QUERY, 1);
+        final ExecutorService repair = shared.newView(viewName(), SharedExecutor.PriorityClass.REPAIR, 3);
+        final CountDownLatch allStarted = new CountDownLatch(3);
+
+        Future<Integer> result = query.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+                for (int i = 0; i < 3; i++) {
+                    futures.add(repair.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws Exception {
+                            // only completes if the three tasks run at the same time
+                            allStarted.countDown();
+                            return allStarted.await(10, TimeUnit.SECONDS);
+                        }
+                    }));
+                }
+                int completed = 0;
+                for (Future<Boolean> future : futures) {
+                    if (SharedExecutor.await(future, 10, TimeUnit.SECONDS)) {
+                        completed++;
+                    }
+                }
+                return completed;
+            }
+        });
+
+        assertEquals(3, result.get(10, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void waitingOnNestedTasksTimesOut() throws Exception {
+        SharedExecutor shared = new SharedExecutor(2);
+        ExecutorService query = shared.newView(viewName(), SharedExecutor.PriorityClass.QUERY, 1);
+        final ExecutorService repair = shared.newView(viewName(), SharedExecutor.PriorityClass.REPAIR, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Future<Long> result = query.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                Future<?> nested = repair.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        await(release);
+                    }
+                });
+                long start = System.nanoTime();
+                try {
+                    SharedExecutor.await(nested, 100, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                }
+                return -1L;
+            }
+        });
+
+        long waited = result.get(10, TimeUnit.SECONDS);
+        release.countDown();
+        assertTrue("waited " + waited + "ms", waited >= 100 && waited < 5000);
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void shutDownViewRejectsTasks() {
+        ExecutorService view = new SharedExecutor(1).newView(viewName(), SharedExecutor.PriorityClass.QUERY, 1);
+        view.shutdown();
+        view.execute(record(new CopyOnWriteArrayList<String>(), "task"));
+    }
+
+    private static String viewName() {
+        return "SharedExecutorTest-" + viewIds.incrementAndGet();
+    }
+
+    private static Runnable record(final List<String> order, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -16,10 +16,12 @@
 
 package com.rackspacecloud.blueflood.eventemitter;
 
+import com.codahale.metrics.Meter;
 import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
 import com.rackspacecloud.blueflood.types.Points;
 import com.rackspacecloud.blueflood.types.Rollup;
 import com.rackspacecloud.blueflood.types.SimpleNumber;
+import com.rackspacecloud.blueflood.utils.Metrics;
 import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -307,6 +309,64 @@ public class RollupEventEmitterTest {
         Assert.assertSame(event1, store2.get(0));
     }
 
+    @Test
+    public void ringBufferDeliversEventsOnConsumerThreads() throws InterruptedException {
+
+        // given
+        RollupEventEmitter ringEmitter = new RollupEventEmitter(16, 2, 4);
+        final CountDownLatch delivered = new CountDownLatch(2);
+        ringEmitter.on(RollupEventEmitter.ROLLUP_EVENT_NAME, new Emitter.Listener<RollupEvent>() {
+            @Override
+            public void call(RollupEvent... rollupEventObjects) {
+                store.addAll(Arrays.asList(rollupEventObjects));
+                delivered.countDown();
+            }
+        });
+
+        // when
+        Assert.assertNull(ringEmitter.emit(RollupEventEmitter.ROLLUP_EVENT_NAME, event1));
+        Assert.assertNull(ringEmitter.emit(RollupEventEmitter.ROLLUP_EVENT_NAME, event2));
+
+        // then
+        Assert.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, store.size());
+        Assert.assertTrue(store.contains(event1));
+        Assert.assertTrue(store.contains(event2));
+    }
+
+    @Test
+    public void fullRingBufferDropsEventsWithoutBlocking() throws InterruptedException {
+
+        // given
+        RollupEventEmitter ringEmitter = new RollupEventEmitter(1, 1, 1);
+        final CountDownLatch consuming = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ringEmitter.on(RollupEventEmitter.ROLLUP_EVENT_NAME, new Emitter.Listener<RollupEvent>() {
+            @Override
+            public void call(RollupEvent... rollupEventObjects) {
+                consuming.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                store.addAll(Arrays.asList(rollupEventObjects));
+            }
+        });
+        Meter overflowed = Metrics.meter(RollupEventEmitter.class, "Overflowed Events");
+        long overflowedBefore = overflowed.getCount();
+
+        // when
+        ringEmitter.emit(RollupEventEmitter.ROLLUP_EVENT_NAME, event1);
+        Assert.assertTrue(consuming.await(5, TimeUnit.SECONDS));
+        ringEmitter.emit(RollupEventEmitter.ROLLUP_EVENT_NAME, event2); // fills the ring buffer
+        ringEmitter.emit(RollupEventEmitter.ROLLUP_EVENT_NAME, event1); // overflows
+
+        // then
+        Assert.assertEquals(overflowedBefore + 1, overflowed.getCount());
+        release.countDown();
+    }
+
     private class SynchronousExecutorService extends AbstractExecutorService {
 
         @Override
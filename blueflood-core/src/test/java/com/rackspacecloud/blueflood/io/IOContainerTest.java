@@ -9,6 +9,10 @@ import com.rackspacecloud.blueflood.io.astyanax.AShardStateIO;
 import com.rackspacecloud.blueflood.io.datastax.DatastaxIO;
 import com.rackspacecloud.blueflood.io.datastax.DMetadataIO;
 import com.rackspacecloud.blueflood.io.datastax.DShardStateIO;
+import com.rackspacecloud.blueflood.io.memory.InMemoryBasicMetricsRW;
+import com.rackspacecloud.blueflood.io.memory.InMemoryLocatorIO;
+import com.rackspacecloud.blueflood.io.memory.InMemoryPreaggregatedMetricsRW;
+import com.rackspacecloud.blueflood.io.memory.InMemoryShardStateIO;
 import com.rackspacecloud.blueflood.service.Configuration;
 import com.rackspacecloud.blueflood.service.CoreConfig;
 import org.junit.Before;
@@ -38,7 +42,8 @@ import static org.junit.Assert.*;
         "com.rackspacecloud.blueflood.io.datastax.DatastaxIO",
         "com.rackspacecloud.blueflood.cache.MetadataCache",
         "com.rackspacecloud.blueflood.io.datastax.DAbstractMetricsRW",
-        "com.rackspacecloud.blueflood.io.datastax.DBasicMetricsRW"} )
+        "com.rackspacecloud.blueflood.io.datastax.DBasicMetricsRW",
+        "com.rackspacecloud.blueflood.io.memory.InMemoryAbstractMetricsRW"} )
 @RunWith(PowerMockRunner.class)
 public class IOContainerTest {
 
@@ -114,6 +119,20 @@ public class IOContainerTest {
         assertTrue("MetadataIO instance is Datastax", metadataIO instanceof DMetadataIO);
     }
 
+    @Test
+    public void testMemoryDriverConfig() {
+
+        when(mockConfiguration.getStringProperty(eq(CoreConfig.CASSANDRA_DRIVER))).thenReturn("memory");
+
+        IOContainer.resetInstance();
+        IOContainer ioContainer = IOContainer.fromConfig();
+        assertTrue("ShardStateIO instance is in memory", ioContainer.getShardStateIO() instanceof InMemoryShardStateIO);
+        assertTrue("MetadataIO instance is in memory", ioContainer.getMetadataIO() instanceof InMemoryMetadataIO);
+        assertTrue("LocatorIO instance is in memory", ioContainer.getLocatorIO() instanceof InMemoryLocatorIO);
+        assertTrue("BasicMetricsRW instance is in memory", ioContainer.getBasicMetricsRW() instanceof InMemoryBasicMetricsRW);
+        assertTrue("PreAggregatedMetricsRW instance is in memory", ioContainer.getPreAggregatedMetricsRW() instanceof InMemoryPreaggregatedMetricsRW);
+    }
+
     /**
      * This class is the test class for {@link com.rackspacecloud.blueflood.io.IOContainer.DriverType}
      */
@@ -142,5 +161,11 @@ public class IOContainerTest {
             IOContainer.DriverType driver = IOContainer.DriverType.getDriverType("datastax");
             assertEquals("datastax driver config", IOContainer.DriverType.DATASTAX, driver);
         }
+
+        @Test
+        public void testMemoryDriver() {
+            IOContainer.DriverType driver = IOContainer.DriverType.getDriverType("memory");
+            assertEquals("memory driver config", IOContainer.DriverType.MEMORY, driver);
+        }
     }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.rackspacecloud.blueflood.utils.Metrics;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentationTest {
+
+    @Test
+    public void periodSnapshotOnlyHasTheDurationsOfThePeriod() {
+        Instrumentation.PeriodTimer timer = new Instrumentation.PeriodTimer();
+        for (int i = 0; i < 100; i++) {
+            timer.update(1, TimeUnit.SECONDS);
+        }
+        assertEquals(TimeUnit.SECONDS.toNanos(1), timer.takePeriodSnapshot().get95thPercentile(), 0);
+
+        for (int i = 0; i < 100; i++) {
+            timer.update(10, TimeUnit.MILLISECONDS);
+        }
+        Snapshot period = timer.takePeriodSnapshot();
+        assertEquals(100, period.size());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), period.get95thPercentile(), 0);
+        // the timer itself still has all of them
+        assertEquals(200, timer.getCount());
+
+        assertEquals(0, timer.takePeriodSnapshot().size());
+    }
+
+    @Test
+    public void readWritePercentilesLeaveOutTimersNotUsedDuringThePeriod() {
+        Timer.Context context = Instrumentation.getReadTimerContext("instrumentation_test");
+        context.stop();
+        String name = "com.rackspacecloud.blueflood.io.Instrumentation.reads.instrumentation_test";
+
+        assertTrue(Instrumentation.takeReadWrite95thPercentiles().containsKey(name));
+        assertTrue(Metrics.getRegistry().getTimers().containsKey(name));
+        assertFalse(Instrumentation.takeReadWrite95thPercentiles().containsKey(name));
+    }
+}
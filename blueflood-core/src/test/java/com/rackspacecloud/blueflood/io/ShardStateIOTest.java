@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io;
+
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.SlotState;
+import com.rackspacecloud.blueflood.service.UpdateStamp;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShardStateIOTest {
+
+    private static final int FAILING_SHARD = 2;
+
+    private final Map<Integer, Map<Granularity, Map<Integer, UpdateStamp>>> written =
+            new HashMap<Integer, Map<Granularity, Map<Integer, UpdateStamp>>>();
+
+    private final ShardStateIO io = new ShardStateIO() {
+        @Override
+        public Collection<SlotState> getShardState(int shard) throws IOException {
+            if (shard == FAILING_SHARD) {
+                throw new IOException("shard " + shard + " is unavailable");
+            }
+            return Collections.singletonList(new SlotState(Granularity.MIN_5, shard, UpdateStamp.State.Active));
+        }
+
+        @Override
+        public void putShardState(int shard, Map<Granularity, Map<Integer, UpdateStamp>> slotTimes) throws IOException {
+            if (shard == FAILING_SHARD) {
+                throw new IOException("shard " + shard + " is unavailable");
+            }
+            written.put(shard, slotTimes);
+        }
+    };
+
+    @Test
+    public void failedShardReadDoesNotPreventOtherShards() {
+        Map<Integer, Collection<SlotState>> shardStates = io.getShardStates(Arrays.asList(1, 2, 3));
+
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 3)), shardStates.keySet());
+        assertEquals(3, shardStates.get(3).iterator().next().getSlot());
+    }
+
+    @Test
+    public void failedShardWriteDoesNotPreventOtherShards() {
+        Map<Integer, Map<Granularity, Map<Integer, UpdateStamp>>> slotTimes =
+                new HashMap<Integer, Map<Granularity, Map<Integer, UpdateStamp>>>();
+        for (int shard = 1; shard <= 3; shard++) {
+            slotTimes.put(shard, new HashMap<Granularity, Map<Integer, UpdateStamp>>());
+        }
+
+        io.putShardStates(slotTimes);
+
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 3)), written.keySet());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.CassandraModel.MetricColumnFamily;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.SingleRollupWriteContext;
+import com.rackspacecloud.blueflood.types.Locator;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class DAbstractMetricsRWTest {
+
+    private static final Locator LOCATOR_A = Locator.createLocatorFromPathComponents("tenant", "a");
+    private static final Locator LOCATOR_B = Locator.createLocatorFromPathComponents("tenant", "b");
+
+    private final List<SingleRollupWriteContext> writeContexts = new ArrayList<SingleRollupWriteContext>();
+    private final List<Statement> statements = new ArrayList<Statement>();
+
+    @Test
+    public void statementsAreGroupedByPartition() {
+        Statement a1 = add(LOCATOR_A, CassandraModel.CF_METRICS_5M);
+        Statement b1 = add(LOCATOR_B, CassandraModel.CF_METRICS_5M);
+        Statement a2 = add(LOCATOR_A, CassandraModel.CF_METRICS_5M);
+        // same locator, but another table, so another partition
+        Statement a3 = add(LOCATOR_A, CassandraModel.CF_METRICS_PREAGGREGATED_5M);
+
+        List<Statement> grouped = DAbstractMetricsRW.groupByPartition(writeContexts, statements, 50);
+
+        assertEquals(3, grouped.size());
+        assertEquals(Arrays.asList(a1, a2), batched(grouped.get(0)));
+        assertSame(b1, grouped.get(1));
+        assertSame(a3, grouped.get(2));
+    }
+
+    @Test
+    public void partitionBatchesAreSplitAtMaxBatchSize() {
+        List<Statement> added = new ArrayList<Statement>();
+        for (int i = 0; i < 5; i++) {
+            added.add(add(LOCATOR_A, CassandraModel.CF_METRICS_5M));
+        }
+        Statement b1 = add(LOCATOR_B, CassandraModel.CF_METRICS_5M);
+
+        List<Statement> grouped = DAbstractMetricsRW.groupByPartition(writeContexts, statements, 2);
+
+        assertEquals(4, grouped.size());
+        assertEquals(added.subList(0, 2), batched(grouped.get(0)));
+        assertEquals(added.subList(2, 4), batched(grouped.get(1)));
+        // a chunk of one statement is not wrapped in a batch
+        assertSame(added.get(4), grouped.get(2));
+        assertSame(b1, grouped.get(3));
+    }
+
+    @Test
+    public void failedPartitionIsReportedAfterAllPartitionsAreWritten() throws Exception {
+        final Statement a1 = add(LOCATOR_A, CassandraModel.CF_METRICS_5M);
+        add(LOCATOR_A, CassandraModel.CF_METRICS_5M);
+        add(LOCATOR_B, CassandraModel.CF_METRICS_5M);
+        add(LOCATOR_B, CassandraModel.CF_METRICS_PREAGGREGATED_5M);
+        List<Statement> grouped = DAbstractMetricsRW.groupByPartition(writeContexts, statements, 50);
+        final List<DSimpleNumberBlockIOTest.TestResultSetFuture> futures =
+                new ArrayList<DSimpleNumberBlockIOTest.TestResultSetFuture>();
+
+        Session session = mock(Session.class);
+        when(session.executeAsync(any(Statement.class))).thenAnswer(new Answer<ResultSetFuture>() {
+            @Override
+            public ResultSetFuture answer(InvocationOnMock invocation) {
+                DSimpleNumberBlockIOTest.TestResultSetFuture future = new DSimpleNumberBlockIOTest.TestResultSetFuture();
+                Statement statement = (Statement) invocation.getArguments()[0];
+                if (statement instanceof BatchStatement && ((BatchStatement) statement).getStatements().contains(a1)) {
+                    future.setException(new IOException("write timed out"));
+                } else {
+                    future.set(mock(ResultSet.class));
+                }
+                futures.add(future);
+                return future;
+            }
+        });
+
+        try {
+            DAbstractMetricsRW.executeByPartition(session, grouped);
+            fail("the failed partition write should be reported");
+        } catch (IOException e) {
+            assertEquals("1 of 3 partition writes failed", e.getMessage());
+        }
+
+        // the other partitions were still written
+        for (Statement statement : grouped) {
+            verify(session).executeAsync(statement);
+        }
+        assertEquals(3, futures.size());
+    }
+
+    private Statement add(Locator locator, MetricColumnFamily columnFamily) {
+        Statement statement = new SimpleStatement("INSERT " + statements.size());
+        writeContexts.add(new SingleRollupWriteContext(null, locator, Granularity.MIN_5, columnFamily, 0L));
+        statements.add(statement);
+        return statement;
+    }
+
+    private static List<Statement> batched(Statement statement) {
+        assertTrue(statement instanceof BatchStatement);
+        return new ArrayList<Statement>(((BatchStatement) statement).getStatements());
+    }
+}
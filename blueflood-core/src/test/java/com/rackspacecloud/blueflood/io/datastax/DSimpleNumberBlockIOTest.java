@@ -0,0 +1,447 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.collect.Table;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.rackspacecloud.blueflood.cache.MetadataCache;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.serializers.metrics.BlockSerDes;
+import com.rackspacecloud.blueflood.io.serializers.metrics.RawSerDes;
+import com.rackspacecloud.blueflood.outputs.formats.MetricData;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.BaseRollup;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Metric;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import com.rackspacecloud.blueflood.utils.Clock;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mockito.internal.util.reflection.Whitebox;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ DatastaxIO.class, MetadataCache.class })
+@PowerMockIgnore({"javax.management.*", "com.rackspacecloud.blueflood.utils.Metrics", "com.codahale.metrics.*"})
+public class DSimpleNumberBlockIOTest {
+
+    private static final long SLOT_START = 1500000000000L;
+    private static final long SLOT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long WRITER_ID = 7;
+
+    private final Locator locator = Locator.createLocatorFromPathComponents("tenant", "a", "b");
+    private final BlockSerDes blockSerDes = new BlockSerDes();
+
+    // the arguments of the block inserts
+    private final List<Object[]> inserts = new ArrayList<Object[]>();
+    private SortedMap<Long, Object> storedBlock = new TreeMap<Long, Object>();
+    private int blockReads = 0;
+    // the results of the selects of the query path, in order
+    private final Queue<ResultSetFuture> selects = new LinkedList<ResultSetFuture>();
+    private boolean writesFail = false;
+    private long now = SLOT_START;
+
+    private final BoundStatement blockRead = mock(BoundStatement.class);
+    private Session session;
+    private DSimpleNumberBlockIO io;
+
+    @Before
+    public void setUp() {
+        session = mock(Session.class, Mockito.RETURNS_DEEP_STUBS);
+        PowerMockito.mockStatic(DatastaxIO.class);
+        when(DatastaxIO.getSession()).thenReturn(session);
+
+        PreparedStatement insertBlock = mock(PreparedStatement.class);
+        when(insertBlock.bind(Mockito.<Object>anyVararg())).thenAnswer(new Answer<BoundStatement>() {
+            @Override
+            public BoundStatement answer(InvocationOnMock invocation) {
+                inserts.add(invocation.getArguments());
+                return mock(BoundStatement.class);
+            }
+        });
+        when(session.prepare(anyString())).thenReturn(mock(PreparedStatement.class, Mockito.RETURNS_DEEP_STUBS));
+        when(session.prepare(String.format(DMetricsCFPreparedStatements.INSERT_KEY_COLUMN_VALUE_TTL_FORMAT,
+                CassandraModel.CF_METRICS_FULL_BLOCKS_NAME))).thenReturn(insertBlock);
+        PreparedStatement selectBlock = mock(PreparedStatement.class);
+        when(selectBlock.bind(Mockito.<Object>anyVararg())).thenReturn(blockRead);
+        when(session.prepare(startsWith("SELECT * FROM " + CassandraModel.CF_METRICS_FULL_BLOCKS_NAME + " WHERE key = ? AND column1 = ?")))
+                .thenReturn(selectBlock);
+
+        when(session.executeAsync(any(Statement.class))).thenAnswer(new Answer<ResultSetFuture>() {
+            @Override
+            public ResultSetFuture answer(InvocationOnMock invocation) {
+                if (invocation.getArguments()[0] == blockRead) {
+                    blockReads++;
+                    return future(storedBlock.isEmpty() ? resultSet() : resultSet(blockRow(storedBlock)));
+                }
+                if (!selects.isEmpty()) {
+                    return selects.remove();
+                }
+                TestResultSetFuture future = new TestResultSetFuture();
+                if (writesFail) {
+                    future.setException(new RuntimeException("write timeout"));
+                } else {
+                    future.set(mock(ResultSet.class));
+                }
+                return future;
+            }
+        });
+
+        Clock clock = mock(Clock.class);
+        when(clock.now()).thenAnswer(new Answer<Instant>() {
+            @Override
+            public Instant answer(InvocationOnMock invocation) {
+                return new Instant(now);
+            }
+        });
+        io = new DSimpleNumberBlockIO(WRITER_ID, RETENTION_MILLIS, clock);
+    }
+
+    @Test
+    public void bufferedPointsAreWrittenAsOneBlockAtFlush() {
+        io.buffer(metric(SLOT_START + 1000, 1.5));
+        io.buffer(metric(SLOT_START + 31000, 2.5));
+        io.buffer(metric(SLOT_START + SLOT_MILLIS, 3.5));
+
+        io.flush();
+
+        assertEquals(2, inserts.size());
+        Object[] insert = insertFor(SLOT_START);
+        assertEquals(locator.toString(), insert[0]);
+        assertEquals(SLOT_START + WRITER_ID, insert[1]);
+        assertEquals(points(SLOT_START + 1000, 1.5, SLOT_START + 31000, 2.5), decode(insert[2]));
+        assertEquals(86400, insert[3]);
+    }
+
+    @Test
+    public void onlyBlocksWithNewPointsAreWrittenAgain() {
+        io.buffer(metric(SLOT_START + 1000, 1.5));
+        io.flush();
+        io.flush();
+        assertEquals(1, inserts.size());
+
+        io.buffer(metric(SLOT_START + 2000, 2.5));
+        io.flush();
+
+        assertEquals(2, inserts.size());
+        assertEquals(points(SLOT_START + 1000, 1.5, SLOT_START + 2000, 2.5), decode(inserts.get(1)[2]));
+    }
+
+    @Test
+    public void newBlockWithinRetentionIsNotReadBack() {
+        now = SLOT_START + SLOT_MILLIS;
+
+        io.buffer(metric(SLOT_START + 2000, 2.5));
+        io.flush();
+
+        assertEquals(0, blockReads);
+        assertEquals(points(SLOT_START + 2000, 2.5), decode(inserts.get(0)[2]));
+    }
+
+    @Test
+    public void blockCreatedPastRetentionIsMergedOnce() {
+        // may have been written, then evicted, by this process
+        storedBlock = points(SLOT_START + 1000, 1.5);
+        now = SLOT_START + SLOT_MILLIS + RETENTION_MILLIS + 1;
+
+        io.buffer(metric(SLOT_START + 2000, 2.5));
+        io.flush();
+
+        assertEquals(1, blockReads);
+        assertEquals(points(SLOT_START + 1000, 1.5, SLOT_START + 2000, 2.5), decode(inserts.get(0)[2]));
+
+        io.buffer(metric(SLOT_START + 3000, 3.5));
+        io.flush();
+
+        // merged only once, and never with a blocking read
+        assertEquals(1, blockReads);
+        assertEquals(points(SLOT_START + 1000, 1.5, SLOT_START + 2000, 2.5, SLOT_START + 3000, 3.5),
+                decode(inserts.get(1)[2]));
+        verify(session, never()).execute(any(Statement.class));
+    }
+
+    @Test
+    public void droppedBlockIsMergedWhenCreatedAgain() {
+        io.buffer(metric(SLOT_START + 1000, 1.5));
+        io.flush();
+
+        writesFail = true;
+        io.buffer(metric(SLOT_START + 2000, 2.5));
+        for (int i = 0; i < DSimpleNumberBlockIO.MAX_FLUSH_ATTEMPTS; i++) {
+            io.flush();
+        }
+        assertEquals(0, io.getBufferedBlockCount());
+        assertEquals(0, blockReads);
+
+        writesFail = false;
+        storedBlock = points(SLOT_START + 1000, 1.5);
+        io.buffer(metric(SLOT_START + 3000, 3.5));
+        io.flush();
+
+        assertEquals(1, blockReads);
+        assertEquals(points(SLOT_START + 1000, 1.5, SLOT_START + 3000, 3.5), decode(inserts.get(inserts.size() - 1)[2]));
+    }
+
+    @Test
+    public void bufferedPointsWinOverStoredPoints() {
+        storedBlock = points(SLOT_START + 1000, 1.5);
+        now = SLOT_START + SLOT_MILLIS + RETENTION_MILLIS + 1;
+
+        io.buffer(metric(SLOT_START + 1000, 9.5));
+        io.flush();
+
+        assertEquals(points(SLOT_START + 1000, 9.5), decode(inserts.get(0)[2]));
+    }
+
+    @Test
+    public void cleanBlockIsEvictedAfterRetention() {
+        io.buffer(metric(SLOT_START + 1000, 1.5));
+        io.flush();
+
+        now = SLOT_START + SLOT_MILLIS + RETENTION_MILLIS;
+        io.flush();
+        assertEquals(1, io.getBufferedBlockCount());
+
+        now++;
+        io.flush();
+        assertEquals(0, io.getBufferedBlockCount());
+        assertEquals(1, inserts.size());
+
+        // a late point creates the block again, merged with what was written
+        storedBlock = points(SLOT_START + 1000, 1.5);
+        io.buffer(metric(SLOT_START + 2000, 2.5));
+        io.flush();
+
+        assertEquals(1, blockReads);
+        assertEquals(points(SLOT_START + 1000, 1.5, SLOT_START + 2000, 2.5), decode(inserts.get(1)[2]));
+    }
+
+    @Test
+    public void dirtyBlockIsNotEvicted() {
+        now = SLOT_START + SLOT_MILLIS + RETENTION_MILLIS + 1;
+        io.buffer(metric(SLOT_START + 1000, 1.5));
+        io.flush();
+
+        assertEquals(1, inserts.size());
+        assertEquals(1, io.getBufferedBlockCount());
+    }
+
+    @Test
+    public void failedBlockIsRetriedThenDropped() {
+        writesFail = true;
+        io.buffer(metric(SLOT_START + 1000, 1.5));
+
+        for (int i = 0; i < DSimpleNumberBlockIO.MAX_FLUSH_ATTEMPTS - 1; i++) {
+            io.flush();
+            assertEquals(1, io.getBufferedBlockCount());
+        }
+        io.flush();
+
+        assertEquals(DSimpleNumberBlockIO.MAX_FLUSH_ATTEMPTS, inserts.size());
+        assertEquals(0, io.getBufferedBlockCount());
+
+        io.flush();
+        assertEquals(DSimpleNumberBlockIO.MAX_FLUSH_ATTEMPTS, inserts.size());
+    }
+
+    @Test
+    public void successfulWriteResetsFailedAttempts() {
+        writesFail = true;
+        io.buffer(metric(SLOT_START + 1000, 1.5));
+        for (int i = 0; i < DSimpleNumberBlockIO.MAX_FLUSH_ATTEMPTS - 1; i++) {
+            io.flush();
+        }
+        writesFail = false;
+        io.flush();
+
+        writesFail = true;
+        io.buffer(metric(SLOT_START + 2000, 2.5));
+        io.flush();
+
+        assertEquals(1, io.getBufferedBlockCount());
+    }
+
+    @Test
+    public void readReturnsPointsOfBlocksInRangeAndColumns() {
+        ResultSetFuture blocks = future(resultSet(
+                blockRow(points(SLOT_START + 1000, 1.5, SLOT_START + 200000, 2.5)),
+                blockRow(points(SLOT_START + SLOT_MILLIS + 1000, 3.5))));
+        Row column = mock(Row.class);
+        when(column.getLong(DMetricsCFPreparedStatements.COLUMN1)).thenReturn(SLOT_START + 5000);
+        when(column.getBytes(DMetricsCFPreparedStatements.VALUE)).thenReturn(new RawSerDes().serialize(4.5));
+        ResultSetFuture columns = future(resultSet(column));
+
+        Table<Locator, Long, Object> table = io.toLocatorTimestampValue(Arrays.asList(blocks, columns), locator,
+                CassandraModel.CF_METRICS_FULL_NAME, new Range(SLOT_START, SLOT_START + SLOT_MILLIS),
+                BaseRollup.Stat.ALL);
+
+        Map<Long, Object> row = table.row(locator);
+        assertEquals(3, row.size());
+        assertEquals(1.5, row.get(SLOT_START + 1000));
+        assertEquals(2.5, row.get(SLOT_START + 200000));
+        assertEquals(4.5, row.get(SLOT_START + 5000));
+    }
+
+    @Test
+    public void queryReturnsPointsOfBlocks() {
+        MetadataCache metadataCache = mock(MetadataCache.class);
+        PowerMockito.mockStatic(MetadataCache.class);
+        when(MetadataCache.getInstance()).thenReturn(metadataCache);
+        when(metadataCache.getUnitString(locator)).thenReturn("unknown");
+
+        DBasicMetricsRW metricsRW = new DBasicMetricsRW(mock(DLocatorIO.class), mock(DDelayedLocatorIO.class),
+                false, mock(Clock.class));
+        Whitebox.setInternalState(metricsRW, "blockIO", io);
+
+        Row column = mock(Row.class);
+        when(column.getLong(DMetricsCFPreparedStatements.COLUMN1)).thenReturn(SLOT_START + 5000);
+        when(column.getBytes(DMetricsCFPreparedStatements.VALUE)).thenReturn(new RawSerDes().serialize(4.5));
+        selects.add(future(resultSet(blockRow(points(SLOT_START + 1000, 1.5)))));
+        selects.add(future(resultSet(column)));
+
+        MetricData data = metricsRW.getDatapointsForRange(locator, new Range(SLOT_START, SLOT_START + SLOT_MILLIS),
+                Granularity.FULL);
+
+        Map<Long, Points.Point> points = data.getData().getPoints();
+        assertEquals(2, points.size());
+        assertEquals(new SimpleNumber(1.5), points.get(SLOT_START + 1000).getData());
+        assertEquals(new SimpleNumber(4.5), points.get(SLOT_START + 5000).getData());
+    }
+
+    private Metric metric(long timestamp, double value) {
+        return new Metric(locator, value, timestamp, new TimeValue(1, TimeUnit.DAYS), "unknown");
+    }
+
+    private Object[] insertFor(long slotStart) {
+        for (Object[] insert : inserts) {
+            if (insert[1].equals(slotStart + WRITER_ID)) {
+                return insert;
+            }
+        }
+        throw new AssertionError("no block written for slot " + slotStart);
+    }
+
+    private SortedMap<Long, Object> decode(Object block) {
+        return blockSerDes.deserialize(((ByteBuffer) block).duplicate());
+    }
+
+    private static SortedMap<Long, Object> points(Object... timestampsAndValues) {
+        SortedMap<Long, Object> points = new TreeMap<Long, Object>();
+        for (int i = 0; i < timestampsAndValues.length; i += 2) {
+            points.put((Long) timestampsAndValues[i], timestampsAndValues[i + 1]);
+        }
+        return points;
+    }
+
+    private Row blockRow(SortedMap<Long, Object> points) {
+        Row row = mock(Row.class);
+        when(row.getBytes(DMetricsCFPreparedStatements.VALUE)).thenReturn(blockSerDes.serialize(points));
+        return row;
+    }
+
+    private static ResultSet resultSet(Row... rows) {
+        ResultSet resultSet = mock(ResultSet.class);
+        final List<Row> list = Arrays.asList(rows);
+        when(resultSet.iterator()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return list.iterator();
+            }
+        });
+        when(resultSet.all()).thenReturn(list);
+        return resultSet;
+    }
+
+    private static ResultSetFuture future(ResultSet resultSet) {
+        TestResultSetFuture future = new TestResultSetFuture();
+        future.set(resultSet);
+        return future;
+    }
+
+    static class TestResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+        @Override
+        public boolean set(ResultSet value) {
+            return super.set(value);
+        }
+
+        @Override
+        public boolean setException(Throwable t) {
+            return super.setException(t);
+        }
+
+        @Override
+        public ResultSet getUninterruptibly() {
+            try {
+                return Uninterruptibles.getUninterruptibly(this);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        @Override
+        public ResultSet getUninterruptibly(long timeout, TimeUnit unit) throws TimeoutException {
+            try {
+                return Uninterruptibles.getUninterruptibly(this, timeout, unit);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.policies.SpeculativeExecutionPolicy.SpeculativeExecutionPlan;
+import com.rackspacecloud.blueflood.utils.Clock;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class HedgedReadPolicyTest {
+
+    private final Statement read = new SimpleStatement("SELECT * FROM metrics_5m WHERE key = 'a'").setIdempotent(true);
+
+    private long nowMillis = 1234567800000L;
+    private HedgedReadPolicy policy;
+
+    @Before
+    public void setUp() {
+        Clock clock = () -> new Instant(nowMillis);
+        policy = new HedgedReadPolicy(90, 5, 2, clock);
+    }
+
+    @Test
+    public void readsAreNotHedgedWithoutEnoughLatencies() {
+        recordLatencies(HedgedReadPolicy.MIN_SAMPLES - 1, 50);
+        assertEquals(-1, policy.scheduleHedge());
+    }
+
+    @Test
+    public void delayIsThePercentileOfReadLatencies() {
+        recordLatencies(HedgedReadPolicy.MIN_SAMPLES, 50);
+        assertEquals(50, policy.scheduleHedge());
+    }
+
+    @Test
+    public void delayIsAtLeastTheMinimumDelay() {
+        recordLatencies(HedgedReadPolicy.MIN_SAMPLES, 1);
+        assertEquals(5, policy.scheduleHedge());
+    }
+
+    @Test
+    public void latenciesOfNonIdempotentStatementsAreIgnored() {
+        Statement write = new SimpleStatement("INSERT INTO metrics_5m (key) VALUES ('a')");
+        for (int i = 0; i < HedgedReadPolicy.MIN_SAMPLES; i++) {
+            policy.update(null, write, null, TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        assertEquals(-1, policy.scheduleHedge());
+    }
+
+    @Test
+    public void delayIsRecomputedAtMostOnceASecond() {
+        recordLatencies(HedgedReadPolicy.MIN_SAMPLES, 50);
+        assertEquals(50, policy.scheduleHedge());
+
+        recordLatencies(HedgedReadPolicy.MIN_SAMPLES * 100, 200);
+        assertEquals(50, policy.scheduleHedge());
+
+        nowMillis += 1000;
+        assertEquals(200, policy.scheduleHedge());
+    }
+
+    @Test
+    public void hedgesAreCappedPerSecond() {
+        recordLatencies(HedgedReadPolicy.MIN_SAMPLES, 50);
+        policy.hedgeFired();
+        assertEquals(50, policy.scheduleHedge());
+        policy.hedgeFired();
+        assertEquals(-1, policy.scheduleHedge());
+
+        nowMillis += 1000;
+        assertEquals(50, policy.scheduleHedge());
+    }
+
+    @Test
+    public void planHedgesEachReadOnlyOnce() {
+        recordLatencies(HedgedReadPolicy.MIN_SAMPLES, 50);
+        SpeculativeExecutionPlan plan = policy.newPlan("DATA", read);
+
+        assertEquals(50, plan.nextExecution(null));
+        assertEquals(-1, plan.nextExecution(null));
+        assertEquals(50, policy.scheduleHedge());
+
+        // the hedge of the second read reaches the cap
+        SpeculativeExecutionPlan other = policy.newPlan("DATA", read);
+        other.nextExecution(null);
+        other.nextExecution(null);
+        assertEquals(-1, policy.scheduleHedge());
+    }
+
+    private void recordLatencies(int count, long latencyMillis) {
+        for (int i = 0; i < count; i++) {
+            policy.update(null, read, null, TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.datastax;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.rackspacecloud.blueflood.types.Locator;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LocatorWritesTest {
+
+    private final List<Statement> executed = new ArrayList<Statement>();
+    private final List<TestResultSetFuture> futures = new ArrayList<TestResultSetFuture>();
+    private final AtomicInteger cacheUpdates = new AtomicInteger();
+    private final Runnable cacheUpdate = new Runnable() {
+        @Override
+        public void run() {
+            cacheUpdates.incrementAndGet();
+        }
+    };
+
+    private Session session;
+    private LocatorWrites writes;
+
+    @Before
+    public void setUp() {
+        session = mock(Session.class);
+        when(session.executeAsync(any(Statement.class))).thenAnswer(new Answer<ResultSetFuture>() {
+            @Override
+            public ResultSetFuture answer(InvocationOnMock invocation) {
+                executed.add((Statement) invocation.getArguments()[0]);
+                TestResultSetFuture future = new TestResultSetFuture();
+                futures.add(future);
+                return future;
+            }
+        });
+        writes = new LocatorWrites();
+    }
+
+    @Test
+    public void duplicateLocatorsAreWrittenOnce() {
+        Locator locator = Locator.createLocatorFromPathComponents("tenant", "a");
+        writes.add("metrics_locator,1", locator, new SimpleStatement("insert"), cacheUpdate);
+        writes.add("metrics_locator,1", locator, new SimpleStatement("insert"), cacheUpdate);
+
+        assertTrue(writes.contains("metrics_locator,1", locator));
+        writes.execute(session);
+
+        assertEquals(1, executed.size());
+        assertTrue(executed.get(0) instanceof SimpleStatement);
+    }
+
+    @Test
+    public void eachPartitionIsWrittenInBatchesOfLimitedSize() {
+        for (int i = 0; i < LocatorWrites.MAX_BATCH_SIZE + 1; i++) {
+            writes.add("metrics_locator,1", Locator.createLocatorFromPathComponents("tenant", String.valueOf(i)),
+                    new SimpleStatement("insert"), cacheUpdate);
+        }
+        writes.add("metrics_locator,2", Locator.createLocatorFromPathComponents("tenant", "a"),
+                new SimpleStatement("insert"), cacheUpdate);
+        writes.execute(session);
+
+        assertEquals(3, executed.size());
+        assertEquals(LocatorWrites.MAX_BATCH_SIZE, ((BatchStatement) executed.get(0)).size());
+        assertTrue(executed.get(1) instanceof SimpleStatement);
+        assertTrue(executed.get(2) instanceof SimpleStatement);
+
+        // the inserts are only issued once
+        writes.execute(session);
+        assertEquals(3, executed.size());
+    }
+
+    @Test
+    public void cacheIsOnlyUpdatedAfterSuccessfulWrites() {
+        writes.add("metrics_locator,1", Locator.createLocatorFromPathComponents("tenant", "a"),
+                new SimpleStatement("insert"), cacheUpdate);
+        writes.add("metrics_locator,1", Locator.createLocatorFromPathComponents("tenant", "b"),
+                new SimpleStatement("insert"), cacheUpdate);
+        writes.add("metrics_locator,2", Locator.createLocatorFromPathComponents("tenant", "c"),
+                new SimpleStatement("insert"), cacheUpdate);
+        writes.execute(session);
+        assertEquals(0, cacheUpdates.get());
+
+        futures.get(0).set(mock(ResultSet.class));
+        futures.get(1).setException(new RuntimeException("write timeout"));
+        writes.await();
+
+        assertEquals(2, cacheUpdates.get());
+    }
+
+    private static class TestResultSetFuture extends AbstractFuture<ResultSet> implements ResultSetFuture {
+        @Override
+        public boolean set(ResultSet value) {
+            return super.set(value);
+        }
+
+        @Override
+        public boolean setException(Throwable t) {
+            return super.setException(t);
+        }
+
+        @Override
+        public ResultSet getUninterruptibly() {
+            try {
+                return Uninterruptibles.getUninterruptibly(this);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        @Override
+        public ResultSet getUninterruptibly(long timeout, TimeUnit unit) throws TimeoutException {
+            try {
+                return Uninterruptibles.getUninterruptibly(this, timeout, unit);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.datastax;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanCheckpointsTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("scan-checkpoints", ".txt");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void completedKeysAreLoadedBack() throws IOException {
+        try (ScanCheckpoints checkpoints = new ScanCheckpoints(file)) {
+            checkpoints.markCompleted("metrics_5m ]1, 10]");
+            checkpoints.markCompleted("metrics_5m ]10, 20]");
+            checkpoints.markCompleted("metrics_5m ]10, 20]");
+            assertTrue(checkpoints.isCompleted("metrics_5m ]1, 10]"));
+        }
+
+        try (ScanCheckpoints checkpoints = new ScanCheckpoints(file)) {
+            assertEquals(2, checkpoints.getCompletedCount());
+            assertTrue(checkpoints.isCompleted("metrics_5m ]10, 20]"));
+            assertFalse(checkpoints.isCompleted("metrics_5m ]20, 30]"));
+        }
+    }
+
+    @Test
+    public void truncatedKeyIsIgnored() throws IOException {
+        try (ScanCheckpoints checkpoints = new ScanCheckpoints(file)) {
+            checkpoints.markCompleted("metrics_5m ]1, 10]");
+        }
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write("metrics_5m ]10, 2".getBytes("UTF-8"));
+        }
+
+        try (ScanCheckpoints checkpoints = new ScanCheckpoints(file)) {
+            assertEquals(1, checkpoints.getCompletedCount());
+            assertFalse(checkpoints.isCompleted("metrics_5m ]10, 2"));
+            checkpoints.markCompleted("metrics_5m ]10, 20]");
+        }
+
+        try (ScanCheckpoints checkpoints = new ScanCheckpoints(file)) {
+            assertEquals(2, checkpoints.getCompletedCount());
+            assertTrue(checkpoints.isCompleted("metrics_5m ]10, 20]"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keysCannotSpanLines() throws IOException {
+        try (ScanCheckpoints checkpoints = new ScanCheckpoints(file)) {
+            checkpoints.markCompleted("metrics_5m\n]1, 10]");
+        }
+    }
+}
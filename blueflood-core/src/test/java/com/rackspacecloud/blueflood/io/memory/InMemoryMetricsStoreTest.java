@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.memory;
+
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.SlotKey;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Range;
+import com.rackspacecloud.blueflood.utils.Clock;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.SortedMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class InMemoryMetricsStoreTest {
+
+    private static final String CF = "metrics_full";
+
+    private final Locator locator = Locator.createLocatorFromPathComponents("tenant", "a", "b");
+    private Clock clock;
+    private InMemoryMetricsStore store;
+
+    @Before
+    public void setUp() {
+        clock = mock(Clock.class);
+        when(clock.now()).thenReturn(new Instant(0));
+        store = new InMemoryMetricsStore(clock);
+    }
+
+    @Test
+    public void rangeIncludesBothEnds() {
+        for (long timestamp = 1000; timestamp <= 5000; timestamp += 1000) {
+            store.put(CF, locator, timestamp, timestamp, 60);
+        }
+
+        SortedMap<Long, Object> points = store.get(CF, locator, new Range(2000, 4000));
+
+        assertEquals(Arrays.asList(2000L, 3000L, 4000L), Arrays.asList(points.keySet().toArray()));
+    }
+
+    @Test
+    public void pointsExpireAfterTheirTtl() {
+        store.put(CF, locator, 1000, 1, 10);
+        store.put(CF, locator, 2000, 2, 60);
+
+        when(clock.now()).thenReturn(new Instant(10000));
+        SortedMap<Long, Object> points = store.get(CF, locator, new Range(0, 5000));
+
+        assertEquals(1, points.size());
+        assertEquals(2, points.get(2000L));
+    }
+
+    @Test
+    public void columnFamiliesAreSeparate() {
+        store.put(CF, locator, 1000, 1, 60);
+
+        assertTrue(store.get("metrics_5m", locator, new Range(0, 5000)).isEmpty());
+    }
+
+    @Test
+    public void locatorsExpireUnlessWrittenAgain() throws Exception {
+        InMemoryLocatorIO locatorIO = new InMemoryLocatorIO(clock);
+        locatorIO.insertLocator(locator);
+        locatorIO.insertActiveLocator(Granularity.MIN_5, 10, locator);
+        int shard = Util.getShard(locator.toString());
+
+        assertEquals(Arrays.asList(locator), locatorIO.getLocators(shard));
+        assertEquals(Arrays.asList(locator), locatorIO.getActiveLocators(SlotKey.of(Granularity.MIN_5, 10, shard)));
+
+        when(clock.now()).thenReturn(new Instant(7L * 24 * 60 * 60 * 1000));
+        assertTrue(locatorIO.getLocators(shard).isEmpty());
+    }
+}
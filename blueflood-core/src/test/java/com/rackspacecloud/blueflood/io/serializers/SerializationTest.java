@@ -29,6 +29,7 @@ import org.junit.Test;
 import java.io.*;
 import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -245,6 +246,55 @@ public class SerializationTest {
         }
     }
 
+    @Test
+    public void testDeserializeFromBufferSlices() throws IOException {
+        // buffers read from cassandra are usually views of a larger frame, starting at an offset of their array.
+        for (BasicRollup basicRollup : TO_SERIALIZE_BASIC_ROLLUP) {
+            ByteBuffer bb = Serializers.serializerFor(BasicRollup.class).toByteBuffer(basicRollup);
+            for (ByteBuffer view : viewsOf(bb)) {
+                Assert.assertEquals(basicRollup, Serializers.serializerFor(BasicRollup.class).fromByteBuffer(view));
+            }
+        }
+        for (Object o : TO_SERIALIZE_FULL) {
+            ByteBuffer bb = Serializers.serializerFor(Object.class).toByteBuffer(o);
+            for (ByteBuffer view : viewsOf(bb)) {
+                Assert.assertEquals(o, Serializers.serializerFor(Object.class).fromByteBuffer(view));
+            }
+        }
+    }
+
+    @Test
+    public void testBasicRollupDeserializationOfSelectedStats() throws IOException {
+        BasicRollupSerDes serDes = new BasicRollupSerDes();
+        for (BasicRollup expected : TO_SERIALIZE_BASIC_ROLLUP) {
+            ByteBuffer bb = serDes.serialize(expected);
+            BasicRollup basicRollup = serDes.deserialize(bb, EnumSet.of(BaseRollup.Stat.MAX));
+
+            Assert.assertEquals(expected.getCount(), basicRollup.getCount());
+            Assert.assertEquals(expected.getMaxValue(), basicRollup.getMaxValue());
+            Assert.assertEquals(expected.getSum(), basicRollup.getSum(), EPSILON);
+            Assert.assertEquals(new Average(), basicRollup.getAverage());
+            Assert.assertEquals(new MinValue(), basicRollup.getMinValue());
+            Assert.assertEquals(new Variance(), basicRollup.getVariance());
+
+            Assert.assertEquals(expected, serDes.deserialize(bb, BaseRollup.Stat.ALL));
+        }
+    }
+
+    private static ByteBuffer[] viewsOf(ByteBuffer bb) {
+        byte[] serialized = new byte[bb.remaining()];
+        bb.duplicate().get(serialized);
+
+        byte[] frame = new byte[serialized.length + 13];
+        System.arraycopy(serialized, 0, frame, 7, serialized.length);
+
+        ByteBuffer positioned = ByteBuffer.wrap(frame, 7, serialized.length);
+        ByteBuffer sliced = positioned.slice();
+        ByteBuffer direct = ByteBuffer.allocateDirect(serialized.length);
+        direct.put(serialized).flip();
+        return new ByteBuffer[] { positioned, sliced, direct };
+    }
+
     @Test
     public void testSerializerOverAndOver() throws IOException {
         byte[] buf;
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.io.serializers.metrics;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlockSerDesTest {
+
+    private static final long SLOT_START = 1500000000000L;
+
+    private final BlockSerDes serDes = new BlockSerDes();
+
+    @Test
+    public void regularDoublesCompressWell() {
+        SortedMap<Long, Object> points = new TreeMap<Long, Object>();
+        for (int i = 0; i < 10; i++) {
+            points.put(SLOT_START + i * 30000L, 42.5 + i % 2);
+        }
+
+        ByteBuffer block = serDes.serialize(points);
+
+        assertTrue("block takes " + block.remaining() + " bytes", block.remaining() < 40);
+        assertEquals(points, serDes.deserialize(block));
+    }
+
+    @Test
+    public void irregularPointsRoundTrip() {
+        Random random = new Random(42);
+        SortedMap<Long, Object> points = new TreeMap<Long, Object>();
+        long timestamp = SLOT_START;
+        for (int i = 0; i < 100; i++) {
+            timestamp += random.nextBoolean() ? 30000 + random.nextInt(5) - 2 : random.nextInt(100000000);
+            points.put(timestamp, random.nextInt(10) == 0 ? Double.NaN : random.nextGaussian() * 1000);
+        }
+
+        assertEquals(points, serDes.deserialize(serDes.serialize(points)));
+    }
+
+    @Test
+    public void integersStayIntegers() {
+        SortedMap<Long, Object> points = new TreeMap<Long, Object>();
+        points.put(SLOT_START, 1);
+        points.put(SLOT_START + 30000, -7);
+        points.put(SLOT_START + 60000, Integer.MAX_VALUE);
+
+        assertEquals(points, serDes.deserialize(serDes.serialize(points)));
+    }
+
+    @Test
+    public void mixedIntegersAndLongsAreLongs() {
+        SortedMap<Long, Object> points = new TreeMap<Long, Object>();
+        points.put(SLOT_START, 1);
+        points.put(SLOT_START + 30000, Long.MIN_VALUE);
+
+        SortedMap<Long, Object> expected = new TreeMap<Long, Object>();
+        expected.put(SLOT_START, 1L);
+        expected.put(SLOT_START + 30000, Long.MIN_VALUE);
+
+        assertEquals(expected, serDes.deserialize(serDes.serialize(points)));
+    }
+
+    @Test
+    public void emptyBlockRoundTrips() {
+        SortedMap<Long, Object> points = new TreeMap<Long, Object>();
+
+        assertEquals(points, serDes.deserialize(serDes.serialize(points)));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.rackspacecloud.blueflood.io.AbstractMetricsRW;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.*;
+import com.rackspacecloud.blueflood.utils.RollupUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.stubbing.OngoingStubbing;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+@PowerMockIgnore({"javax.management.*", "com.rackspacecloud.blueflood.utils.Metrics", "com.codahale.metrics.*"})
+@PrepareForTest({ RollupUtils.class })
+@RunWith(PowerMockRunner.class)
+public class AsyncRollupRunnableTest {
+
+    private static final Locator LOCATOR = Locator.createLocatorFromPathComponents("tenant", "a", "b", "c");
+    private static final Range RANGE = new Range(0, 300000 - 1);
+
+    private AbstractMetricsRW metricsRW;
+    private RollupExecutionContext executionContext;
+    private RollupBatchWriter rollupBatchWriter;
+    private AsyncRollupRunnable runnable;
+
+    @Before
+    public void setUp() {
+        metricsRW = mock(AbstractMetricsRW.class);
+        PowerMockito.mockStatic(RollupUtils.class);
+        when(RollupUtils.getMetricsRWForRollupType(RollupType.BF_BASIC)).thenReturn(metricsRW);
+
+        executionContext = mock(RollupExecutionContext.class);
+        rollupBatchWriter = mock(RollupBatchWriter.class);
+        runnable = new AsyncRollupRunnable(executionContext,
+                new SingleRollupReadContext(LOCATOR, RANGE, Granularity.MIN_5),
+                rollupBatchWriter, RollupType.BF_BASIC, MoreExecutors.directExecutor());
+    }
+
+    @Test
+    public void readReleasesPermitOnSuccess() {
+        SettableFuture<Points> read = SettableFuture.create();
+        whenRead().thenReturn(read);
+        int inFlight = AsyncRollupRunnable.getInFlightReadCount();
+
+        runnable.run();
+
+        // the permit is held, and the read counted, until the read completes
+        assertEquals(inFlight + 1, AsyncRollupRunnable.getInFlightReadCount());
+        verify(executionContext, never()).decrementReadCounter();
+
+        Points<SimpleNumber> points = new Points<SimpleNumber>();
+        points.add(new Points.Point<SimpleNumber>(1000, new SimpleNumber(42L)));
+        read.set(points);
+
+        assertEquals(inFlight, AsyncRollupRunnable.getInFlightReadCount());
+        verify(executionContext).decrementReadCounter();
+        verify(rollupBatchWriter).enqueueRollupForWrite(any(SingleRollupWriteContext.class));
+    }
+
+    @Test
+    public void readReleasesPermitOnFailedFuture() {
+        SettableFuture<Points> read = SettableFuture.create();
+        whenRead().thenReturn(read);
+        int inFlight = AsyncRollupRunnable.getInFlightReadCount();
+
+        runnable.run();
+        assertEquals(inFlight + 1, AsyncRollupRunnable.getInFlightReadCount());
+
+        read.setException(new IOException("read timed out"));
+
+        assertEquals(inFlight, AsyncRollupRunnable.getInFlightReadCount());
+        verify(executionContext).decrementReadCounter();
+        verifyZeroInteractions(rollupBatchWriter);
+    }
+
+    @Test
+    public void readReleasesPermitOnImmediatelyFailedFuture() {
+        // what DAbstractMetricsRW returns when the read cannot be issued
+        whenRead().thenReturn(Futures.<Points>immediateFailedFuture(new IOException("no host available")));
+        int inFlight = AsyncRollupRunnable.getInFlightReadCount();
+
+        runnable.run();
+
+        assertEquals(inFlight, AsyncRollupRunnable.getInFlightReadCount());
+        verify(executionContext).decrementReadCounter();
+        verifyZeroInteractions(rollupBatchWriter);
+    }
+
+    @Test
+    public void readReleasesPermitOnSynchronousException() {
+        whenRead().thenThrow(new RuntimeException("unexpected"));
+        int inFlight = AsyncRollupRunnable.getInFlightReadCount();
+
+        runnable.run();
+
+        assertEquals(inFlight, AsyncRollupRunnable.getInFlightReadCount());
+        verify(executionContext).decrementReadCounter();
+        verifyZeroInteractions(rollupBatchWriter);
+    }
+
+    private OngoingStubbing<ListenableFuture<Points>> whenRead() {
+        return when(metricsRW.getDataToRollupAsync(eq(LOCATOR), eq(RollupType.BF_BASIC), eq(RANGE),
+                anyString(), any(Executor.class)));
+    }
+}
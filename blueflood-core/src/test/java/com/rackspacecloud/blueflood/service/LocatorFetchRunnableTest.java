@@ -25,6 +25,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import static org.junit.Assert.assertEquals;
@@ -191,6 +192,25 @@ public class LocatorFetchRunnableTest {
         verify(executionContext, times(1)).decrementReadCounter();
     }
 
+    @Test
+    public void processSubShardsDispatchesEveryLocatorOnce() throws Exception {
+
+        // given
+        ExecutorService subShardExecutor = Executors.newFixedThreadPool(2);
+        LocatorFetchRunnable subShardLfr = new LocatorFetchRunnable(scheduleCtx,
+                destSlotKey, rollupReadExecutor, rollupWriteExecutor, subShardExecutor);
+
+        // when
+        int count = subShardLfr.processSubShards(executionContext, rollupBatchWriter, locators, 3);
+        subShardExecutor.shutdown();
+
+        // then
+        Assert.assertEquals(locators.size(), count);
+        verify(rollupReadExecutor, times(locators.size())).execute(Matchers.<RollupRunnable>any());
+        verify(executionContext, times(locators.size())).incrementReadCounter();
+        verify(executionContext, never()).markUnsuccessful(Matchers.<Throwable>any());
+    }
+
     @Test
     public void finishExecutionWhenSuccessful() {
 
@@ -361,4 +381,149 @@ public class LocatorFetchRunnableTest {
         assertEquals(locators.size(), locatorsForRollup.size());
     }
 
+    @Test
+    public void testGetActiveLocatorsLowerLevelToStorageGranularity() throws IOException {
+
+        SlotKey destSlotKey = SlotKey.of(Granularity.MIN_5, 0, TEST_SHARD);
+
+        LocatorFetchRunnable lfrunnable = new LocatorFetchRunnable(scheduleCtx,
+                destSlotKey, rollupReadExecutor, rollupWriteExecutor);
+
+        HashSet<Locator> activeLocators = new HashSet<Locator>() {{
+            add(locators.get(0));
+        }};
+        when(locatorIO.getActiveLocators(SlotKey.of(Granularity.MIN_60, 0, TEST_SHARD))).thenReturn(activeLocators);
+
+        Set<Locator> locatorsForRollup = lfrunnable.getLocators(executionContext, true, Granularity.MIN_60);
+
+        assertEquals(activeLocators, locatorsForRollup);
+        verify(locatorIO, never()).getLocators(anyLong());
+    }
+
+    @Test
+    public void testGetActiveLocatorsHigherLevelToStorageGranularity() throws IOException {
+
+        SlotKey destSlotKey = SlotKey.of(Granularity.MIN_60, 0, TEST_SHARD);
+
+        LocatorFetchRunnable lfrunnable = new LocatorFetchRunnable(scheduleCtx,
+                destSlotKey, rollupReadExecutor, rollupWriteExecutor);
+
+        HashSet<Locator> activeLocators1 = new HashSet<Locator>() {{
+            add(locators.get(0));
+        }};
+        HashSet<Locator> activeLocators2 = new HashSet<Locator>() {{
+            add(locators.get(1));
+        }};
+        when(locatorIO.getActiveLocators(SlotKey.of(Granularity.MIN_20, 0, TEST_SHARD))).thenReturn(activeLocators1);
+        when(locatorIO.getActiveLocators(SlotKey.of(Granularity.MIN_20, 1, TEST_SHARD))).thenReturn(activeLocators1);
+        when(locatorIO.getActiveLocators(SlotKey.of(Granularity.MIN_20, 2, TEST_SHARD))).thenReturn(activeLocators2);
+
+        Set<Locator> locatorsForRollup = lfrunnable.getLocators(executionContext, true, Granularity.MIN_20);
+
+        assertEquals(activeLocators1.size() + activeLocators2.size(), locatorsForRollup.size());
+        verify(locatorIO, never()).getLocators(anyLong());
+    }
+
+    @Test
+    public void testGetLocatorsWhenNotRecordingActiveLocators() throws IOException {
+
+        SlotKey destSlotKey = SlotKey.of(Granularity.MIN_5, 0, TEST_SHARD);
+
+        LocatorFetchRunnable lfrunnable = new LocatorFetchRunnable(scheduleCtx,
+                destSlotKey, rollupReadExecutor, rollupWriteExecutor);
+
+        Set<Locator> locatorsForRollup = lfrunnable.getLocators(executionContext, false, Granularity.MIN_60);
+
+        assertEquals(locators.size(), locatorsForRollup.size());
+        verify(locatorIO, never()).getActiveLocators(any(SlotKey.class));
+    }
+
+    @Test
+    public void runSkipsOnlyLocatorsRolledUpWhileIngesting() {
+
+        // given
+        SlotKey destSlotKey = SlotKey.of(Granularity.MIN_5, 0, TEST_SHARD);
+        final Set<Locator> streamed = new HashSet<Locator>();
+        streamed.add(locators.get(0));
+        final List<Locator> processed = new ArrayList<Locator>();
+
+        LocatorFetchRunnable lfrunnable = new LocatorFetchRunnable(scheduleCtx,
+                destSlotKey, rollupReadExecutor, rollupWriteExecutor) {
+            @Override
+            protected Set<Locator> getStreamedLocators() {
+                return streamed;
+            }
+
+            @Override
+            public RollupExecutionContext createRollupExecutionContext() {
+                return executionContext;
+            }
+
+            @Override
+            public int processLocator(int rollCount, RollupExecutionContext executionContext,
+                                      RollupBatchWriter rollupBatchWriter, Locator locator) {
+                processed.add(locator);
+                return rollCount + 1;
+            }
+
+            @Override
+            public void drainExecutionContext(long waitStart, int rollCount, RollupExecutionContext executionContext,
+                                              RollupBatchWriter rollupBatchWriter) {
+            }
+        };
+
+        // when
+        lfrunnable.run();
+
+        // then
+        assertEquals(new HashSet<Locator>(locators.subList(1, 3)), new HashSet<Locator>(processed));
+    }
+
+    @Test
+    public void rerollDoesNotSkipLocatorsRolledUpWhileIngesting() {
+
+        // given
+        SlotKey destSlotKey = SlotKey.of(Granularity.MIN_5, 0, TEST_SHARD);
+        final List<Locator> processed = new ArrayList<Locator>();
+        when(scheduleCtx.isReroll(any(SlotKey.class))).thenReturn(true);
+
+        LocatorFetchRunnable lfrunnable = new LocatorFetchRunnable(scheduleCtx,
+                destSlotKey, rollupReadExecutor, rollupWriteExecutor) {
+            @Override
+            protected Set<Locator> getStreamedLocators() {
+                return new HashSet<Locator>(locators);
+            }
+
+            @Override
+            protected Set<Locator> getLocators(RollupExecutionContext executionContext, boolean isReroll,
+                                               Granularity delayedMetricsRerollGranularity,
+                                               Granularity delayedMetricsStorageGranularity) {
+                return new HashSet<Locator>(locators);
+            }
+
+            @Override
+            public RollupExecutionContext createRollupExecutionContext() {
+                return executionContext;
+            }
+
+            @Override
+            public int processLocator(int rollCount, RollupExecutionContext executionContext,
+                                      RollupBatchWriter rollupBatchWriter, Locator locator) {
+                processed.add(locator);
+                return rollCount + 1;
+            }
+
+            @Override
+            public void drainExecutionContext(long waitStart, int rollCount, RollupExecutionContext executionContext,
+                                              RollupBatchWriter rollupBatchWriter) {
+            }
+        };
+
+        // when
+        lfrunnable.run();
+
+        // then
+        assertEquals(locators.size(), processed.size());
+    }
+
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.SlotKey;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class RollupCheckpointsTest {
+
+    private static final long SLOT_START = 1234567800000L;
+
+    private final Locator locator1 = Locator.createLocatorFromPathComponents("tenant", "a", "b", "c");
+    private Locator locator2;
+    private SlotKey slotKey;
+    private Set<Locator> locators;
+    private RollupCheckpoints checkpoints;
+
+    @Before
+    public void setUp() {
+        int shard = Util.getShard(locator1.toString());
+        for (int i = 0; locator2 == null; i++) {
+            Locator other = Locator.createLocatorFromPathComponents("tenant", "other", String.valueOf(i));
+            if (Util.getShard(other.toString()) == shard) {
+                locator2 = other;
+            }
+        }
+        slotKey = SlotKey.of(Granularity.MIN_5, Granularity.MIN_5.slot(SLOT_START), shard);
+        locators = new HashSet<Locator>(Arrays.asList(locator1, locator2));
+        checkpoints = RollupCheckpoints.getInstance(1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void firstAttemptRollsUpAllLocators() {
+        assertEquals(locators, checkpoints.begin(slotKey, stamp(100, 200), locators));
+        assertEquals(1, checkpoints.getCheckpointedSlotCount());
+    }
+
+    @Test
+    public void retryOnlyRollsUpIncompleteLocators() {
+        checkpoints.begin(slotKey, stamp(100, 200), locators);
+        checkpoints.markCompleted(locator1, Granularity.MIN_5, SLOT_START);
+
+        Set<Locator> remaining = checkpoints.begin(slotKey, stamp(100, 200), locators);
+
+        assertEquals(new HashSet<Locator>(Arrays.asList(locator2)), remaining);
+    }
+
+    @Test
+    public void newDataDiscardsCheckpoint() {
+        checkpoints.begin(slotKey, stamp(100, 200), locators);
+        checkpoints.markCompleted(locator1, Granularity.MIN_5, SLOT_START);
+
+        assertEquals(locators, checkpoints.begin(slotKey, stamp(100, 300), locators));
+    }
+
+    @Test
+    public void completionOfOtherSlotIsIgnored() {
+        checkpoints.begin(slotKey, stamp(100, 200), locators);
+        checkpoints.markCompleted(locator1, Granularity.MIN_5, SLOT_START + Granularity.MIN_5.milliseconds());
+        checkpoints.markCompleted(locator1, Granularity.MIN_20, SLOT_START);
+
+        assertEquals(locators, checkpoints.begin(slotKey, stamp(100, 200), locators));
+    }
+
+    @Test
+    public void removedSlotIsNoLongerTracked() {
+        checkpoints.begin(slotKey, stamp(100, 200), locators);
+        checkpoints.remove(slotKey);
+        checkpoints.markCompleted(locator1, Granularity.MIN_5, SLOT_START);
+
+        assertEquals(0, checkpoints.getCheckpointedSlotCount());
+        assertEquals(locators, checkpoints.begin(slotKey, stamp(100, 200), locators));
+    }
+
+    private UpdateStamp stamp(long timestamp, long lastIngestTimestamp) {
+        return new UpdateStamp(timestamp, UpdateStamp.State.Running, false, 0, lastIngestTimestamp);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class RollupConcurrencyControllerTest {
+
+    private static final long TARGET_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private ThreadPoolExecutor readExecutor;
+    private ThreadPoolExecutor writeExecutor;
+    private RollupConcurrencyController controller;
+
+    @Before
+    public void setUp() {
+        readExecutor = new ThreadPoolExecutor(20, 20, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        writeExecutor = new ThreadPoolExecutor(5, 5, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        controller = new RollupConcurrencyController(readExecutor, writeExecutor, 4, 22, 200);
+    }
+
+    @After
+    public void tearDown() {
+        readExecutor.shutdownNow();
+        writeExecutor.shutdownNow();
+    }
+
+    @Test
+    public void backlogWithHealthyLatencyIncreasesConcurrencyByOne() {
+        assertEquals(21, controller.adjust(TARGET_LATENCY_NANOS / 2, 0, true));
+        assertEquals(21, readExecutor.getCorePoolSize());
+        assertEquals(21, readExecutor.getMaximumPoolSize());
+        assertEquals(5, writeExecutor.getMaximumPoolSize());
+    }
+
+    @Test
+    public void concurrencyDoesNotGrowBeyondMaximum() {
+        controller.adjust(0, 0, true);
+        controller.adjust(0, 0, true);
+        assertEquals(22, controller.adjust(0, 0, true));
+    }
+
+    @Test
+    public void noBacklogHoldsConcurrency() {
+        assertEquals(20, controller.adjust(0, 0, false));
+        assertEquals(20, readExecutor.getMaximumPoolSize());
+    }
+
+    @Test
+    public void highLatencyDecreasesConcurrency() {
+        assertEquals(15, controller.adjust(TARGET_LATENCY_NANOS * 2, 0, true));
+        assertEquals(15, readExecutor.getCorePoolSize());
+        assertEquals(15, readExecutor.getMaximumPoolSize());
+        assertEquals(4, writeExecutor.getMaximumPoolSize());
+    }
+
+    @Test
+    public void errorsDecreaseConcurrencyDownToMinimum() {
+        for (int i = 0; i < 10; i++) {
+            controller.adjust(0, 1, true);
+        }
+        assertEquals(4, readExecutor.getMaximumPoolSize());
+        assertEquals(1, writeExecutor.getMaximumPoolSize());
+    }
+}
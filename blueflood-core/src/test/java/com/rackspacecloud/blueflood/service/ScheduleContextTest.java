@@ -711,4 +711,44 @@ public class ScheduleContextTest {
         ctx.clearFromRunning(SlotKey.parse("metrics_5m,0,0")); //metrics_5m,0 is now rolled up.
 
     }
+    @Test
+    public void testCaughtUpShardHasNoRollupLag() {
+        long clock = 1234000L;
+        ScheduleContext ctx = new ScheduleContext(clock, shards);
+
+        // the slot being ingested into is not rolled up, but it is not due yet either
+        ctx.setCurrentTimeMillis(clock);
+        ctx.update(clock, shard);
+        ctx.scheduleEligibleSlots(ROLLUP_DELAY_MILLIS, SHORT_DELAY_METRICS_ROLLUP_DELAY_MILLIS, LONG_DELAY_METRICS_ROLLUP_WAIT_MILLIS);
+        Assert.assertEquals(0, ctx.getRollupLagMillis(shard, Granularity.MIN_5));
+
+        clock += ROLLUP_DELAY_MILLIS;
+        ctx.setCurrentTimeMillis(clock);
+        ctx.update(clock, shard);
+        ctx.scheduleEligibleSlots(ROLLUP_DELAY_MILLIS, SHORT_DELAY_METRICS_ROLLUP_DELAY_MILLIS, LONG_DELAY_METRICS_ROLLUP_WAIT_MILLIS);
+        Assert.assertFalse(ctx.hasScheduled());
+        Assert.assertEquals(0, ctx.getRollupLagMillis(shard, Granularity.MIN_5));
+    }
+
+    @Test
+    public void testRollupLagIsMeasuredFromOldestEligibleSlot() {
+        long clock = 1234000L;
+        ScheduleContext ctx = new ScheduleContext(clock, shards);
+
+        ctx.setCurrentTimeMillis(clock);
+        ctx.update(clock, shard);
+        ctx.scheduleEligibleSlots(ROLLUP_DELAY_MILLIS, SHORT_DELAY_METRICS_ROLLUP_DELAY_MILLIS, LONG_DELAY_METRICS_ROLLUP_WAIT_MILLIS);
+
+        // past its rollup delay, metrics_5m,4 is late until it is rolled up
+        clock += ROLLUP_DELAY_MILLIS + 1;
+        ctx.setCurrentTimeMillis(clock);
+        ctx.update(clock, shard);
+        ctx.scheduleEligibleSlots(ROLLUP_DELAY_MILLIS, SHORT_DELAY_METRICS_ROLLUP_DELAY_MILLIS, LONG_DELAY_METRICS_ROLLUP_WAIT_MILLIS);
+        Assert.assertEquals(SlotKey.parse("metrics_5m,4,0"), ctx.getNextScheduled());
+        Assert.assertEquals(clock - Granularity.MIN_5.snapMillis(1234000L), ctx.getRollupLagMillis(shard, Granularity.MIN_5));
+
+        // once it is rolled up, the slot being ingested into is not due yet
+        ctx.clearFromRunning(SlotKey.parse("metrics_5m,4,0"));
+        Assert.assertEquals(0, ctx.getRollupLagMillis(shard, Granularity.MIN_5));
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardLoadBalancerTest {
+
+    private final ShardLoadBalancer balancer = new ShardLoadBalancer(0.1);
+
+    @Test
+    public void idleShardsAreSpreadByCount() {
+        double fairShare = balancer.fairShare(Arrays.asList(node(128, 128), node(0, 0)), 128);
+
+        assertEquals(64, fairShare, 0.001);
+        assertEquals(64, balancer.shardsToAcquire(0, fairShare, 1.0));
+    }
+
+    @Test
+    public void unheldShardsCountTowardsFairShare() {
+        double fairShare = balancer.fairShare(Arrays.asList(node(40, 40), node(40, 40)), 128);
+
+        assertEquals(64, fairShare, 0.001);
+        assertEquals(24, balancer.shardsToAcquire(40, fairShare, 1.0));
+    }
+
+    @Test
+    public void nodeAtFairShareAcquiresNothing() {
+        assertEquals(0, balancer.shardsToAcquire(64, 64, 1.0));
+        assertEquals(0, balancer.shardsToAcquire(70, 64, 1.0));
+    }
+
+    @Test
+    public void busyShardsAreAcquiredAtTheAverageShardLoad() {
+        // 16 shards with 3 busy seconds each: a shard weighs 4, not the base load of 1
+        List<ShardLoadBalancer.NodeLoad> nodes = Arrays.asList(node(16, 64), node(0, 0));
+        double fairShare = balancer.fairShare(nodes, 16);
+        double shardLoad = balancer.averageShardLoad(nodes);
+
+        assertEquals(32, fairShare, 0.001);
+        assertEquals(4, shardLoad, 0.001);
+        int toAcquire = balancer.shardsToAcquire(0, fairShare, shardLoad);
+        assertEquals(8, toAcquire);
+        // the acquired shards bring the node to its fair share, not past it
+        assertTrue(toAcquire * shardLoad <= fairShare * 1.1);
+    }
+
+    @Test
+    public void averageShardLoadIsTheBaseLoadWhenNoShardIsHeld() {
+        assertEquals(ShardLoadBalancer.BASE_SHARD_LOAD,
+                balancer.averageShardLoad(Arrays.asList(node(0, 0), node(0, 0))), 0.001);
+        assertEquals(ShardLoadBalancer.BASE_SHARD_LOAD,
+                balancer.averageShardLoad(Collections.<ShardLoadBalancer.NodeLoad>emptyList()), 0.001);
+    }
+
+    @Test
+    public void loadWithinToleranceIsNotReleased() {
+        assertTrue(balancer.shardsToRelease(loads(1.0, 1.0, 1.5), 3.2).isEmpty());
+    }
+
+    @Test
+    public void heaviestShardsAreReleasedWithoutGoingBelowFairShare() {
+        // loads 5 + 3 + 1 + 1 = 10, fair share 4.5: releasing 5 leaves 5, releasing 3 or 1 more would go below
+        assertEquals(Arrays.asList(0), balancer.shardsToRelease(loads(5.0, 3.0, 1.0, 1.0), 4.5));
+    }
+
+    @Test
+    public void loadIsDecayedBusyTime() {
+        assertEquals(1.0, balancer.updateLoad(7, 10000), 0.001);
+        assertEquals(1.0 + 5.0, balancer.updateLoad(7, 20000), 0.001);
+        assertEquals(1.0 + 2.5, balancer.updateLoad(7, 20000), 0.001);
+
+        balancer.forget(7);
+        assertEquals(1.0, balancer.updateLoad(7, 30000), 0.001);
+    }
+
+    @Test
+    public void nodeLoadRoundTrips() {
+        ShardLoadBalancer.NodeLoad nodeLoad = ShardLoadBalancer.NodeLoad.parse(node(12, 15.5).toString());
+
+        assertEquals(12, nodeLoad.shards);
+        assertEquals(15.5, nodeLoad.load, 0.001);
+        assertEquals(128, balancer.fairShare(Collections.<ShardLoadBalancer.NodeLoad>emptyList(), 128), 0.001);
+    }
+
+    private static ShardLoadBalancer.NodeLoad node(int shards, double load) {
+        return new ShardLoadBalancer.NodeLoad(shards, load);
+    }
+
+    private static Map<Integer, Double> loads(Double... loads) {
+        Map<Integer, Double> heldLoads = new HashMap<Integer, Double>();
+        for (int shard = 0; shard < loads.length; shard++) {
+            heldLoads.put(shard, loads[shard]);
+        }
+        return heldLoads;
+    }
+}
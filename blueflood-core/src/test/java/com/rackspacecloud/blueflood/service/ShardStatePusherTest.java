@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.rackspacecloud.blueflood.io.ShardStateIO;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class ShardStatePusherTest {
+
+    private final List<Integer> shards = Arrays.asList(1, 2, 3);
+
+    @Test
+    public void dirtySlotsOfAllShardsArePushedTogether() {
+        ScheduleContext ctx = new ScheduleContext(1234000L, shards);
+        ShardStateIO io = mock(ShardStateIO.class);
+        ShardStatePusher pusher = new ShardStatePusher(shards, ctx.getShardStateManager(), io);
+
+        ctx.update(1234000L, 1);
+        ctx.update(1234000L, 3);
+        pusher.performOperation();
+
+        ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+        verify(io, times(1)).putShardStates(captor.capture());
+        verifyNoMoreInteractions(io);
+
+        Map<Integer, Map<Granularity, Map<Integer, UpdateStamp>>> pushed = captor.getValue();
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 3)), pushed.keySet());
+        assertEquals(1, pushed.get(1).get(Granularity.MIN_5).size());
+    }
+
+    @Test
+    public void nothingIsPushedWhenNoSlotIsDirty() {
+        ScheduleContext ctx = new ScheduleContext(1234000L, shards);
+        ShardStateIO io = mock(ShardStateIO.class);
+        ShardStatePusher pusher = new ShardStatePusher(shards, ctx.getShardStateManager(), io);
+
+        pusher.performOperation();
+
+        verifyNoMoreInteractions(io);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.rollup.SlotKey;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SlotTimelineTest {
+
+    private final SlotTimeline timeline = new SlotTimeline(2);
+
+    @Test
+    public void rolledSlotIsListedWithItsTimings() {
+        SlotKey slotKey = SlotKey.of(Granularity.MIN_5, 10, 1);
+        timeline.scheduled(slotKey, 1000);
+        timeline.started(slotKey, 1500);
+        timeline.rolled(slotKey, 1800, 800);
+
+        assertEquals(Arrays.asList("10: rolled at 1800, ran 300 ms, 1000 ms after last ingest"),
+                timeline.getEvents(1, Granularity.MIN_5));
+    }
+
+    @Test
+    public void failedSlotIsListed() {
+        SlotKey slotKey = SlotKey.of(Granularity.MIN_5, 10, 1);
+        timeline.started(slotKey, 1500);
+        timeline.failed(slotKey, 1600);
+
+        assertEquals(Arrays.asList("10: failed at 1600, ran 100 ms"), timeline.getEvents(1, Granularity.MIN_5));
+    }
+
+    @Test
+    public void onlyMostRecentEventsAreKept() {
+        for (int slot = 0; slot < 3; slot++) {
+            timeline.rolled(SlotKey.of(Granularity.MIN_20, slot, 1), 1000 + slot, 0);
+        }
+
+        List<String> events = timeline.getEvents(1, Granularity.MIN_20);
+        assertEquals(Arrays.asList("2: rolled at 1002", "1: rolled at 1001"), events);
+    }
+
+    @Test
+    public void eventsAreKeptPerShardAndGranularity() {
+        timeline.rolled(SlotKey.of(Granularity.MIN_5, 0, 1), 1000, 0);
+
+        assertTrue(timeline.getEvents(2, Granularity.MIN_5).isEmpty());
+        assertTrue(timeline.getEvents(1, Granularity.MIN_20).isEmpty());
+    }
+}
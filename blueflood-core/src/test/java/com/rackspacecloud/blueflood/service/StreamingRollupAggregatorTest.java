@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.service;
+
+import com.rackspacecloud.blueflood.eventemitter.RollupEvent;
+import com.rackspacecloud.blueflood.eventemitter.RollupEventEmitter;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.*;
+import com.rackspacecloud.blueflood.utils.TimeValue;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class StreamingRollupAggregatorTest {
+
+    private static final long CLOSE_DELAY = 60000;
+    private static final Collection<Integer> ALL_SHARDS = Util.parseShards("ALL");
+
+    private final Locator locator = Locator.createLocatorFromPathComponents("tenant", "a", "b", "c");
+    private final int shard = Util.getShard(locator.toString());
+
+    private long slotStart;
+    private long slotClosed;
+    private List<SingleRollupWriteContext> written;
+
+    @Before
+    public void setUp() {
+        slotStart = Granularity.MIN_5.snapMillis(System.currentTimeMillis());
+        slotClosed = slotStart + Granularity.MIN_5.milliseconds() + CLOSE_DELAY;
+        written = new ArrayList<SingleRollupWriteContext>();
+    }
+
+    private StreamingRollupAggregator createAggregator(Collection<Integer> shards, int maxLocators, long startMillis) {
+        return new StreamingRollupAggregator(shards, maxLocators, CLOSE_DELAY, startMillis) {
+            @Override
+            void writeRollups(List<SingleRollupWriteContext> rollups) {
+                written.addAll(rollups);
+            }
+        };
+    }
+
+    private IMetric metric(Locator locator, Object value, long offset) {
+        return new Metric(locator, value, slotStart + offset, new TimeValue(1, TimeUnit.DAYS), "unknown");
+    }
+
+    @Test
+    public void closedSlotIsFinalizedWithSameRollupAsRawPoints() throws Exception {
+        StreamingRollupAggregator aggregator = createAggregator(ALL_SHARDS, 100, slotStart);
+        Points<SimpleNumber> points = new Points<SimpleNumber>();
+        List<IMetric> metrics = new ArrayList<IMetric>();
+        long[] values = {5L, 1L, 9L, 3L};
+        for (int i = 0; i < values.length; i++) {
+            metrics.add(metric(locator, values[i], i * 1000));
+            points.add(new Points.Point<SimpleNumber>(slotStart + i * 1000, new SimpleNumber(values[i])));
+        }
+        aggregator.add(metrics);
+
+        aggregator.closeWindows(slotClosed - 1);
+        assertFalse(aggregator.isFinalized(shard, slotStart));
+        assertEquals(1, aggregator.getOpenSlotCount());
+
+        aggregator.closeWindows(slotClosed);
+        assertTrue(aggregator.isFinalized(shard, slotStart));
+        assertEquals(0, aggregator.getOpenSlotCount());
+        assertEquals(1, written.size());
+        assertEquals(locator, written.get(0).getLocator());
+        assertEquals(slotStart, written.get(0).getTimestamp().longValue());
+        assertEquals(Granularity.MIN_5, written.get(0).getGranularity());
+        assertEquals(BasicRollup.buildRollupFromRawSamples(points), written.get(0).getRollup());
+    }
+
+    @Test
+    public void floatingPointValuesAreRolledUpAsDoubles() throws Exception {
+        StreamingRollupAggregator aggregator = createAggregator(ALL_SHARDS, 100, slotStart);
+        aggregator.add(Arrays.asList(metric(locator, 1.5d, 0), metric(locator, 2.5d, 1000)));
+        aggregator.closeWindows(slotClosed);
+
+        BasicRollup rollup = (BasicRollup) written.get(0).getRollup();
+        assertEquals(2, rollup.getCount());
+        assertEquals(4.0d, rollup.getSum(), 0.0);
+        assertEquals(2.0d, rollup.getAverage().toDouble(), 0.0);
+        assertEquals(1.5d, rollup.getMinValue().toDouble(), 0.0);
+        assertEquals(2.5d, rollup.getMaxValue().toDouble(), 0.0);
+        assertEquals(0.25d, rollup.getVariance().toDouble(), 0.0001);
+    }
+
+    @Test
+    public void lateDataInvalidatesFinalizedSlot() {
+        StreamingRollupAggregator aggregator = createAggregator(ALL_SHARDS, 100, slotStart);
+        aggregator.add(Arrays.asList(metric(locator, 1L, 0)));
+        aggregator.closeWindows(slotClosed);
+        assertTrue(aggregator.isFinalized(shard, slotStart));
+
+        aggregator.add(Arrays.asList(metric(locator, 2L, 1000)));
+        assertFalse(aggregator.isFinalized(shard, slotStart));
+    }
+
+    @Test
+    public void preaggregatedLocatorsAreNotHandedOverAsStreamed() {
+        Locator counter = Locator.createLocatorFromPathComponents("tenant", "a", "b", "counter");
+        int counterShard = Util.getShard(counter.toString());
+        StreamingRollupAggregator aggregator = createAggregator(ALL_SHARDS, 100, slotStart);
+        aggregator.add(Arrays.asList(metric(locator, 1L, 0),
+                new PreaggregatedMetric(slotStart, counter, new TimeValue(1, TimeUnit.DAYS),
+                        new BluefloodCounterRollup().withCount(5L))));
+        aggregator.closeWindows(slotClosed);
+
+        assertEquals(Collections.singleton(locator), aggregator.takeStreamedLocators(shard, slotStart));
+        if (counterShard != shard) {
+            assertNull(aggregator.takeStreamedLocators(counterShard, slotStart));
+        }
+    }
+
+    @Test
+    public void streamedLocatorsAreHandedOverOnce() {
+        StreamingRollupAggregator aggregator = createAggregator(ALL_SHARDS, 100, slotStart);
+        aggregator.add(Arrays.asList(metric(locator, 1L, 0)));
+        aggregator.closeWindows(slotClosed);
+
+        assertEquals(Collections.singleton(locator), aggregator.takeStreamedLocators(shard, slotStart));
+        assertNull(aggregator.takeStreamedLocators(shard, slotStart));
+        assertTrue(aggregator.isFinalized(shard, slotStart));
+    }
+
+    @Test
+    public void invalidatedSlotHasNoStreamedLocators() {
+        StreamingRollupAggregator aggregator = createAggregator(ALL_SHARDS, 100, slotStart);
+        aggregator.add(Arrays.asList(metric(locator, 1L, 0)));
+        aggregator.closeWindows(slotClosed);
+        aggregator.add(Arrays.asList(metric(locator, 2L, 1000)));
+
+        assertNull(aggregator.takeStreamedLocators(shard, slotStart));
+    }
+
+    @Test
+    public void failedBatchInvalidatesSlot() {
+        StreamingRollupAggregator aggregator = createAggregator(ALL_SHARDS, 100, slotStart);
+        aggregator.add(Arrays.asList(metric(locator, 1L, 0)));
+        aggregator.invalidate(Arrays.asList(metric(locator, 2L, 1000)));
+        aggregator.closeWindows(slotClosed);
+
+        assertFalse(aggregator.isFinalized(shard, slotStart));
+        assertTrue(written.isEmpty());
+    }
+
+    @Test
+    public void slotStartedBeforeAggregatorIsNotAccumulated() {
+        StreamingRollupAggregator aggregator = createAggregator(ALL_SHARDS, 100, slotStart + 1);
+        aggregator.add(Arrays.asList(metric(locator, 1L, 1000)));
+        aggregator.closeWindows(slotClosed);
+
+        assertFalse(aggregator.isFinalized(shard, slotStart));
+        assertTrue(written.isEmpty());
+    }
+
+    @Test
+    public void unmanagedShardIsNotAccumulated() {
+        Set<Integer> shards = new HashSet<Integer>(ALL_SHARDS);
+        shards.remove(shard);
+        StreamingRollupAggregator aggregator = createAggregator(shards, 100, slotStart);
+        aggregator.add(Arrays.asList(metric(locator, 1L, 0)));
+
+        assertEquals(0, aggregator.getOpenSlotCount());
+    }
+
+    @Test
+    public void tooManyLocatorsFallsBackToNormalRollup() {
+        StreamingRollupAggregator aggregator = createAggregator(ALL_SHARDS, 1, slotStart);
+        aggregator.add(Arrays.asList(metric(locator, 1L, 0), metric(locatorInSameShard(), 1L, 0)));
+        aggregator.closeWindows(slotClosed);
+
+        assertFalse(aggregator.isFinalized(shard, slotStart));
+        assertTrue(written.isEmpty());
+    }
+
+    @Test
+    public void streamedRollupsAreEmittedAsRollupEvents() {
+        StreamingRollupAggregator aggregator = createAggregator(ALL_SHARDS, 100, slotStart);
+        aggregator.add(Arrays.asList(metric(locator, 1L, 0), metric(locator, 3L, 1000)));
+        aggregator.closeWindows(slotClosed);
+        RollupEventEmitter emitter = mock(RollupEventEmitter.class);
+        when(emitter.hasListeners(RollupEventEmitter.ROLLUP_EVENT_NAME)).thenReturn(true);
+
+        aggregator.emitRollupEvents(written, emitter);
+
+        ArgumentCaptor<RollupEvent> event = ArgumentCaptor.forClass(RollupEvent.class);
+        verify(emitter).emit(eq(RollupEventEmitter.ROLLUP_EVENT_NAME), event.capture());
+        assertEquals(locator, event.getValue().getLocator());
+        assertEquals(written.get(0).getRollup(), event.getValue().getRollup());
+        assertEquals(Granularity.MIN_5.name(), event.getValue().getGranularityName());
+        assertEquals(slotStart, event.getValue().getTimestamp());
+    }
+
+    @Test
+    public void streamedRollupsAreNotEmittedWithoutListeners() {
+        StreamingRollupAggregator aggregator = createAggregator(ALL_SHARDS, 100, slotStart);
+        aggregator.add(Arrays.asList(metric(locator, 1L, 0)));
+        aggregator.closeWindows(slotClosed);
+        RollupEventEmitter emitter = mock(RollupEventEmitter.class);
+
+        aggregator.emitRollupEvents(written, emitter);
+
+        verify(emitter, never()).emit(anyString(), any(RollupEvent.class));
+    }
+
+    private Locator locatorInSameShard() {
+        for (int i = 0; ; i++) {
+            Locator other = Locator.createLocatorFromPathComponents("tenant", "other", String.valueOf(i));
+            if (Util.getShard(other.toString()) == shard) {
+                return other;
+            }
+        }
+    }
+}
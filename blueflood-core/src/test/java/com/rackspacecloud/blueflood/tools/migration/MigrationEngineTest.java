@@ -0,0 +1,325 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.rackspacecloud.blueflood.tools.migration;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.rackspacecloud.blueflood.io.datastax.ScanCheckpoints;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MigrationEngineTest {
+
+    private static final List<String> RANGES = Arrays.asList("]0, 10]", "]10, 20]", "]20, 30]");
+
+    private final List<String> events = new CopyOnWriteArrayList<String>();
+    private InMemorySource source;
+    private InMemorySink sink;
+    private DelayedSink delayedSink;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        source = new InMemorySource(events);
+        sink = new InMemorySink();
+        delayedSink = new DelayedSink(events);
+        for (String columnFamily : Arrays.asList("metrics_5m", "metrics_20m")) {
+            for (int i = 0; i < RANGES.size(); i++) {
+                for (long timestamp = 0; timestamp < 5; timestamp++) {
+                    source.add(columnFamily, RANGES.get(i), new MigrationRow("locator" + i, timestamp, ByteBuffer.wrap(new byte[10])));
+                }
+            }
+        }
+        file = File.createTempFile("migration-checkpoints", ".txt");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        delayedSink.completer.shutdownNow();
+    }
+
+    @Test
+    public void copiesAllRangesOfAllColumnFamiliesWithinTimeRange() throws IOException {
+        MigrationEngine engine = MigrationEngine.builder(source, sink)
+                .withColumnFamily("metrics_5m", 100)
+                .withColumnFamily("metrics_20m", 200)
+                .withTimeRange(1, 3)
+                .withThreads(2)
+                .withMaxWritesInFlight(2)
+                .build();
+
+        engine.run();
+
+        assertEquals(9, sink.get("metrics_5m").size());
+        assertEquals(9, sink.get("metrics_20m").size());
+        assertEquals(Collections.singleton(200), sink.ttls.get("metrics_20m"));
+        assertEquals(6, engine.getProgress().getCopiedRanges());
+        assertEquals(6, engine.getProgress().getTotalRanges());
+        assertEquals(18, engine.getProgress().getRows());
+        assertEquals(0, engine.getProgress().getEtaMillis(System.currentTimeMillis()));
+        // the source is asked for the time range too, to filter the rows before they are transferred
+        assertEquals(Arrays.asList(1L, 3L), source.timeRange);
+    }
+
+    @Test
+    public void writesInFlightAreBoundedWhileWritesCompleteLater() throws IOException {
+        MigrationEngine engine = MigrationEngine.builder(source, delayedSink)
+                .withColumnFamily("metrics_5m", 100)
+                .withColumnFamily("metrics_20m", 200)
+                .withThreads(3)
+                .withMaxWritesInFlight(4)
+                .build();
+
+        engine.run();
+
+        // run() only returns once every write has completed
+        assertEquals(30, delayedSink.written.get());
+        assertEquals(0, delayedSink.inFlight.get());
+        assertEquals(4, delayedSink.maxInFlight.get());
+    }
+
+    @Test
+    public void nextPageIsFetchedBeforeTheRowsOfThePageAreWritten() throws IOException {
+        MigrationEngine engine = MigrationEngine.builder(source, delayedSink)
+                .withColumnFamily("metrics_5m", 100)
+                .withMaxWritesInFlight(10)
+                .build();
+
+        engine.run();
+
+        // the first range, in pages of two rows
+        assertEquals(Arrays.asList(
+                "fetch 2", "write locator0 0", "write locator0 1",
+                "fetch 4", "write locator0 2", "write locator0 3",
+                "write locator0 4"), events.subList(0, 7));
+    }
+
+    @Test
+    public void resumesWithTheRangesNotCopied() throws IOException {
+        source.failingRange = RANGES.get(1);
+        try (ScanCheckpoints checkpoints = new ScanCheckpoints(file)) {
+            MigrationEngine engine = MigrationEngine.builder(source, sink)
+                    .withColumnFamily("metrics_5m", 100)
+                    .withCheckpoints(checkpoints)
+                    .build();
+            try {
+                engine.run();
+                fail("the copy of a range failed");
+            } catch (IOException e) {
+                // expected
+            }
+            assertEquals(2, engine.getProgress().getCopiedRanges());
+            assertEquals(1, engine.getProgress().getFailedRanges());
+        }
+
+        source.failingRange = null;
+        sink.clear();
+        try (ScanCheckpoints checkpoints = new ScanCheckpoints(file)) {
+            MigrationEngine engine = MigrationEngine.builder(source, sink)
+                    .withColumnFamily("metrics_5m", 100)
+                    .withCheckpoints(checkpoints)
+                    .build();
+            engine.run();
+
+            assertEquals(3, engine.getProgress().getCopiedRanges());
+            assertEquals(5, sink.get("metrics_5m").size());
+            for (MigrationRow row : sink.get("metrics_5m")) {
+                assertEquals("locator1", row.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void failedWriteFailsItsRangeOnly() throws IOException {
+        sink.failingKey = "locator2";
+        try (ScanCheckpoints checkpoints = new ScanCheckpoints(file)) {
+            MigrationEngine engine = MigrationEngine.builder(source, sink)
+                    .withColumnFamily("metrics_5m", 100)
+                    .withCheckpoints(checkpoints)
+                    .build();
+            try {
+                engine.run();
+                fail("the copy of a range failed");
+            } catch (IOException e) {
+                // expected
+            }
+            assertTrue(checkpoints.isCompleted("metrics_5m " + RANGES.get(0)));
+            assertTrue(checkpoints.isCompleted("metrics_5m " + RANGES.get(1)));
+            assertEquals(2, checkpoints.getCompletedCount());
+        }
+    }
+
+    @Test
+    public void etaIsProportionalToRangesLeft() {
+        MigrationProgress progress = new MigrationProgress(10, 2, 1000);
+        assertEquals(-1, progress.getEtaMillis(2000));
+
+        progress.rangeCopied();
+        progress.rangeCopied();
+        assertEquals(4, progress.getCopiedRanges());
+        assertEquals(3000, progress.getEtaMillis(2000));
+    }
+
+    /**
+     * Stands in for the source cluster, returning pages of two rows.
+     */
+    private static class InMemorySource implements MigrationSource {
+        private final Map<String, List<MigrationRow>> rows = new HashMap<String, List<MigrationRow>>();
+        private final List<String> events;
+        private volatile String failingRange;
+        private volatile List<Long> timeRange;
+
+        InMemorySource(List<String> events) {
+            this.events = events;
+        }
+
+        void add(String columnFamily, String range, MigrationRow row) {
+            String key = columnFamily + range;
+            if (!rows.containsKey(key)) {
+                rows.put(key, new ArrayList<MigrationRow>());
+            }
+            rows.get(key).add(row);
+        }
+
+        @Override
+        public List<String> getRanges() {
+            return RANGES;
+        }
+
+        @Override
+        public ListenableFuture<MigrationPage> read(String columnFamily, String range, long from, long to) {
+            timeRange = Arrays.asList(from, to);
+            if (range.equals(failingRange)) {
+                return Futures.immediateFailedFuture(new IOException("read timeout"));
+            }
+            List<MigrationRow> rangeRows = rows.get(columnFamily + range);
+            return Futures.<MigrationPage>immediateFuture(new Page(rangeRows == null ? new ArrayList<MigrationRow>() : rangeRows, 0));
+        }
+
+        private class Page implements MigrationPage {
+            private final List<MigrationRow> rows;
+            private final int offset;
+
+            private Page(List<MigrationRow> rows, int offset) {
+                this.rows = rows;
+                this.offset = offset;
+            }
+
+            @Override
+            public List<MigrationRow> getRows() {
+                return rows.subList(offset, Math.min(rows.size(), offset + 2));
+            }
+
+            @Override
+            public ListenableFuture<MigrationPage> next() {
+                if (offset + 2 >= rows.size()) {
+                    return null;
+                }
+                events.add("fetch " + (offset + 2));
+                return Futures.<MigrationPage>immediateFuture(new Page(rows, offset + 2));
+            }
+        }
+    }
+
+    /**
+     * Stands in for the destination cluster.
+     */
+    private static class InMemorySink implements MigrationSink {
+        private final Map<String, List<MigrationRow>> rows = new HashMap<String, List<MigrationRow>>();
+        private final Map<String, Set<Integer>> ttls = new HashMap<String, Set<Integer>>();
+        private volatile String failingKey;
+
+        @Override
+        public synchronized ListenableFuture<?> write(String columnFamily, MigrationRow row, int ttlSeconds) {
+            if (row.getKey().equals(failingKey)) {
+                return Futures.immediateFailedFuture(new IOException("write timeout"));
+            }
+            get(columnFamily).add(row);
+            if (!ttls.containsKey(columnFamily)) {
+                ttls.put(columnFamily, new HashSet<Integer>());
+            }
+            ttls.get(columnFamily).add(ttlSeconds);
+            return Futures.immediateFuture(null);
+        }
+
+        synchronized List<MigrationRow> get(String columnFamily) {
+            if (!rows.containsKey(columnFamily)) {
+                rows.put(columnFamily, new ArrayList<MigrationRow>());
+            }
+            return rows.get(columnFamily);
+        }
+
+        synchronized void clear() {
+            rows.clear();
+            ttls.clear();
+        }
+    }
+
+    /**
+     * Stands in for a destination cluster whose writes complete a few milliseconds after they are issued.
+     */
+    private static class DelayedSink implements MigrationSink {
+        private final ScheduledExecutorService completer = Executors.newSingleThreadScheduledExecutor();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private final AtomicInteger written = new AtomicInteger();
+        private final List<String> events;
+
+        DelayedSink(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public ListenableFuture<?> write(String columnFamily, MigrationRow row, int ttlSeconds) {
+            events.add("write " + row.getKey() + " " + row.getColumn());
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            final SettableFuture<Object> future = SettableFuture.create();
+            completer.schedule(() -> {
+                inFlight.decrementAndGet();
+                written.incrementAndGet();
+                future.set(null);
+            }, 5, TimeUnit.MILLISECONDS);
+            return future;
+        }
+    }
+}
@@ -117,7 +117,8 @@ public class HttpMultiRollupsQueryHandler extends RollupHandler implements HttpR
         final Timer.Context httpBatchMetricsFetchTimerContext = httpBatchMetricsFetchTimer.time();
         try {
             RollupsQueryParams params = PlotRequestParser.parseParams(requestWithParams.getQueryParams());
-            Map<Locator, MetricData> results = getRollupByGranularity(tenantId, locators, params.getRange().getStart(), params.getRange().getStop(), params.getGranularity(tenantId));
+            Map<Locator, MetricData> results = getRollupByGranularity(tenantId, locators, params.getRange().getStart(), params.getRange().getStop(), params.getGranularity(tenantId),
+                    PlotRequestParser.getRollupStatsToRead(params.getStats()));
             JSONObject metrics = serializer.transformRollupData(results, params.getStats());
             final JsonElement element = parser.parse(metrics.toString());
             final String jsonStringRep = gson.toJson(element);
@@ -32,6 +32,7 @@ import com.rackspacecloud.blueflood.outputs.serializers.BasicRollupsOutputSerial
 import com.rackspacecloud.blueflood.outputs.utils.PlotRequestParser;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.tracker.Tracker;
+import com.rackspacecloud.blueflood.types.BaseRollup;
 import com.rackspacecloud.blueflood.types.Locator;
 import com.rackspacecloud.blueflood.types.Resolution;
 import com.rackspacecloud.blueflood.outputs.utils.RollupsQueryParams;
@@ -74,7 +75,8 @@ public class HttpRollupsQueryHandler extends RollupHandler
                                       long to,
                                       int points,
                                       Set<MetricStat> stats) throws SerializationException {
-        return serializer.transformRollupData(GetDataByPoints(tenantId, metric, from, to, points), stats);
+        return serializer.transformRollupData(getMetricDataByPoints(tenantId, metric, from, to, points,
+                PlotRequestParser.getRollupStatsToRead(stats)), stats);
     }
 
     private JSONObject GetDataByResolution(String tenantId,
@@ -83,7 +85,43 @@ public class HttpRollupsQueryHandler extends RollupHandler
                                       long to,
                                       Resolution resolution,
                                       Set<MetricStat> stats) throws SerializationException {
-        return serializer.transformRollupData(GetDataByResolution(tenantId, metric, from, to, resolution), stats);
+        return serializer.transformRollupData(getMetricDataByResolution(tenantId, metric, from, to, resolution,
+                PlotRequestParser.getRollupStatsToRead(stats)), stats);
+    }
+
+    private MetricData getMetricDataByPoints(String tenantId,
+                                             String metric,
+                                             long from,
+                                             long to,
+                                             int points,
+                                             Set<BaseRollup.Stat> stats) {
+        rollupsByPointsMeter.mark();
+        Granularity g = Granularity.granularityFromPointsInInterval(tenantId, from, to, points);
+        return getMetricData(tenantId, metric, from, to, g, stats);
+    }
+
+    private MetricData getMetricDataByResolution(String tenantId,
+                                                 String metric,
+                                                 long from,
+                                                 long to,
+                                                 Resolution resolution,
+                                                 Set<BaseRollup.Stat> stats) {
+        rollupsByGranularityMeter.mark();
+        if (resolution == null) {
+            resolution = Resolution.FULL;
+        }
+        Granularity g = Granularity.granularities()[resolution.getValue()];
+        return getMetricData(tenantId, metric, from, to, g, stats);
+    }
+
+    private MetricData getMetricData(String tenantId,
+                                     String metric,
+                                     long from,
+                                     long to,
+                                     Granularity g,
+                                     Set<BaseRollup.Stat> stats) {
+        return getRollupByGranularity(tenantId, Arrays.asList(metric), from, to, g, stats)
+                .get(Locator.createLocatorFromPathComponents(tenantId, metric));
     }
 
     @Override
@@ -92,9 +130,7 @@ public class HttpRollupsQueryHandler extends RollupHandler
                                       long from,
                                       long to,
                                       int points) throws SerializationException {
-        rollupsByPointsMeter.mark();
-        Granularity g = Granularity.granularityFromPointsInInterval(tenantId, from, to, points);
-        return getRollupByGranularity(tenantId, Arrays.asList(metric), from, to, g).get(Locator.createLocatorFromPathComponents(tenantId, metric));
+        return getMetricDataByPoints(tenantId, metric, from, to, points, BaseRollup.Stat.ALL);
     }
 
     @Override
@@ -103,12 +139,7 @@ public class HttpRollupsQueryHandler extends RollupHandler
                                           long from,
                                           long to,
                                           Resolution resolution) throws SerializationException {
-        rollupsByGranularityMeter.mark();
-        if (resolution == null) {
-            resolution = Resolution.FULL;
-        }
-        Granularity g = Granularity.granularities()[resolution.getValue()];
-        return getRollupByGranularity(tenantId, Arrays.asList(metric), from, to, g).get(Locator.createLocatorFromPathComponents(tenantId, metric));
+        return getMetricDataByResolution(tenantId, metric, from, to, resolution, BaseRollup.Stat.ALL);
     }
 
     @Override
@@ -18,6 +18,7 @@ package com.rackspacecloud.blueflood.outputs.utils;
 
 import com.rackspacecloud.blueflood.exceptions.InvalidRequestException;
 import com.rackspacecloud.blueflood.outputs.serializers.BasicRollupsOutputSerializer;
+import com.rackspacecloud.blueflood.types.BaseRollup;
 import com.rackspacecloud.blueflood.types.Resolution;
 
 import java.util.*;
@@ -143,4 +144,35 @@ public class PlotRequestParser {
             return filters;
         }
     }
+
+    /**
+     * Returns the stats of basic rollups that have to be read to output the specified stats. Basic rollups
+     * are read with the default stats of basic metrics when none were selected.
+     */
+    public static Set<BaseRollup.Stat> getRollupStatsToRead(Set<BasicRollupsOutputSerializer.MetricStat> filterStats) {
+        if (filterStats == DEFAULT_STATS) {
+            filterStats = DEFAULT_BASIC;
+        }
+        Set<BaseRollup.Stat> stats = EnumSet.noneOf(BaseRollup.Stat.class);
+        for (BasicRollupsOutputSerializer.MetricStat stat : filterStats) {
+            switch (stat) {
+                case AVERAGE:
+                    stats.add(BaseRollup.Stat.AVERAGE);
+                    break;
+                case VARIANCE:
+                    stats.add(BaseRollup.Stat.VARIANCE);
+                    break;
+                case MIN:
+                    stats.add(BaseRollup.Stat.MIN);
+                    break;
+                case MAX:
+                    stats.add(BaseRollup.Stat.MAX);
+                    break;
+                default:
+                    // the count and the sum are always read
+                    break;
+            }
+        }
+        return stats;
+    }
 }
@@ -19,6 +19,7 @@ package com.rackspacecloud.blueflood.utils;
 import com.rackspacecloud.blueflood.exceptions.InvalidRequestException;
 import com.rackspacecloud.blueflood.outputs.serializers.BasicRollupsOutputSerializer;
 import com.rackspacecloud.blueflood.outputs.utils.PlotRequestParser;
+import com.rackspacecloud.blueflood.types.BaseRollup;
 import junit.framework.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -56,6 +57,16 @@ public class PlotRequestParserTest {
         Assert.assertTrue(filters.contains(BasicRollupsOutputSerializer.MetricStat.SUM));
     }
     
+    @Test
+    public void testRollupStatsToRead() {
+        Set<BaseRollup.Stat> toRead = PlotRequestParser.getRollupStatsToRead(
+                PlotRequestParser.getStatsToFilter(Arrays.asList("max,numPoints,sum")));
+        Assert.assertEquals(EnumSet.of(BaseRollup.Stat.MAX), toRead);
+
+        toRead = PlotRequestParser.getRollupStatsToRead(PlotRequestParser.getStatsToFilter(null));
+        Assert.assertEquals(EnumSet.of(BaseRollup.Stat.AVERAGE), toRead);
+    }
+
     @Test
     public void testDefaultStatsAreNotEmpty() {
         Assert.assertTrue(PlotRequestParser.DEFAULT_BASIC.size() > 0);
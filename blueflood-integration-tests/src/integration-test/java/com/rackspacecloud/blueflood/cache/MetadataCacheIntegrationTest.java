@@ -34,8 +34,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import org.junit.Assert;
 import org.junit.Ignore;
@@ -107,6 +109,35 @@ public class MetadataCacheIntegrationTest extends IntegrationTestBase {
         cache.put(loc1, MetricMetadata.UNIT.name().toLowerCase(), "foo");
     }
 
+    @Test
+    public void testGetAll() throws Exception {
+        Locator loc1 = Locator.createLocatorFromPathComponents( getRandomTenantId(), "acOne", "ent", "chk", "mz", "met");
+        Locator loc2 = Locator.createLocatorFromPathComponents( getRandomTenantId(), "acTwo", "ent", "chk", "mz", "met");
+        Locator loc3 = Locator.createLocatorFromPathComponents( getRandomTenantId(), "acThree", "ent", "chk", "mz", "met");
+        MetadataCache cache1 = MetadataCache.createLoadingCacheInstance(new TimeValue(5, TimeUnit.MINUTES), 1);
+        MetadataCache cache2 = MetadataCache.createLoadingCacheInstance(new TimeValue(5, TimeUnit.MINUTES), 1);
+        cache1.setIO( metadataIO );
+        cache2.setIO( metadataIO );
+
+        cache1.put(loc1, "metaA", "one");
+        cache1.put(loc1, "metaB", "other");
+        cache1.put(loc2, "metaA", "two");
+
+        // loc1 is cached, loc2 and loc3 are read from the database.
+        Assert.assertEquals("one", cache2.get(loc1, "metaA"));
+        Map<Locator, String> values = cache2.getAll(Arrays.asList(loc1, loc2, loc3), "metaA");
+
+        Assert.assertEquals(3, values.size());
+        Assert.assertEquals("one", values.get(loc1));
+        Assert.assertEquals("two", values.get(loc2));
+        Assert.assertNull(values.get(loc3));
+
+        // the other metadata of the locators read is cached too.
+        Assert.assertTrue(cache2.containsKey(loc1, "metaB"));
+        Assert.assertTrue(cache2.containsKey(loc2, "metaA"));
+        Assert.assertTrue(cache2.containsKey(loc3, "metaA"));
+    }
+
     @Test
     public void testGet() throws Exception {
         Locator loc1 = Locator.createLocatorFromPathComponents( getRandomTenantId(), "acOne", "ent", "chk", "mz", "met");
@@ -110,6 +110,29 @@ public class ZKShardLockManagerIntegrationTest {
         lockManager.releaseLockUnsafe(shard);
     }
 
+    @Test
+    public void testClaimOrphanedShards() throws Exception {
+        final int shard = 1;
+        ZKShardLockManager otherLockManager = new ZKShardLockManager(zkTestServer.getZkConnect(), manageShards);
+        try {
+            Assert.assertTrue("Zookeeper connection is needed.", otherLockManager.waitForZKConnections(10));
+            otherLockManager.prefetchLocks();
+            Assert.assertFalse(otherLockManager.holdsLockUnsafe(shard));
+
+            // nothing to claim while the shard is held.
+            otherLockManager.claimOrphanedShards();
+            Assert.assertFalse(otherLockManager.holdsLockUnsafe(shard));
+
+            lockManager.releaseLockUnsafe(shard);
+            otherLockManager.claimOrphanedShards();
+
+            Assert.assertTrue(otherLockManager.holdsLockUnsafe(shard));
+            Assert.assertTrue(otherLockManager.canWork(shard));
+        } finally {
+            otherLockManager.shutdownUnsafe();
+        }
+    }
+
     @Test
     public void testZKConnectionLoss() throws Exception {
         final Integer shard = 1;
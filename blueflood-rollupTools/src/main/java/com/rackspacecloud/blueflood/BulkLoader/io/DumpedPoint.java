@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.BulkLoader.io;
+
+/**
+ * One metric point of a dump, as read from a line of a JSON-lines dump:
+ *
+ * {"tenantId": "123", "metricName": "a.b.c", "collectionTime": 1392811200000, "metricValue": 42.5}
+ *
+ * Like ingest, the value is a Long if it was dumped as an integer, and a Double otherwise.
+ */
+public class DumpedPoint {
+    private String tenantId;
+    private String metricName;
+    private long collectionTime;
+    private Number metricValue;
+
+    public DumpedPoint() {
+    }
+
+    public DumpedPoint(String tenantId, String metricName, long collectionTime, Number metricValue) {
+        this.tenantId = tenantId;
+        this.metricName = metricName;
+        this.collectionTime = collectionTime;
+        this.metricValue = metricValue;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+
+    public long getCollectionTime() {
+        return collectionTime;
+    }
+
+    public Number getMetricValue() {
+        return metricValue;
+    }
+}
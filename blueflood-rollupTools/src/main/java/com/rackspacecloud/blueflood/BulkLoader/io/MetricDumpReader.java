@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.BulkLoader.io;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the metric points of a dump, one at a time. Two formats are supported:
+ *
+ * json: one {@link DumpedPoint} per line, blank lines are ignored.
+ * binary: a sequence of records, each written with {@link java.io.DataOutputStream} as writeUTF(tenantId),
+ * writeUTF(metricName), writeLong(collectionTime), then writeByte('L') and writeLong(metricValue) for an integer
+ * value, or writeByte('D') and writeDouble(metricValue) for a floating point one.
+ *
+ * Files whose name ends in .gz are decompressed while they are read.
+ */
+public abstract class MetricDumpReader implements Closeable {
+
+    public enum Format { JSON, BINARY }
+
+    /**
+     * @return the next point of the dump, or null at the end of the dump
+     */
+    public abstract DumpedPoint next() throws IOException;
+
+    public static MetricDumpReader open(File file, Format format) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        switch (format) {
+            case JSON:
+                return new JsonLinesReader(file, in);
+            case BINARY:
+                return new BinaryReader(file, in);
+            default:
+                in.close();
+                throw new IllegalArgumentException("Unsupported dump format " + format);
+        }
+    }
+
+    private static class JsonLinesReader extends MetricDumpReader {
+        private final Gson gson = new Gson();
+        private final File file;
+        private final BufferedReader reader;
+        private long lineNumber = 0;
+
+        JsonLinesReader(File file, InputStream in) {
+            this.file = file;
+            this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public DumpedPoint next() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                DumpedPoint point;
+                try {
+                    point = gson.fromJson(line, DumpedPoint.class);
+                } catch (JsonParseException e) {
+                    throw new IOException(String.format("Invalid point at %s:%d", file, lineNumber), e);
+                }
+                if (point.getTenantId() == null || point.getMetricName() == null || point.getMetricValue() == null) {
+                    throw new IOException(String.format("Point without tenantId, metricName or metricValue at %s:%d",
+                            file, lineNumber));
+                }
+                return new DumpedPoint(point.getTenantId(), point.getMetricName(), point.getCollectionTime(),
+                        toLongOrDouble(point.getMetricValue()));
+            }
+            return null;
+        }
+
+        /**
+         * Gson reads numbers lazily, so this keeps integers as Longs and the other numbers as Doubles, which is what
+         * ingest does.
+         */
+        private static Number toLongOrDouble(Number value) {
+            String text = value.toString();
+            try {
+                return Long.parseLong(text);
+            } catch (NumberFormatException e) {
+                return Double.parseDouble(text);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class BinaryReader extends MetricDumpReader {
+        private final File file;
+        private final PushbackInputStream pushback;
+        private final DataInputStream in;
+        private long records = 0;
+
+        BinaryReader(File file, InputStream in) {
+            this.file = file;
+            this.pushback = new PushbackInputStream(in);
+            this.in = new DataInputStream(pushback);
+        }
+
+        @Override
+        public DumpedPoint next() throws IOException {
+            // only the end of the file between two records is the end of the dump, anywhere else it is truncated
+            int b = pushback.read();
+            if (b < 0) {
+                return null;
+            }
+            pushback.unread(b);
+            try {
+                String tenantId = in.readUTF();
+                String metricName = in.readUTF();
+                long collectionTime = in.readLong();
+                Number value;
+                byte type = in.readByte();
+                if (type == 'L') {
+                    value = in.readLong();
+                } else if (type == 'D') {
+                    value = in.readDouble();
+                } else {
+                    throw new IOException(String.format("Unknown value type %d", type));
+                }
+                records++;
+                return new DumpedPoint(tenantId, metricName, collectionTime, value);
+            } catch (IOException e) {
+                throw new IOException(String.format("Truncated or invalid record %d in %s", records + 1, file), e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.BulkLoader.io;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.rackspacecloud.blueflood.cache.TenantTtlProvider;
+import com.rackspacecloud.blueflood.exceptions.GranularityException;
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.io.serializers.metrics.BasicRollupSerDes;
+import com.rackspacecloud.blueflood.io.serializers.metrics.RawSerDes;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.types.Locator;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.Rollup;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import com.rackspacecloud.blueflood.utils.Util;
+import org.apache.cassandra.exceptions.InvalidRequestException;
+import org.apache.cassandra.io.sstable.CQLSSTableWriter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Writes the full resolution points of metrics, their basic rollups for every granularity and their locators, as
+ * SSTables of the metrics_full, metrics_5m to metrics_1440m and metrics_locator tables, to be streamed into the
+ * cluster with sstableloader.
+ *
+ * The 5m rollups are computed from the full resolution points, and each coarser granularity from the one before it,
+ * with the same {@link Rollup.Type} computers the rollup service uses. Rows get the default TTL of their table,
+ * counted from the collection time of the point or the end of the rollup slot, so loaded history expires when it
+ * would have had it been ingested live. Rows that would already have expired are not written.
+ *
+ * Loaded rows replace the rows of the same metric and timestamp that are already in the cluster. In particular the
+ * rollups of a slot are computed from the dumped points alone, so loading a dump that overlaps slots which already
+ * hold live points replaces their rollups with ones that leave out the live points. Only load history from before
+ * the metrics were ingested live, or reroll the overlapping slots after the load.
+ *
+ * The SSTables of each table are written to their own directory, &lt;output dir&gt;/&lt;keyspace&gt;/&lt;table&gt;, which
+ * is the layout sstableloader expects. This class is not thread safe.
+ */
+public class SSTableBulkWriter implements Closeable {
+
+    private static final String METRICS_SCHEMA =
+            "CREATE TABLE \"%s\".%s (key text, column1 bigint, value blob, PRIMARY KEY (key, column1)) WITH COMPACT STORAGE";
+    private static final String METRICS_INSERT =
+            "INSERT INTO \"%s\".%s (key, column1, value) VALUES (?, ?, ?) USING TTL ?";
+    private static final String LOCATOR_SCHEMA =
+            "CREATE TABLE \"%s\".%s (key bigint, column1 text, value text, PRIMARY KEY (key, column1)) WITH COMPACT STORAGE";
+    private static final String LOCATOR_INSERT =
+            "INSERT INTO \"%s\".%s (key, column1, value) VALUES (?, ?, ?) USING TTL ?";
+
+    private static final RawSerDes rawSerDes = new RawSerDes();
+    private static final BasicRollupSerDes basicRollupSerDes = new BasicRollupSerDes();
+
+    private final Map<Granularity, CQLSSTableWriter> metricWriters = new HashMap<Granularity, CQLSSTableWriter>();
+    private final CQLSSTableWriter locatorWriter;
+    private final long nowMillis;
+
+    private long rowsWritten = 0;
+    private long rowsExpired = 0;
+
+    /**
+     * @param outputDir the directory the SSTables are written under
+     * @param granularities the granularities to write, full resolution included; the others are only computed
+     * @param bufferSizeMB how much of each table is buffered before an SSTable is flushed
+     * @param nowMillis the time the TTLs are counted to
+     */
+    public SSTableBulkWriter(File outputDir, Set<Granularity> granularities, int bufferSizeMB, long nowMillis) {
+        for (Granularity granularity : granularities) {
+            metricWriters.put(granularity, createWriter(outputDir, granularity.name(), METRICS_SCHEMA, METRICS_INSERT,
+                    bufferSizeMB));
+        }
+        this.locatorWriter = createWriter(outputDir, CassandraModel.CF_METRICS_LOCATOR_NAME, LOCATOR_SCHEMA,
+                LOCATOR_INSERT, bufferSizeMB);
+        this.nowMillis = nowMillis;
+    }
+
+    private static CQLSSTableWriter createWriter(File outputDir, String table, String schema, String insert,
+                                                 int bufferSizeMB) {
+        File tableDir = new File(new File(outputDir, CassandraModel.KEYSPACE), table);
+        if (!tableDir.isDirectory() && !tableDir.mkdirs()) {
+            throw new IllegalArgumentException("Could not create the output directory " + tableDir);
+        }
+        return CQLSSTableWriter.builder()
+                .inDirectory(tableDir)
+                .forTable(String.format(schema, CassandraModel.KEYSPACE, table))
+                .using(String.format(insert, CassandraModel.KEYSPACE, table))
+                .withBufferSizeInMB(bufferSizeMB)
+                .build();
+    }
+
+    /**
+     * Writes the points of a metric, all of its rollups and its locator.
+     */
+    public void write(Locator locator, SeriesBuffer series) throws IOException {
+        if (series.size() == 0) {
+            return;
+        }
+        series.sort();
+        String key = locator.toString();
+
+        Points<SimpleNumber> slotPoints = new Points<SimpleNumber>();
+        long slot = Granularity.MIN_5.snapMillis(series.getTimestamp(0));
+        TreeMap<Long, BasicRollup> rollups = new TreeMap<Long, BasicRollup>();
+
+        for (int i = 0; i < series.size(); i++) {
+            long timestamp = series.getTimestamp(i);
+            SimpleNumber value = new SimpleNumber(series.getValue(i));
+            addMetricRow(Granularity.FULL, key, timestamp, rawSerDes.serialize(value.getValue()), timestamp);
+
+            long pointSlot = Granularity.MIN_5.snapMillis(timestamp);
+            if (pointSlot != slot) {
+                rollups.put(slot, Rollup.BasicFromRaw.compute(slotPoints));
+                slotPoints = new Points<SimpleNumber>();
+                slot = pointSlot;
+            }
+            slotPoints.add(new Points.Point<SimpleNumber>(timestamp, value));
+        }
+        rollups.put(slot, Rollup.BasicFromRaw.compute(slotPoints));
+
+        Granularity granularity = Granularity.MIN_5;
+        while (true) {
+            writeRollups(granularity, key, rollups);
+            if (granularity == Granularity.LAST) {
+                break;
+            }
+            try {
+                granularity = granularity.coarser();
+            } catch (GranularityException e) {
+                throw new IOException(e);
+            }
+            rollups = rollUp(granularity, rollups);
+        }
+
+        addRow(locatorWriter, (long) Util.getShard(key), key, "", TenantTtlProvider.LOCATOR_TTL);
+    }
+
+    /**
+     * Computes the rollups of a granularity from the rollups of the granularity before it.
+     */
+    @VisibleForTesting
+    static TreeMap<Long, BasicRollup> rollUp(Granularity granularity, TreeMap<Long, BasicRollup> finer)
+            throws IOException {
+        TreeMap<Long, BasicRollup> rollups = new TreeMap<Long, BasicRollup>();
+        Points<BasicRollup> slotRollups = new Points<BasicRollup>();
+        long slot = granularity.snapMillis(finer.firstKey());
+
+        for (Map.Entry<Long, BasicRollup> entry : finer.entrySet()) {
+            long finerSlot = granularity.snapMillis(entry.getKey());
+            if (finerSlot != slot) {
+                rollups.put(slot, Rollup.BasicFromBasic.compute(slotRollups));
+                slotRollups = new Points<BasicRollup>();
+                slot = finerSlot;
+            }
+            slotRollups.add(new Points.Point<BasicRollup>(entry.getKey(), entry.getValue()));
+        }
+        rollups.put(slot, Rollup.BasicFromBasic.compute(slotRollups));
+        return rollups;
+    }
+
+    private void writeRollups(Granularity granularity, String key, TreeMap<Long, BasicRollup> rollups)
+            throws IOException {
+        if (!metricWriters.containsKey(granularity)) {
+            return;
+        }
+        for (Map.Entry<Long, BasicRollup> entry : rollups.entrySet()) {
+            addMetricRow(granularity, key, entry.getKey(), basicRollupSerDes.serialize(entry.getValue()),
+                    entry.getKey() + granularity.milliseconds());
+        }
+    }
+
+    private void addMetricRow(Granularity granularity, String key, long column, ByteBuffer value, long writtenAtMillis)
+            throws IOException {
+        CQLSSTableWriter writer = metricWriters.get(granularity);
+        if (writer == null) {
+            return;
+        }
+        long ttlSeconds = getTtlSeconds(granularity, writtenAtMillis, nowMillis);
+        if (ttlSeconds <= 0) {
+            rowsExpired++;
+            return;
+        }
+        addRow(writer, key, column, value, (int) ttlSeconds);
+    }
+
+    /**
+     * @return the default TTL of the table of a granularity, minus the time that passed since the row would have been
+     * written live; zero or less if the row would already have expired
+     */
+    @VisibleForTesting
+    static long getTtlSeconds(Granularity granularity, long writtenAtMillis, long nowMillis) {
+        return CassandraModel.getBasicColumnFamily(granularity).getDefaultTTL().toSeconds()
+                - (nowMillis - writtenAtMillis) / 1000;
+    }
+
+    private void addRow(CQLSSTableWriter writer, Object... values) throws IOException {
+        try {
+            writer.addRow(values);
+            rowsWritten++;
+        } catch (InvalidRequestException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return the number of rows written to all tables
+     */
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * @return the number of rows not written because their TTL had already passed
+     */
+    public long getRowsExpired() {
+        return rowsExpired;
+    }
+
+    /**
+     * Flushes the rows still buffered to SSTables.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (CQLSSTableWriter writer : metricWriters.values()) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        locatorWriter.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.BulkLoader.io;
+
+import java.util.Arrays;
+
+/**
+ * The points of one metric, kept in primitive arrays so that a dump of many millions of points fits in memory.
+ * Points are appended in the order they are read, and {@link #sort()} orders them by collection time before the
+ * rollups are computed.
+ *
+ * Each value is kept as a long, or as the bits of a double, with a flag telling which, so that points are written
+ * as the same Long or Double ingest would have written.
+ */
+public class SeriesBuffer {
+    private long[] timestamps = new long[16];
+    private long[] values = new long[16];
+    private boolean[] floatingPoint = new boolean[16];
+    private int size = 0;
+
+    /**
+     * @param value a Double or Float is kept as a double, any other number as a long
+     */
+    public void add(long timestamp, Number value) {
+        if (value instanceof Double || value instanceof Float) {
+            add(timestamp, Double.doubleToRawLongBits(value.doubleValue()), true);
+        } else {
+            add(timestamp, value.longValue(), false);
+        }
+    }
+
+    private void add(long timestamp, long value, boolean isFloatingPoint) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            floatingPoint = Arrays.copyOf(floatingPoint, size * 2);
+        }
+        timestamps[size] = timestamp;
+        values[size] = value;
+        floatingPoint[size] = isFloatingPoint;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    /**
+     * @return a Long or a Double, as the value was added
+     */
+    public Number getValue(int i) {
+        if (floatingPoint[i]) {
+            return Double.longBitsToDouble(values[i]);
+        }
+        return values[i];
+    }
+
+    /**
+     * Sorts the points by collection time. When a timestamp was dumped more than once, the point read last is kept,
+     * like the last write of a column is in Cassandra.
+     */
+    public void sort() {
+        if (!isSorted()) {
+            // a stable sort, so that the order points with the same timestamp were read in is kept
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            mergeSort(order, new int[size], 0, size);
+
+            long[] sortedTimestamps = new long[size];
+            long[] sortedValues = new long[size];
+            boolean[] sortedFloatingPoint = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                sortedTimestamps[i] = timestamps[order[i]];
+                sortedValues[i] = values[order[i]];
+                sortedFloatingPoint[i] = floatingPoint[order[i]];
+            }
+            timestamps = sortedTimestamps;
+            values = sortedValues;
+            floatingPoint = sortedFloatingPoint;
+        }
+
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (kept > 0 && timestamps[kept - 1] == timestamps[i]) {
+                values[kept - 1] = values[i];
+                floatingPoint[kept - 1] = floatingPoint[i];
+            } else {
+                timestamps[kept] = timestamps[i];
+                values[kept] = values[i];
+                floatingPoint[kept] = floatingPoint[i];
+                kept++;
+            }
+        }
+        size = kept;
+    }
+
+    private boolean isSorted() {
+        for (int i = 1; i < size; i++) {
+            if (timestamps[i] < timestamps[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void mergeSort(int[] order, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(order, scratch, from, middle);
+        mergeSort(order, scratch, middle, to);
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && timestamps[scratch[left]] <= timestamps[scratch[right]])) {
+                order[i] = scratch[left++];
+            } else {
+                order[i] = scratch[right++];
+            }
+        }
+    }
+}
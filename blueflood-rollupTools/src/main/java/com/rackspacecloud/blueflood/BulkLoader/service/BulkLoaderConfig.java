@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.BulkLoader.service;
+
+import com.rackspacecloud.blueflood.service.ConfigDefaults;
+import com.rackspacecloud.blueflood.service.Configuration;
+
+public enum BulkLoaderConfig implements ConfigDefaults {
+    // comma separated list of dump files; files ending in .gz are read through gzip
+    BULK_LOAD_INPUT_FILES(""),
+    // json (one metric point per line) or binary
+    BULK_LOAD_INPUT_FORMAT("json"),
+    // the SSTables are written to <dir>/<ROLLUP_KEYSPACE>/<table>, ready for sstableloader
+    BULK_LOAD_OUTPUT_DIR("/tmp/blueflood_bulk_load"),
+    // how much of each table is buffered in memory before an SSTable is flushed
+    BULK_LOAD_BUFFER_SIZE_MB("64"),
+
+    METRICS_5M_ENABLED("true"),
+    METRICS_20M_ENABLED("true"),
+    METRICS_60M_ENABLED("true"),
+    METRICS_240M_ENABLED("true"),
+    METRICS_1440M_ENABLED("true");
+
+    static {
+        Configuration.getInstance().loadDefaults(BulkLoaderConfig.values());
+    }
+    private String defaultValue;
+    private BulkLoaderConfig(String value) {
+        this.defaultValue = value;
+    }
+    public String getDefaultValue() {
+        return defaultValue;
+    }
+}
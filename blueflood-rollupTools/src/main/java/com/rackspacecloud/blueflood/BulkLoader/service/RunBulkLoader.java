@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.BulkLoader.service;
+
+import com.rackspacecloud.blueflood.BulkLoader.io.DumpedPoint;
+import com.rackspacecloud.blueflood.BulkLoader.io.MetricDumpReader;
+import com.rackspacecloud.blueflood.BulkLoader.io.SSTableBulkWriter;
+import com.rackspacecloud.blueflood.BulkLoader.io.SeriesBuffer;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.service.Configuration;
+import com.rackspacecloud.blueflood.types.Locator;
+import org.apache.cassandra.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads metric dumps into SSTables, instead of ingesting them through the write path. All the points of the dumps are
+ * read into memory and grouped by metric, then the points, rollups and locators of each metric are written out.
+ */
+public class RunBulkLoader {
+    private static final Logger log = LoggerFactory.getLogger(RunBulkLoader.class);
+
+    public static void main(String args[]) {
+        Configuration conf = Configuration.getInstance();
+        MetricDumpReader.Format format = MetricDumpReader.Format.valueOf(
+                conf.getStringProperty(BulkLoaderConfig.BULK_LOAD_INPUT_FORMAT).toUpperCase());
+        File outputDir = new File(conf.getStringProperty(BulkLoaderConfig.BULK_LOAD_OUTPUT_DIR));
+
+        Set<Granularity> granularities = new HashSet<Granularity>();
+        granularities.add(Granularity.FULL);
+        addIfEnabled(granularities, Granularity.MIN_5, BulkLoaderConfig.METRICS_5M_ENABLED);
+        addIfEnabled(granularities, Granularity.MIN_20, BulkLoaderConfig.METRICS_20M_ENABLED);
+        addIfEnabled(granularities, Granularity.MIN_60, BulkLoaderConfig.METRICS_60M_ENABLED);
+        addIfEnabled(granularities, Granularity.MIN_240, BulkLoaderConfig.METRICS_240M_ENABLED);
+        addIfEnabled(granularities, Granularity.MIN_1440, BulkLoaderConfig.METRICS_1440M_ENABLED);
+
+        // the SSTables are written without a running node
+        Config.setClientMode(true);
+
+        try {
+            Map<Locator, SeriesBuffer> series = new HashMap<Locator, SeriesBuffer>();
+            long points = 0;
+            for (String fileName : conf.getListProperty(BulkLoaderConfig.BULK_LOAD_INPUT_FILES)) {
+                points += read(new File(fileName.trim()), format, series);
+                log.info(String.format("Read %s, %d points of %d metrics so far", fileName, points, series.size()));
+            }
+
+            long start = System.currentTimeMillis();
+            SSTableBulkWriter writer = new SSTableBulkWriter(outputDir, granularities,
+                    conf.getIntegerProperty(BulkLoaderConfig.BULK_LOAD_BUFFER_SIZE_MB), start);
+            int written = 0;
+            try {
+                Iterator<Map.Entry<Locator, SeriesBuffer>> iterator = series.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Locator, SeriesBuffer> entry = iterator.next();
+                    writer.write(entry.getKey(), entry.getValue());
+                    // let the points of written metrics be collected
+                    iterator.remove();
+                    if (++written % 10000 == 0) {
+                        log.info(String.format("Wrote %d metrics, %d to go", written, series.size()));
+                    }
+                }
+            } finally {
+                writer.close();
+            }
+            log.info(String.format("Wrote %d rows of %d metrics to %s in %d seconds, skipped %d expired rows. " +
+                    "Load them with sstableloader.", writer.getRowsWritten(), written, outputDir,
+                    (System.currentTimeMillis() - start) / 1000, writer.getRowsExpired()));
+            System.exit(0);
+        } catch (Exception e) {
+            log.error("Bulk load failed", e);
+            System.exit(1);
+        }
+    }
+
+    private static void addIfEnabled(Set<Granularity> granularities, Granularity granularity, BulkLoaderConfig enabled) {
+        if (Configuration.getInstance().getBooleanProperty(enabled)) {
+            granularities.add(granularity);
+        }
+    }
+
+    private static long read(File file, MetricDumpReader.Format format, Map<Locator, SeriesBuffer> series)
+            throws IOException {
+        long points = 0;
+        MetricDumpReader reader = MetricDumpReader.open(file, format);
+        try {
+            DumpedPoint point;
+            while ((point = reader.next()) != null) {
+                Locator locator = Locator.createLocatorFromPathComponents(point.getTenantId(), point.getMetricName());
+                SeriesBuffer buffer = series.get(locator);
+                if (buffer == null) {
+                    buffer = new SeriesBuffer();
+                    series.put(locator, buffer);
+                }
+                buffer.add(point.getCollectionTime(), point.getMetricValue());
+                points++;
+            }
+        } finally {
+            reader.close();
+        }
+        return points;
+    }
+}
@@ -17,44 +17,44 @@ package com.rackspacecloud.blueflood.ManualRollupTool.io;
 
 import com.codahale.metrics.*;
 import com.codahale.metrics.Timer;
-import com.google.common.base.Function;
-import com.netflix.astyanax.model.Column;
-import com.netflix.astyanax.model.ColumnList;
-import com.netflix.astyanax.model.Row;
-import com.netflix.astyanax.recipes.reader.AllRowsReader;
 import com.rackspacecloud.blueflood.ManualRollupTool.io.handlers.ReRollWork;
 import com.rackspacecloud.blueflood.ManualRollupTool.service.RollupToolConfig;
-import com.rackspacecloud.blueflood.concurrent.ThreadPoolBuilder;
-import com.rackspacecloud.blueflood.io.astyanax.AstyanaxIO;
 import com.rackspacecloud.blueflood.io.CassandraModel;
 import com.rackspacecloud.blueflood.io.CassandraModel.MetricColumnFamily;
+import com.rackspacecloud.blueflood.io.datastax.DatastaxIO;
+import com.rackspacecloud.blueflood.io.datastax.ScanCheckpoints;
+import com.rackspacecloud.blueflood.io.datastax.TokenRangeScanner;
 import com.rackspacecloud.blueflood.rollup.Granularity;
 import com.rackspacecloud.blueflood.service.*;
 import com.rackspacecloud.blueflood.types.*;
 import com.rackspacecloud.blueflood.utils.Metrics;
 import com.rackspacecloud.blueflood.utils.Util;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.*;
 
-public class ManualRollup extends AstyanaxIO {
-
-    private static final Meter nullRows = Metrics.meter(ManualRollup.class, "Null Rows Found");
-    private static final Timer rerollTimerPerShard = Metrics.timer(ManualRollup.class, "Time taken to rollup per shard");
-    private static final Set<MetricColumnFamily> columnFamiliesEnabled = new HashSet<MetricColumnFamily>();
+/**
+ * Re-rolls the locators of some shards, for the enabled granularities, by scanning metrics_locator
+ * with a {@link TokenRangeScanner}. The locators are rolled up by MAX_REROLL_THREADS scan threads,
+ * and the token ranges completed are recorded in CHECKPOINT_FILE, if set, so an interrupted run
+ * resumes where it stopped.
+ */
+public class ManualRollup {
 
-    private final ThreadPoolExecutor rollupExecutors = new ThreadPoolBuilder()
-                    .withUnboundedQueue()
-                    .withCorePoolSize(Configuration.getInstance().getIntegerProperty(RollupToolConfig.MAX_REROLL_THREADS))
-                    .withMaxPoolSize(Configuration.getInstance().getIntegerProperty(RollupToolConfig.MAX_REROLL_THREADS))
-                    .withName("ReRollup ThreadPool")
-                    .build();
+    private static final Meter skippedLocators = Metrics.meter(ManualRollup.class, "Locators Of Other Shards Skipped");
+    private static final Timer rerollTimerPerGranularity = Metrics.timer(ManualRollup.class, "Time taken to rollup per granularity");
+    private static final Set<MetricColumnFamily> columnFamiliesEnabled = new LinkedHashSet<MetricColumnFamily>();
 
     private static final Logger log = LoggerFactory.getLogger(ManualRollup.class);
     private static final long START_MILLIS = Configuration.getInstance().getLongProperty(RollupToolConfig.START_MILLIS);
     private static final long STOP_MILLIS = Configuration.getInstance().getLongProperty(RollupToolConfig.STOP_MILLIS);
+    private static final int MAX_REROLL_THREADS = Configuration.getInstance().getIntegerProperty(RollupToolConfig.MAX_REROLL_THREADS);
+    private static final int MAX_LOCATORS_PER_SECOND = Configuration.getInstance().getIntegerProperty(RollupToolConfig.MAX_LOCATORS_PER_SECOND);
+    private static final String CHECKPOINT_FILE = Configuration.getInstance().getStringProperty(RollupToolConfig.CHECKPOINT_FILE);
     private static final Collection<Integer> shardsToManuallyRollup = Collections.unmodifiableCollection(
             Util.parseShards(Configuration.getInstance().getStringProperty(RollupToolConfig.SHARDS_TO_MANUALLY_ROLLUP)));
 
@@ -74,98 +74,59 @@ public class ManualRollup extends AstyanaxIO {
         for (MetricColumnFamily columnFamily : columnFamiliesEnabled) {
             log.info("\t~\tWILL manually rollup " + columnFamily.getName());
         }
-        for (MetricColumnFamily columnFamily : columnFamiliesEnabled) {
-            log.info("\t~\t~\tSTARTING to manually rollup " + columnFamily.getName());
-            rollupCf(columnFamily);
-            log.info("\t~\t~\tFinished rolling up " + columnFamily.getName());
+
+        ScanCheckpoints checkpoints = null;
+        try {
+            if (StringUtils.isNotEmpty(CHECKPOINT_FILE)) {
+                checkpoints = new ScanCheckpoints(new File(CHECKPOINT_FILE));
+                log.info("\t~\tResuming from " + checkpoints.getCompletedCount() + " token ranges in " + CHECKPOINT_FILE);
+            }
+            for (MetricColumnFamily columnFamily : columnFamiliesEnabled) {
+                log.info("\t~\t~\tSTARTING to manually rollup " + columnFamily.getName());
+                rollupCf(columnFamily, checkpoints);
+                log.info("\t~\t~\tFinished rolling up " + columnFamily.getName());
+            }
+        } catch (IOException e) {
+            log.error("Fatal error while re-rolling data, run the tool again to resume", e);
+            throw new RuntimeException(e);
+        } finally {
+            if (checkpoints != null) {
+                try {
+                    checkpoints.close();
+                } catch (IOException e) {
+                    log.warn("Error closing " + CHECKPOINT_FILE, e);
+                }
+            }
         }
         log.info("\t~\tCompleted");
     }
 
-    private void rollupCf(final MetricColumnFamily columnFamily) {
+    private void rollupCf(final MetricColumnFamily columnFamily, ScanCheckpoints checkpoints) throws IOException {
 
         final Granularity gran = Granularity.fromString(columnFamily.getName());
-        Function<Row<Long, Locator>, Boolean> rowFunction = new Function<Row<Long, Locator>, Boolean>() {
-
-            @Override
-            public Boolean apply(Row<Long, Locator> row) {
-
-                if (!shardsToManuallyRollup.contains(row.getKey().intValue())) {
-                    log.info("\t~\t~\tSkipping shard " + row.getKey());
-                    return true;
-                }
-
-                Timer.Context rerollContext = rerollTimerPerShard.time();
-
-                if (row == null) {
-                    log.warn("Found a null row");
-                    nullRows.mark();
-                    return true;
-                }
-
-                log.info("\t~\t~\tReRolling up for shard " + row.getKey());
-                ColumnList<Locator> columns = row.getColumns();
-                ArrayList<ReRollWork> work = new ArrayList<ReRollWork>();
-
-                for (Column<Locator> column : columns) {
-                    Locator locator = column.getName();
-                    work.add(new ReRollWork(locator, gran, new Range(START_MILLIS, STOP_MILLIS)));
-                }
-
-                List<Future<Boolean>> retList = null;
-                try {
-                    retList = rollupExecutors.invokeAll(work);
-                } catch (InterruptedException e) {}
-
-                boolean notDone = true;
-
-                //We need to do this dance, because 1)We need to stop whenever an exception has encountered 2)Just keep on adding tasks to the work queue and blowing the stack. this will essentially block per shard
-                while (notDone) {
-                    int doneCount = 0;
-
-                    for(Future<Boolean> myFut : retList) {
-                        if(myFut.isDone()) {
-                            doneCount++;
-                        }
-                    }
-
-                    if(doneCount == retList.size())
-                        notDone = false;
-                }
-
-                try {
-
-                    for (Future<Boolean> retFut : retList) {
-                        //Calling get will throw any suppressed exception from ReRoll Work
-                        retFut.get();
-                    }
-
-                } catch (Exception e) {
-                    log.error("Fatal exception while re-rolling data", e);
-                    throw new RuntimeException();
-                } finally {
-                    rerollContext.stop();
-                }
-
-                return true;
-            }
-        };
+        final Range range = new Range(START_MILLIS, STOP_MILLIS);
 
+        TokenRangeScanner scanner = TokenRangeScanner.builder(DatastaxIO.getSession(), CassandraModel.CF_METRICS_LOCATOR_NAME)
+                .withName(CassandraModel.CF_METRICS_LOCATOR_NAME + " to " + columnFamily.getName())
+                .withColumns("key", "column1")
+                .withThreads(MAX_REROLL_THREADS)
+                .withMaxRowsPerSecond(MAX_LOCATORS_PER_SECOND)
+                .withCheckpoints(checkpoints)
+                .build();
 
+        Timer.Context rerollContext = rerollTimerPerGranularity.time();
         try {
-            //Get all the locators per shard one by one
-            boolean result = new AllRowsReader.Builder<Long, Locator>(getKeyspace(), CassandraModel.CF_METRICS_LOCATOR)
-                                       .withPageSize(1) //Wide rows
-                                       .withConcurrencyLevel(1)
-                                       .forEachRow(rowFunction)
-                                       .withPartitioner(null)
-                                       .build()
-                                       .call();
-        } catch (Exception e) {
-            log.error("Fatal error in AllRowsReader", e);
-            throw new RuntimeException(e);
+            // the rows of metrics_locator are the locators of each shard, a failed locator fails its token range
+            scanner.scan(row -> {
+                if (!shardsToManuallyRollup.contains((int) row.getLong("key"))) {
+                    skippedLocators.mark();
+                    return;
+                }
+                Locator locator = Locator.createLocatorFromDbKey(row.getString("column1"));
+                new ReRollWork(locator, gran, range).call();
+            });
         } finally {
-            rollupExecutors.shutdown();
+            rerollContext.stop();
         }
     }
 }
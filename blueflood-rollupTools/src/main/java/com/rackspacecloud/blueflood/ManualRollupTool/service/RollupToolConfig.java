@@ -23,6 +23,10 @@ public enum RollupToolConfig implements ConfigDefaults {
     START_MILLIS("1392811200000"), // Human time (GMT): Wed, 19 Feb 2014 12:00:00 GMT
     STOP_MILLIS("1392984000000"),  //                   Fri, 21 Feb 2014 12:00:00 GMT
     MAX_REROLL_THREADS("2"),
+    // 0 for no limit
+    MAX_LOCATORS_PER_SECOND("0"),
+    // when set, the token ranges of metrics_locator re-rolled are recorded in this file, to resume an interrupted run
+    CHECKPOINT_FILE(""),
 
     METRICS_5M_ENABLED("true"),
     METRICS_20M_ENABLED("false"),
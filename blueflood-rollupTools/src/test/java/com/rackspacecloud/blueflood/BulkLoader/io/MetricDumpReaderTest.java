@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.BulkLoader.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MetricDumpReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void jsonDumpKeepsIntegersAsLongs() throws Exception {
+        File file = writeJson("dump.json",
+                "{\"tenantId\": \"123\", \"metricName\": \"a.b.c\", \"collectionTime\": 1000, \"metricValue\": 42}",
+                "",
+                "{\"tenantId\": \"123\", \"metricName\": \"a.b.d\", \"collectionTime\": 2000, \"metricValue\": 42.5}");
+
+        MetricDumpReader reader = MetricDumpReader.open(file, MetricDumpReader.Format.JSON);
+        try {
+            DumpedPoint first = reader.next();
+            assertEquals("123", first.getTenantId());
+            assertEquals("a.b.c", first.getMetricName());
+            assertEquals(1000L, first.getCollectionTime());
+            assertEquals(42L, first.getMetricValue());
+
+            DumpedPoint second = reader.next();
+            assertEquals("a.b.d", second.getMetricName());
+            assertEquals(42.5d, second.getMetricValue());
+
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void gzippedJsonDumpIsDecompressed() throws Exception {
+        File file = folder.newFile("dump.json.gz");
+        Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8);
+        writer.write("{\"tenantId\": \"123\", \"metricName\": \"a.b.c\", \"collectionTime\": 1000, \"metricValue\": 1e3}\n");
+        writer.close();
+
+        MetricDumpReader reader = MetricDumpReader.open(file, MetricDumpReader.Format.JSON);
+        try {
+            assertEquals(1000.0d, reader.next().getMetricValue());
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void jsonPointWithoutValueIsRejected() throws Exception {
+        File file = writeJson("dump.json", "{\"tenantId\": \"123\", \"metricName\": \"a.b.c\", \"collectionTime\": 1000}");
+
+        MetricDumpReader reader = MetricDumpReader.open(file, MetricDumpReader.Format.JSON);
+        try {
+            reader.next();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void binaryDumpKeepsValueTypes() throws Exception {
+        File file = folder.newFile("dump.bin");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        writeRecord(out, "123", "a.b.c", 1000, 'L');
+        out.writeLong(Long.MAX_VALUE);
+        writeRecord(out, "123", "a.b.d", 2000, 'D');
+        out.writeDouble(42.5);
+        out.close();
+
+        MetricDumpReader reader = MetricDumpReader.open(file, MetricDumpReader.Format.BINARY);
+        try {
+            DumpedPoint first = reader.next();
+            assertEquals("123", first.getTenantId());
+            assertEquals("a.b.c", first.getMetricName());
+            assertEquals(1000L, first.getCollectionTime());
+            assertEquals(Long.MAX_VALUE, first.getMetricValue());
+
+            DumpedPoint second = reader.next();
+            assertEquals("a.b.d", second.getMetricName());
+            assertEquals(2000L, second.getCollectionTime());
+            assertEquals(42.5d, second.getMetricValue());
+
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedBinaryRecordIsRejected() throws Exception {
+        File file = folder.newFile("dump.bin");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        writeRecord(out, "123", "a.b.c", 1000, 'L');
+        out.writeInt(1);
+        out.close();
+
+        MetricDumpReader reader = MetricDumpReader.open(file, MetricDumpReader.Format.BINARY);
+        try {
+            reader.next();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownBinaryValueTypeIsRejected() throws Exception {
+        File file = folder.newFile("dump.bin");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        writeRecord(out, "123", "a.b.c", 1000, 'X');
+        out.writeLong(1);
+        out.close();
+
+        MetricDumpReader reader = MetricDumpReader.open(file, MetricDumpReader.Format.BINARY);
+        try {
+            reader.next();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private File writeJson(String name, String... lines) throws IOException {
+        File file = folder.newFile(name);
+        OutputStream out = new FileOutputStream(file);
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            writer.write(line);
+            writer.write('\n');
+        }
+        writer.close();
+        return file;
+    }
+
+    private static void writeRecord(DataOutputStream out, String tenantId, String metricName, long collectionTime,
+                                    char type) throws IOException {
+        out.writeUTF(tenantId);
+        out.writeUTF(metricName);
+        out.writeLong(collectionTime);
+        out.writeByte(type);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.BulkLoader.io;
+
+import com.rackspacecloud.blueflood.io.CassandraModel;
+import com.rackspacecloud.blueflood.rollup.Granularity;
+import com.rackspacecloud.blueflood.types.BasicRollup;
+import com.rackspacecloud.blueflood.types.Points;
+import com.rackspacecloud.blueflood.types.SimpleNumber;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class SSTableBulkWriterTest {
+
+    private static final long SLOT = Granularity.MIN_20.snapMillis(1500000000000L);
+    private static final long MIN_5 = Granularity.MIN_5.milliseconds();
+    private static final long MIN_20 = Granularity.MIN_20.milliseconds();
+
+    @Test
+    public void rollUpSplitsRollupsAtSlotBoundaries() throws Exception {
+        TreeMap<Long, BasicRollup> finer = new TreeMap<Long, BasicRollup>();
+        finer.put(SLOT, rollup(SLOT, 1L, 2L));
+        finer.put(SLOT + 3 * MIN_5, rollup(SLOT + 3 * MIN_5, 3L));
+        finer.put(SLOT + MIN_20, rollup(SLOT + MIN_20, 10L, 20L));
+
+        TreeMap<Long, BasicRollup> rollups = SSTableBulkWriter.rollUp(Granularity.MIN_20, finer);
+
+        assertEquals(2, rollups.size());
+        BasicRollup first = rollups.get(SLOT);
+        assertEquals(3, first.getCount());
+        assertEquals(6.0d, first.getSum(), 0.0);
+        assertEquals(1L, first.getMinValue().toLong());
+        assertEquals(3L, first.getMaxValue().toLong());
+        BasicRollup second = rollups.get(SLOT + MIN_20);
+        assertEquals(2, second.getCount());
+        assertEquals(30.0d, second.getSum(), 0.0);
+    }
+
+    @Test
+    public void rollUpOfASingleSlot() throws Exception {
+        TreeMap<Long, BasicRollup> finer = new TreeMap<Long, BasicRollup>();
+        finer.put(SLOT + MIN_5, rollup(SLOT + MIN_5, 5L));
+
+        TreeMap<Long, BasicRollup> rollups = SSTableBulkWriter.rollUp(Granularity.MIN_20, finer);
+
+        assertEquals(1, rollups.size());
+        assertEquals(1, rollups.get(SLOT).getCount());
+    }
+
+    @Test
+    public void ttlIsCountedFromWhenTheRowWouldHaveBeenWritten() {
+        long fullTtl = CassandraModel.getBasicColumnFamily(Granularity.FULL).getDefaultTTL().toSeconds();
+        long now = SLOT + TimeUnit.DAYS.toMillis(1);
+
+        assertEquals(fullTtl, SSTableBulkWriter.getTtlSeconds(Granularity.FULL, now, now));
+        assertEquals(fullTtl - TimeUnit.DAYS.toSeconds(1), SSTableBulkWriter.getTtlSeconds(Granularity.FULL, SLOT, now));
+    }
+
+    @Test
+    public void rowsOlderThanTheirTtlHaveExpired() {
+        long fullTtlMillis = CassandraModel.getBasicColumnFamily(Granularity.FULL).getDefaultTTL().toMillis();
+        long rollupTtlMillis = CassandraModel.getBasicColumnFamily(Granularity.MIN_1440).getDefaultTTL().toMillis();
+        long now = SLOT + fullTtlMillis;
+
+        assertEquals(0, SSTableBulkWriter.getTtlSeconds(Granularity.FULL, SLOT, now));
+        assertEquals(-1, SSTableBulkWriter.getTtlSeconds(Granularity.FULL, SLOT - 1000, now));
+        // the same age is well within the TTL of the coarsest rollups
+        assertEquals((rollupTtlMillis - fullTtlMillis) / 1000,
+                SSTableBulkWriter.getTtlSeconds(Granularity.MIN_1440, SLOT, now));
+    }
+
+    private static BasicRollup rollup(long start, long... values) throws IOException {
+        Points<SimpleNumber> points = new Points<SimpleNumber>();
+        for (int i = 0; i < values.length; i++) {
+            points.add(new Points.Point<SimpleNumber>(start + i * 1000, new SimpleNumber(values[i])));
+        }
+        return BasicRollup.buildRollupFromRawSamples(points);
+    }
+}
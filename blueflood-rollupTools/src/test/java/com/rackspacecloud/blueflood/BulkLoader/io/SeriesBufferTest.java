@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Rackspace
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.rackspacecloud.blueflood.BulkLoader.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SeriesBufferTest {
+
+    @Test
+    public void pointsAreSortedByCollectionTime() {
+        SeriesBuffer series = new SeriesBuffer();
+        series.add(3000, 3L);
+        series.add(1000, 1L);
+        series.add(2000, 2L);
+
+        series.sort();
+
+        assertEquals(3, series.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals((i + 1) * 1000L, series.getTimestamp(i));
+            assertEquals((long) (i + 1), series.getValue(i));
+        }
+    }
+
+    @Test
+    public void lastPointReadWinsForTheSameCollectionTime() {
+        SeriesBuffer series = new SeriesBuffer();
+        series.add(2000, 1L);
+        series.add(1000, 2L);
+        series.add(2000, 3.5d);
+        series.add(1000, 4L);
+
+        series.sort();
+
+        assertEquals(2, series.size());
+        assertEquals(1000L, series.getTimestamp(0));
+        assertEquals(4L, series.getValue(0));
+        assertEquals(2000L, series.getTimestamp(1));
+        assertEquals(3.5d, series.getValue(1));
+    }
+
+    @Test
+    public void sortedPointsAreDeduplicated() {
+        SeriesBuffer series = new SeriesBuffer();
+        series.add(1000, 1L);
+        series.add(1000, 2L);
+        series.add(2000, 3L);
+
+        series.sort();
+
+        assertEquals(2, series.size());
+        assertEquals(2L, series.getValue(0));
+        assertEquals(3L, series.getValue(1));
+    }
+
+    @Test
+    public void valuesKeepTheirType() {
+        SeriesBuffer series = new SeriesBuffer();
+        series.add(1000, Long.MAX_VALUE);
+        series.add(2000, 2.0d);
+        series.add(3000, 7);
+        series.add(4000, 1.5f);
+
+        assertEquals(Long.MAX_VALUE, series.getValue(0));
+        assertEquals(2.0d, series.getValue(1));
+        assertEquals(7L, series.getValue(2));
+        assertEquals(1.5d, series.getValue(3));
+    }
+
+    @Test
+    public void bufferGrowsPastItsInitialCapacity() {
+        SeriesBuffer series = new SeriesBuffer();
+        for (int i = 1000; i > 0; i--) {
+            series.add(i, (long) i);
+        }
+
+        series.sort();
+
+        assertEquals(1000, series.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i + 1L, series.getTimestamp(i));
+            assertEquals(i + 1L, series.getValue(i));
+        }
+    }
+}
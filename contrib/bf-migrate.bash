@@ -4,23 +4,27 @@
 #  
 #  Usage:
 #    bf-migrate
-#      -src           [required] source cluster specified via host:port:keyspace.
-#      -dst           [required] destination cluster specified via host:port:keyspace.
-#      -cf            [required] which column family to migrate.
-#      -ttl           [optional] time to live (in seconds) for migrated data. defaults to 5x the TTL for the column family.
+#      -src           [required] source cluster specified via host:port:keyspace, port of the native protocol.
+#      -dst           [required] destination cluster specified via host:port:keyspace, port of the native protocol.
+#      -cf            [required] which column families to migrate, separated by commas.
+#      -ttl           [optional] time to live (in seconds) for migrated data. defaults to 5x the TTL for each column family.
 #      -from          [optional] millis since epoch (or ISO 6801 datetime) of when to start migrating data. defaults to one year ago.
 #      -to            [optional] millis since epoch (or ISO 6801 datetime) of when to stop migrating data. defaults to right now.
-#      -batchsize     [optional] number of rows to read per query. default=100
-#      -limit         [optional] maximum number of keys to migrate. default=MAX_INT.
-#      -skip          [optional] number of keys to skip before starting to migrate data. default=0
-#      -readthreads   [optional] number of threads to use to read data. default=1
-#      -writethreads  [optional] number of threads to use to write data. default=1
+#      -batchsize     [optional] number of columns to read per query. default=100
+#      -readthreads   [optional] number of token ranges to copy at the same time. default=1
+#      -splits        [optional] number of ranges each token range of the ring is split into. default=4
+#      -rate          [optional] maximum number of columns to copy per second. default=500
+#      -byterate      [optional] maximum number of bytes to copy per second, 0 for no limit. default=0
+#      -inflight      [optional] maximum number of writes in flight. default=100
+#      -checkpoint    [optional] file recording the token ranges copied.
 #      -verify        [optional] forces verifying that 0.5% of data is copied.
 #      -discover      [optional] will utilize other cassandra nodes as they are discovered.
-#      
-#  `skip` and `limit` are independent of each other. That is, if you set skip=N and limit=M, the first N rows are skipped
-#  and the next M rows are migrated. Skipping still forces a read, so skipping large numbers of rows will not be
-#  performant.
+#
+#  The column families are copied by token range, and the progress, with an estimate of the time left, is printed
+#  every 10 seconds. When a checkpoint file is given, a migration that failed or was
+#  interrupted can be resumed by running it again with the same options and checkpoint file: the token ranges
+#  already copied are skipped. The checkpoints are only valid as long as the ring of the source cluster and the
+#  number of splits do not change.
 
 WORKING_DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 